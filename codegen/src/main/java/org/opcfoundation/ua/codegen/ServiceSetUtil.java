@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -48,7 +49,7 @@ public class ServiceSetUtil {
 			throws IOException
 	{
 		// Sort identifiers by service
-		Map<String, List<String>> serviceSetMappings = new HashMap<String, List<String>>();
+		Map<String, List<String>> serviceSetMappings = new LinkedHashMap<String, List<String>>();
 		for (IdentifiersUtil.Identifier i : services)
 		{
 			List<String> ss = serviceSetMappings.get(i.type);
@@ -80,6 +81,88 @@ public class ServiceSetUtil {
 			}
 			template.buildToFile(map, serviceFile);
 		}
+
+		BuildDispatchers(folder, serviceSetMappings);
+	}
+
+	/**
+	 * Build a dispatcher for each service set handler and the
+	 * ServiceSetDispatchers that creates them. A dispatcher calls the
+	 * handler methods directly, selected by a dense service index.
+	 */
+	static void BuildDispatchers(File folder, Map<String, List<String>> serviceSetMappings)
+			throws IOException
+	{
+		Template template = Template.load("src/main/resources/codegen_data/templates/ServiceSetDispatcherTemplate.java");
+		List<String> registry = new ArrayList<String>();
+
+		for (String sset : serviceSetMappings.keySet())
+		{
+			String handler = sset+"Handler";
+			String className = sset+"Dispatcher";
+			File dispatcherFile = new File(folder, "org/opcfoundation/ua/core/"+className+".java");
+			Map<String, Object> map = new HashMap<String, Object>();
+			List<String> content = new ArrayList<String>();
+			map.put(Template.KEY_PACKAGE_NAME, "org.opcfoundation.ua.core");
+			map.put(Template.KEY_CONTENT, content);
+			map.put(Template.KEY_CLASSNAME, className);
+			map.put(Template.KEY_DESCRIPTION, "Dispatches the requests of {@link "+handler+"} with direct calls.");
+
+			List<String> services = serviceSetMappings.get(sset);
+			StringBuilder classes = new StringBuilder();
+			for (String service : services)
+				classes.append(", "+service+"Request.class");
+
+			content.add("");
+			content.add("private final "+handler+" handler;");
+			content.add("");
+			content.add("public "+className+"("+handler+" handler) {");
+			content.add("    super(handler"+classes+");");
+			content.add("    this.handler = handler;");
+			content.add("}");
+			content.add("");
+			content.add("@SuppressWarnings(\"unchecked\")");
+			content.add("@Override");
+			content.add("public void dispatch(int service, EndpointServiceRequest<?, ?> req) throws ServiceFaultException {");
+			content.add("    switch (service) {");
+			for (int i=0; i<services.size(); i++)
+			{
+				String service = services.get(i);
+				content.add("    case "+i+":");
+				content.add("        handler.on"+service+"((EndpointServiceRequest<"+service+"Request, "+service+"Response>) req);");
+				content.add("        break;");
+			}
+			content.add("    default:");
+			content.add("        throw new IllegalArgumentException(\"Service index \"+service);");
+			content.add("    }");
+			content.add("}");
+			template.buildToFile(map, dispatcherFile);
+
+			registry.add("if (handler instanceof "+handler+")");
+			registry.add("    result.add(new "+className+"(("+handler+") handler));");
+		}
+
+		template = Template.load("src/main/resources/codegen_data/templates/ServiceSetDispatchersTemplate.java");
+		Map<String, Object> map = new HashMap<String, Object>();
+		List<String> content = new ArrayList<String>();
+		map.put(Template.KEY_PACKAGE_NAME, "org.opcfoundation.ua.core");
+		map.put(Template.KEY_CONTENT, content);
+		map.put(Template.KEY_CLASSNAME, "ServiceSetDispatchers");
+		map.put(Template.KEY_DESCRIPTION, "Creates the dispatchers of the service set handlers an object implements.");
+		content.add("");
+		content.add("/**");
+		content.add(" * Create a dispatcher for each service set handler interface of an object.");
+		content.add(" *");
+		content.add(" * @param handler service handling object");
+		content.add(" * @return dispatchers, empty if the object implements no service set handler");
+		content.add(" */");
+		content.add("public static List<ServiceSetDispatcher> of(Object handler) {");
+		content.add("    List<ServiceSetDispatcher> result = new ArrayList<ServiceSetDispatcher>();");
+		for (String s : registry)
+			content.add("    "+s);
+		content.add("    return result;");
+		content.add("}");
+		template.buildToFile(map, new File(folder, "org/opcfoundation/ua/core/ServiceSetDispatchers.java"));
 	}
 
 
@@ -0,0 +1,101 @@
+/*
+ * ======================================================================== Copyright (c) 2005-2015
+ * The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY
+ * KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here: http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================
+ */
+
+package org.opcfoundation.ua.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.transport.security.CryptoProvider;
+import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Asymmetric encryption of one block of an OpenSecureChannel message with a
+ * 2048 bit RSA key. The ECC policies do not encrypt with asymmetric keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsymmetricEncryptionBenchmark {
+
+	@Param({ "BASIC128RSA15", "BASIC256", "BASIC256SHA256", "AES128_SHA256_RSAOAEP", "AES256_SHA256_RSAPSS" })
+	public String policy;
+
+	@Param({ "Bc", "BcJce", "SunJce" })
+	public String provider;
+
+	private static final int KEY_SIZE = 2048;
+
+	private CryptoProvider cryptoProvider;
+	private SecurityAlgorithm algorithm;
+	private KeyPair keyPair;
+	private byte[] data;
+	private byte[] encrypted;
+	private byte[] decrypted;
+
+	@Setup
+	public void setup() throws ServiceResultException, GeneralSecurityException {
+		cryptoProvider = CryptoProviders.create(provider);
+		algorithm = SecurityPolicy.valueOf(policy).getAsymmetricEncryptionAlgorithm();
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(KEY_SIZE);
+		keyPair = generator.generateKeyPair();
+		data = new byte[32];
+		new Random(1).nextBytes(data);
+		encrypted = new byte[KEY_SIZE / 8];
+		decrypted = new byte[KEY_SIZE / 8];
+		cryptoProvider.encryptAsymm(keyPair.getPublic(), algorithm, data, encrypted, 0);
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws ServiceResultException {
+		cryptoProvider.encryptAsymm(keyPair.getPublic(), algorithm, data, encrypted, 0);
+		return encrypted;
+	}
+
+	@Benchmark
+	public int decrypt() throws ServiceResultException {
+		return cryptoProvider.decryptAsymm(keyPair.getPrivate(), algorithm, encrypted, decrypted, 0);
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * ======================================================================== Copyright (c) 2005-2015
+ * The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY
+ * KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here: http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================
+ */
+
+package org.opcfoundation.ua.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.transport.security.CryptoProvider;
+import org.opcfoundation.ua.transport.security.EphemeralKey;
+import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Asymmetric signature of the OpenSecureChannel and CreateSession messages,
+ * with a 2048 bit RSA key or an EC key of the curve of the policy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsymmetricSignatureBenchmark {
+
+	@Param({ "BASIC128RSA15", "BASIC256", "BASIC256SHA256", "AES128_SHA256_RSAOAEP", "AES256_SHA256_RSAPSS",
+			"ECC_NISTP256", "ECC_NISTP384" })
+	public String policy;
+
+	@Param({ "Bc", "BcJce", "SunJce" })
+	public String provider;
+
+	/** Size of the signed message */
+	@Param({ "1024" })
+	public int size;
+
+	private CryptoProvider cryptoProvider;
+	private SecurityAlgorithm algorithm;
+	private KeyPair keyPair;
+	private byte[] data;
+	private byte[] signature;
+
+	@Setup
+	public void setup() throws ServiceResultException, GeneralSecurityException {
+		cryptoProvider = CryptoProviders.create(provider);
+		SecurityPolicy securityPolicy = SecurityPolicy.valueOf(policy);
+		algorithm = securityPolicy.getAsymmetricSignatureAlgorithm();
+		KeyPairGenerator generator;
+		if (securityPolicy.usesKeyAgreement()) {
+			generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec(EphemeralKey.getCurveName(securityPolicy)));
+		} else {
+			generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(2048);
+		}
+		keyPair = generator.generateKeyPair();
+		data = new byte[size];
+		new Random(1).nextBytes(data);
+		signature = cryptoProvider.signAsymm(keyPair.getPrivate(), algorithm, data);
+	}
+
+	@Benchmark
+	public byte[] sign() throws ServiceResultException {
+		return cryptoProvider.signAsymm(keyPair.getPrivate(), algorithm, data);
+	}
+
+	@Benchmark
+	public boolean verify() throws ServiceResultException {
+		return cryptoProvider.verifyAsymm(keyPair.getPublic(), algorithm, data, signature);
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * ======================================================================== Copyright (c) 2005-2015
+ * The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY
+ * KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here: http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================
+ */
+
+package org.opcfoundation.ua.benchmarks;
+
+import java.security.Security;
+
+import org.opcfoundation.ua.transport.security.BcCryptoProvider;
+import org.opcfoundation.ua.transport.security.BcJceCryptoProvider;
+import org.opcfoundation.ua.transport.security.CryptoProvider;
+import org.opcfoundation.ua.transport.security.JceCryptoProvider;
+
+/**
+ * The CryptoProviders compared by the benchmarks.
+ */
+final class CryptoProviders {
+
+	private CryptoProviders() {
+	}
+
+	/**
+	 * Create a provider by name.
+	 *
+	 * @param name Bc: BouncyCastle lightweight API, BcJce: JCE with the
+	 *            BouncyCastle provider, SunJce: JCE with the SunJCE provider
+	 * @return provider
+	 */
+	static CryptoProvider create(String name) {
+		// Installs the BouncyCastle JCE provider, which is also the fallback
+		// of the algorithms SunJCE does not implement
+		BcCryptoProvider bc = new BcCryptoProvider();
+		if ("Bc".equals(name))
+			return bc;
+		if ("BcJce".equals(name))
+			return new BcJceCryptoProvider();
+		if ("SunJce".equals(name))
+			return new JceCryptoProvider(Security.getProvider("SunJCE"));
+		throw new IllegalArgumentException("Unknown provider: " + name);
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * ======================================================================== Copyright (c) 2005-2015
+ * The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY
+ * KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here: http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================
+ */
+
+package org.opcfoundation.ua.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.transport.security.CryptoProvider;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Symmetric encryption and signature of one chunk, in place, as done by the
+ * secure channels for every message chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymmetricCryptoBenchmark {
+
+	@Param({ "BASIC128RSA15", "BASIC256", "BASIC256SHA256", "AES128_SHA256_RSAOAEP", "AES256_SHA256_RSAPSS",
+			"ECC_NISTP256", "ECC_NISTP384" })
+	public String policy;
+
+	@Param({ "Bc", "BcJce", "SunJce" })
+	public String provider;
+
+	/** Chunk size */
+	@Param({ "8192" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean direct;
+
+	private CryptoProvider cryptoProvider;
+	private SecurityPolicy securityPolicy;
+	private byte[] encryptingKey;
+	private byte[] signingKey;
+	private byte[] iv;
+	private ByteBuffer encrypted;
+	private ByteBuffer signed;
+	private int verifyLen;
+
+	@Setup
+	public void setup() throws ServiceResultException {
+		cryptoProvider = CryptoProviders.create(provider);
+		securityPolicy = SecurityPolicy.valueOf(policy);
+		Random random = new Random(1);
+		encryptingKey = new byte[securityPolicy.getEncryptionKeySize()];
+		signingKey = new byte[securityPolicy.getSignatureKeySize()];
+		iv = new byte[securityPolicy.getEncryptionBlockSize()];
+		random.nextBytes(encryptingKey);
+		random.nextBytes(signingKey);
+		random.nextBytes(iv);
+		encrypted = allocate(random);
+		signed = allocate(random);
+		verifyLen = size - securityPolicy.getSymmetricSignatureSize();
+		cryptoProvider.signSymm(securityPolicy, signingKey, signed, 0, verifyLen, verifyLen);
+	}
+
+	private ByteBuffer allocate(Random random) {
+		byte[] data = new byte[size];
+		random.nextBytes(data);
+		ByteBuffer result = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		result.put(data);
+		result.clear();
+		return result;
+	}
+
+	@Benchmark
+	public int encrypt() throws ServiceResultException {
+		return cryptoProvider.encryptSymm(securityPolicy, encryptingKey, iv, encrypted, 0, size);
+	}
+
+	@Benchmark
+	public int decrypt() throws ServiceResultException {
+		return cryptoProvider.decryptSymm(securityPolicy, encryptingKey, iv, encrypted, 0, size);
+	}
+
+	@Benchmark
+	public void sign() throws ServiceResultException {
+		cryptoProvider.signSymm(securityPolicy, signingKey, signed, 0, verifyLen, verifyLen);
+	}
+
+	@Benchmark
+	public void verify() throws ServiceResultException {
+		cryptoProvider.verifySymm(securityPolicy, signingKey, signed, 0, verifyLen, verifyLen);
+	}
+
+}
@@ -35,8 +35,11 @@ import org.opcfoundation.ua.transport.EndpointServer;
 import org.opcfoundation.ua.transport.UriUtil;
 import org.opcfoundation.ua.transport.https.HttpsServer;
 import org.opcfoundation.ua.transport.https.HttpsSettings;
+import org.opcfoundation.ua.transport.local.LocalServer;
 import org.opcfoundation.ua.transport.security.CertificateValidator;
+import org.opcfoundation.ua.transport.shm.ShmServer;
 import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
 import org.opcfoundation.ua.transport.tcp.io.OpcTcpSettings;
 import org.opcfoundation.ua.transport.tcp.nio.OpcTcpServer;
 import org.opcfoundation.ua.utils.CryptoUtil;
@@ -68,6 +71,10 @@ public class Application {
 	HttpsServer httpsServer;
 	/** OpcTcp Server */
 	OpcTcpServer opctcpServer;
+	/** In-process Server */
+	LocalServer localServer;
+	/** Shared-memory Server */
+	ShmServer shmServer;
 
 	private EncoderContext encoderContext = new EncoderContext(new NamespaceTable(), new ServerTable(), StackUtils.getDefaultSerializer());
 	
@@ -124,11 +131,17 @@ public class Application {
 	 * @throws org.opcfoundation.ua.common.ServiceResultException if any.
 	 */
 	public synchronized EndpointServer getOrCreateEndpointServer(String scheme) throws ServiceResultException {
-		if ( scheme.equals( UriUtil.SCHEME_OPCTCP ) ) {
+		if ( scheme.equals( UriUtil.SCHEME_OPCTCP ) || scheme.equals( UriUtil.SCHEME_OPCTCP_UNIX ) ) {
 			return getOrCreateOpcTcpServer();
 		} else 
 		if ( scheme.equals( UriUtil.SCHEME_HTTP ) || scheme.equals( UriUtil.SCHEME_HTTPS )) {
 			return getOrCreateHttpsServer();
+		} else
+		if ( scheme.equals( UriUtil.SCHEME_LOCAL ) ) {
+			return getOrCreateLocalServer();
+		} else
+		if ( scheme.equals( UriUtil.SCHEME_SHM ) ) {
+			return getOrCreateShmServer();
 		} else throw new ServiceResultException(StatusCodes.Bad_UnexpectedError, "Cannot find EndpointServer for scheme "+scheme);
 	}
 	
@@ -158,6 +171,30 @@ public class Application {
 		return opctcpServer;
 	}
 
+	/**
+	 * Get or create the server of the in-process opc.local endpoints.
+	 *
+	 * @return a {@link org.opcfoundation.ua.transport.local.LocalServer} object.
+	 */
+	public synchronized LocalServer getOrCreateLocalServer() {
+		if ( localServer == null ) {
+			localServer = new LocalServer( this );
+		}
+		return localServer;
+	}
+
+	/**
+	 * Get or create the server of the shared-memory opc.shm endpoints.
+	 *
+	 * @return a {@link org.opcfoundation.ua.transport.shm.ShmServer} object.
+	 */
+	public synchronized ShmServer getOrCreateShmServer() {
+		if ( shmServer == null ) {
+			shmServer = new ShmServer( this );
+		}
+		return shmServer;
+	}
+
 	/**
 	 * <p>Getter for the field <code>opctcpSettings</code>.</p>
 	 *
@@ -272,6 +309,33 @@ public class Application {
 			return null;
 		return applicationInstanceCertificates.get(index);
 	}
+
+	/**
+	 * Get the application instance certificate to use with a security policy.
+	 * The ECC policies need an EC certificate and the RSA policies an RSA
+	 * certificate, so an application that supports both has one of each.
+	 *
+	 * @param securityPolicyUri the URI of the security policy
+	 * @return the latest certificate that is usable with the policy, or
+	 *         {@link #getApplicationInstanceCertificate()} if there is none
+	 */
+	public KeyPair getApplicationInstanceCertificate(String securityPolicyUri)
+	{
+		SecurityPolicy policy;
+		try {
+			policy = SecurityPolicy.getSecurityPolicy(securityPolicyUri);
+		} catch (ServiceResultException e) {
+			return getApplicationInstanceCertificate();
+		}
+		if (policy != SecurityPolicy.NONE) {
+			for (int i = applicationInstanceCertificates.size() - 1; i >= 0; i--) {
+				KeyPair cert = applicationInstanceCertificates.get(i);
+				if (policy.isUsableWith(cert.getCertificate()))
+					return cert;
+			}
+		}
+		return getApplicationInstanceCertificate();
+	}
 	
 	/**
 	 * <p>getApplicationUri.</p>
@@ -380,6 +444,14 @@ public class Application {
 			opctcpServer.close();
 			opctcpServer = null;
 		}
+		if ( localServer != null ) {
+			localServer.close();
+			localServer = null;
+		}
+		if ( shmServer != null ) {
+			shmServer.close();
+			shmServer = null;
+		}
 	}
 	
 }
@@ -53,7 +53,9 @@ import org.opcfoundation.ua.transport.UriUtil.MessageFormat;
 import org.opcfoundation.ua.transport.https.HttpsClient;
 import org.opcfoundation.ua.transport.https.HttpsClientSecureChannel;
 import org.opcfoundation.ua.transport.https.HttpsSettings;
+import org.opcfoundation.ua.transport.local.LocalSecureChannel;
 import org.opcfoundation.ua.transport.security.Cert;
+import org.opcfoundation.ua.transport.shm.ShmSecureChannel;
 import org.opcfoundation.ua.transport.security.KeyPair;
 import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
 import org.opcfoundation.ua.transport.security.SecurityMode;
@@ -74,6 +76,7 @@ public class Client {
 	
 	Application application;
 	EndpointConfiguration endpointConfiguration = EndpointConfiguration.defaults(); 
+	SecureChannelPool secureChannelPool;
 	
 	/**
 	 * <p>createClientApplication.</p>
@@ -148,6 +151,27 @@ public class Client {
 		return application.getOpctcpSettings();
 	}
 
+	/**
+	 * Get the pool of secure channels shared by session channels.
+	 *
+	 * @return pool or null if secure channels are not pooled
+	 */
+	public SecureChannelPool getSecureChannelPool() {
+		return secureChannelPool;
+	}
+
+	/**
+	 * Set the pool of secure channels shared by session channels. When set,
+	 * createSessionChannel reuses an open secure channel of the pool to the same
+	 * endpoint, and SessionChannel.closeSecureChannel() returns the channel to
+	 * the pool.
+	 *
+	 * @param secureChannelPool pool or null to open a secure channel for each session
+	 */
+	public void setSecureChannelPool(SecureChannelPool secureChannelPool) {
+		this.secureChannelPool = secureChannelPool;
+	}
+
 	/**
 	 * Create a new session on a server.
 	 *
@@ -221,7 +245,7 @@ public class Client {
 
 		session.endpoint = endpoint;
 		session.name = sessionName;
-		final KeyPair cert = client.application.getApplicationInstanceCertificate();
+		final KeyPair cert = client.application.getApplicationInstanceCertificate(endpoint.getSecurityPolicyUri());
 		if (cert != null && channel.getEndpointDescription().needsCertificate()) {
 			session.clientCertificate = cert.getCertificate();
 			session.clientPrivateKey = cert.getPrivateKey();
@@ -369,18 +393,7 @@ public class Client {
 		EndpointDescription[] endpoints = discoverEndpoints(connectUrl, connectUrl);		
 		// Suitable endpoint
 		EndpointDescription endpoint = select(endpoints, endpointUri);
-		// Crete service channel
-		SecureChannel channel = createSecureChannel(connectUrl, endpoint);
-		try {
-			// Create session
-			Session session = createSession(channel);
-			// Create session channel
-			SessionChannel sessionChannel = session.createSessionChannel(channel, this);
-			return sessionChannel;
-		} catch (ServiceResultException se) {
-			channel.closeAsync();
-			throw se;
-		}
+		return createSessionChannel(connectUrl, endpoint);
 	}	
 	
 	/**
@@ -409,6 +422,9 @@ public class Client {
 	 * To close the object, both secure channel and the session must be close
 	 * separately. SessionChannel.closeSession()
 	 * SessionChannel.closeSecureChannel()
+	 * <p>
+	 * If a {@link SecureChannelPool} is set, an open secure channel of the pool
+	 * is used and closing it returns it to the pool.
 	 *
 	 * @param connectUrl address that contains the socket address to the endpoint
 	 * @param endpoint endpoint description
@@ -418,8 +434,9 @@ public class Client {
 	 */
 	public SessionChannel createSessionChannel(String connectUrl, EndpointDescription endpoint) throws ServiceResultException 
 	{
-		// Create service channel
-		SecureChannel channel = createSecureChannel(connectUrl, endpoint);
+		// Create service channel, or lease one from the pool
+		SecureChannelPool pool = secureChannelPool;
+		SecureChannel channel = pool != null ? pool.acquire(connectUrl, endpoint) : createSecureChannel(connectUrl, endpoint);
 		try {
 			// Create session
 			Session session = createSession(channel);
@@ -633,7 +650,7 @@ public class Client {
 			s.getOpctcpSettings().readFrom(application.getOpctcpSettings());
 			if ( settings != null ) s.readFrom(settings);
 			
-			KeyPair localApplicationInstanceCertificate = application.getApplicationInstanceCertificate();
+			KeyPair localApplicationInstanceCertificate = application.getApplicationInstanceCertificate(s.getDescription() == null ? null : s.getDescription().getSecurityPolicyUri());
 			if (localApplicationInstanceCertificate!=null && s.getDescription().needsCertificate()) {
 				s.getOpctcpSettings().setPrivKey( localApplicationInstanceCertificate.getPrivateKey() );
 				s.getOpctcpSettings().setClientCertificate( localApplicationInstanceCertificate.getCertificate() );
@@ -689,7 +706,7 @@ public class Client {
 			s.getOpctcpSettings().readFrom(application.getOpctcpSettings());
 			if ( settings != null ) s.readFrom(settings);
 			
-			KeyPair localApplicationInstanceCertificate = application.getApplicationInstanceCertificate();
+			KeyPair localApplicationInstanceCertificate = application.getApplicationInstanceCertificate(s.getDescription() == null ? null : s.getDescription().getSecurityPolicyUri());
 			if (localApplicationInstanceCertificate!=null && s.getDescription().needsCertificate()) {
 				s.getOpctcpSettings().setPrivKey( localApplicationInstanceCertificate.getPrivateKey() );
 				s.getOpctcpSettings().setClientCertificate( localApplicationInstanceCertificate.getCertificate() );
@@ -974,6 +991,12 @@ public class Client {
 			HttpsClient client = new HttpsClient( proto );
 			HttpsClientSecureChannel secureChannel = new HttpsClientSecureChannel( client );
 			return secureChannel;
+		} else
+		if ( proto.equals( UriUtil.SCHEME_LOCAL )) {
+			return new LocalSecureChannel();
+		} else
+		if ( proto.equals( UriUtil.SCHEME_SHM )) {
+			return new ShmSecureChannel();
 		} else throw new ServiceResultException("Unsupported protocol: "+proto);		
 	}
 
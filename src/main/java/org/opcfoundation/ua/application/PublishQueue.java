@@ -0,0 +1,178 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.application;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.core.PublishRequest;
+import org.opcfoundation.ua.core.PublishResponse;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.ResponseHeader;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+
+/**
+ * Queue of the Publish requests of one session that wait for notifications.
+ * <p>
+ * The Publish handler parks the request with {@link #park(EndpointServiceRequest)}
+ * and returns, so no thread is held while the request waits. When
+ * notifications are ready, {@link #complete(PublishResponse)} answers the
+ * oldest waiting request. It may be called from any thread.
+ * <p>
+ * A parked request is answered with Bad_Timeout at the timeoutHint of its
+ * request header. If more than {@link #getMaxRequests()} requests are
+ * parked, the oldest is answered with Bad_TooManyPublishRequests.
+ */
+public class PublishQueue {
+
+	/** Default max number of parked requests */
+	public static final int DEFAULT_MAX_REQUESTS = 20;
+
+	private final ArrayDeque<EndpointServiceRequest<PublishRequest, PublishResponse>> requests =
+		new ArrayDeque<EndpointServiceRequest<PublishRequest, PublishResponse>>();
+	private int maxRequests = DEFAULT_MAX_REQUESTS;
+
+	/**
+	 * Park a Publish request until it is completed, cancelled or times out.
+	 *
+	 * @param request the request
+	 */
+	public void park(final EndpointServiceRequest<PublishRequest, PublishResponse> request) {
+		request.setCancelHandler(new Runnable() {
+			@Override
+			public void run() {
+				remove(request);
+			}
+		});
+		EndpointServiceRequest<PublishRequest, PublishResponse> dropped = null;
+		synchronized (this) {
+			requests.add(request);
+			if (requests.size() > maxRequests)
+				dropped = requests.poll();
+		}
+		request.scheduleTimeout();
+		if (dropped != null)
+			dropped.cancel(StatusCodes.Bad_TooManyPublishRequests);
+	}
+
+	/**
+	 * Take the oldest parked request that is not completed.
+	 *
+	 * @return the request or null if none is waiting
+	 */
+	public synchronized EndpointServiceRequest<PublishRequest, PublishResponse> poll() {
+		EndpointServiceRequest<PublishRequest, PublishResponse> request;
+		while ((request = requests.poll()) != null)
+			if (!request.isCompleted())
+				return request;
+		return null;
+	}
+
+	/**
+	 * Answer the oldest parked request. The request handle of the response
+	 * header is set to that of the request.
+	 *
+	 * @param response the response
+	 * @return true if a request was answered, false if none was waiting
+	 */
+	public boolean complete(PublishResponse response) {
+		EndpointServiceRequest<PublishRequest, PublishResponse> request;
+		while ((request = poll()) != null) {
+			if (response.getResponseHeader() == null)
+				response.setResponseHeader(new ResponseHeader());
+			RequestHeader header = request.getRequest().getRequestHeader();
+			response.getResponseHeader().setRequestHandle(header == null ? null : header.getRequestHandle());
+			if (request.complete(response))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Cancel the parked requests that have a request handle, as requested
+	 * with the Cancel service. They are answered with Bad_RequestCancelledByClient.
+	 *
+	 * @param requestHandle the request handle
+	 * @return number of cancelled requests
+	 */
+	public int cancel(UnsignedInteger requestHandle) {
+		List<EndpointServiceRequest<PublishRequest, PublishResponse>> cancelled =
+			new ArrayList<EndpointServiceRequest<PublishRequest, PublishResponse>>();
+		synchronized (this) {
+			Iterator<EndpointServiceRequest<PublishRequest, PublishResponse>> i = requests.iterator();
+			while (i.hasNext()) {
+				EndpointServiceRequest<PublishRequest, PublishResponse> request = i.next();
+				RequestHeader header = request.getRequest().getRequestHeader();
+				if (header != null && requestHandle.equals(header.getRequestHandle())) {
+					i.remove();
+					cancelled.add(request);
+				}
+			}
+		}
+		int count = 0;
+		for (EndpointServiceRequest<PublishRequest, PublishResponse> request : cancelled)
+			if (request.cancel(StatusCodes.Bad_RequestCancelledByClient))
+				count++;
+		return count;
+	}
+
+	/**
+	 * Answer all parked requests with a status, e.g. Bad_SessionClosed
+	 * when the session is closed.
+	 *
+	 * @param statusCode status code
+	 */
+	public void clear(UnsignedInteger statusCode) {
+		List<EndpointServiceRequest<PublishRequest, PublishResponse>> cleared;
+		synchronized (this) {
+			cleared = new ArrayList<EndpointServiceRequest<PublishRequest, PublishResponse>>(requests);
+			requests.clear();
+		}
+		for (EndpointServiceRequest<PublishRequest, PublishResponse> request : cleared)
+			request.cancel(statusCode);
+	}
+
+	/**
+	 * @return the number of parked requests
+	 */
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	/**
+	 * @return the max number of parked requests
+	 */
+	public synchronized int getMaxRequests() {
+		return maxRequests;
+	}
+
+	/**
+	 * Set the max number of parked requests. Default is {@link #DEFAULT_MAX_REQUESTS}.
+	 *
+	 * @param maxRequests the max number of parked requests
+	 */
+	public synchronized void setMaxRequests(int maxRequests) {
+		if (maxRequests < 1)
+			throw new IllegalArgumentException("maxRequests must be positive");
+		this.maxRequests = maxRequests;
+	}
+
+	private synchronized void remove(EndpointServiceRequest<PublishRequest, PublishResponse> request) {
+		requests.remove(request);
+	}
+
+}
@@ -0,0 +1,531 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.application;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.GetEndpointsRequest;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.ServiceChannel;
+import org.opcfoundation.ua.transport.UriUtil;
+import org.opcfoundation.ua.transport.impl.AsyncResultImpl;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.tcp.io.SecureChannelTcp;
+import org.opcfoundation.ua.utils.StackUtils;
+import org.opcfoundation.ua.utils.TimerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of open opc.tcp secure channels that are shared by the sessions of a
+ * {@link Client}.
+ * <p>
+ * Channels are keyed by connect URL, endpoint URL, message security mode,
+ * security policy, server certificate and the client's application instance
+ * certificate. A session acquires a lease on a channel with
+ * {@link #acquire(String, EndpointDescription)}; closing or disposing the lease
+ * (e.g. with {@link SessionChannel#closeSecureChannel()}) returns the channel
+ * to the pool instead of closing it.
+ * <p>
+ * A channel is shared by at most {@link #getMaxSessionsPerChannel()} sessions.
+ * A channel is not leased to a new session if it is no longer open, if its
+ * security token is past its lifetime, or if its connection has failed and
+ * is being recovered. Such a channel is discarded when it is found by
+ * {@link #acquire(String, EndpointDescription)} or by the eviction task.
+ * Channels without sessions are closed after {@link #getIdleTimeout()}.
+ * <p>
+ * If {@link #getProbeInterval()} is set, a channel that has not been leased,
+ * released or probed for that long is probed with a GetEndpoints request
+ * before it is leased again, and discarded if the request fails.
+ * <p>
+ * Channels of other protocols are not pooled, they are opened and closed as
+ * without the pool.
+ * <p>
+ * Use {@link Client#setSecureChannelPool(SecureChannelPool)} to enable pooling.
+ */
+public class SecureChannelPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(SecureChannelPool.class);
+
+	/** Default max number of sessions sharing one channel */
+	public static final int DEFAULT_MAX_SESSIONS_PER_CHANNEL = 16;
+	/** Default time (ms) an unused channel is kept open */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	/** Default probe interval (ms), 0 = channels are not probed */
+	public static final long DEFAULT_PROBE_INTERVAL = 0;
+
+	final Client client;
+	final Map<Key, List<Entry>> entries = new HashMap<Key, List<Entry>>();
+	int maxSessionsPerChannel = DEFAULT_MAX_SESSIONS_PER_CHANNEL;
+	long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	long probeInterval = DEFAULT_PROBE_INTERVAL;
+	TimerTask evictionTask;
+	boolean closed;
+
+	/**
+	 * Create a new pool.
+	 *
+	 * @param client client used to open the channels
+	 */
+	public SecureChannelPool(Client client) {
+		if (client == null)
+			throw new IllegalArgumentException("null arg");
+		this.client = client;
+	}
+
+	/**
+	 * Acquire a lease on an open secure channel to the endpoint. A healthy
+	 * channel of the pool is reused if it has room for another session,
+	 * otherwise a new channel is opened.
+	 *
+	 * @param connectUrl address that contains the socket address to the endpoint
+	 * @param endpoint endpoint description
+	 * @return a leased secure channel, close it to return the channel to the pool
+	 * @throws ServiceResultException if the channel could not be opened
+	 */
+	public SecureChannel acquire(String connectUrl, EndpointDescription endpoint) throws ServiceResultException {
+		if (!UriUtil.SCHEME_OPCTCP.equalsIgnoreCase(UriUtil.getTransportProtocol(connectUrl)))
+			return client.createSecureChannel(connectUrl, endpoint);
+
+		Key key = new Key(connectUrl, endpoint, client.getApplication().getApplicationInstanceCertificate(endpoint.getSecurityPolicyUri()));
+		for (;;) {
+			Entry reserved = null;
+			boolean probe = false;
+			List<Entry> discarded = new ArrayList<Entry>();
+			try {
+				synchronized (this) {
+					checkClosed();
+					List<Entry> list = entries.get(key);
+					if (list != null) {
+						long now = System.currentTimeMillis();
+						Iterator<Entry> i = list.iterator();
+						while (i.hasNext()) {
+							Entry e = i.next();
+							if (!isHealthy(e.channel)) {
+								i.remove();
+								e.removed = true;
+								if (e.sessions == 0)
+									discarded.add(e);
+								continue;
+							}
+							if (e.sessions < maxSessionsPerChannel) {
+								e.sessions++;
+								probe = probeInterval > 0 && now - e.checkedAt >= probeInterval;
+								e.checkedAt = now;
+								reserved = e;
+								break;
+							}
+						}
+						if (list.isEmpty())
+							entries.remove(key);
+					}
+				}
+			} finally {
+				closeAll(discarded);
+			}
+			if (reserved == null)
+				break;
+			if (!probe || probe(reserved)) {
+				logger.debug("Reusing secure channel {} for {}, sessions={}", reserved.channel.getSecureChannelId(), connectUrl, reserved.sessions);
+				return new Lease(reserved);
+			}
+			discard(reserved);
+		}
+
+		SecureChannel channel = client.createSecureChannel(connectUrl, endpoint);
+		synchronized (this) {
+			if (!closed) {
+				Entry e = new Entry(key, channel);
+				e.sessions = 1;
+				e.checkedAt = System.currentTimeMillis();
+				List<Entry> list = entries.get(key);
+				if (list == null) {
+					list = new ArrayList<Entry>(1);
+					entries.put(key, list);
+				}
+				list.add(e);
+				scheduleEviction();
+				return new Lease(e);
+			}
+		}
+		channel.closeAsync();
+		throw new ServiceResultException(StatusCodes.Bad_InvalidState, "SecureChannelPool is closed");
+	}
+
+	/**
+	 * Close the channels that have no sessions. The remaining channels are
+	 * closed when their last session releases them. The pool cannot be used
+	 * after this.
+	 */
+	public void close() {
+		List<Entry> discarded = new ArrayList<Entry>();
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			if (evictionTask != null) {
+				evictionTask.cancel();
+				evictionTask = null;
+			}
+			for (List<Entry> list : entries.values())
+				for (Entry e : list) {
+					e.removed = true;
+					if (e.sessions == 0)
+						discarded.add(e);
+				}
+			entries.clear();
+		}
+		closeAll(discarded);
+	}
+
+	/**
+	 * @return number of channels in the pool
+	 */
+	public synchronized int getChannelCount() {
+		int count = 0;
+		for (List<Entry> list : entries.values())
+			count += list.size();
+		return count;
+	}
+
+	/**
+	 * @return max number of sessions sharing one channel
+	 */
+	public synchronized int getMaxSessionsPerChannel() {
+		return maxSessionsPerChannel;
+	}
+
+	/**
+	 * @param maxSessionsPerChannel max number of sessions sharing one channel
+	 */
+	public synchronized void setMaxSessionsPerChannel(int maxSessionsPerChannel) {
+		if (maxSessionsPerChannel < 1)
+			throw new IllegalArgumentException("maxSessionsPerChannel must be at least 1");
+		this.maxSessionsPerChannel = maxSessionsPerChannel;
+	}
+
+	/**
+	 * @return time (ms) a channel without sessions is kept open
+	 */
+	public synchronized long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout time (ms) a channel without sessions is kept open
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout < 0)
+			throw new IllegalArgumentException("idleTimeout must not be negative");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return time (ms) after which an unused channel is probed before it is
+	 *         leased, 0 if channels are not probed
+	 */
+	public synchronized long getProbeInterval() {
+		return probeInterval;
+	}
+
+	/**
+	 * Set the time after which a channel that has not been leased, released
+	 * or probed is probed with a GetEndpoints request before it is leased.
+	 * A channel whose probe fails is discarded.
+	 * <p>
+	 * Default: {@value #DEFAULT_PROBE_INTERVAL}
+	 *
+	 * @param probeInterval time (ms), 0 to not probe channels
+	 */
+	public synchronized void setProbeInterval(long probeInterval) {
+		if (probeInterval < 0)
+			throw new IllegalArgumentException("probeInterval must not be negative");
+		this.probeInterval = probeInterval;
+	}
+
+	/**
+	 * A channel may be leased to a new session if it is open, its security
+	 * token has not passed its lifetime and its connection is not being
+	 * recovered.
+	 */
+	static boolean isHealthy(SecureChannel channel) {
+		if (!channel.isOpen())
+			return false;
+		if (channel instanceof SecureChannelTcp) {
+			SecureChannelTcp tcp = (SecureChannelTcp) channel;
+			return !tcp.isTokenExpired() && !tcp.isInErrorRecovery();
+		}
+		return true;
+	}
+
+	/**
+	 * Send a GetEndpoints request over a channel.
+	 *
+	 * @return true if the channel answered
+	 */
+	boolean probe(Entry e) {
+		try {
+			e.channel.serviceRequest(new GetEndpointsRequest(null, e.key.endpointUrl, new String[0], new String[0]));
+			return true;
+		} catch (ServiceResultException se) {
+			logger.info("Discarding pooled secure channel {}, probe failed: {}", e.channel.getSecureChannelId(), se.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Remove a reserved entry whose probe failed from the pool. The channel is
+	 * closed when no other session uses it.
+	 */
+	private void discard(Entry e) {
+		boolean close;
+		synchronized (this) {
+			if (!e.removed)
+				removeEntry(e);
+			e.sessions--;
+			close = e.sessions == 0;
+		}
+		if (close)
+			closeChannel(e);
+	}
+
+	private void checkClosed() throws ServiceResultException {
+		if (closed)
+			throw new ServiceResultException(StatusCodes.Bad_InvalidState, "SecureChannelPool is closed");
+	}
+
+	/**
+	 * Return a leased channel to the pool.
+	 */
+	void release(Entry e) {
+		boolean close;
+		synchronized (this) {
+			e.sessions--;
+			if (e.sessions > 0)
+				return;
+			e.idleSince = e.checkedAt = System.currentTimeMillis();
+			close = e.removed || !isHealthy(e.channel);
+			if (close && !e.removed) {
+				removeEntry(e);
+			} else if (!close && idleTimeout == 0) {
+				removeEntry(e);
+				close = true;
+			}
+		}
+		if (close)
+			closeChannel(e);
+	}
+
+	private void removeEntry(Entry e) {
+		e.removed = true;
+		List<Entry> list = entries.get(e.key);
+		if (list == null)
+			return;
+		list.remove(e);
+		if (list.isEmpty())
+			entries.remove(e.key);
+	}
+
+	/**
+	 * Schedule the eviction task, if not scheduled. Must be called while
+	 * holding the lock of the pool.
+	 */
+	private void scheduleEviction() {
+		if (evictionTask != null || closed || entries.isEmpty())
+			return;
+		long period = Math.max(1000, idleTimeout / 2);
+		evictionTask = TimerUtil.schedule(evictRun, StackUtils.getBlockingWorkExecutor(), System.currentTimeMillis() + period);
+	}
+
+	private final Runnable evictRun = new Runnable() {
+		@Override
+		public void run() {
+			evict();
+		}
+	};
+
+	/**
+	 * Close channels that are idle longer than the idle timeout and channels
+	 * that are no longer healthy and have no sessions.
+	 */
+	void evict() {
+		List<Entry> discarded = new ArrayList<Entry>();
+		synchronized (this) {
+			evictionTask = null;
+			long now = System.currentTimeMillis();
+			Iterator<List<Entry>> li = entries.values().iterator();
+			while (li.hasNext()) {
+				List<Entry> list = li.next();
+				Iterator<Entry> i = list.iterator();
+				while (i.hasNext()) {
+					Entry e = i.next();
+					boolean healthy = isHealthy(e.channel);
+					if (e.sessions == 0 && (!healthy || now - e.idleSince >= idleTimeout)) {
+						i.remove();
+						e.removed = true;
+						discarded.add(e);
+					} else if (!healthy) {
+						// Closed by its last session
+						i.remove();
+						e.removed = true;
+					}
+				}
+				if (list.isEmpty())
+					li.remove();
+			}
+			scheduleEviction();
+		}
+		closeAll(discarded);
+	}
+
+	private static void closeAll(List<Entry> list) {
+		for (Entry e : list)
+			closeChannel(e);
+	}
+
+	private static void closeChannel(Entry e) {
+		logger.debug("Closing pooled secure channel {}", e.channel.getSecureChannelId());
+		try {
+			e.channel.close();
+		} finally {
+			e.channel.dispose();
+		}
+	}
+
+	/**
+	 * Pooled channel with the number of sessions using it
+	 */
+	static class Entry {
+		final Key key;
+		final SecureChannel channel;
+		int sessions;
+		long idleSince;
+		/** Time the channel was last leased, released or probed */
+		long checkedAt;
+		/** True when the entry is no longer in the pool */
+		boolean removed;
+
+		Entry(Key key, SecureChannel channel) {
+			this.key = key;
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Identifies channels that may be shared.
+	 */
+	static class Key {
+		final String connectUrl;
+		final String endpointUrl;
+		final MessageSecurityMode mode;
+		final String policyUri;
+		final ByteString serverCertificate;
+		final ByteString clientCertificate;
+		final int hash;
+
+		Key(String connectUrl, EndpointDescription endpoint, KeyPair clientKeyPair) {
+			this.connectUrl = connectUrl;
+			this.endpointUrl = endpoint.getEndpointUrl();
+			this.mode = endpoint.getSecurityMode();
+			this.policyUri = endpoint.getSecurityPolicyUri();
+			this.serverCertificate = endpoint.getServerCertificate();
+			this.clientCertificate = clientKeyPair == null ? null
+					: ByteString.valueOf(clientKeyPair.getCertificate().getEncoded());
+			int h = connectUrl.hashCode();
+			h = 31 * h + hashCode(endpointUrl);
+			h = 31 * h + hashCode(mode);
+			h = 31 * h + hashCode(policyUri);
+			h = 31 * h + hashCode(serverCertificate);
+			h = 31 * h + hashCode(clientCertificate);
+			this.hash = h;
+		}
+
+		private static int hashCode(Object o) {
+			return o == null ? 0 : o.hashCode();
+		}
+
+		private static boolean equals(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash && connectUrl.equals(other.connectUrl)
+					&& equals(endpointUrl, other.endpointUrl) && mode == other.mode
+					&& equals(policyUri, other.policyUri)
+					&& equals(serverCertificate, other.serverCertificate)
+					&& equals(clientCertificate, other.clientCertificate);
+		}
+	}
+
+	/**
+	 * Secure channel handed out to a session. Closing or disposing it returns
+	 * the channel to the pool, once.
+	 */
+	class Lease extends ServiceChannel {
+		final Entry entry;
+		final AtomicBoolean released = new AtomicBoolean();
+
+		Lease(Entry entry) {
+			super(entry.channel);
+			this.entry = entry;
+		}
+
+		@Override
+		public void close() {
+			if (released.compareAndSet(false, true))
+				release(entry);
+		}
+
+		@Override
+		public AsyncResult<SecureChannel> closeAsync() {
+			close();
+			AsyncResultImpl<SecureChannel> result = new AsyncResultImpl<SecureChannel>();
+			result.setResult(this);
+			return result;
+		}
+
+		@Override
+		public void dispose() {
+			close();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !released.get() && super.isOpen();
+		}
+	}
+
+}
@@ -43,12 +43,17 @@ import org.opcfoundation.ua.transport.EndpointServer;
 import org.opcfoundation.ua.transport.EndpointServer.EndpointHandle;
 import org.opcfoundation.ua.transport.UriUtil;
 import org.opcfoundation.ua.transport.endpoint.EndpointBindingCollection;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
 import org.opcfoundation.ua.transport.https.HttpsServer;
 import org.opcfoundation.ua.transport.https.HttpsServer.HttpsEndpointHandle;
+import org.opcfoundation.ua.transport.local.LocalServer;
+import org.opcfoundation.ua.transport.local.LocalServer.LocalEndpointHandle;
 import org.opcfoundation.ua.transport.security.CertificateValidator;
 import org.opcfoundation.ua.transport.security.KeyPair;
 import org.opcfoundation.ua.transport.security.SecurityMode;
 import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.shm.ShmServer;
+import org.opcfoundation.ua.transport.shm.ShmServer.ShmEndpointHandle;
 import org.opcfoundation.ua.transport.tcp.nio.OpcTcpServer;
 import org.opcfoundation.ua.transport.tcp.nio.OpcTcpServer.OpcTcpEndpointHandle;
 import org.opcfoundation.ua.transport.tcp.nio.OpcTcpServer.SocketHandle;
@@ -73,6 +78,10 @@ public class Server {
     public final static String UATCP_BINARY_TRANSPORT_PROFILE_URI = "http://opcfoundation.org/UA-Profile/Transport/uatcp-uasc-uabinary";
     /** Constant <code>HTTPS_BINARY_TRANSPORT_PROFILE_URI="http://opcfoundation.org/UA-Profile/Tra"{trunked}</code> */
     public final static String HTTPS_BINARY_TRANSPORT_PROFILE_URI = "http://opcfoundation.org/UA-Profile/Transport/https-uabinary";
+    /** Transport profile of the in-process opc.local endpoints. It is not a standard profile, the endpoints are reachable only within the JVM. */
+    public final static String LOCAL_TRANSPORT_PROFILE_URI = "urn:opcfoundation:ua:java:transport:local";
+    /** Transport profile of the shared-memory opc.shm endpoints. It is not a standard profile, the endpoints are reachable only from the same host. */
+    public final static String SHM_TRANSPORT_PROFILE_URI = "urn:opcfoundation:ua:java:transport:shm";
 
 	/** Logger */
 	static Logger logger = LoggerFactory.getLogger(Server.class);
@@ -89,6 +98,8 @@ public class Server {
 	protected Application application;
 	/** Bound handles */
 	protected List<EndpointHandle> boundHandles = new CopyOnWriteArrayList<EndpointHandle>();
+	/** Request scheduler, null = serve requests in the receiving thread */
+	protected volatile ServiceRequestScheduler requestScheduler;
 
 	/**
 	 * <p>createServerApplication.</p>
@@ -255,6 +266,42 @@ public class Server {
 	public ServiceHandlerComposition getServiceHandlerComposition() {
 		return serviceHandlers;
 	}
+
+	/**
+	 * Serve a request received by an endpoint of this server. The request is
+	 * queued to the request scheduler, if one is set, otherwise it is served
+	 * in the calling thread.
+	 *
+	 * @param request request
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if any.
+	 */
+	public void serve(EndpointServiceRequest<?, ?> request) throws ServiceResultException {
+		ServiceRequestScheduler scheduler = requestScheduler;
+		if (scheduler != null)
+			scheduler.submit(request);
+		else
+			serviceHandlers.serve(request);
+	}
+
+	/**
+	 * <p>Getter for the field <code>requestScheduler</code>.</p>
+	 *
+	 * @return the request scheduler or null
+	 */
+	public ServiceRequestScheduler getRequestScheduler() {
+		return requestScheduler;
+	}
+
+	/**
+	 * Set the scheduler that queues and serves the service requests of this
+	 * server. Without a scheduler (default) a request is served in the thread
+	 * that decoded it.
+	 *
+	 * @param requestScheduler scheduler or null
+	 */
+	public void setRequestScheduler(ServiceRequestScheduler requestScheduler) {
+		this.requestScheduler = requestScheduler;
+	}
 	
 	/**
 	 * <p>addUserTokenPolicy.</p>
@@ -290,7 +337,15 @@ public class Server {
 	 * is used, then all local interface ips are bound. If port is not explicitly
 	 * specified, the default port for the protocol is used.
 	 *
-	 * There must be protocol: "opc.tcp", "http", or "https".
+	 * There must be protocol: "opc.tcp", "http", "https" or "opc.local".
+	 * An "opc.local" address is not resolved, the endpoint is reachable by
+	 * its name within the JVM, see {@link LocalServer}.
+	 * An "opc.tcp+unix:///path/to/socket" address binds an opc.tcp endpoint to a
+	 * unix domain socket (Java 16 or later). Clients connect to it with
+	 * {@link org.opcfoundation.ua.transport.tcp.io.OpcTcpSettings#setUnixSocketPath(String)}.
+	 * Access can be restricted with the file permissions of the socket's directory.
+	 * An "opc.shm:///path/to/directory" address binds an experimental shared-memory
+	 * endpoint to a directory of the local file system, see {@link ShmServer}.
 	 *
 	 * EndpointUri is the identifier of the endpoint.
 	 *
@@ -479,6 +534,18 @@ public class Server {
 						}
 					}
 				}
+
+				if(es instanceof LocalServer) {
+					for(LocalEndpointHandle eh : ((LocalServer) es).endpointHandleSnapshot(requestAddress)) {
+						requestAddressEndpoints.add(eh.endpointBinding().endpointAddress);
+					}
+				}
+
+				if(es instanceof ShmServer) {
+					for(ShmEndpointHandle eh : ((ShmServer) es).endpointHandleSnapshot(requestAddress)) {
+						requestAddressEndpoints.add(eh.endpointBinding().endpointAddress);
+					}
+				}
 			}
 		}
 
@@ -518,6 +585,16 @@ public class Server {
 						msm = conf.getMessageSecurityMode();						
 						securityLevel = msm == MessageSecurityMode.None ? 0 : msm == MessageSecurityMode.Sign ? 1 : msm == MessageSecurityMode.SignAndEncrypt ? 2 : -1;
 						securityPolicyUri = conf.getSecurityPolicy().getPolicyUri();
+					} else if ( UriUtil.SCHEME_LOCAL.equals(proto) ) {
+						// In-process channels have no security
+						if ( !conf.equals(SecurityMode.NONE) ) continue;
+						securityPolicyUri = SecurityPolicy.NONE.getPolicyUri();
+						transportProfileUri = LOCAL_TRANSPORT_PROFILE_URI;
+					} else if ( UriUtil.SCHEME_SHM.equals(proto) ) {
+						// Shared-memory channels have no security
+						if ( !conf.equals(SecurityMode.NONE) ) continue;
+						securityPolicyUri = SecurityPolicy.NONE.getPolicyUri();
+						transportProfileUri = SHM_TRANSPORT_PROFILE_URI;
 					}					
 					
 					// Ensure keysize matches security policy
@@ -19,19 +19,26 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opcfoundation.ua.builtintypes.ExpandedNodeId;
 import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
 import org.opcfoundation.ua.common.ServiceFaultException;
 import org.opcfoundation.ua.common.ServiceResultException;
 import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.ServiceSetDispatchers;
 import org.opcfoundation.ua.core.SessionServiceSetHandler;
 import org.opcfoundation.ua.core.StatusCodes;
 import org.opcfoundation.ua.encoding.IEncodeable;
 import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.endpoint.ServiceSetDispatcher;
 
 /**
  * Composition of ServiceHandlers.
@@ -40,6 +47,13 @@ public class ServiceHandlerComposition implements ServiceHandler {
 
 	/** Logger */
 	static Logger log = LoggerFactory.getLogger(ServiceHandlerComposition.class);
+
+	/**
+	 * Requests whose type id is a numeric id of namespace 0 below this are
+	 * looked up from {@link #handlersByTypeId}, others from {@link #handlerMap}.
+	 * The standard services are below it, except for the few added later.
+	 */
+	static final int MAX_INDEXED_TYPE_ID = 4096;
 	
 	/**
 	 * Create service handler composed of a set of service handlers.
@@ -65,6 +79,8 @@ public class ServiceHandlerComposition implements ServiceHandler {
 	Map<Class<? extends IEncodeable>, Object> handlerMap2 = 
 		new HashMap<Class<? extends IEncodeable>, Object>();
 	ServiceHandler[] handlers;
+	/** Handlers by the numeric type id of the request, see {@link #typeIndex(ExpandedNodeId)} */
+	ServiceHandler[] handlersByTypeId = new ServiceHandler[0];
 	
 	/**
 	 * <p>Constructor for ServiceHandlerComposition.</p>
@@ -80,6 +96,11 @@ public class ServiceHandlerComposition implements ServiceHandler {
 	 * inspectew with reflected and suitable service handling
 	 * methods are added.
 	 *
+	 * The methods of service set handler interfaces, e.g.
+	 * {@link SessionServiceSetHandler}, are called directly through
+	 * the generated {@link ServiceSetDispatcher}s. Other methods are
+	 * called with reflection.
+	 *
 	 * A method is suitable for service handing if it has no return arguments
 	 * and one parametrized argument of EndpointServiceReqest.
 	 *
@@ -109,9 +130,84 @@ public class ServiceHandlerComposition implements ServiceHandler {
 				handlerMap2.put(clazz, o);
 			}
 		} else {
-			readWithReflection(o, this);
+			Set<Class<? extends IEncodeable>> dispatched = new HashSet<Class<? extends IEncodeable>>();
+			for (ServiceSetDispatcher dispatcher : ServiceSetDispatchers.of(o))
+			{
+				for (int i=0; i<dispatcher.getServiceCount(); i++)
+				{
+					Class<? extends IEncodeable> req = dispatcher.getService(i);
+					add( new DispatchingServiceHandler(dispatcher, i) );
+					handlerMap2.put(req, o);
+					dispatched.add(req);
+				}
+			}
+			readWithReflection(o, this, dispatched);
 		}
 		handlers = handlerMap.values().toArray(new ServiceHandler[0]);
+		indexHandlers();
+	}
+
+	/**
+	 * Rebuild {@link #handlersByTypeId} from {@link #handlerMap}.
+	 */
+	private void indexHandlers()
+	{
+		Map<Integer, ServiceHandler> indexed = new HashMap<Integer, ServiceHandler>();
+		int size = 0;
+		for (Map.Entry<Class<? extends IEncodeable>, ServiceHandler> e : handlerMap.entrySet())
+		{
+			int index = typeIndex(getTypeId(e.getKey()));
+			if (index < 0) continue;
+			indexed.put(index, e.getValue());
+			size = Math.max(size, index + 1);
+		}
+		ServiceHandler[] result = new ServiceHandler[size];
+		for (Map.Entry<Integer, ServiceHandler> e : indexed.entrySet())
+			result[e.getKey()] = e.getValue();
+		handlersByTypeId = result;
+	}
+
+	/**
+	 * Get the type id of an encodeable class, i.e. its static ID field.
+	 *
+	 * @return the type id or null if the class has none
+	 */
+	private static ExpandedNodeId getTypeId(Class<? extends IEncodeable> clazz)
+	{
+		try {
+			Object id = clazz.getField("ID").get(null);
+			return id instanceof ExpandedNodeId ? (ExpandedNodeId) id : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the index of a type id in {@link #handlersByTypeId}.
+	 *
+	 * @return the numeric id, or -1 if the id is not indexed
+	 */
+	static int typeIndex(ExpandedNodeId typeId)
+	{
+		if (typeId == null || typeId.getNamespaceIndex() != 0 || typeId.getNamespaceUri() != null
+				|| !(typeId.getValue() instanceof UnsignedInteger))
+			return -1;
+		long value = ((UnsignedInteger) typeId.getValue()).longValue();
+		return value < MAX_INDEXED_TYPE_ID ? (int) value : -1;
+	}
+
+	/**
+	 * Get the handler of a request, by its type id if it is indexed.
+	 */
+	private ServiceHandler getHandler(ServiceRequest request)
+	{
+		int index = typeIndex(request.getTypeId());
+		ServiceHandler[] byTypeId = handlersByTypeId;
+		if (index >= 0 && index < byTypeId.length) {
+			ServiceHandler handler = byTypeId[index];
+			if (handler != null) return handler;
+		}
+		return handlerMap.get(request.getClass());
 	}
 	
 	/**
@@ -133,7 +229,7 @@ public class ServiceHandlerComposition implements ServiceHandler {
 			log.debug("serve: {}", request.getRequest().getClass().getSimpleName());
 			log.debug("serve: handlerMap={}", Arrays.toString(handlerMap.keySet().toArray(new Class[0])));
 		}
-		ServiceHandler handler = handlerMap.get(request.getRequest().getClass());
+		ServiceHandler handler = getHandler(request.getRequest());
 		log.debug("serve: handler={}", handler);
 		if (handler==null) {						
 			log.info("Service {} is not supported", request.getRequest().getClass().getSimpleName());
@@ -198,8 +294,13 @@ public class ServiceHandlerComposition implements ServiceHandler {
 	 * @param serviceHandler service handler
 	 * @param result composition where reflection based handlers are added
 	 */
-	@SuppressWarnings("unchecked")
 	public static void readWithReflection(final Object serviceHandler, ServiceHandlerComposition result)
+	{
+		readWithReflection(serviceHandler, result, Collections.<Class<? extends IEncodeable>>emptySet());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void readWithReflection(final Object serviceHandler, ServiceHandlerComposition result, Set<Class<? extends IEncodeable>> skip)
 	{
 		Class<?> clazz = serviceHandler.getClass();
 		
@@ -223,6 +324,7 @@ public class ServiceHandlerComposition implements ServiceHandler {
 			
 			Class<? extends IEncodeable> req = (Class<? extends IEncodeable>) types[0]; 
 			// not used: Class<? extends IEncodeable> res = (Class<? extends IEncodeable>) types[1];
+			if (skip.contains(req)) continue;
 			
 			m.setAccessible(true);
 			if (!m.isAccessible())
@@ -250,6 +352,35 @@ public class ServiceHandlerComposition implements ServiceHandler {
 			result.handlerMap2.put(req, serviceHandler);
 		}		
 	}
+
+	/**
+	 * Serves one service of a {@link ServiceSetDispatcher}.
+	 */
+	static class DispatchingServiceHandler extends AbstractServiceHandler {
+		final ServiceSetDispatcher dispatcher;
+		final int service;
+
+		DispatchingServiceHandler(ServiceSetDispatcher dispatcher, int service) {
+			super(dispatcher.getService(service));
+			this.dispatcher = dispatcher;
+			this.service = service;
+		}
+
+		@Override
+		public void serve(EndpointServiceRequest<?, ?> request) throws ServiceResultException {
+			try {
+				dispatcher.dispatch(service, request);
+			} catch (RuntimeException e) {
+				// Adapted to a service response object, as with reflection based handlers
+				throw new ServiceFaultException(e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return dispatcher.getHandler() + "." + clazz.getSimpleName();
+		}
+	}
 	
 	
 }
@@ -0,0 +1,399 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.application;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.tcp.nio.OpcTcpServerConnection;
+import org.opcfoundation.ua.utils.StackUtils;
+import org.opcfoundation.ua.utils.TimerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded and fair scheduler of the service requests of a {@link Server}.
+ * <p>
+ * Requests are queued per flow, which is the session of the request
+ * (authentication token) or, if the request has no session, its secure
+ * channel. The flows are served round-robin, so that a client with many
+ * queued requests does not delay the requests of other clients. A flow gets
+ * {@link #getWeight(EndpointServiceRequest)} requests per round.
+ * <p>
+ * At most {@link #getMaxConcurrentRequests()} requests are served at a time.
+ * A request is rejected with Bad_TooManyOperations if its flow already has
+ * {@link #getMaxQueuedRequestsPerFlow()} requests queued, and with
+ * Bad_TcpServerTooBusy if {@link #getMaxQueuedRequests()} requests are queued
+ * in total. A request whose timeoutHint has expired while queued is not
+ * served, it is answered with Bad_Timeout.
+ * <p>
+ * Requests of a flow are held back while the responses already sent to its
+ * connection are not being written, see
+ * {@link #isWriteBlocked(EndpointServiceRequest)}. Other flows are served
+ * meanwhile.
+ * <p>
+ * Use {@link Server#setRequestScheduler(ServiceRequestScheduler)} to enable
+ * scheduling. Without a scheduler requests are served in the thread that
+ * decoded them.
+ */
+public class ServiceRequestScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(ServiceRequestScheduler.class);
+
+	/** Default max number of requests served at a time */
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+	/** Default max number of queued requests */
+	public static final int DEFAULT_MAX_QUEUED_REQUESTS = 10000;
+	/** Default max number of queued requests of one flow */
+	public static final int DEFAULT_MAX_QUEUED_REQUESTS_PER_FLOW = 1000;
+	/** Default max number of unwritten response bytes of a connection */
+	public static final long DEFAULT_MAX_UNFLUSHED_BYTES = 4 * 1024 * 1024;
+	/** Time (ms) after which write blocked flows are tried again */
+	static final long WRITE_BLOCKED_RETRY_DELAY = 10;
+
+	/** Queued request */
+	static class Entry {
+		final EndpointServiceRequest<?, ?> request;
+		/** Time (ms) after which the request is not served, 0 = none */
+		final long deadline;
+
+		Entry(EndpointServiceRequest<?, ?> request, long deadline) {
+			this.request = request;
+			this.deadline = deadline;
+		}
+	}
+
+	/** Requests of one session or secure channel */
+	static class Flow {
+		final Object key;
+		final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+		/** Requests left in the current round */
+		int credit;
+
+		Flow(Object key) {
+			this.key = key;
+		}
+	}
+
+	final Executor executor;
+	/** Flows with queued requests */
+	final Map<Object, Flow> flows = new HashMap<Object, Flow>();
+	/** Flows with queued requests, in service order */
+	final ArrayDeque<Flow> activeFlows = new ArrayDeque<Flow>();
+	int queued;
+	int running;
+	int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+	int maxQueuedRequests = DEFAULT_MAX_QUEUED_REQUESTS;
+	int maxQueuedRequestsPerFlow = DEFAULT_MAX_QUEUED_REQUESTS_PER_FLOW;
+	long maxUnflushedBytes = DEFAULT_MAX_UNFLUSHED_BYTES;
+	boolean retryScheduled;
+
+	final Runnable worker = new Runnable() {
+		@Override
+		public void run() {
+			Entry e;
+			while ((e = next()) != null)
+				serve(e);
+		}
+	};
+
+	final Runnable retry = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ServiceRequestScheduler.this) {
+				retryScheduled = false;
+			}
+			startWorkers();
+		}
+	};
+
+	/**
+	 * Create a scheduler that serves requests in
+	 * {@link StackUtils#getBlockingWorkExecutor()}.
+	 */
+	public ServiceRequestScheduler() {
+		this(StackUtils.getBlockingWorkExecutor());
+	}
+
+	/**
+	 * Create a scheduler.
+	 *
+	 * @param executor executor where requests are served
+	 */
+	public ServiceRequestScheduler(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Queue a request to be served by the service handlers of its server. The
+	 * request is answered with a fault if it cannot be queued.
+	 *
+	 * @param request request
+	 */
+	public void submit(EndpointServiceRequest<?, ?> request) {
+		long deadline = deadline(request);
+		Object key = getFlowKey(request);
+		boolean startWorker;
+		UnsignedInteger rejection = null;
+		synchronized (this) {
+			Flow flow = flows.get(key);
+			if (flow != null && flow.queue.size() >= maxQueuedRequestsPerFlow)
+				rejection = StatusCodes.Bad_TooManyOperations;
+			else if (queued >= maxQueuedRequests)
+				rejection = StatusCodes.Bad_TcpServerTooBusy;
+			else if (flow == null) {
+				flow = new Flow(key);
+				flows.put(key, flow);
+				activeFlows.add(flow);
+			}
+			if (rejection == null) {
+				flow.queue.add(new Entry(request, deadline));
+				queued++;
+			}
+			startWorker = rejection == null && running < maxConcurrentRequests;
+			if (startWorker)
+				running++;
+		}
+		if (rejection != null)
+			reject(request, rejection, "queue full");
+		else if (startWorker)
+			executor.execute(worker);
+	}
+
+	/**
+	 * Take the next request to serve, or stop the calling worker if there
+	 * are none.
+	 */
+	synchronized Entry next() {
+		Flow flow = null;
+		for (int i = activeFlows.size(); i > 0 && running <= maxConcurrentRequests; i--) {
+			Flow f = activeFlows.peek();
+			if (!isWriteBlocked(f.queue.peek().request)) {
+				flow = f;
+				break;
+			}
+			f.credit = 0;
+			activeFlows.add(activeFlows.poll());
+		}
+		if (flow == null || running > maxConcurrentRequests) {
+			running--;
+			if (flow == null && queued > 0 && !retryScheduled) {
+				retryScheduled = true;
+				TimerUtil.schedule(retry, executor, System.currentTimeMillis() + WRITE_BLOCKED_RETRY_DELAY);
+			}
+			return null;
+		}
+		if (flow.credit <= 0)
+			flow.credit = getWeight(flow.queue.peek().request);
+		Entry e = flow.queue.poll();
+		queued--;
+		if (flow.queue.isEmpty()) {
+			activeFlows.poll();
+			flows.remove(flow.key);
+		} else if (--flow.credit <= 0)
+			activeFlows.add(activeFlows.poll());
+		return e;
+	}
+
+	void serve(Entry e) {
+		EndpointServiceRequest<?, ?> request = e.request;
+		if (e.deadline != 0 && System.currentTimeMillis() > e.deadline) {
+			logger.debug("Request timed out in queue: {}", request.getRequest().getClass().getSimpleName());
+			reject(request, StatusCodes.Bad_Timeout, null);
+			return;
+		}
+		try {
+			request.getServer().getServiceHandlerComposition().serve(request);
+		} catch (ServiceResultException ex) {
+			logger.info("While handling " + request.getRequest(), ex);
+			request.sendFault(ServiceFault.toServiceFault(ex));
+		} catch (RuntimeException ex) {
+			logger.error("While handling " + request.getRequest(), ex);
+			request.sendException(ex);
+		}
+	}
+
+	private static void reject(EndpointServiceRequest<?, ?> request, UnsignedInteger statusCode, String message) {
+		if (message != null)
+			logger.info("Rejected {}: {}", request.getRequest().getClass().getSimpleName(), message);
+		request.cancel(statusCode);
+	}
+
+	private static long deadline(EndpointServiceRequest<?, ?> request) {
+		RequestHeader header = request.getRequest().getRequestHeader();
+		UnsignedInteger timeoutHint = header == null ? null : header.getTimeoutHint();
+		if (timeoutHint == null || timeoutHint.intValue() == 0)
+			return 0;
+		return System.currentTimeMillis() + timeoutHint.longValue();
+	}
+
+	/**
+	 * Get the flow of a request. Requests of one flow are queued together.
+	 * <p>
+	 * Default: authentication token of the request, or the secure channel if
+	 * the request has no session
+	 *
+	 * @param request request
+	 * @return flow key
+	 */
+	protected Object getFlowKey(EndpointServiceRequest<?, ?> request) {
+		RequestHeader header = request.getRequest().getRequestHeader();
+		NodeId token = header == null ? null : header.getAuthenticationToken();
+		if (!NodeId.isNull(token))
+			return token;
+		return request.getChannel();
+	}
+
+	/**
+	 * Tell whether the responses sent to the connection of a request are not
+	 * being written, in which case the requests of its flow are held back.
+	 * <p>
+	 * Default: true if the opc.tcp connection of the request has more than
+	 * {@link #getMaxUnflushedBytes()} bytes waiting to be written
+	 *
+	 * @param request the next request of a flow
+	 * @return true if the request should not be served yet
+	 */
+	protected boolean isWriteBlocked(EndpointServiceRequest<?, ?> request) {
+		ServerSecureChannel channel = request.getChannel();
+		ServerConnection connection = channel == null ? null : channel.getConnection();
+		return connection instanceof OpcTcpServerConnection
+				&& ((OpcTcpServerConnection) connection).getUnflushedBytes() > maxUnflushedBytes;
+	}
+
+	/**
+	 * Get the number of requests that the flow of a request is served in
+	 * one round. Called when the flow starts a new round.
+	 * <p>
+	 * Default: 1
+	 *
+	 * @param request the next request of the flow
+	 * @return weight, at least 1
+	 */
+	protected int getWeight(EndpointServiceRequest<?, ?> request) {
+		return 1;
+	}
+
+	/**
+	 * @return the number of queued requests
+	 */
+	public synchronized int getQueuedRequests() {
+		return queued;
+	}
+
+	/**
+	 * @return the max number of requests served at a time
+	 */
+	public synchronized int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/**
+	 * Set the max number of requests served at a time.
+	 * <p>
+	 * Default: {@value #DEFAULT_MAX_CONCURRENT_REQUESTS}
+	 *
+	 * @param maxConcurrentRequests max number of requests
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		if (maxConcurrentRequests < 1)
+			throw new IllegalArgumentException("maxConcurrentRequests must be > 0");
+		synchronized (this) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+		}
+		startWorkers();
+	}
+
+	/**
+	 * Start workers for the queued requests, up to the max number of
+	 * concurrent requests.
+	 */
+	void startWorkers() {
+		int start;
+		synchronized (this) {
+			start = Math.max(0, Math.min(queued, maxConcurrentRequests) - running);
+			running += start;
+		}
+		for (int i = 0; i < start; i++)
+			executor.execute(worker);
+	}
+
+	/**
+	 * @return the max number of queued requests
+	 */
+	public synchronized int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Set the max number of queued requests. Requests beyond it are rejected
+	 * with Bad_TcpServerTooBusy.
+	 * <p>
+	 * Default: {@value #DEFAULT_MAX_QUEUED_REQUESTS}
+	 *
+	 * @param maxQueuedRequests max number of requests
+	 */
+	public synchronized void setMaxQueuedRequests(int maxQueuedRequests) {
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	/**
+	 * @return the max number of queued requests of one flow
+	 */
+	public synchronized int getMaxQueuedRequestsPerFlow() {
+		return maxQueuedRequestsPerFlow;
+	}
+
+	/**
+	 * Set the max number of queued requests of one session or secure
+	 * channel. Requests beyond it are rejected with Bad_TooManyOperations.
+	 * <p>
+	 * Default: {@value #DEFAULT_MAX_QUEUED_REQUESTS_PER_FLOW}
+	 *
+	 * @param maxQueuedRequestsPerFlow max number of requests
+	 */
+	public synchronized void setMaxQueuedRequestsPerFlow(int maxQueuedRequestsPerFlow) {
+		this.maxQueuedRequestsPerFlow = maxQueuedRequestsPerFlow;
+	}
+
+	/**
+	 * @return the max number of unwritten response bytes of a connection
+	 */
+	public synchronized long getMaxUnflushedBytes() {
+		return maxUnflushedBytes;
+	}
+
+	/**
+	 * Set the max number of response bytes that may wait to be written to a
+	 * connection before the requests of its flows are held back.
+	 * <p>
+	 * Default: {@value #DEFAULT_MAX_UNFLUSHED_BYTES}
+	 *
+	 * @param maxUnflushedBytes max number of bytes
+	 */
+	public synchronized void setMaxUnflushedBytes(long maxUnflushedBytes) {
+		this.maxUnflushedBytes = maxUnflushedBytes;
+	}
+
+}
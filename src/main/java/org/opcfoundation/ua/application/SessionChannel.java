@@ -12,7 +12,7 @@
 
 package org.opcfoundation.ua.application;
 
-import java.security.interfaces.RSAPrivateKey;
+import java.security.PrivateKey;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -210,8 +210,8 @@ public class SessionChannel extends ChannelService implements RequestChannel {
 		SignatureData clientSignature = null;
 		if (!MessageSecurityMode.None.equals(channel.getMessageSecurityMode())) {
 			SecurityPolicy securityPolicy = channel.getSecurityPolicy();
-			RSAPrivateKey signerKey = session.getClientPrivateKey()
-					.getPrivateKey();
+			PrivateKey signerKey = session.getClientPrivateKey()
+					.getKey();
 			SecurityAlgorithm algorithm = securityPolicy
 					.getAsymmetricSignatureAlgorithm();
 			byte[] dataToSign = session.getServerCertificate().getEncoded();
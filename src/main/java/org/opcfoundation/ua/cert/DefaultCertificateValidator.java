@@ -19,9 +19,18 @@ import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.security.auth.x500.X500Principal;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
 import org.opcfoundation.ua.builtintypes.StatusCode;
 import org.opcfoundation.ua.core.ApplicationDescription;
 import org.opcfoundation.ua.core.StatusCodes;
@@ -33,15 +42,135 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A certificate validator implementation.
+ * <p>
+ * The trusted certificates of the store are indexed by subject name and
+ * subject key identifier, and the revocation lists by issuer name, so that
+ * the issuer of a certificate is found without trying every trusted
+ * certificate. The index is rebuilt when the store returns different trusted
+ * certificates or revocation lists.
+ * <p>
+ * The revocation and signature checks of a certificate are cached by its
+ * thumbprint for {@link #getResultCacheTtl()} ms. The cache is cleared when
+ * the index is rebuilt. The other checks, the validation listener and the
+ * updates of the store are done on every validation.
  */
 public class DefaultCertificateValidator implements CertificateValidator {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCertificateValidator.class);
 	private static final String INVALID_URI_ERROR = "invalid URI name:";
+
+	/** Default max number of cached results */
+	public static final int DEFAULT_RESULT_CACHE_SIZE = 1000;
+	/** Default time (ms) that a result is cached */
+	public static final long DEFAULT_RESULT_CACHE_TTL = 5 * 60 * 1000;
+
+	/** Trusted certificates and revocation lists of the store, indexed */
+	static class TrustIndex {
+		final Set<Cert> trustedCerts;
+		final Set<X509CRL> revocationLists;
+		final Map<X500Principal, List<Cert>> bySubject = new HashMap<X500Principal, List<Cert>>();
+		final Map<ByteString, List<Cert>> byKeyIdentifier = new HashMap<ByteString, List<Cert>>();
+		final Map<X500Principal, List<X509CRL>> crlsByIssuer = new HashMap<X500Principal, List<X509CRL>>();
+		/**
+		 * The sets last returned by the store that have the contents of the
+		 * index, so that they are compared by reference while the store
+		 * returns the same sets
+		 */
+		volatile Set<Cert> trustedSource;
+		volatile Set<X509CRL> revocationSource;
+
+		TrustIndex(Set<Cert> trustedCerts, Set<X509CRL> revocationLists) {
+			this.trustedSource = trustedCerts;
+			this.revocationSource = revocationLists;
+			this.trustedCerts = trustedCerts == null ? Collections.<Cert>emptySet() : trustedCerts;
+			this.revocationLists = revocationLists == null ? Collections.<X509CRL>emptySet() : revocationLists;
+			for (Cert c : this.trustedCerts) {
+				X509Certificate certificate = c.getCertificate();
+				add(bySubject, certificate.getSubjectX500Principal(), c);
+				byte[] ski = CertificateUtils.getSubjectKeyIdentifier(certificate);
+				if (ski != null)
+					add(byKeyIdentifier, ByteString.valueOf(ski), c);
+			}
+			for (X509CRL crl : this.revocationLists)
+				add(crlsByIssuer, crl.getIssuerX500Principal(), crl);
+		}
+
+		private static <K, V> void add(Map<K, List<V>> map, K key, V value) {
+			List<V> list = map.get(key);
+			if (list == null) {
+				list = new ArrayList<V>(1);
+				map.put(key, list);
+			}
+			list.add(value);
+		}
+
+		/**
+		 * Get the trusted certificates that may have issued a certificate:
+		 * those whose key identifier matches its authority key identifier,
+		 * followed by those whose subject matches its issuer.
+		 */
+		List<Cert> getIssuerCandidates(X509Certificate certificate) {
+			List<Cert> candidates = new ArrayList<Cert>(2);
+			byte[] aki = CertificateUtils.getAuthorityKeyIdentifier(certificate);
+			if (aki != null) {
+				List<Cert> list = byKeyIdentifier.get(ByteString.valueOf(aki));
+				if (list != null)
+					candidates.addAll(list);
+			}
+			List<Cert> list = bySubject.get(certificate.getIssuerX500Principal());
+			if (list != null)
+				for (Cert c : list)
+					if (!candidates.contains(c))
+						candidates.add(c);
+			return candidates;
+		}
+
+		boolean isRevoked(X509Certificate certificate) {
+			List<X509CRL> crls = crlsByIssuer.get(certificate.getIssuerX500Principal());
+			if (crls != null)
+				for (X509CRL crl : crls)
+					if (crl.isRevoked(certificate))
+						return true;
+			return false;
+		}
+	}
+
+	/** Cached revocation and signature checks of a certificate */
+	static class ChainResult {
+		/** Result of the checks, null if the certificate passed them */
+		final StatusCode error;
+		final boolean selfSigned;
+		/** Index that the result was computed with */
+		final TrustIndex index;
+		/** Time (ms) after which the result is not used */
+		final long expires;
+
+		ChainResult(StatusCode error, boolean selfSigned, TrustIndex index, long expires) {
+			this.error = error;
+			this.selfSigned = selfSigned;
+			this.index = index;
+			this.expires = expires;
+		}
+	}
 	
 	private volatile DefaultCertificateValidatorListener validationListener;
 
 	private final CertificateStore store;
+
+	private volatile TrustIndex index;
+
+	private int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+	private long resultCacheTtl = DEFAULT_RESULT_CACHE_TTL;
+
+	/** Cached results by certificate thumbprint, least recently used first */
+	private final Map<ByteString, ChainResult> resultCache = new LinkedHashMap<ByteString, ChainResult>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteString, ChainResult> eldest) {
+			return size() > resultCacheSize;
+		}
+	};
 	
 	public DefaultCertificateValidator(CertificateStore certificateStore){
 		this.store = certificateStore;
@@ -76,23 +205,188 @@ public class DefaultCertificateValidator implements CertificateValidator {
 		this.validationListener = validationListener;
 	} 
 
+	/**
+	 * @return the max number of cached results
+	 */
+	public synchronized int getResultCacheSize() {
+		return resultCacheSize;
+	}
+
+	/**
+	 * Set the max number of certificates whose revocation and signature
+	 * checks are cached. 0 disables the cache.
+	 * <p>
+	 * Default: {@value #DEFAULT_RESULT_CACHE_SIZE}
+	 *
+	 * @param resultCacheSize max number of results
+	 */
+	public synchronized void setResultCacheSize(int resultCacheSize) {
+		this.resultCacheSize = resultCacheSize;
+		resultCache.clear();
+	}
+
+	/**
+	 * @return the time (ms) that a result is cached
+	 */
+	public synchronized long getResultCacheTtl() {
+		return resultCacheTtl;
+	}
+
+	/**
+	 * Set the time that the revocation and signature checks of a certificate
+	 * are cached. This bounds how long a change in the validity of an issuer
+	 * goes unnoticed.
+	 * <p>
+	 * Default: {@value #DEFAULT_RESULT_CACHE_TTL}
+	 *
+	 * @param resultCacheTtl time in milliseconds
+	 */
+	public synchronized void setResultCacheTtl(long resultCacheTtl) {
+		this.resultCacheTtl = resultCacheTtl;
+		resultCache.clear();
+	}
+
+	/**
+	 * Clear the cached results, e.g. after the certificates of the store have
+	 * been changed in a way that the store does not report.
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			resultCache.clear();
+		}
+		index = null;
+	}
+
+	/**
+	 * Get the index of the trusted certificates and revocation lists of the
+	 * store. Rebuilt, and the cached results cleared, if they have changed.
+	 */
+	private TrustIndex getIndex() {
+		Set<Cert> trustedCerts = store.getTrustedCerts();
+		Set<X509CRL> revocationLists = store.getRevocationLists();
+		TrustIndex i = index;
+		if (i != null) {
+			if (i.trustedSource == trustedCerts && i.revocationSource == revocationLists)
+				return i;
+			// New sets with the same contents, e.g. when only the rejected
+			// certificates of the store have changed
+			if (sameContents(i.trustedCerts, trustedCerts) && sameContents(i.revocationLists, revocationLists)) {
+				i.trustedSource = trustedCerts;
+				i.revocationSource = revocationLists;
+				return i;
+			}
+		}
+		synchronized (this) {
+			resultCache.clear();
+		}
+		i = new TrustIndex(trustedCerts, revocationLists);
+		index = i;
+		logger.debug("Trust index built: {} certificates, {} revocation lists", i.trustedCerts.size(), i.revocationLists.size());
+		return i;
+	}
+
+	private static boolean sameContents(Set<?> indexed, Set<?> current) {
+		if (current == null)
+			return indexed.isEmpty();
+		return indexed == current || indexed.equals(current);
+	}
+
+	private synchronized ChainResult getCachedResult(ByteString thumbprint, TrustIndex index) {
+		ChainResult r = resultCache.get(thumbprint);
+		if (r != null && (r.index != index || r.expires < System.currentTimeMillis())) {
+			resultCache.remove(thumbprint);
+			return null;
+		}
+		return r;
+	}
+
+	private ChainResult putCachedResult(ByteString thumbprint, TrustIndex index, StatusCode error, boolean selfSigned) {
+		ChainResult r;
+		synchronized (this) {
+			r = new ChainResult(error, selfSigned, index, System.currentTimeMillis() + resultCacheTtl);
+			if (resultCacheSize > 0)
+				resultCache.put(thumbprint, r);
+		}
+		return r;
+	}
+
+	/**
+	 * Check the revocation and the signature of a certificate.
+	 */
+	private ChainResult checkChain(TrustIndex index, Cert cert, ByteString thumbprint) {
+		final X509Certificate certificate = cert.getCertificate();
+		boolean isRevoked = index.isRevoked(certificate);
+		logger.debug("isRevoked={}", isRevoked);
+		if (isRevoked)
+			return putCachedResult(thumbprint, index, new StatusCode(StatusCodes.Bad_CertificateRevoked), false);
+
+		// self-signed?
+		if (certificate.getSubjectX500Principal().equals(certificate.getIssuerX500Principal()))
+			try {
+				certificate.verify(certificate.getPublicKey());
+				return putCachedResult(thumbprint, index, null, true);
+			} catch (GeneralSecurityException e) {
+				// NOT self signed
+			}
+
+		// Is it signed by a trusted signer?
+		StatusCode result = StatusCode.GOOD;
+		boolean issuerFound = false;
+		for (Cert c : index.getIssuerCandidates(certificate)) {
+			try {
+				PublicKey pkey = c.getCertificate().getPublicKey();
+				certificate.verify(pkey);
+				issuerFound = true;
+				StatusCode issuerResult = validateCertificate(c);
+				if (issuerResult.isStatusCode(
+						StatusCodes.Bad_CertificateRevoked))
+					result = new StatusCode(
+							StatusCodes.Bad_CertificateIssuerRevoked);
+				else if (issuerResult.isStatusCode(
+						StatusCodes.Bad_CertificateTimeInvalid))
+					result = new StatusCode(
+							StatusCodes.Bad_CertificateIssuerTimeInvalid);
+				else if (issuerResult.isStatusCode(
+						StatusCodes.Bad_CertificateChainIncomplete)
+						|| issuerResult.isStatusCode(
+								StatusCodes.Bad_CertificateIssuerRevoked)
+						|| issuerResult.isStatusCode(
+								StatusCodes.Bad_CertificateIssuerTimeInvalid))
+					result = issuerResult;
+				else if (issuerResult.isNotGood())
+					result = new StatusCode(
+							StatusCodes.Bad_CertificateInvalid);
+			} catch (GeneralSecurityException e1) {
+				continue;
+			}
+		}
+		if (!issuerFound)
+			result = new StatusCode(
+					StatusCodes.Bad_CertificateChainIncomplete);
+		return putCachedResult(thumbprint, index, result.isNotGood() ? result : null, false);
+	}
+
 	@Override
 	public StatusCode validateCertificate(ApplicationDescription applicationDescription, Cert cert) {
 		try{
 			logger.debug("validateCertificate: applicationDescription={}", applicationDescription);
 			logger.debug("cert={}", cert);
 	
-			boolean isRevoked = isRevoked(cert);
-			logger.debug("isRevoked={}", isRevoked);
-			if (isRevoked)
-				return new StatusCode(StatusCodes.Bad_CertificateRevoked);
+			final TrustIndex index = getIndex();
+			final ByteString thumbprint = ByteString.valueOf(cert.getEncodedThumbprint());
+			ChainResult chain = getCachedResult(thumbprint, index);
+			if (chain == null)
+				chain = checkChain(index, cert, thumbprint);
+			else
+				logger.debug("chain result cached");
+			if (chain.error != null && chain.error.isStatusCode(StatusCodes.Bad_CertificateRevoked))
+				return chain.error;
 	
 			// Default result if not revoked
 			StatusCode result = StatusCode.GOOD;
 			EnumSet<CertificateCheck> passedChecks = EnumSet.noneOf(CertificateCheck.class);
-			final Set<Cert> trustedCerts = store.getTrustedCerts();
 			
-			if (trustedCerts != null && trustedCerts.contains(cert)) {
+			if (index.trustedCerts.contains(cert)) {
 				logger.debug("trusted=yes");
 				passedChecks.add(CertificateCheck.Trusted);
 			}
@@ -112,51 +406,16 @@ public class DefaultCertificateValidator implements CertificateValidator {
 	
 			// Check the signature
 	
-			try {
-				// self-signed?
-				certificate.verify(certificate.getPublicKey());
+			if (chain.selfSigned) {
 				logger.debug("signature=yes");
 				logger.debug("self-signed=yes");
 				passedChecks.add(CertificateCheck.Signature);
 				passedChecks.add(CertificateCheck.SelfSigned);
-			} catch (GeneralSecurityException e) {
-				// NOT self signed
-				// Is it signed by a trusted signer?
-				boolean issuerFound = false;
-				for (Cert c : trustedCerts) {
-					try {
-						PublicKey pkey = c.getCertificate().getPublicKey();
-						certificate.verify(pkey);
-						issuerFound = true;
-						StatusCode issuerResult = validateCertificate(c);
-						if (issuerResult.isStatusCode(
-								StatusCodes.Bad_CertificateRevoked))
-							result = new StatusCode(
-									StatusCodes.Bad_CertificateIssuerRevoked);
-						else if (issuerResult.isStatusCode(
-								StatusCodes.Bad_CertificateTimeInvalid))
-							result = new StatusCode(
-									StatusCodes.Bad_CertificateIssuerTimeInvalid);
-						else if (issuerResult.isStatusCode(
-								StatusCodes.Bad_CertificateChainIncomplete)
-								|| issuerResult.isStatusCode(
-										StatusCodes.Bad_CertificateIssuerRevoked)
-								|| issuerResult.isStatusCode(
-										StatusCodes.Bad_CertificateIssuerTimeInvalid))
-							result = issuerResult;
-						else if (issuerResult.isNotGood())
-							result = new StatusCode(
-									StatusCodes.Bad_CertificateInvalid);
-					} catch (GeneralSecurityException e1) {
-						continue;
-					}
-				}
-				if (!issuerFound)
-					result = new StatusCode(
-							StatusCodes.Bad_CertificateChainIncomplete);
-				if (result.isNotGood()) {
+			} else {
+				// Signed by a trusted signer?
+				if (chain.error != null) {
 					store.addCertificate(ValidationResult.Reject, cert);
-					return result;
+					return chain.error;
 				}
 				logger.debug("signature=yes");
 				passedChecks.add(CertificateCheck.Signature);
@@ -247,16 +506,6 @@ public class DefaultCertificateValidator implements CertificateValidator {
 		}
 	}
 
-	private boolean isRevoked(Cert cert) {
-		Set<X509CRL> crls = store.getRevocationLists();
-		for(X509CRL crl : crls){
-			if(crl.isRevoked(cert.getCertificate())){
-				return true;
-			}
-		}
-		return false;
-	}
-
 	/*
 	 * (non-Javadoc)
 	 *
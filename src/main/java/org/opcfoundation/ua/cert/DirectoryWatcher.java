@@ -0,0 +1,45 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.cert;
+
+/**
+ * Notices changes in the directories of a {@link PkiDirectoryCertificateStore}.
+ *
+ * @see WatchServiceDirectoryWatcher
+ * @see PollingDirectoryWatcher
+ */
+interface DirectoryWatcher {
+
+	/**
+	 * Wait for a change in the directories.
+	 *
+	 * @param timeout max time to wait in milliseconds
+	 * @return true if the directories may have changed and should be read
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean awaitChange(long timeout) throws InterruptedException;
+
+	/**
+	 * Tell whether all the directories are still watched. A directory is no
+	 * longer watched e.g. after it has been deleted.
+	 *
+	 * @return true if the watcher is usable
+	 */
+	boolean isValid();
+
+	/**
+	 * Stop watching.
+	 */
+	void close();
+
+}
@@ -15,38 +15,104 @@ package org.opcfoundation.ua.cert;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.PublicKey;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opcfoundation.ua.transport.security.Cert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A certificate store that keeps the certificates in the trusted, rejected
+ * and revocation directories of a PKI directory.
+ * <p>
+ * The contents of the store are an immutable snapshot, which is replaced as
+ * a whole when the store changes, so the getters read it without locking.
+ * Changes made outside of this instance are read by {@link #refresh()}.
+ * After {@link #startWatching()} the directories are watched for them,
+ * with a java.nio.file.WatchService if the runtime and the file
+ * system support it, and by polling every {@link #getPollInterval()} ms
+ * otherwise. Only the files that were added or changed since the previous
+ * refresh are read. Call {@link #close()} to stop watching.
+ */
 public class PkiDirectoryCertificateStore implements CertificateStore{
 
 	private static final Logger logger = LoggerFactory.getLogger(PkiDirectoryCertificateStore.class);
-	
+
 	private static final String FILE_EXTENSION = ".der";
 
-	
+	private static final String CRL_FILE_EXTENSION = ".crl";
+
 	private static final String HEXES = "0123456789ABCDEF";
-	
-	
-	private final Map<String, Cert> rejectedCertificates = new ConcurrentHashMap<String, Cert>();
-	private final Map<String, Cert> trustedCertificates = new ConcurrentHashMap<String, Cert>();
-	private final Set<X509CRL> revocationLists = new CopyOnWriteArraySet<X509CRL>();
-	
+
+	/** Default interval (ms) of polling the directories, if they cannot be watched */
+	public static final long DEFAULT_POLL_INTERVAL = 10000;
+
+	/**
+	 * Contents of the store. The parts that did not change are shared with
+	 * the previous snapshot, so their getters keep returning the same sets.
+	 */
+	static final class Snapshot {
+		final long version;
+		final Map<String, Cert> trusted;
+		final Set<Cert> trustedCerts;
+		final Map<String, Cert> rejected;
+		final Set<Cert> rejectedCerts;
+		final Set<X509CRL> revocationLists;
+
+		Snapshot(long version, Map<String, Cert> trusted, Set<Cert> trustedCerts, Map<String, Cert> rejected,
+				Set<Cert> rejectedCerts, Set<X509CRL> revocationLists) {
+			this.version = version;
+			this.trusted = trusted;
+			this.trustedCerts = trustedCerts;
+			this.rejected = rejected;
+			this.rejectedCerts = rejectedCerts;
+			this.revocationLists = revocationLists;
+		}
+	}
+
+	/** A file of one of the directories and what was read from it */
+	static final class FileEntry {
+		final long lastModified;
+		final long length;
+		/** Cert or X509CRL, null if the file is not one */
+		final Object content;
+
+		FileEntry(File file, Object content) {
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+			this.content = content;
+		}
+
+		boolean isCurrent(File file) {
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+	}
+
+	private volatile Snapshot snapshot = new Snapshot(0, Collections.<String, Cert>emptyMap(), Collections.<Cert>emptySet(),
+			Collections.<String, Cert>emptyMap(), Collections.<Cert>emptySet(), Collections.<X509CRL>emptySet());
+
+	/** Certificates of the trusted directory, including rejected ones, guarded by this */
+	private Map<String, Cert> trustedDirCerts = Collections.emptyMap();
+
+	/** Files read from the directories by name, guarded by this */
+	private final Map<String, FileEntry> trustedFiles = new HashMap<String, FileEntry>();
+	private final Map<String, FileEntry> rejectedFiles = new HashMap<String, FileEntry>();
+	private final Map<String, FileEntry> revocationFiles = new HashMap<String, FileEntry>();
+
+	/** Revocation lists added with {@link #addRevocationList(X509CRL)}, guarded by this */
+	private final Set<X509CRL> addedRevocationLists = new HashSet<X509CRL>();
+
 	private final File baseDir;
 	private final File revocationDir;
 	private final File rejectedDir;
@@ -55,12 +121,43 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 
 	private final File trustedDir;
 
-	private final CopyOnWriteArraySet<PublicKey> trustedPublicKeys = new CopyOnWriteArraySet<PublicKey>();
-	
 	private boolean storeAcceptOnceCertificates = true;
 
 	private final List<DefaultCertificateStoreListener> listeners;
 
+	private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+
+	/** The thread that watches the directories, null if they are not watched */
+	private volatile Thread watchThread;
+
+	private final Runnable watchRun = new Runnable() {
+		@Override
+		public void run() {
+			DirectoryWatcher watcher = createWatcher();
+			try {
+				while (watchThread == Thread.currentThread()) {
+					try {
+						if (!watcher.isValid()) {
+							watcher.close();
+							logger.info("Stopped watching {}, polling it every {} ms", baseDir, pollInterval);
+							watcher = new PollingDirectoryWatcher();
+						}
+						if (!watcher.awaitChange(pollInterval))
+							continue;
+						if (watchThread == Thread.currentThread())
+							refresh();
+					} catch (InterruptedException e) {
+						// closed
+					} catch (RuntimeException e) {
+						logger.warn("Refreshing the certificate store failed", e);
+					}
+				}
+			} finally {
+				watcher.close();
+			}
+		}
+	};
+
 	/**
 	 * Create a new validator using the default baseDir ("PKI\CA"), trustedDir
 	 * ("certs"), rejectedDir ("rejected") and revokedDir ("crl").
@@ -68,7 +165,7 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 	public PkiDirectoryCertificateStore() {
 		this("PKI/CA", "certs", "rejected", "crl");
 	}
-	
+
 	/**
 	 * Create a new validator using a baseDir and default subdirs: trustedDir
 	 * ("certs"), rejectedDir ("rejected") and revokedDir ("crl").
@@ -80,7 +177,7 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 	public PkiDirectoryCertificateStore(String baseDir) {
 		this(baseDir, "certs", "rejected", "crl");
 	}
-	
+
 	/**
 	 * Create a new validator using a baseDir and <b>subdirectory names</b>,
 	 * trustedDir, rejectedDir and revocationDir.
@@ -104,23 +201,23 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 	 */
 	public PkiDirectoryCertificateStore(String baseDir, String trustedDir, String rejectedDir,
 			String revocationDir) {
-		this.listeners = new ArrayList<DefaultCertificateStoreListener>();
+		this.listeners = new CopyOnWriteArrayList<DefaultCertificateStoreListener>();
 		this.baseDir = new File(baseDir);
 		// if (!this.baseDir.exists())
 		// this.baseDir.mkdir();
 		this.trustedDir = new File(baseDir, trustedDir);
 		this.rejectedDir = new File(baseDir, rejectedDir);
 		this.revocationDir = new File(baseDir, revocationDir);
-		init();
+		refresh();
 	}
-	
+
 	public void addListener(DefaultCertificateStoreListener listener) {
 		if ((listener != null) && !this.listeners.contains(listener))
 			this.listeners.add(listener);
-	}	
-	
-	
-	
+	}
+
+
+
 	/**
 	 * Add a certificate to the rejected certificates.
 	 *
@@ -128,24 +225,31 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 	 *            the certificate to add
 	 */
 	public void addRejectedCertificate(Cert certificate){
-		listAdd(rejectedCertificates, rejectedDir, certificate);
-		removeCertificate(trustedCertificates, trustedDir, certificate);
+		synchronized (this) {
+			boolean rejectedChanged = listAdd(rejectedFiles, rejectedDir, certificate);
+			boolean trustedChanged = removeCertificate(trustedFiles, trustedDir, certificate);
+			if (rejectedChanged || trustedChanged)
+				publish(trustedChanged, rejectedChanged, false);
+		}
 		logger.info("Certificate '{}' added to rejected certificates.", getCertKey(certificate));
 		fireAddedRejected(certificate);
 	}
-	
+
 
 	/**
 	 * Add a certificate revocation list to the store.
-	 * NOTE! currently it is NOT written to the disk. 
-	 * 
+	 * NOTE! currently it is NOT written to the disk.
+	 *
 	 * @param crl revocation list to add
 	 */
 	public void addRevocationList(X509CRL crl){
-		revocationLists.add(crl);
+		synchronized (this) {
+			if (addedRevocationLists.add(crl))
+				publish(false, false, true);
+		}
 		fireAddedRevocationList(crl);
 	}
-	
+
 	/**
 	 * Add a certificate to the trusted certificates.
 	 *
@@ -154,40 +258,40 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 	 */
 	public void addTrustedCertificate(Cert certificate) {
 		logger.debug("addTrustedCertificate");
-		listAdd(trustedCertificates, trustedDir, certificate);
-		removeCertificate(rejectedCertificates, rejectedDir, certificate);
+		synchronized (this) {
+			boolean trustedChanged = listAdd(trustedFiles, trustedDir, certificate);
+			boolean rejectedChanged = removeCertificate(rejectedFiles, rejectedDir, certificate);
+			if (trustedChanged || rejectedChanged)
+				publish(trustedChanged, rejectedChanged, false);
+		}
 		logger.info("Certificate '{}' added to trusted certificates.", getCertKey(certificate));
 		fireAddedTrusted(certificate);
 	}
-	
+
 	@Override
 	public Set<Cert> getTrustedCerts() {
-		init();
-		HashSet<Cert> set = new HashSet<Cert>();
-		for(Entry<String, Cert> e : trustedCertificates.entrySet()){
-			set.add(e.getValue());
-		}
-		return Collections.unmodifiableSet(set);
+		return snapshot.trustedCerts;
 	}
-	
+
 	@Override
 	public Set<Cert> getRejectedCerts() {
-		init();
-		HashSet<Cert> set = new HashSet<Cert>();
-		for(Entry<String, Cert> e : rejectedCertificates.entrySet()){
-			set.add(e.getValue());
-		}
-		return Collections.unmodifiableSet(set);
+		return snapshot.rejectedCerts;
 	}
 
 	@Override
 	public Set<X509CRL> getRevocationLists() {
-		init();
-		HashSet<X509CRL> set = new HashSet<X509CRL>();
-		for(X509CRL crl : revocationLists){
-			set.add(crl);
-		}
-		return Collections.unmodifiableSet(set); 
+		return snapshot.revocationLists;
+	}
+
+	/**
+	 * Get the version of the contents of the store. The version is
+	 * incremented whenever the trusted or rejected certificates or the
+	 * revocation lists change.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return snapshot.version;
 	}
 
 	@Override
@@ -198,7 +302,7 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 		if(certificate == null){
 			throw new IllegalArgumentException("certificate cannot be null");
 		}
-		
+
 		switch (type) {
 		case AcceptPermanently:
 			addTrustedCertificate(certificate);
@@ -207,49 +311,49 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 			if(storeAcceptOnceCertificates){
 				addRejectedCertificate(certificate);
 			}
-			break;		
+			break;
 		case Reject:
 			addRejectedCertificate(certificate);
 			break;
 		default:
 			throw new IllegalArgumentException("encountered unknown type parameter: "+type);
-		}		
-	}	
-	
+		}
+	}
+
 	/**
 	 * @return the trustedDir
 	 */
 	public File getTrustedDir() {
 		return trustedDir;
 	}
-	
-	
+
+
 	/**
 	 * @return the rejectedDir
 	 */
 	public File getRejectedDir() {
 		return rejectedDir;
 	}
-	
+
 	/**
 	 * @return the revocationDir
 	 */
 	public File getRevocationDir() {
 		return revocationDir;
 	}
-	
+
 	/**
 	 * @return the storeAcceptOnceCertificates
 	 */
 	public boolean isStoreAcceptOnceCertificates() {
 		return storeAcceptOnceCertificates;
 	}
-	
+
 	public void removeListener(DefaultCertificateStoreListener listener) {
 		if (listener != null)
 			this.listeners.remove(listener);
 	}
-	
+
 	/**
 	 * Returns File for the given Certificate.
 	 *
@@ -260,19 +364,20 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 		if (cert == null)
 			return null;
 
-		if (trustedCertificates.containsKey(getCertKey(cert)))
+		Snapshot s = snapshot;
+		if (s.trusted.containsKey(getCertKey(cert)))
 			return getFileForCert(trustedDir, cert);
 
-		if (rejectedCertificates.containsKey(getCertKey(cert)))
+		if (s.rejected.containsKey(getCertKey(cert)))
 			return getFileForCert(rejectedDir, cert);
 
 		return null;
 	}
-	
+
 	private File getFileForCert(File dir, Cert certificate) {
 		return new File(dir, getCertKey(certificate) + FILE_EXTENSION);
 	}
-	
+
 	/**
 	 * Defines whether certificates that are accepted with AcceptOnce status are
 	 * stored in the certificate store or not. If they are stored, they are
@@ -286,115 +391,300 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 	public void setStoreAcceptOnceCertificates(boolean keepAcceptOnceCerts) {
 		this.storeAcceptOnceCertificates = keepAcceptOnceCerts;
 	}
-	
+
 	/**
-	 * Refresh certificates. Call this method in case you change certificates
-	 * outside of this instance (e.g. move files on disk) and want to refresh
-	 * before a validateCertificate call happens (which does this
-	 * automatically).
+	 * Refresh certificates. Changes made to the directories outside of this
+	 * instance (e.g. files moved on disk) are picked up automatically, call
+	 * this method to pick them up immediately.
+	 * <p>
+	 * Only the files that have been added or changed since the previous
+	 * refresh are read.
 	 */
 	public void refresh() {
-		init();
+		Snapshot oldSnapshot;
+		Snapshot newSnapshot;
+		synchronized (this) {
+			boolean trustedChanged = scan(trustedFiles, trustedDir, false);
+			boolean rejectedChanged = scan(rejectedFiles, rejectedDir, false);
+			boolean crlsChanged = scan(revocationFiles, revocationDir, true);
+			if (!trustedChanged && !rejectedChanged && !crlsChanged)
+				return;
+			oldSnapshot = snapshot;
+			newSnapshot = publish(trustedChanged, rejectedChanged, crlsChanged);
+		}
+		for (Cert c : newSnapshot.trustedCerts)
+			if (!oldSnapshot.trustedCerts.contains(c))
+				fireAddedTrusted(c);
+		for (Cert c : newSnapshot.rejectedCerts)
+			if (!oldSnapshot.rejectedCerts.contains(c))
+				fireAddedRejected(c);
+		for (X509CRL crl : newSnapshot.revocationLists)
+			if (!oldSnapshot.revocationLists.contains(crl))
+				fireAddedRevocationList(crl);
 	}
-	
-	
+
+
 	/**
 	 * @return the baseDir
 	 */
 	public File getBaseDir() {
 		return baseDir;
 	}
-	
-	
+
+	/**
+	 * @return the interval (ms) of polling the directories
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	/**
+	 * Define the interval of polling the directories for changes, which is
+	 * used if they cannot be watched, e.g. on Java 6 or on file systems that
+	 * do not support watching. The new interval applies after the current
+	 * one has passed.
+	 * <p>
+	 * Default: {@value #DEFAULT_POLL_INTERVAL}
+	 *
+	 * @param pollInterval the interval in milliseconds
+	 */
+	public void setPollInterval(long pollInterval) {
+		if (pollInterval <= 0)
+			throw new IllegalArgumentException("pollInterval must be > 0");
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Start watching the directories for changes made outside of this
+	 * instance, in a daemon thread that runs until {@link #close()}. Does
+	 * nothing if the directories are already watched.
+	 */
+	public synchronized void startWatching() {
+		if (watchThread != null)
+			return;
+		watchThread = new Thread(watchRun, "OPC-UA-Stack-Certificate-Store-Watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * @return true if the directories are watched for changes
+	 */
+	public boolean isWatching() {
+		return watchThread != null;
+	}
+
+	/**
+	 * Stop watching the directories for changes. The store can still be
+	 * used, changes made outside of this instance are then picked up only
+	 * by {@link #refresh()}.
+	 */
+	public synchronized void close() {
+		Thread thread = watchThread;
+		watchThread = null;
+		if (thread != null)
+			thread.interrupt();
+	}
+
+
 	/**
 	 * Clears the certificate lists.
 	 *
 	 * @param removeFiles
 	 *            if true, removes all certificate files as well. Be careful
-	 *            with this!
+	 *            with this! If false, the certificates are read again
+	 *            on the next {@link #refresh()}.
 	 */
 	public void clear(boolean removeFiles) {
-		if (removeFiles) {
-			for (File f : trustedDir.listFiles())
-				f.delete();
+		synchronized (this) {
+			if (removeFiles) {
+				deleteFiles(trustedDir);
+				deleteFiles(rejectedDir);
+				deleteFiles(revocationDir);
+			}
+			trustedFiles.clear();
+			rejectedFiles.clear();
+			publish(true, true, false);
+		}
+	}
 
-			for (File f : rejectedDir.listFiles())
+	private static void deleteFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
 				f.delete();
+	}
 
-			for (File f : revocationDir.listFiles())
-				f.delete();
+	/**
+	 * Publish a new snapshot of the files read. A certificate that is in
+	 * both the trusted and the rejected directory is rejected. Only the
+	 * parts that have changed are rebuilt, the others are taken from the
+	 * previous snapshot.
+	 */
+	private Snapshot publish(boolean trustedChanged, boolean rejectedChanged, boolean crlsChanged) {
+		Snapshot old = snapshot;
+		if (trustedChanged)
+			trustedDirCerts = certificates(trustedFiles);
+
+		Map<String, Cert> rejected = old.rejected;
+		Set<Cert> rejectedCerts = old.rejectedCerts;
+		if (rejectedChanged) {
+			rejected = Collections.unmodifiableMap(certificates(rejectedFiles));
+			rejectedCerts = Collections.unmodifiableSet(new HashSet<Cert>(rejected.values()));
+			// The trusted certificates change only if a certificate of the
+			// trusted directory was rejected or is no longer rejected
+			trustedChanged |= containsChange(trustedDirCerts, old.rejected, rejected);
 		}
-		trustedCertificates.clear();
-		rejectedCertificates.clear();
+
+		Map<String, Cert> trusted = old.trusted;
+		Set<Cert> trustedCerts = old.trustedCerts;
+		if (trustedChanged) {
+			Map<String, Cert> t = new HashMap<String, Cert>(trustedDirCerts);
+			t.keySet().removeAll(rejected.keySet());
+			trusted = Collections.unmodifiableMap(t);
+			trustedCerts = Collections.unmodifiableSet(new HashSet<Cert>(t.values()));
+		}
+
+		Set<X509CRL> crls = old.revocationLists;
+		if (crlsChanged) {
+			Set<X509CRL> c = new HashSet<X509CRL>(addedRevocationLists);
+			for (FileEntry e : revocationFiles.values())
+				if (e.content instanceof X509CRL)
+					c.add((X509CRL) e.content);
+			crls = Collections.unmodifiableSet(c);
+		}
+
+		Snapshot s = new Snapshot(old.version + 1, trusted, trustedCerts, rejected, rejectedCerts, crls);
+		snapshot = s;
+		logger.debug("version={} trusted.size()={} rejected.size()={} crls.size()={}", s.version, trusted.size(), rejected.size(), crls.size());
+		return s;
 	}
-	
+
 	/**
-	 * Initialize the certificate lists by reading the certificates from the
-	 * directories.
+	 * Tell whether a key that was added to or removed from a map is in the
+	 * given keys.
+	 */
+	private static boolean containsChange(Map<String, ?> keys, Map<String, ?> oldMap, Map<String, ?> newMap) {
+		for (String key : newMap.keySet())
+			if (!oldMap.containsKey(key) && keys.containsKey(key))
+				return true;
+		for (String key : oldMap.keySet())
+			if (!newMap.containsKey(key) && keys.containsKey(key))
+				return true;
+		return false;
+	}
+
+	private Map<String, Cert> certificates(Map<String, FileEntry> files) {
+		Map<String, Cert> certificates = new HashMap<String, Cert>(files.size() * 2);
+		for (FileEntry e : files.values())
+			if (e.content instanceof Cert) {
+				Cert certificate = (Cert) e.content;
+				certificates.put(getCertKey(certificate), certificate);
+			}
+		return certificates;
+	}
+
+	/**
+	 * Read the files of a directory that have been added or changed since
+	 * the previous scan, and forget the files that have been removed.
 	 *
-	 * Synchronized because we should not allow refresh and validateCertificate
-	 * calls to init at the same time.
+	 * @return true if something changed
 	 */
-	private synchronized void init() {
-		initCertificates(trustedCertificates, trustedDir, rejectedCertificates);
-		for (Cert c : trustedCertificates.values())
-			trustedPublicKeys.add(c.getCertificate().getPublicKey());
-		initCertificates(rejectedCertificates, rejectedDir, trustedCertificates);
-	}
-	
-	private void initCertificates(Map<String, Cert> certificates, File dir, Map<String, Cert> removeFromCertificateList) {
+	private boolean scan(Map<String, FileEntry> files, File dir, boolean crls) {
 		if (!dir.exists())
 			dir.mkdirs();
-		if (dir.isDirectory())
-			for (File file : dir.listFiles())
-				if (dir.equals(revocationDir) && file.getName().endsWith(".crl"))
-					initCRL(file);
-				else
-					try {
-						final Cert certificate = Cert.load(file);
-						listAdd(certificates, dir, certificate);
-						logger.debug("Certificate from '{}' added to accepted certificates", file);
-						if (removeFromCertificateList != null)
-							removeFromCertificateList.remove(getCertKey(certificate));
-					} catch (IOException e) {
-						logger.info("File '{}' is not a certificate: {}", file, e.getMessage());
-					} catch (CertificateException e) {
-						logger.info("File '{}' is not a valid certificate: {}", file, e.getMessage());
-					}
+		File[] list = dir.listFiles();
+		if (list == null)
+			list = new File[0];
+		boolean changed = false;
+		Set<String> names = new HashSet<String>(list.length * 2);
+		for (File file : list) {
+			if (!file.isFile())
+				continue;
+			String name = file.getName();
+			names.add(name);
+			FileEntry e = files.get(name);
+			if (e != null && e.isCurrent(file))
+				continue;
+			Object content = crls ? readCRL(file) : readCertificate(file);
+			files.put(name, new FileEntry(file, content));
+			changed |= e == null ? content != null : !equal(content, e.content);
+		}
+		for (Iterator<Entry<String, FileEntry>> i = files.entrySet().iterator(); i.hasNext();) {
+			Entry<String, FileEntry> e = i.next();
+			if (!names.contains(e.getKey())) {
+				i.remove();
+				changed |= e.getValue().content != null;
+			}
+		}
+		return changed;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
 	}
-	
-	private void initCRL(File file) {
+
+	private Cert readCertificate(File file) {
+		try {
+			final Cert certificate = Cert.load(file);
+			logger.debug("Certificate from '{}' added to accepted certificates", file);
+			return certificate;
+		} catch (IOException e) {
+			logger.info("File '{}' is not a certificate: {}", file, e.getMessage());
+		} catch (CertificateException e) {
+			logger.info("File '{}' is not a valid certificate: {}", file, e.getMessage());
+		}
+		return null;
+	}
+
+	private X509CRL readCRL(File file) {
+		if (!file.getName().endsWith(CRL_FILE_EXTENSION))
+			return null;
 		try {
 			CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
 			FileInputStream fis = new FileInputStream(file);
-			X509CRL crl = (X509CRL) certFactory.generateCRL(fis);
-			revocationLists.add(crl);
-			logger.info("CRL initialized from " + file + ": " + (crl.getRevokedCertificates() == null
-					? "no revoked certificates" : crl.getRevokedCertificates().size() + " certificates revoked"));
+			try {
+				X509CRL crl = (X509CRL) certFactory.generateCRL(fis);
+				logger.info("CRL initialized from " + file + ": " + (crl.getRevokedCertificates() == null
+						? "no revoked certificates" : crl.getRevokedCertificates().size() + " certificates revoked"));
+				return crl;
+			} finally {
+				fis.close();
+			}
 		} catch (Exception e) {
-			logger.warn("Could not read CRL file {: {}", file, e.getMessage());
+			logger.warn("Could not read CRL file {}: {}", file, e.getMessage());
+			return null;
 		}
 	}
-	
-	private void listAdd(Map<String, Cert> certificates, File dir, Cert certificate) {
+
+	/**
+	 * Write a certificate to a directory, unless it is there already.
+	 *
+	 * @return true if the certificate was not in the directory
+	 */
+	private boolean listAdd(Map<String, FileEntry> files, File dir, Cert certificate) {
 		logger.debug("listAdd: cert={}; dir={}", getCertKey(certificate), dir);
-		if (!certificates.containsKey(certificate)) {
-			try {
-				final File fileForCert = getFileForCert(dir, certificate);
-				if (!fileForCert.exists())
-					certificate.save(fileForCert);
-			} catch (IOException e) {
-				logger.error("Cannot write to directory " + dir, e);
-			}
-			certificates.put(getCertKey(certificate), certificate);
+		final File fileForCert = getFileForCert(dir, certificate);
+		FileEntry e = files.get(fileForCert.getName());
+		if (e != null && certificate.equals(e.content))
+			return false;
+		try {
+			if (!dir.exists())
+				dir.mkdirs();
+			if (!fileForCert.exists())
+				certificate.save(fileForCert);
+		} catch (IOException ex) {
+			logger.error("Cannot write to directory " + dir, ex);
 		}
-		logger.debug("certificates.size()={}", certificates.size());
+		files.put(fileForCert.getName(), new FileEntry(fileForCert, certificate));
+		logger.debug("certificates.size()={}", files.size());
+		return true;
 	}
 
 	private String getCertKey(Cert certificate) {
 		return getHex(certificate.getEncodedThumbprint());
 	}
-	
+
 	private String getHex(byte[] raw) {
 		if (raw == null)
 			return null;
@@ -403,7 +693,20 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 			hex.append(HEXES.charAt((b & 0xF0) >> 4)).append(HEXES.charAt((b & 0x0F)));
 		return hex.toString();
 	}
-	
+
+	private DirectoryWatcher createWatcher() {
+		if (!WatchServiceDirectoryWatcher.isSupported()) {
+			logger.info("Cannot watch {} on this runtime, polling it every {} ms", baseDir, pollInterval);
+			return new PollingDirectoryWatcher();
+		}
+		try {
+			return new WatchServiceDirectoryWatcher(trustedDir, rejectedDir, revocationDir);
+		} catch (IOException e) {
+			logger.info("Cannot watch {}, polling it every {} ms: {}", baseDir, pollInterval, e.toString());
+			return new PollingDirectoryWatcher();
+		}
+	}
+
 	private void fireAddedRejected(Cert cert) {
 		for (DefaultCertificateStoreListener l : this.listeners)
 			l.onRejectedCertificateAdded(cert);
@@ -413,24 +716,30 @@ public class PkiDirectoryCertificateStore implements CertificateStore{
 		for (DefaultCertificateStoreListener l : this.listeners)
 			l.onTrustedCertificateAdded(cert);
 	}
-	
+
 	private void fireAddedRevocationList(X509CRL crl) {
 		for(DefaultCertificateStoreListener l : this.listeners){
 			l.onRevokedListAdded(crl);
 		}
 	}
-	
-	private void removeCertificate(Map<String, Cert> certificates, File dir, Cert certificate) {
+
+	/**
+	 * Remove a certificate from a directory.
+	 *
+	 * @return true if the certificate was in the directory
+	 */
+	private boolean removeCertificate(Map<String, FileEntry> files, File dir, Cert certificate) {
 		logger.debug("removeCertificate: cert={} dir={}", getCertKey(certificate), dir);
-		logger.debug("certificates.size()={}", certificates.size());
+		logger.debug("certificates.size()={}", files.size());
 
 		File file = getFileForCert(dir, certificate);
 		file.delete();
-		Cert c = certificates.remove(getCertKey(certificate));
+		FileEntry e = files.remove(file.getName());
 		if (logger.isDebugEnabled()) {
-			logger.debug("c=" + (c == null ? "null" : c.getEncodedThumbprint()));
-			logger.debug("certificates.size()={}", certificates.size());
+			logger.debug("c=" + (e == null ? "null" : getCertKey(certificate)));
+			logger.debug("certificates.size()={}", files.size());
 		}
+		return e != null && e.content != null;
 	}
 
 }
@@ -0,0 +1,187 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.cert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DirectoryWatcher} that uses a java.nio.file.WatchService.
+ * <p>
+ * java.nio.file was added in Java 7. The stack is compiled for older Java
+ * versions, so the watch service is used by reflection and
+ * {@link #isSupported()} returns false on older runtimes.
+ */
+class WatchServiceDirectoryWatcher implements DirectoryWatcher {
+
+	/** Time (ms) to wait for more changes after a change has been noticed */
+	static final long CHANGE_SETTLE_DELAY = 100;
+
+	static Object fileSystem;
+	static Method newWatchService;
+	static Method toPath;
+	static Method register;
+	static Object eventKinds;
+	static Method poll;
+	static Method pollNow;
+	static Method pollEvents;
+	static Method reset;
+	static Class<?> closedException;
+
+	static {
+		try {
+			fileSystem = Class.forName("java.nio.file.FileSystems").getMethod("getDefault").invoke(null);
+			Class<?> watchService = Class.forName("java.nio.file.WatchService");
+			Class<?> watchKey = Class.forName("java.nio.file.WatchKey");
+			Class<?> kind = Class.forName("java.nio.file.WatchEvent$Kind");
+			Class<?> standardKinds = Class.forName("java.nio.file.StandardWatchEventKinds");
+			Object kinds = Array.newInstance(kind, 3);
+			Array.set(kinds, 0, standardKinds.getField("ENTRY_CREATE").get(null));
+			Array.set(kinds, 1, standardKinds.getField("ENTRY_DELETE").get(null));
+			Array.set(kinds, 2, standardKinds.getField("ENTRY_MODIFY").get(null));
+			newWatchService = Class.forName("java.nio.file.FileSystem").getMethod("newWatchService");
+			toPath = File.class.getMethod("toPath");
+			register = Class.forName("java.nio.file.Path").getMethod("register", watchService, kinds.getClass());
+			poll = watchService.getMethod("poll", long.class, TimeUnit.class);
+			pollNow = watchService.getMethod("poll");
+			pollEvents = watchKey.getMethod("pollEvents");
+			reset = watchKey.getMethod("reset");
+			closedException = Class.forName("java.nio.file.ClosedWatchServiceException");
+			eventKinds = kinds;
+		} catch (Exception e) {
+			// Not supported by this runtime
+		} catch (LinkageError e) {
+			// Not supported by this runtime
+		}
+	}
+
+	/**
+	 * Get whether the runtime supports watching directories.
+	 *
+	 * @return true if Java 7 or later
+	 */
+	static boolean isSupported() {
+		return eventKinds != null;
+	}
+
+	private final Object watchService;
+	private final int dirCount;
+	private int validKeys;
+
+	/**
+	 * Start watching directories.
+	 *
+	 * @param dirs the directories
+	 * @throws IOException if a directory cannot be watched
+	 * @throws UnsupportedOperationException if the runtime does not support watching directories
+	 */
+	WatchServiceDirectoryWatcher(File... dirs) throws IOException {
+		if (!isSupported())
+			throw new UnsupportedOperationException("Watching directories requires Java 7 or later");
+		watchService = invoke(newWatchService, fileSystem);
+		dirCount = dirs.length;
+		try {
+			for (File dir : dirs) {
+				if (!dir.exists())
+					dir.mkdirs();
+				invoke(register, invoke(toPath, dir), watchService, eventKinds);
+				validKeys++;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * A burst of changes is let to settle for {@value #CHANGE_SETTLE_DELAY}
+	 * ms, and consumed, before returning.
+	 */
+	@Override
+	public boolean awaitChange(long timeout) throws InterruptedException {
+		try {
+			Object key = invokeInterruptibly(poll, watchService, timeout, TimeUnit.MILLISECONDS);
+			if (key == null)
+				return false;
+			consume(key);
+			Thread.sleep(CHANGE_SETTLE_DELAY);
+			while ((key = invoke(pollNow, watchService)) != null)
+				consume(key);
+		} catch (IOException e) {
+			// The watch service has been closed
+			validKeys = 0;
+		}
+		return true;
+	}
+
+	private void consume(Object key) throws IOException {
+		// The events themselves are not needed, the store compares the files
+		invoke(pollEvents, key);
+		if (!(Boolean) invoke(reset, key))
+			validKeys--;
+	}
+
+	@Override
+	public boolean isValid() {
+		return validKeys == dirCount;
+	}
+
+	@Override
+	public void close() {
+		try {
+			((Closeable) watchService).close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+
+	private static Object invoke(Method m, Object target, Object... args) throws IOException {
+		try {
+			return invokeInterruptibly(m, target, args);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.toString());
+		}
+	}
+
+	/**
+	 * Invoke a method. A ClosedWatchServiceException is thrown as an
+	 * IOException.
+	 */
+	private static Object invokeInterruptibly(Method m, Object target, Object... args) throws IOException, InterruptedException {
+		try {
+			return m.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if (closedException.isInstance(cause))
+				throw new IOException(cause.toString());
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+}
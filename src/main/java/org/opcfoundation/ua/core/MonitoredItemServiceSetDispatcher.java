@@ -0,0 +1,73 @@
+/* ========================================================================
+ * Copyright (c) 2005-2015 The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here:
+ * http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================*/
+
+package org.opcfoundation.ua.core;
+
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.endpoint.ServiceSetDispatcher;
+
+
+/**
+ * Dispatches the requests of {@link MonitoredItemServiceSetHandler} with direct calls.
+ */
+public class MonitoredItemServiceSetDispatcher extends ServiceSetDispatcher {
+    
+    private final MonitoredItemServiceSetHandler handler;
+    
+    public MonitoredItemServiceSetDispatcher(MonitoredItemServiceSetHandler handler) {
+        super(handler, CreateMonitoredItemsRequest.class, ModifyMonitoredItemsRequest.class, SetMonitoringModeRequest.class, SetTriggeringRequest.class, DeleteMonitoredItemsRequest.class);
+        this.handler = handler;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public void dispatch(int service, EndpointServiceRequest<?, ?> req) throws ServiceFaultException {
+        switch (service) {
+        case 0:
+            handler.onCreateMonitoredItems((EndpointServiceRequest<CreateMonitoredItemsRequest, CreateMonitoredItemsResponse>) req);
+            break;
+        case 1:
+            handler.onModifyMonitoredItems((EndpointServiceRequest<ModifyMonitoredItemsRequest, ModifyMonitoredItemsResponse>) req);
+            break;
+        case 2:
+            handler.onSetMonitoringMode((EndpointServiceRequest<SetMonitoringModeRequest, SetMonitoringModeResponse>) req);
+            break;
+        case 3:
+            handler.onSetTriggering((EndpointServiceRequest<SetTriggeringRequest, SetTriggeringResponse>) req);
+            break;
+        case 4:
+            handler.onDeleteMonitoredItems((EndpointServiceRequest<DeleteMonitoredItemsRequest, DeleteMonitoredItemsResponse>) req);
+            break;
+        default:
+            throw new IllegalArgumentException("Service index "+service);
+        }
+    }
+ 
+}
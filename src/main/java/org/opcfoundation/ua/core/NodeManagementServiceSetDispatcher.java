@@ -0,0 +1,91 @@
+/* ========================================================================
+ * Copyright (c) 2005-2015 The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here:
+ * http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================*/
+
+package org.opcfoundation.ua.core;
+
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.endpoint.ServiceSetDispatcher;
+
+
+/**
+ * Dispatches the requests of {@link NodeManagementServiceSetHandler} with direct calls.
+ */
+public class NodeManagementServiceSetDispatcher extends ServiceSetDispatcher {
+    
+    private final NodeManagementServiceSetHandler handler;
+    
+    public NodeManagementServiceSetDispatcher(NodeManagementServiceSetHandler handler) {
+        super(handler, AddNodesRequest.class, AddReferencesRequest.class, DeleteNodesRequest.class, DeleteReferencesRequest.class, BrowseRequest.class, BrowseNextRequest.class, TranslateBrowsePathsToNodeIdsRequest.class, RegisterNodesRequest.class, UnregisterNodesRequest.class, QueryFirstRequest.class, QueryNextRequest.class);
+        this.handler = handler;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public void dispatch(int service, EndpointServiceRequest<?, ?> req) throws ServiceFaultException {
+        switch (service) {
+        case 0:
+            handler.onAddNodes((EndpointServiceRequest<AddNodesRequest, AddNodesResponse>) req);
+            break;
+        case 1:
+            handler.onAddReferences((EndpointServiceRequest<AddReferencesRequest, AddReferencesResponse>) req);
+            break;
+        case 2:
+            handler.onDeleteNodes((EndpointServiceRequest<DeleteNodesRequest, DeleteNodesResponse>) req);
+            break;
+        case 3:
+            handler.onDeleteReferences((EndpointServiceRequest<DeleteReferencesRequest, DeleteReferencesResponse>) req);
+            break;
+        case 4:
+            handler.onBrowse((EndpointServiceRequest<BrowseRequest, BrowseResponse>) req);
+            break;
+        case 5:
+            handler.onBrowseNext((EndpointServiceRequest<BrowseNextRequest, BrowseNextResponse>) req);
+            break;
+        case 6:
+            handler.onTranslateBrowsePathsToNodeIds((EndpointServiceRequest<TranslateBrowsePathsToNodeIdsRequest, TranslateBrowsePathsToNodeIdsResponse>) req);
+            break;
+        case 7:
+            handler.onRegisterNodes((EndpointServiceRequest<RegisterNodesRequest, RegisterNodesResponse>) req);
+            break;
+        case 8:
+            handler.onUnregisterNodes((EndpointServiceRequest<UnregisterNodesRequest, UnregisterNodesResponse>) req);
+            break;
+        case 9:
+            handler.onQueryFirst((EndpointServiceRequest<QueryFirstRequest, QueryFirstResponse>) req);
+            break;
+        case 10:
+            handler.onQueryNext((EndpointServiceRequest<QueryNextRequest, QueryNextResponse>) req);
+            break;
+        default:
+            throw new IllegalArgumentException("Service index "+service);
+        }
+    }
+ 
+}
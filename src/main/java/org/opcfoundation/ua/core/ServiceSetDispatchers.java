@@ -0,0 +1,70 @@
+/* ========================================================================
+ * Copyright (c) 2005-2015 The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here:
+ * http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================*/
+
+package org.opcfoundation.ua.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opcfoundation.ua.transport.endpoint.ServiceSetDispatcher;
+
+
+/**
+ * Creates the dispatchers of the service set handlers an object implements.
+ */
+public class ServiceSetDispatchers {
+    
+    /**
+     * Create a dispatcher for each service set handler interface of an object.
+     *
+     * @param handler service handling object
+     * @return dispatchers, empty if the object implements no service set handler
+     */
+    public static List<ServiceSetDispatcher> of(Object handler) {
+        List<ServiceSetDispatcher> result = new ArrayList<ServiceSetDispatcher>();
+        if (handler instanceof DiscoveryServiceSetHandler)
+            result.add(new DiscoveryServiceSetDispatcher((DiscoveryServiceSetHandler) handler));
+        if (handler instanceof SecureChannelServiceSetHandler)
+            result.add(new SecureChannelServiceSetDispatcher((SecureChannelServiceSetHandler) handler));
+        if (handler instanceof SessionServiceSetHandler)
+            result.add(new SessionServiceSetDispatcher((SessionServiceSetHandler) handler));
+        if (handler instanceof NodeManagementServiceSetHandler)
+            result.add(new NodeManagementServiceSetDispatcher((NodeManagementServiceSetHandler) handler));
+        if (handler instanceof AttributeServiceSetHandler)
+            result.add(new AttributeServiceSetDispatcher((AttributeServiceSetHandler) handler));
+        if (handler instanceof MethodServiceSetHandler)
+            result.add(new MethodServiceSetDispatcher((MethodServiceSetHandler) handler));
+        if (handler instanceof MonitoredItemServiceSetHandler)
+            result.add(new MonitoredItemServiceSetDispatcher((MonitoredItemServiceSetHandler) handler));
+        if (handler instanceof SubscriptionServiceSetHandler)
+            result.add(new SubscriptionServiceSetDispatcher((SubscriptionServiceSetHandler) handler));
+        return result;
+    }
+ 
+}
@@ -48,12 +48,27 @@ public class UriUtil {
 
 	public final static String SCHEME_HTTPS = "opc.https"; //1.04 Part 6 section 7.4.1
 
+	/** In-process transport, see {@link org.opcfoundation.ua.transport.local.LocalServer} */
+	public final static String SCHEME_LOCAL = "opc.local";
+
+	/** opc.tcp over a unix domain socket, used as a bind address: opc.tcp+unix:///path/to/socket */
+	public final static String SCHEME_OPCTCP_UNIX = "opc.tcp+unix";
+
+	/** Shared-memory transport between processes of one host: opc.shm:///path/to/directory, see {@link org.opcfoundation.ua.transport.shm.ShmServer} */
+	public final static String SCHEME_SHM = "opc.shm";
+
 	public static final Pattern PATTERN_HTTPS = Pattern.compile( "^opc.https://([^/]+)(/.*)?$", Pattern.CASE_INSENSITIVE );
 	
 	public static final Pattern PATTERN_HTTP = Pattern.compile( "^http://([^/]+)(/.*)?$", Pattern.CASE_INSENSITIVE );
 
 	public static final Pattern PATTERN_OPCTCP = Pattern.compile( "^opc.tcp://([^/]+)(/.*)?$", Pattern.CASE_INSENSITIVE );
 
+	public static final Pattern PATTERN_LOCAL = Pattern.compile( "^opc.local://([^/]+)(/.*)?$", Pattern.CASE_INSENSITIVE );
+
+	public static final Pattern PATTERN_OPCTCP_UNIX = Pattern.compile( "^opc.tcp\\+unix://(/.+)$", Pattern.CASE_INSENSITIVE );
+
+	public static final Pattern PATTERN_SHM = Pattern.compile( "^opc.shm://(/.+)$", Pattern.CASE_INSENSITIVE );
+
 	public static final Pattern PATTERN_URI = Pattern.compile( "^(\\S+)://([^/]+)(/.*)?$", Pattern.CASE_INSENSITIVE );
 
 	public static enum MessageFormat {
@@ -74,6 +89,8 @@ public class UriUtil {
 		if (PATTERN_OPCTCP.matcher(endpointUri).matches()) return MessageFormat.Binary;		
 		if (PATTERN_HTTPS.matcher(endpointUri).matches()) return MessageFormat.Binary;
 		if (PATTERN_HTTP.matcher(endpointUri).matches()) return MessageFormat.Binary;
+		if (PATTERN_LOCAL.matcher(endpointUri).matches()) return MessageFormat.Binary;
+		if (PATTERN_SHM.matcher(endpointUri).matches()) return MessageFormat.Binary;
 		throw new ServiceResultException(StatusCodes.Bad_ServerUriInvalid);
 	}
 	
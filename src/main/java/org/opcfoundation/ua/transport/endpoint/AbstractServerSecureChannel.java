@@ -13,6 +13,7 @@ package org.opcfoundation.ua.transport.endpoint;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opcfoundation.ua.common.ServiceResultException;
@@ -38,10 +39,17 @@ public abstract class AbstractServerSecureChannel extends AbstractState<Closeabl
 
 	/** Globally Unique Secure Channel ID */
 	private int					secureChannelId;
-	/** Collection of all Security Tokens */
+	/**
+	 * Collection of all Security Tokens. A renewed token is added while the
+	 * previous one is still in use, and both are accepted until the previous
+	 * one expires.
+	 */
 	protected Map<Integer, SecurityToken> tokens = new ConcurrentHashMap<Integer, SecurityToken>();
 	/** The active token, This token is used in write operations */
-	protected SecurityToken			activeToken;
+	protected volatile SecurityToken activeToken;
+	/** Switches {@link #activeToken} atomically in {@link #activateSecurityToken(SecurityToken)} */
+	private static final AtomicReferenceFieldUpdater<AbstractServerSecureChannel, SecurityToken> ACTIVE_TOKEN =
+			AtomicReferenceFieldUpdater.newUpdater(AbstractServerSecureChannel.class, SecurityToken.class, "activeToken");
 	
 	/** Logger */
 	static Logger logger = LoggerFactory.getLogger(AbstractServerSecureChannel.class);
@@ -86,6 +94,27 @@ public abstract class AbstractServerSecureChannel extends AbstractState<Closeabl
 		this.activeToken = token;
 		pruneInvalidTokens();
 	}
+
+	/**
+	 * Switch to a token that the client has started to use, if it is newer
+	 * than the active token. The switch is atomic, so that messages of the
+	 * previous token that are received concurrently do not switch back to it.
+	 *
+	 * @param token a token of this channel
+	 * @return true if the token became the active token
+	 */
+	public boolean activateSecurityToken(SecurityToken token) {
+		for (;;) {
+			SecurityToken current = activeToken;
+			if (current == token || (current != null && current.getCreationTime() >= token.getCreationTime()))
+				return false;
+			if (ACTIVE_TOKEN.compareAndSet(this, current, token)) {
+				logger.debug("Switching to new security token {}", token.getTokenId());
+				pruneInvalidTokens();
+				return true;
+			}
+		}
+	}
 	
 	/**
 	 * <p>getSecurityToken.</p>
@@ -93,8 +122,7 @@ public abstract class AbstractServerSecureChannel extends AbstractState<Closeabl
 	 * @param tokenId a int.
 	 * @return a {@link org.opcfoundation.ua.transport.tcp.impl.SecurityToken} object.
 	 */
-	public synchronized SecurityToken getSecurityToken(int tokenId) {
-		logger.debug("tokens({})={}", tokens.size(), tokens.values());
+	public SecurityToken getSecurityToken(int tokenId) {
 		return tokens.get(tokenId);
 	}
 	
@@ -134,7 +162,7 @@ public abstract class AbstractServerSecureChannel extends AbstractState<Closeabl
 	 *
 	 * @return a {@link org.opcfoundation.ua.transport.tcp.impl.SecurityToken} object.
 	 */
-	public synchronized SecurityToken getLatestNonExpiredToken()
+	public SecurityToken getLatestNonExpiredToken()
 	{
 		SecurityToken result = null;
 		for (SecurityToken t : tokens.values())
@@ -12,16 +12,24 @@
 
 package org.opcfoundation.ua.transport.endpoint;
 
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.opcfoundation.ua.application.Server;
 import org.opcfoundation.ua.builtintypes.DateTime;
 import org.opcfoundation.ua.builtintypes.ServiceRequest;
 import org.opcfoundation.ua.builtintypes.ServiceResponse;
 import org.opcfoundation.ua.builtintypes.ServiceResult;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.core.RequestHeader;
 import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
 import org.opcfoundation.ua.transport.AsyncWrite;
 import org.opcfoundation.ua.transport.Endpoint;
 import org.opcfoundation.ua.transport.ServerSecureChannel;
 import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.StackUtils;
+import org.opcfoundation.ua.utils.TimerUtil;
 
 /**
  * Asynchronous message exchange.
@@ -29,6 +37,14 @@ import org.opcfoundation.ua.transport.security.SecurityMode;
  * A service request to be processed by a server (as opposed to service request queried by a client).
  * <p>
  * To send service error use sendResponse(new ServiceFault());
+ * <p>
+ * A service handler does not have to answer before it returns. It may keep
+ * the request, e.g. a Publish request waiting for notifications, and answer
+ * it later from any thread with {@link #complete(ServiceResponse)}. Such a
+ * request can be given a timeout with {@link #scheduleTimeout()} and be
+ * cancelled with {@link #cancel(UnsignedInteger)}. A request is answered
+ * only once: the first of the send, complete and cancel methods answers it
+ * and the later ones do nothing.
  */
 public abstract class EndpointServiceRequest<Request extends ServiceRequest, Response extends ServiceResponse> {
 
@@ -37,6 +53,10 @@ public abstract class EndpointServiceRequest<Request extends ServiceRequest, Res
 	protected Request request;
 	protected DateTime receiveTimestamp;
 
+	private final AtomicBoolean completed = new AtomicBoolean();
+	private volatile TimerTask timeoutTask;
+	private volatile Runnable cancelHandler;
+
 	/**
 	 * <p>Constructor for EndpointServiceRequest.</p>
 	 *
@@ -93,11 +113,23 @@ public abstract class EndpointServiceRequest<Request extends ServiceRequest, Res
 	}
 	
 	/**
-	 * Send response.
+	 * Send response, unless the request is already completed. Transports
+	 * implement {@link #writeResponse(AsyncWrite)} instead.
+	 *
+	 * @param response async write wrapping response or {@link ServiceFault}
+	 */
+	public final void sendResponse(AsyncWrite response) {
+		if (markCompleted())
+			writeResponse(response);
+	}
+
+	/**
+	 * Write the response of the request to the channel. Called once, by the
+	 * method that completes the request.
 	 *
 	 * @param response async write wrapping response or {@link ServiceFault}
 	 */
-	public abstract void sendResponse(AsyncWrite response);
+	protected abstract void writeResponse(AsyncWrite response);
 
 	/**
 	 * Send a response.
@@ -126,6 +158,98 @@ public abstract class EndpointServiceRequest<Request extends ServiceRequest, Res
 	public void sendException(Throwable e) {
 		sendResponse( new AsyncWrite( ServiceFault.toServiceFault(e) ) );
 	}
+
+	/**
+	 * Send a response, unless the request is already completed.
+	 *
+	 * @param response the response
+	 * @return true if the response was sent, false if the request was
+	 *         already completed, e.g. it timed out or was cancelled
+	 */
+	public boolean complete(Response response) {
+		if (!markCompleted())
+			return false;
+		writeResponse(new AsyncWrite(response));
+		return true;
+	}
+
+	/**
+	 * Answer with a service fault, unless the request is already completed.
+	 * The cancel handler of the request is run.
+	 *
+	 * @param statusCode status code of the fault, e.g. Bad_RequestCancelledByClient
+	 * @return true if the fault was sent, false if the request was already completed
+	 */
+	public boolean cancel(UnsignedInteger statusCode) {
+		if (!markCompleted())
+			return false;
+		ServiceFault fault = ServiceFault.createServiceFault(statusCode);
+		RequestHeader header = request.getRequestHeader();
+		if (header != null)
+			fault.getResponseHeader().setRequestHandle(header.getRequestHandle());
+		writeResponse(new AsyncWrite(fault));
+		Runnable handler = cancelHandler;
+		if (handler != null)
+			handler.run();
+		return true;
+	}
+
+	/**
+	 * @return true if the request has been answered
+	 */
+	public boolean isCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Set the handler that is run when the request is cancelled or times out,
+	 * e.g. to remove the request from the queue where it waits.
+	 *
+	 * @param cancelHandler handler or null
+	 */
+	public void setCancelHandler(Runnable cancelHandler) {
+		this.cancelHandler = cancelHandler;
+	}
+
+	/**
+	 * Answer with Bad_Timeout if the request is not completed within the
+	 * timeoutHint of its request header. Nothing is done if the hint is 0.
+	 */
+	public void scheduleTimeout() {
+		RequestHeader header = request.getRequestHeader();
+		UnsignedInteger timeoutHint = header == null ? null : header.getTimeoutHint();
+		if (timeoutHint != null && timeoutHint.longValue() > 0)
+			scheduleTimeout(timeoutHint.longValue());
+	}
+
+	/**
+	 * Answer with Bad_Timeout if the request is not completed in time.
+	 *
+	 * @param timeout timeout in milliseconds from now
+	 */
+	public void scheduleTimeout(long timeout) {
+		TimerTask task = TimerUtil.schedule(new Runnable() {
+			@Override
+			public void run() {
+				cancel(StatusCodes.Bad_Timeout);
+			}
+		}, StackUtils.getNonBlockingWorkExecutor(), System.currentTimeMillis() + timeout);
+		TimerTask old = timeoutTask;
+		timeoutTask = task;
+		if (old != null)
+			old.cancel();
+		if (isCompleted())
+			task.cancel();
+	}
+
+	private boolean markCompleted() {
+		if (!completed.compareAndSet(false, true))
+			return false;
+		TimerTask task = timeoutTask;
+		if (task != null)
+			task.cancel();
+		return true;
+	}
 	
 	/**
 	 * <p>getChannel.</p>
@@ -0,0 +1,80 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.endpoint;
+
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.encoding.IEncodeable;
+
+/**
+ * Dispatches the requests of one service set to a handler with direct
+ * method calls.
+ * <p>
+ * The services of the set are numbered densely from 0 in the order of
+ * the service set. Implementations are generated for each service set
+ * handler, e.g. AttributeServiceSetDispatcher.
+ *
+ * @see org.opcfoundation.ua.core.ServiceSetDispatchers
+ */
+public abstract class ServiceSetDispatcher {
+
+	private final Object handler;
+	private final Class<?>[] services;
+
+	/**
+	 * <p>Constructor for ServiceSetDispatcher.</p>
+	 *
+	 * @param handler the service set handler
+	 * @param services request classes of the service set, by service index
+	 */
+	protected ServiceSetDispatcher(Object handler, Class<?>... services) {
+		if (handler == null)
+			throw new IllegalArgumentException("null");
+		this.handler = handler;
+		this.services = services;
+	}
+
+	/**
+	 * @return the service set handler
+	 */
+	public Object getHandler() {
+		return handler;
+	}
+
+	/**
+	 * @return number of services in the service set
+	 */
+	public int getServiceCount() {
+		return services.length;
+	}
+
+	/**
+	 * Get the request class of a service.
+	 *
+	 * @param service service index
+	 * @return request class
+	 */
+	@SuppressWarnings("unchecked")
+	public Class<? extends IEncodeable> getService(int service) {
+		return (Class<? extends IEncodeable>) services[service];
+	}
+
+	/**
+	 * Call the handler method of a service.
+	 *
+	 * @param service service index
+	 * @param request the service request, its request must be of class {@link #getService(int)}
+	 * @throws ServiceFaultException if the handler fails
+	 */
+	public abstract void dispatch(int service, EndpointServiceRequest<?, ?> request) throws ServiceFaultException;
+
+}
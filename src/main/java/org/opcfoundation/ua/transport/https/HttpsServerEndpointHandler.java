@@ -186,7 +186,7 @@ public class HttpsServerEndpointHandler implements HttpAsyncRequestHandler<HttpR
 	{
 		// 1. Handle message & 2. Send Response
 		try {			
-			endpointBinding.serviceServer.getServiceHandlerComposition().serve( msgExchange );
+			endpointBinding.serviceServer.serve( msgExchange );
 		} catch (ServiceResultException e) {
 			// Managed Error
 			String errorMessage = msgExchange.getClass().getSimpleName()+" is not a ServiceRequest.";
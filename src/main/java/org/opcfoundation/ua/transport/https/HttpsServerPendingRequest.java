@@ -118,7 +118,7 @@ class HttpsServerPendingRequest extends EndpointServiceRequest<ServiceRequest, S
 	
 	/** {@inheritDoc} */
 	@Override
-	public void sendResponse(final AsyncWrite write) {
+	protected void writeResponse(final AsyncWrite write) {
 		this.write = write;
 		final int statusCode = write.getMessage() instanceof ServiceResponse ? 200 : 400;
 		write.setQueued();
@@ -141,7 +141,7 @@ class HttpsServerPendingRequest extends EndpointServiceRequest<ServiceRequest, S
 	/** {@inheritDoc} */
 	@Override
 	public AsyncWrite sendResponse(ServiceResponse response) {
-		write = new AsyncWrite(response);
+		AsyncWrite write = new AsyncWrite(response);
 		sendResponse( write );
 		return write;
 	}
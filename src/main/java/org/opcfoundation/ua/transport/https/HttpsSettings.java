@@ -112,7 +112,7 @@ public class HttpsSettings {
 			try {
 		        KeyStore keystore = KeyStore.getInstance("jks");
 		        Certificate[] certs = new Certificate[] { keypair.certificate.certificate };
-		        PrivateKeyEntry entry = new PrivateKeyEntry(keypair.privateKey.getPrivateKey(), certs);
+		        PrivateKeyEntry entry = new PrivateKeyEntry(keypair.privateKey.getKey(), certs);
 		        String password = "";
 		        keystore.load( null );
 		        keystore.setEntry("myentry-"+keypair.hashCode(), entry, new PasswordProtection(password.toCharArray()));
@@ -160,7 +160,7 @@ public class HttpsSettings {
 	        	for ( int j=0; j<caCerts.length; j++ ) {
 	        		certs[j+1] = caCerts[j].certificate;
 	        	}
-	        	PrivateKeyEntry entry = new PrivateKeyEntry( keypairs[i].privateKey.privateKey, certs);
+	        	PrivateKeyEntry entry = new PrivateKeyEntry( keypairs[i].privateKey.getKey(), certs);
 		        keystore.setEntry("my-key-pair-entry-"+(i+1), entry, prot );
 	        }
 	        int count = caCerts.length;
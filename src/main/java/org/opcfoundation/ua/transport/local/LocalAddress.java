@@ -0,0 +1,88 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.local;
+
+import java.net.SocketAddress;
+import java.util.Locale;
+import java.util.regex.Matcher;
+
+import org.opcfoundation.ua.transport.UriUtil;
+
+/**
+ * Address of an opc.local endpoint. It is the authority part of the url,
+ * e.g. "myserver" in "opc.local://myserver/UAExample", and is unique
+ * within the JVM.
+ */
+public class LocalAddress extends SocketAddress {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String name;
+
+	/**
+	 * <p>Constructor for LocalAddress.</p>
+	 *
+	 * @param name address name, case insensitive
+	 */
+	public LocalAddress(String name) {
+		if (name == null || name.length() == 0)
+			throw new IllegalArgumentException("name must not be empty");
+		this.name = name.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Get the address of an opc.local url
+	 *
+	 * @param endpointUrl url, e.g. "opc.local://myserver/UAExample"
+	 * @return address
+	 * @throws java.lang.IllegalArgumentException if the url is not an opc.local url
+	 */
+	public static LocalAddress valueOf(String endpointUrl)
+	throws IllegalArgumentException
+	{
+		Matcher m = UriUtil.PATTERN_LOCAL.matcher(endpointUrl);
+		if (!m.matches())
+			throw new IllegalArgumentException("Not an " + UriUtil.SCHEME_LOCAL + " url: " + endpointUrl);
+		return new LocalAddress(m.group(1));
+	}
+
+	/**
+	 * @return the name of the address
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof LocalAddress))
+			return false;
+		return name.equals(((LocalAddress) obj).name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return UriUtil.SCHEME_LOCAL + "://" + name;
+	}
+
+}
@@ -0,0 +1,262 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.local;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.ServiceResponse;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.EndpointConfiguration;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.ResponseHeader;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.EncoderContext;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.TransportChannelSettings;
+import org.opcfoundation.ua.transport.impl.AsyncResultImpl;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.utils.StackUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client end of an opc.local secure channel.
+ * <p>
+ * The channel opens a {@link LocalServerSecureChannel} of the {@link LocalServer}
+ * that has bound the address of the url. {@link #serviceRequest(ServiceRequest)}
+ * serves the request in the calling thread, {@link #serviceRequestAsync(ServiceRequest)}
+ * in a thread of the blocking work executor. The channel has no security,
+ * the message security mode must be None.
+ */
+public class LocalSecureChannel implements SecureChannel {
+
+	static Logger logger = LoggerFactory.getLogger(LocalSecureChannel.class);
+
+	String connectUrl;
+	LocalAddress address;
+	TransportChannelSettings settings;
+	EncoderContext ctx;
+	volatile LocalServerSecureChannel channel;
+	Executor executor = StackUtils.getBlockingWorkExecutor();
+
+	/** {@inheritDoc} */
+	@Override
+	public void initialize(String connectUrl, TransportChannelSettings settings, EncoderContext ctx) throws ServiceResultException {
+		try {
+			this.address = LocalAddress.valueOf(connectUrl);
+		} catch (IllegalArgumentException e) {
+			throw new ServiceResultException(StatusCodes.Bad_ServerUriInvalid, e);
+		}
+		EndpointDescription description = settings.getDescription();
+		if ( description != null && description.getSecurityMode() != null && description.getSecurityMode() != MessageSecurityMode.None )
+			throw new ServiceResultException(StatusCodes.Bad_SecurityModeRejected, "opc.local supports only MessageSecurityMode None");
+		this.connectUrl = connectUrl;
+		this.settings = settings;
+		this.ctx = ctx;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void initialize(TransportChannelSettings settings, EncoderContext ctx) throws ServiceResultException {
+		initialize(settings.getDescription().getEndpointUrl(), settings, ctx);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void open() throws ServiceResultException {
+		if ( isOpen() ) return;
+		LocalServer server = LocalServer.getServer(address);
+		if ( server == null )
+			throw new ServiceResultException(StatusCodes.Bad_ServerNotConnected, "No server is bound to " + address);
+		EndpointDescription description = settings.getDescription();
+		String endpointUrl = description != null && description.getEndpointUrl() != null ? description.getEndpointUrl() : connectUrl;
+		channel = server.openSecureChannel(address, endpointUrl);
+		logger.debug("open: SecureChannelId={}", channel.getSecureChannelId());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<SecureChannel> openAsync() {
+		AsyncResultImpl<SecureChannel> result = new AsyncResultImpl<SecureChannel>();
+		try {
+			open();
+			result.setResult(this);
+		} catch (ServiceResultException e) {
+			result.setError(e);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServiceResponse serviceRequest(ServiceRequest request) throws ServiceResultException {
+		LocalServerSecureChannel ch = channel;
+		if ( ch == null )
+			throw new ServiceResultException(StatusCodes.Bad_SecureChannelClosed);
+		AsyncResult<ServiceResponse> result = ch.serve(request);
+		long timeout = getRequestTimeout(request);
+		ServiceResponse res = timeout == 0 ? result.waitForResult() : result.waitForResult(timeout, TimeUnit.MILLISECONDS);
+		ResponseHeader responseHeader = res.getResponseHeader();
+		StatusCode statusCode = responseHeader == null ? null : responseHeader.getServiceResult();
+		if ( statusCode != null && statusCode.isBad() ) {
+			logger.debug("BAD response: {}", statusCode);
+			throw new ServiceFaultException(new ServiceFault(responseHeader));
+		}
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<ServiceResponse> serviceRequestAsync(final ServiceRequest request) {
+		final AsyncResultImpl<ServiceResponse> result = new AsyncResultImpl<ServiceResponse>();
+		final LocalServerSecureChannel ch = channel;
+		if ( ch == null ) {
+			result.setError(new ServiceResultException(StatusCodes.Bad_SecureChannelClosed));
+			return result;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				result.setSource( ch.serve(request) );
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Get the timeout of a request, the timeout hint of the request or
+	 * the operation timeout.
+	 *
+	 * @param request request
+	 * @return timeout in milliseconds, 0 for none
+	 */
+	protected long getRequestTimeout(ServiceRequest request) {
+		UnsignedInteger timeoutHint = request.getRequestHeader() != null ? request.getRequestHeader().getTimeoutHint() : null;
+		return timeoutHint != null ? timeoutHint.longValue() : getOperationTimeout();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getSecureChannelId() {
+		LocalServerSecureChannel ch = channel;
+		return ch == null ? -1 : ch.getSecureChannelId();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServerConnection getConnection() {
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public MessageSecurityMode getMessageSecurityMode() {
+		return MessageSecurityMode.None;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SecurityPolicy getSecurityPolicy() {
+		return SecurityPolicy.NONE;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getConnectURL() {
+		return isOpen() ? connectUrl : null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isOpen() {
+		LocalServerSecureChannel ch = channel;
+		return ch != null && ch.isOpen();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		LocalServerSecureChannel ch = channel;
+		channel = null;
+		if ( ch != null )
+			ch.close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<SecureChannel> closeAsync() {
+		AsyncResultImpl<SecureChannel> result = new AsyncResultImpl<SecureChannel>();
+		close();
+		result.setResult(this);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void dispose() {
+		close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointDescription getEndpointDescription() {
+		return settings == null ? null : settings.getDescription();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointConfiguration getEndpointConfiguration() {
+		return settings == null ? null : settings.getConfiguration();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EncoderContext getMessageContext() {
+		return ctx;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setOperationTimeout(int timeout) {
+		EndpointConfiguration ec = settings.getConfiguration();
+		if ( ec == null ) {
+			ec = new EndpointConfiguration();
+			settings.setConfiguration(ec);
+		}
+		ec.setOperationTimeout(timeout);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getOperationTimeout() {
+		EndpointConfiguration ec = settings == null ? null : settings.getConfiguration();
+		Integer timeout = ec == null ? null : ec.getOperationTimeout();
+		return timeout == null ? 0 : timeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "LocalSecureChannel(" + connectUrl + ", SecureChannelId=" + getSecureChannelId() + ")";
+	}
+
+}
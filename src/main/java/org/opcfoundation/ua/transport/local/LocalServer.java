@@ -0,0 +1,340 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.local;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.EncoderContext;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.opcfoundation.ua.encoding.binary.BinaryDecoder;
+import org.opcfoundation.ua.encoding.binary.BinaryEncoder;
+import org.opcfoundation.ua.transport.CloseableObject;
+import org.opcfoundation.ua.transport.CloseableObjectState;
+import org.opcfoundation.ua.transport.Endpoint;
+import org.opcfoundation.ua.transport.EndpointBinding;
+import org.opcfoundation.ua.transport.EndpointServer;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.endpoint.EndpointBindingCollection;
+import org.opcfoundation.ua.transport.impl.ConnectionCollection;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.AbstractState;
+import org.opcfoundation.ua.utils.SizeCalculationOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Host for opc.local endpoints.
+ * <p>
+ * opc.local is an in-process transport for a client and a server in the
+ * same JVM. There is no socket, no chunking and no encoding: the
+ * {@link LocalSecureChannel} of the client hands the {@link org.opcfoundation.ua.builtintypes.ServiceRequest}
+ * object to the {@link org.opcfoundation.ua.application.Server} of the endpoint, and the
+ * response object is handed back the same way. As nothing leaves the
+ * process, the secure channels have no security, the endpoints must
+ * support {@link SecurityMode#NONE}.
+ * <p>
+ * The messages are shared by the client and the server. If either may
+ * modify a message after it is sent, set {@link #setCopyMessages(boolean)},
+ * then each request and response is copied with a binary encode and decode.
+ * <p>
+ * The addresses bound by the local servers of all applications are in one
+ * registry of the JVM, see {@link #getServer(LocalAddress)}.
+ */
+public class LocalServer extends AbstractState<CloseableObjectState, ServiceResultException> implements EndpointServer {
+
+	/** Logger */
+	static Logger log = LoggerFactory.getLogger(LocalServer.class);
+
+	/** Bound addresses of the JVM */
+	static final ConcurrentMap<LocalAddress, LocalServer> servers = new ConcurrentHashMap<LocalAddress, LocalServer>();
+
+	/**
+	 * Get the server that has bound an address.
+	 *
+	 * @param address address
+	 * @return server or null
+	 */
+	public static LocalServer getServer(LocalAddress address) {
+		return servers.get(address);
+	}
+
+	/** Application */
+	Application application;
+	/** Secure channel counter */
+	AtomicInteger secureChannelCounter = new AtomicInteger();
+	/** Endpoint bindings */
+	EndpointBindingCollection endpointBindings = new EndpointBindingCollection();
+	/** Connection listeners */
+	ConnectionCollection connections = new ConnectionCollection(this);
+	/** Endpoint handles by address */
+	Map<LocalAddress, Map<Endpoint, LocalEndpointHandle>> addressHandles = new LinkedHashMap<LocalAddress, Map<Endpoint, LocalEndpointHandle>>();
+	/** Copy messages */
+	volatile boolean copyMessages;
+
+	/**
+	 * <p>Constructor for LocalServer.</p>
+	 *
+	 * @param application a {@link org.opcfoundation.ua.application.Application} object.
+	 */
+	public LocalServer(Application application) {
+		super(CloseableObjectState.Closed, CloseableObjectState.Closed);
+		this.application = application;
+	}
+
+	/**
+	 * @return true if requests and responses are copied
+	 */
+	public boolean isCopyMessages() {
+		return copyMessages;
+	}
+
+	/**
+	 * Set whether requests and responses are copied, so that the client and
+	 * the server do not share message objects. Default is false.
+	 *
+	 * @param copyMessages true to copy messages
+	 */
+	public void setCopyMessages(boolean copyMessages) {
+		this.copyMessages = copyMessages;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointHandle bind(SocketAddress socketAddress, EndpointBinding endpointBinding) throws ServiceResultException {
+		if ( endpointBinding == null || !(socketAddress instanceof LocalAddress) || endpointBinding.endpointServer!=this )
+			throw new IllegalArgumentException();
+		LocalAddress address = (LocalAddress) socketAddress;
+		LocalEndpointHandle handle;
+		synchronized (this) {
+			LocalServer other = servers.putIfAbsent(address, this);
+			if ( other != null && other != this )
+				throw new ServiceResultException(StatusCodes.Bad_UnexpectedError, address + " is already bound by another application.");
+			Map<Endpoint, LocalEndpointHandle> endpoints = addressHandles.get(address);
+			if ( endpoints == null ) {
+				endpoints = new LinkedHashMap<Endpoint, LocalEndpointHandle>();
+				addressHandles.put(address, endpoints);
+			}
+			handle = endpoints.get(endpointBinding.endpointAddress);
+			if ( handle == null ) {
+				handle = new LocalEndpointHandle(address, endpointBinding);
+				endpoints.put(endpointBinding.endpointAddress, handle);
+				// Add endpointBinding to EndpointServer
+				endpointBindings.add(endpointBinding);
+				// Add endpointBinding to Server
+				endpointBinding.serviceServer.getEndpointBindings().add(endpointBinding);
+			} else if ( !handle.endpointBinding.equals( endpointBinding ) ) {
+				throw new ServiceResultException( StatusCodes.Bad_UnexpectedError, "Cannot bind an endpoint address to two different servers." );
+			}
+			if ( !getState().isOpen() ) setState(CloseableObjectState.Open);
+		}
+		log.info("Endpoint bound to {}", endpointBinding.endpointAddress.getEndpointUrl());
+		return handle;
+	}
+
+	/**
+	 * Get the endpoint handles of an address.
+	 *
+	 * @param address address
+	 * @return handles, empty if the address is not bound
+	 */
+	public synchronized LocalEndpointHandle[] endpointHandleSnapshot(SocketAddress address) {
+		Map<Endpoint, LocalEndpointHandle> endpoints = addressHandles.get(address);
+		if ( endpoints == null ) return new LocalEndpointHandle[0];
+		return endpoints.values().toArray( new LocalEndpointHandle[ endpoints.size() ] );
+	}
+
+	/**
+	 * Open a secure channel to an endpoint of an address. The endpoint whose
+	 * url matches is used, or if none matches, the first endpoint of the
+	 * address, e.g. for discovery.
+	 *
+	 * @param address bound address
+	 * @param endpointUrl endpoint url
+	 * @return open secure channel
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if the address is not bound or the endpoint does not support security mode None
+	 */
+	public LocalServerSecureChannel openSecureChannel(LocalAddress address, String endpointUrl) throws ServiceResultException {
+		EndpointBinding endpointBinding = null;
+		for ( LocalEndpointHandle handle : endpointHandleSnapshot(address) ) {
+			if ( endpointBinding == null )
+				endpointBinding = handle.endpointBinding;
+			if ( handle.endpointBinding.endpointAddress.getEndpointUrl().equalsIgnoreCase( endpointUrl ) ) {
+				endpointBinding = handle.endpointBinding;
+				break;
+			}
+		}
+		if ( endpointBinding == null )
+			throw new ServiceResultException(StatusCodes.Bad_TcpEndpointUrlInvalid, "No endpoint is bound to " + address);
+		if ( !endpointBinding.endpointAddress.supportsSecurityMode( SecurityMode.NONE ) )
+			throw new ServiceResultException(StatusCodes.Bad_SecurityModeRejected, "The endpoint " + endpointBinding.endpointAddress.getEndpointUrl() + " does not support security mode None");
+
+		LocalServerConnection connection = new LocalServerConnection(address);
+		LocalServerSecureChannel channel = new LocalServerSecureChannel(this, endpointBinding, connection, secureChannelCounter.incrementAndGet());
+		connection.setSecureChannel(channel);
+		synchronized (connections) {
+			connections.addConnection(connection);
+		}
+		channel.open();
+		log.debug("Secure channel opened: {}", channel);
+		return channel;
+	}
+
+	void removeConnection(LocalServerConnection connection) {
+		synchronized (connections) {
+			connections.removeConnection(connection);
+		}
+	}
+
+	/**
+	 * Copy a message with a binary encode and decode.
+	 *
+	 * @param msg message
+	 * @return copy of the message
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if the message cannot be encoded
+	 */
+	public <T extends IEncodeable> T copy(T msg) throws ServiceResultException {
+		EncoderContext ctx = getEncoderContext();
+		SizeCalculationOutputStream calcBuf = new SizeCalculationOutputStream();
+		BinaryEncoder calc = new BinaryEncoder(calcBuf);
+		calc.setEncoderContext( ctx );
+		calc.putMessage( msg );
+		byte[] data = new byte[ calcBuf.getLength() ];
+		BinaryEncoder enc = new BinaryEncoder( data );
+		enc.setEncoderContext( ctx );
+		enc.putMessage( msg );
+		BinaryDecoder dec = new BinaryDecoder( data );
+		dec.setEncoderContext( ctx );
+		return dec.getMessage();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void bindReverse(SocketAddress addressToConnect, String endpointUrl) {
+		throw new UnsupportedOperationException("opc.local does not support ReverseHello");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addConnectionListener(ConnectListener l) {
+		connections.addConnectionListener(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getConnections(Collection<ServerConnection> result) {
+		connections.getConnections(result);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeConnectionListener(ConnectListener l) {
+		connections.removeConnectionListener(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized List<SocketAddress> getBoundSocketAddresses() {
+		return new ArrayList<SocketAddress>( addressHandles.keySet() );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EncoderContext getEncoderContext() {
+		return application.getEncoderContext();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointBindingCollection getEndpointBindings() {
+		return endpointBindings;
+	}
+
+	/**
+	 * Unbind all endpoints and close the open secure channels.
+	 *
+	 * @return a {@link org.opcfoundation.ua.transport.CloseableObject} object.
+	 */
+	public CloseableObject close() {
+		synchronized (this) {
+			if ( getState() == CloseableObjectState.Closed ) return this;
+			setState(CloseableObjectState.Closing);
+			for ( LocalAddress address : new ArrayList<LocalAddress>( addressHandles.keySet() ) ) {
+				for ( LocalEndpointHandle handle : endpointHandleSnapshot(address) )
+					handle.close();
+			}
+		}
+		List<ServerConnection> list = new ArrayList<ServerConnection>();
+		getConnections(list);
+		for ( ServerConnection connection : list )
+			((LocalServerConnection) connection).getSecureChannel().close();
+		setState(CloseableObjectState.Closed);
+		return this;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return "LocalServer(" + addressHandles.keySet() + ")";
+	}
+
+	public class LocalEndpointHandle implements EndpointHandle {
+		LocalAddress address;
+		EndpointBinding endpointBinding;
+		LocalEndpointHandle(LocalAddress address, EndpointBinding endpointBinding) {
+			this.address = address;
+			this.endpointBinding = endpointBinding;
+		}
+		@Override
+		public SocketAddress socketAddress() {
+			return address;
+		}
+		@Override
+		public EndpointBinding endpointBinding() {
+			return endpointBinding;
+		}
+		@Override
+		public void close() {
+			synchronized (LocalServer.this) {
+				Map<Endpoint, LocalEndpointHandle> endpoints = addressHandles.get(address);
+				if ( endpoints == null || endpoints.get(endpointBinding.endpointAddress) != this ) return;
+				endpoints.remove(endpointBinding.endpointAddress);
+				// Release the address if this was the last
+				if ( endpoints.isEmpty() ) {
+					addressHandles.remove(address);
+					servers.remove(address, LocalServer.this);
+				}
+				// Remove endpointBinding if it is not bound to other addresses
+				for ( Map<Endpoint, LocalEndpointHandle> e : addressHandles.values() )
+					if ( e.containsKey(endpointBinding.endpointAddress) ) return;
+				endpointBindings.remove(endpointBinding);
+				endpointBinding.serviceServer.getEndpointBindings().remove(endpointBinding);
+			}
+		}
+		@Override
+		public String toString() {
+			return "("+endpointBinding.endpointAddress.toString()+")";
+		}
+	}
+
+}
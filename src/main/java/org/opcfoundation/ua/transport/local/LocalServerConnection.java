@@ -0,0 +1,113 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.local;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.transport.IConnectionListener;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+
+/**
+ * Connection of one opc.local secure channel. Both ends are in this JVM,
+ * the local and the remote address are the bound address.
+ */
+public class LocalServerConnection implements ServerConnection {
+
+	LocalAddress address;
+	LocalServerSecureChannel secureChannel;
+	CopyOnWriteArrayList<SecureChannelListener> secureChannelListeners = new CopyOnWriteArrayList<SecureChannelListener>();
+	CopyOnWriteArrayList<IConnectionListener> connectionListeners = new CopyOnWriteArrayList<IConnectionListener>();
+
+	LocalServerConnection(LocalAddress address) {
+		this.address = address;
+	}
+
+	void setSecureChannel(LocalServerSecureChannel secureChannel) {
+		this.secureChannel = secureChannel;
+	}
+
+	/**
+	 * @return the secure channel of the connection
+	 */
+	public LocalServerSecureChannel getSecureChannel() {
+		return secureChannel;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SocketAddress getLocalAddress() {
+		return address;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SocketAddress getRemoteAddress() {
+		return address;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getSecureChannels(Collection<ServerSecureChannel> list) {
+		if ( secureChannel.isOpen() )
+			list.add( secureChannel );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addSecureChannelListener(SecureChannelListener l) {
+		secureChannelListeners.add(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeSecureChannelListener(SecureChannelListener l) {
+		secureChannelListeners.remove(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addConnectionListener(IConnectionListener listener) {
+		connectionListeners.add(listener);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeConnectionListener(IConnectionListener listener) {
+		connectionListeners.remove(listener);
+	}
+
+	void fireOpen() {
+		for (SecureChannelListener l : secureChannelListeners)
+			l.onSecureChannelAttached(this, secureChannel);
+		for (IConnectionListener l : connectionListeners)
+			l.onOpen();
+	}
+
+	void fireClosed(ServiceResultException closeError) {
+		for (SecureChannelListener l : secureChannelListeners)
+			l.onSecureChannelDetached(this, secureChannel);
+		for (IConnectionListener l : connectionListeners)
+			l.onClosed(closeError);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "LocalServerConnection(" + address + ")";
+	}
+
+}
@@ -0,0 +1,86 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.local;
+
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.ServiceResponse;
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.opcfoundation.ua.transport.AsyncWrite;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.impl.AsyncResultImpl;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+
+/**
+ * Request of an opc.local secure channel. The response is handed to the
+ * result that the client waits for.
+ */
+class LocalServerPendingRequest extends EndpointServiceRequest<ServiceRequest, ServiceResponse> {
+
+	LocalServerSecureChannel channel;
+	int requestId;
+	AsyncResultImpl<ServiceResponse> result;
+
+	LocalServerPendingRequest(LocalServerSecureChannel channel, int requestId, ServiceRequest request, AsyncResultImpl<ServiceResponse> result) {
+		super(request, channel.getServer(), channel.getEndpoint());
+		this.channel = channel;
+		this.requestId = requestId;
+		this.result = result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SecurityMode getSecurityMode() {
+		return SecurityMode.NONE;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServerSecureChannel getChannel() {
+		return channel;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void writeResponse(AsyncWrite write) {
+		channel.requests.remove(requestId);
+		write.setQueued();
+		write.setWriting();
+		IEncodeable msg = write.getMessage();
+		try {
+			if ( channel.server.isCopyMessages() )
+				msg = channel.server.copy(msg);
+		} catch (ServiceResultException e) {
+			write.setError(e);
+			result.setError(e);
+			return;
+		}
+		write.setWritten();
+		if ( msg instanceof ServiceFault )
+			result.setError( new ServiceFaultException( (ServiceFault) msg ) );
+		else
+			result.setResult( (ServiceResponse) msg );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncWrite sendResponse(ServiceResponse response) {
+		AsyncWrite write = new AsyncWrite(response);
+		sendResponse(write);
+		return write;
+	}
+
+}
@@ -0,0 +1,192 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.local;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.ServiceResponse;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.CloseableObjectState;
+import org.opcfoundation.ua.transport.Endpoint;
+import org.opcfoundation.ua.transport.EndpointBinding;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.AbstractServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.impl.AsyncResultImpl;
+import org.opcfoundation.ua.transport.security.Cert;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+
+/**
+ * Server end of an opc.local secure channel. The requests of the client
+ * are served by the {@link Server} of the endpoint in the thread that
+ * sends them.
+ */
+public class LocalServerSecureChannel extends AbstractServerSecureChannel {
+
+	/** Local server */
+	LocalServer server;
+	/** Endpoint binding */
+	EndpointBinding endpointBinding;
+	/** Connection */
+	LocalServerConnection connection;
+	/** Request id counter */
+	AtomicInteger requestIdCounter = new AtomicInteger();
+	/** Requests that are not answered */
+	Map<Integer, LocalServerPendingRequest> requests = new ConcurrentHashMap<Integer, LocalServerPendingRequest>();
+
+	LocalServerSecureChannel(LocalServer server, EndpointBinding endpointBinding, LocalServerConnection connection, int secureChannelId) {
+		super(secureChannelId);
+		this.server = server;
+		this.endpointBinding = endpointBinding;
+		this.connection = connection;
+	}
+
+	void open() {
+		setState(CloseableObjectState.Open);
+		connection.fireOpen();
+	}
+
+	/**
+	 * Serve a request of the client. If the server copies messages, the
+	 * request is copied first.
+	 *
+	 * @param request request
+	 * @return result, completed when the request is answered
+	 */
+	public AsyncResult<ServiceResponse> serve(ServiceRequest request) {
+		AsyncResultImpl<ServiceResponse> result = new AsyncResultImpl<ServiceResponse>();
+		if ( !isOpen() ) {
+			result.setError( new ServiceResultException( StatusCodes.Bad_SecureChannelClosed ) );
+			return result;
+		}
+		try {
+			if ( server.isCopyMessages() )
+				request = server.copy(request);
+		} catch (ServiceResultException e) {
+			result.setError(e);
+			return result;
+		}
+		int requestId = requestIdCounter.incrementAndGet();
+		LocalServerPendingRequest req = new LocalServerPendingRequest(this, requestId, request, result);
+		requests.put(requestId, req);
+		try {
+			getServer().serve(req);
+		} catch (ServiceResultException e) {
+			req.sendException(e);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public KeyPair getLocalCertificate() {
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Cert getRemoteCertificate() {
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public MessageSecurityMode getMessageSecurityMode() {
+		return MessageSecurityMode.None;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SecurityPolicy getSecurityPolicy() {
+		return SecurityPolicy.NONE;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServerConnection getConnection() {
+		return connection;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getConnectURL() {
+		return endpointBinding.endpointAddress.getEndpointUrl();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Endpoint getEndpoint() {
+		return endpointBinding.endpointAddress;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Server getServer() {
+		return endpointBinding.serviceServer;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean needsCertificate() {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getPendingServiceRequests(Collection<EndpointServiceRequest<?, ?>> result) {
+		result.addAll( requests.values() );
+	}
+
+	/**
+	 * Close the channel. The requests that are not answered are cancelled
+	 * with Bad_SecureChannelClosed.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if ( !isOpen() ) return;
+			super.close();
+		}
+		for ( LocalServerPendingRequest req : new ArrayList<LocalServerPendingRequest>( requests.values() ) )
+			req.cancel( StatusCodes.Bad_SecureChannelClosed );
+		requests.clear();
+		server.removeConnection(connection);
+		connection.fireClosed(null);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<ServerSecureChannel> closeAsync() {
+		AsyncResultImpl<ServerSecureChannel> result = new AsyncResultImpl<ServerSecureChannel>();
+		close();
+		result.setResult(this);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void dispose() {
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Code for the in-process opc.local transport, where client and server run in the same JVM
+ */
+package org.opcfoundation.ua.transport.local;
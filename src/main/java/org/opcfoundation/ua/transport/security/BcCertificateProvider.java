@@ -22,6 +22,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -107,7 +108,7 @@ public class BcCertificateProvider implements CertificateProvider {
 					to, new X500Principal(domainName), publicKey);
 			authorityKeyIdentifier = extUtils
 					.createAuthorityKeyIdentifier(caCert);
-			signerKey = issuerKeys.getPrivateKey().getPrivateKey();
+			signerKey = issuerKeys.getPrivateKey().getKey();
 		}
 		certBldr.addExtension(Extension.authorityKeyIdentifier, false,
 				authorityKeyIdentifier)
@@ -118,7 +119,9 @@ public class BcCertificateProvider implements CertificateProvider {
 								.addExtension(
 										Extension.keyUsage,
 										false,
-										new KeyUsage(KeyUsage.digitalSignature
+										new KeyUsage(publicKey instanceof ECKey
+												? KeyUsage.digitalSignature | KeyUsage.nonRepudiation | KeyUsage.keyCertSign
+												: KeyUsage.digitalSignature
 												| KeyUsage.keyEncipherment
 												| KeyUsage.nonRepudiation
 												| KeyUsage.dataEncipherment
@@ -188,7 +191,7 @@ public class BcCertificateProvider implements CertificateProvider {
 		try {
 
 			ContentSigner signer = new JcaContentSignerBuilder(
-					CertificateUtils.getCertificateSignatureAlgorithm())
+					CertificateUtils.getCertificateSignatureAlgorithm(signerKey))
 			.setProvider("BC").build(signerKey);
 			return new JcaX509CertificateConverter().setProvider("BC")
 					.getCertificate(certBldr.build(signer));
@@ -228,7 +231,7 @@ public class BcCertificateProvider implements CertificateProvider {
 					publicKey);
 			authorityKeyIdentifier = extUtils
 					.createAuthorityKeyIdentifier(caCert);
-			signerKey = issuerKeys.getPrivateKey().getPrivateKey();
+			signerKey = issuerKeys.getPrivateKey().getKey();
 		}
 
 		certBldr.addExtension(Extension.authorityKeyIdentifier, false,
@@ -245,7 +248,7 @@ public class BcCertificateProvider implements CertificateProvider {
 		ContentSigner signer;
 		try {
             signer = new JcaContentSignerBuilder(
-                CertificateUtils.getCertificateSignatureAlgorithm())
+                CertificateUtils.getCertificateSignatureAlgorithm(signerKey))
                    .setProvider("BC").build(signerKey);		    
 		} catch (OperatorCreationException e) {
 			throw new GeneralSecurityException(
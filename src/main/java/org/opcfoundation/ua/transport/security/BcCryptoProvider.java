@@ -12,10 +12,13 @@
 package org.opcfoundation.ua.transport.security;
 
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.ECKey;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -28,9 +31,11 @@ import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.CryptoException;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.Signer;
 import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
 import org.bouncycastle.crypto.encodings.OAEPEncoding;
 import org.bouncycastle.crypto.encodings.PKCS1Encoding;
 import org.bouncycastle.crypto.engines.AESEngine;
@@ -43,8 +48,11 @@ import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
 import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
 import org.bouncycastle.crypto.signers.PSSSigner;
 import org.bouncycastle.crypto.signers.RSADigestSigner;
+import org.bouncycastle.jcajce.provider.asymmetric.util.ECUtil;
 import org.bouncycastle.util.encoders.Base64;
 import org.opcfoundation.ua.common.ServiceResultException;
 import org.opcfoundation.ua.core.StatusCodes;
@@ -61,6 +69,57 @@ public class BcCryptoProvider implements CryptoProvider {
 
 	static Logger logger = LoggerFactory.getLogger(BcCryptoProvider.class);
 
+	/** HMac of a symmetric signing key */
+	private final CryptoContexts.Factory<HMac> macs = new CryptoContexts.Factory<HMac>() {
+		@Override
+		protected HMac create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException {
+			return createMac(algorithm, new KeyParameter(key));
+		}
+	};
+
+	/**
+	 * Cipher of a symmetric key and IV. A cipher returns to its initial state
+	 * after each message, so it is only initialized when it is created.
+	 */
+	private final CryptoContexts.Factory<BufferedBlockCipher> decryptCiphers = new CryptoContexts.Factory<BufferedBlockCipher>() {
+		@Override
+		protected BufferedBlockCipher create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) {
+			BufferedBlockCipher cipher = new BufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
+			cipher.init(false, new ParametersWithIV(new KeyParameter(key), iv));
+			return cipher;
+		}
+	};
+
+	private final CryptoContexts.Factory<BufferedBlockCipher> encryptCiphers = new CryptoContexts.Factory<BufferedBlockCipher>() {
+		@Override
+		protected BufferedBlockCipher create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) {
+			BufferedBlockCipher cipher = new BufferedBlockCipher(new CBCBlockCipher(new RijndaelEngine()));
+			cipher.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+			return cipher;
+		}
+	};
+
+	/** In-place operations on buffers, with the contexts of a token */
+	private final BufferCrypto buffers = new BufferCrypto() {
+		@Override
+		int encrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] input,
+				int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			return BcCryptoProvider.this.encryptSymm(contexts, policy, encryptingKey, iv, input, inputOffset, inputLength, output, outputOffset);
+		}
+
+		@Override
+		int decrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] input,
+				int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			return BcCryptoProvider.this.decryptSymm(contexts, policy, encryptingKey, iv, input, inputOffset, inputLength, output, outputOffset);
+		}
+
+		@Override
+		void sign(CryptoContexts contexts, SecurityPolicy policy, byte[] key, byte[] input, int inputOffset,
+				int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			BcCryptoProvider.this.signSymm(contexts, policy, key, input, inputOffset, inputLength, output, outputOffset);
+		}
+	};
+
 	/**
 	 * <p>Constructor for BcCryptoProvider.</p>
 	 */
@@ -148,15 +207,14 @@ public class BcCryptoProvider implements CryptoProvider {
 	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
 			int inputOffset, int inputLength, byte[] output, int outputOffset)
 					throws ServiceResultException {
+		return decryptSymm(null, policy, encryptingKey, iv, dataToDecrypt, inputOffset, inputLength, output, outputOffset);
+	}
 
-		final BufferedBlockCipher cipher;
-//		if(SecurityPolicy.PUBSUB_AES128_CTR.equals(policy) || SecurityPolicy.PUBSUB_AES256_CTR.equals(policy)) {
-//			cipher= new BufferedBlockCipher(new SICBlockCipher(new AESEngine()));
-//		}else {
-			cipher= new BufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
-//		}
+	int decryptSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset)
+					throws ServiceResultException {
 
-		cipher.init(false, new ParametersWithIV(new KeyParameter(encryptingKey), iv));
+		final BufferedBlockCipher cipher = decryptCiphers.take(contexts, policy.getSymmetricEncryptionAlgorithm(), encryptingKey, iv);
 
 		int decryptedBytes = cipher.processBytes(dataToDecrypt, inputOffset,
 				inputLength, output, outputOffset);
@@ -165,6 +223,7 @@ public class BcCryptoProvider implements CryptoProvider {
 
 			decryptedBytes += cipher.doFinal(output, outputOffset
 					+ decryptedBytes);
+			decryptCiphers.release(contexts, encryptingKey, iv, cipher);
 			return decryptedBytes;
 
 		} catch (DataLengthException e) {
@@ -216,15 +275,14 @@ public class BcCryptoProvider implements CryptoProvider {
 	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
 			int inputOffset, int inputLength, byte[] output, int outputOffset)
 					throws ServiceResultException {
+		return encryptSymm(null, policy, encryptingKey, iv, dataToEncrypt, inputOffset, inputLength, output, outputOffset);
+	}
 
-		final BufferedBlockCipher cipher;
-//		if(SecurityPolicy.PUBSUB_AES128_CTR.equals(policy) || SecurityPolicy.PUBSUB_AES256_CTR.equals(policy)) {
-//			cipher = new BufferedBlockCipher(new SICBlockCipher(new AESEngine()));
-//		}else {
-			cipher = new BufferedBlockCipher(new CBCBlockCipher(new RijndaelEngine()));
-//		}
-		
-		cipher.init(true, new ParametersWithIV(new KeyParameter(encryptingKey), iv));
+	int encryptSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset)
+					throws ServiceResultException {
+
+		final BufferedBlockCipher cipher = encryptCiphers.take(contexts, policy.getSymmetricEncryptionAlgorithm(), encryptingKey, iv);
 
 		int encryptedBytes = cipher.processBytes(dataToEncrypt, inputOffset,
 				inputLength, output, outputOffset);
@@ -233,6 +291,7 @@ public class BcCryptoProvider implements CryptoProvider {
 
 			encryptedBytes += cipher.doFinal(output, outputOffset
 					+ encryptedBytes);
+			encryptCiphers.release(contexts, encryptingKey, iv, cipher);
 			return encryptedBytes;
 
 		} catch (DataLengthException e) {
@@ -257,6 +316,9 @@ public class BcCryptoProvider implements CryptoProvider {
 		if (dataToSign == null || senderPrivate == null)
 			throw new IllegalArgumentException("null arg");
 
+		if (senderPrivate instanceof ECKey)
+			return signEcdsa(senderPrivate, algorithm, dataToSign);
+
 		java.security.interfaces.RSAPrivateCrtKey privateKey = (java.security.interfaces.RSAPrivateCrtKey) senderPrivate;
 		RSAPrivateKey privKey = new RSAPrivateKey(privateKey.getModulus(),
 				privateKey.getPublicExponent(),
@@ -284,10 +346,16 @@ public class BcCryptoProvider implements CryptoProvider {
 	@Override
 	public void signSymm(SecurityPolicy policy, byte[] key, byte[] input, int inputOffset, int verifyLen,
 			byte[] output, int outputOffset) throws ServiceResultException {
+		signSymm(null, policy, key, input, inputOffset, verifyLen, output, outputOffset);
+	}
 
-		HMac hmac = createMac(policy.getSymmetricSignatureAlgorithm(), new KeyParameter(key));
+	void signSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] key, byte[] input, int inputOffset,
+			int verifyLen, byte[] output, int outputOffset) throws ServiceResultException {
+
+		HMac hmac = macs.take(contexts, policy.getSymmetricSignatureAlgorithm(), key, null);
 		hmac.update(input, inputOffset, verifyLen);
 		hmac.doFinal(output, outputOffset);
+		macs.release(contexts, key, null, hmac);
 
 	}
 
@@ -302,6 +370,9 @@ public class BcCryptoProvider implements CryptoProvider {
 				|| signature == null)
 			throw new IllegalArgumentException("null arg");
 
+		if (signingCertificate instanceof ECKey)
+			return verifyEcdsa(signingCertificate, algorithm, dataToVerify, signature);
+
 		java.security.interfaces.RSAPublicKey signingCertificateRSA = (java.security.interfaces.RSAPublicKey) signingCertificate;
 		RSAPublicKey publicKey = new RSAPublicKey(
 				signingCertificateRSA.getModulus(),
@@ -346,6 +417,34 @@ public class BcCryptoProvider implements CryptoProvider {
 		// Everything went fine, signatures matched
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return buffers.encryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return buffers.decryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		buffers.signSymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		buffers.verifySymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+	}
+
 	private HMac createMac(SecurityAlgorithm algorithm, KeyParameter param)
 			throws ServiceResultException {
 
@@ -354,6 +453,8 @@ public class BcCryptoProvider implements CryptoProvider {
 			hmac = new HMac(new SHA1Digest());
 		} else if (algorithm.equals(SecurityAlgorithm.HmacSha256)) {
 			hmac = new HMac(new SHA256Digest());
+		} else if (algorithm.equals(SecurityAlgorithm.HmacSha384)) {
+			hmac = new HMac(new SHA384Digest());
 		} else {
 			throw new ServiceResultException(
 					StatusCodes.Bad_SecurityPolicyRejected,
@@ -364,6 +465,58 @@ public class BcCryptoProvider implements CryptoProvider {
 
 	}
 
+	private byte[] signEcdsa(PrivateKey senderPrivate,
+			SecurityAlgorithm algorithm, byte[] dataToSign)
+					throws ServiceResultException {
+		Digest digest = getEcdsaDigest(algorithm);
+		// Deterministic k (RFC 6979)
+		ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(getEcdsaDigest(algorithm)));
+		try {
+			signer.init(true, ECUtil.generatePrivateKeyParameter(senderPrivate));
+		} catch (InvalidKeyException e) {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, e);
+		}
+		byte[] hash = new byte[digest.getDigestSize()];
+		digest.update(dataToSign, 0, dataToSign.length);
+		digest.doFinal(hash, 0);
+		BigInteger[] rs = signer.generateSignature(hash);
+		return CryptoUtil.encodeEcdsaSignature(rs[0], rs[1],
+				CryptoUtil.getEcdsaSignatureSize((ECKey) senderPrivate));
+	}
+
+	private boolean verifyEcdsa(PublicKey signingCertificate,
+			SecurityAlgorithm algorithm, byte[] dataToVerify, byte[] signature)
+					throws ServiceResultException {
+		if (signature.length != CryptoUtil.getEcdsaSignatureSize((ECKey) signingCertificate))
+			return false;
+		Digest digest = getEcdsaDigest(algorithm);
+		ECDSASigner signer = new ECDSASigner();
+		try {
+			signer.init(false, ECUtil.generatePublicKeyParameter(signingCertificate));
+		} catch (InvalidKeyException e) {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, e);
+		}
+		byte[] hash = new byte[digest.getDigestSize()];
+		digest.update(dataToVerify, 0, dataToVerify.length);
+		digest.doFinal(hash, 0);
+		int half = signature.length / 2;
+		BigInteger r = new BigInteger(1, java.util.Arrays.copyOfRange(signature, 0, half));
+		BigInteger s = new BigInteger(1, java.util.Arrays.copyOfRange(signature, half, signature.length));
+		return signer.verifySignature(hash, r, s);
+	}
+
+	private Digest getEcdsaDigest(SecurityAlgorithm algorithm) throws ServiceResultException {
+		if (algorithm.equals(SecurityAlgorithm.EcdsaSha256)) {
+			return new SHA256Digest();
+		} else if (algorithm.equals(SecurityAlgorithm.EcdsaSha384)) {
+			return new SHA384Digest();
+		} else {
+			throw new ServiceResultException(
+					StatusCodes.Bad_SecurityPolicyRejected,
+					"Unsupported asymmetric signature algorithm: " + algorithm);
+		}
+	}
+
 	private AsymmetricBlockCipher getAsymmetricCipher(boolean forEncryption,
 			SecurityAlgorithm algorithm, CipherParameters params)
 					throws ServiceResultException {
@@ -0,0 +1,156 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.security;
+
+import java.nio.ByteBuffer;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.utils.CryptoUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-place symmetric operations on ByteBuffers, implemented with the array
+ * operations of a {@link CryptoProvider}.
+ * <p>
+ * The ciphers and macs of the providers work on arrays. A heap buffer is
+ * processed in its backing array. The bytes of a direct buffer are processed
+ * in a scratch array of the calling thread, which is reused so that no memory
+ * is allocated per call once it is large enough.
+ * <p>
+ * A provider implements the array operations with the {@link CryptoContexts}
+ * of the token of the keys.
+ */
+abstract class BufferCrypto {
+
+	private static final Logger logger = LoggerFactory.getLogger(BufferCrypto.class);
+
+	/** Scratch array for the data of direct buffers, per thread */
+	private static final ThreadLocal<byte[]> data = new ThreadLocal<byte[]>();
+	/** Scratch array for computed signatures, per thread */
+	private static final ThreadLocal<byte[]> signature = new ThreadLocal<byte[]>();
+
+	/**
+	 * Encrypt bytes of an array.
+	 */
+	abstract int encrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv,
+			byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException;
+
+	/**
+	 * Decrypt bytes of an array.
+	 */
+	abstract int decrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv,
+			byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException;
+
+	/**
+	 * Compute the symmetric signature of bytes of an array.
+	 */
+	abstract void sign(CryptoContexts contexts, SecurityPolicy policy, byte[] key,
+			byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException;
+
+	int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		if (buffer.hasArray()) {
+			byte[] array = buffer.array();
+			int index = buffer.arrayOffset() + offset;
+			return encrypt(contexts, policy, encryptingKey, iv, array, index, length, array, index);
+		}
+		byte[] array = read(buffer, offset, length);
+		int encryptedBytes = encrypt(contexts, policy, encryptingKey, iv, array, 0, length, array, 0);
+		write(buffer, offset, array, encryptedBytes);
+		return encryptedBytes;
+	}
+
+	int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		if (buffer.hasArray()) {
+			byte[] array = buffer.array();
+			int index = buffer.arrayOffset() + offset;
+			return decrypt(contexts, policy, encryptingKey, iv, array, index, length, array, index);
+		}
+		byte[] array = read(buffer, offset, length);
+		int decryptedBytes = decrypt(contexts, policy, encryptingKey, iv, array, 0, length, array, 0);
+		write(buffer, offset, array, decryptedBytes);
+		return decryptedBytes;
+	}
+
+	void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		if (buffer.hasArray()) {
+			byte[] array = buffer.array();
+			sign(contexts, policy, key, array, buffer.arrayOffset() + offset, length, array,
+					buffer.arrayOffset() + signatureOffset);
+			return;
+		}
+		int signatureSize = policy.getSymmetricSignatureSize();
+		byte[] computed = scratch(signature, signatureSize);
+		sign(contexts, policy, key, read(buffer, offset, length), 0, length, computed, 0);
+		write(buffer, signatureOffset, computed, signatureSize);
+	}
+
+	void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		int signatureSize = policy.getSymmetricSignatureSize();
+		byte[] computed = scratch(signature, signatureSize);
+		if (buffer.hasArray())
+			sign(contexts, policy, key, buffer.array(), buffer.arrayOffset() + offset, length, computed, 0);
+		else
+			sign(contexts, policy, key, read(buffer, offset, length), 0, length, computed, 0);
+
+		// Compare all bytes, so that the time does not tell where they differ
+		int diff = 0;
+		for (int index = 0; index < signatureSize; index++)
+			diff |= buffer.get(signatureOffset + index) ^ computed[index];
+		if (diff != 0) {
+			if (logger.isWarnEnabled()) {
+				byte[] received = new byte[signatureSize];
+				for (int index = 0; index < signatureSize; index++)
+					received[index] = buffer.get(signatureOffset + index);
+				byte[] expected = new byte[signatureSize];
+				System.arraycopy(computed, 0, expected, 0, signatureSize);
+				logger.warn("Signatures do not match: \n{} vs. \n{}", CryptoUtil.toHex(received),
+						CryptoUtil.toHex(expected));
+			}
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, "Invalid signature");
+		}
+	}
+
+	private static byte[] scratch(ThreadLocal<byte[]> local, int size) {
+		byte[] array = local.get();
+		if (array == null || array.length < size) {
+			array = new byte[Math.max(size, array == null ? 0 : 2 * array.length)];
+			local.set(array);
+		}
+		return array;
+	}
+
+	/** Copy bytes of a buffer to the data scratch array */
+	private static byte[] read(ByteBuffer buffer, int offset, int length) {
+		byte[] array = scratch(data, length);
+		int position = buffer.position();
+		buffer.position(offset);
+		buffer.get(array, 0, length);
+		buffer.position(position);
+		return array;
+	}
+
+	/** Copy bytes of a scratch array to a buffer */
+	private static void write(ByteBuffer buffer, int offset, byte[] array, int length) {
+		int position = buffer.position();
+		buffer.position(offset);
+		buffer.put(array, 0, length);
+		buffer.position(position);
+	}
+
+}
@@ -23,6 +23,7 @@ import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Arrays;
 
@@ -112,10 +113,12 @@ public class Cert {
 	/**
 	 * <p>getKeySize.</p>
 	 *
-	 * @return a int.
+	 * @return the modulus size of an RSA key or the field size of an EC key in bits, -1 for other keys
 	 */
 	public int getKeySize() {
 		PublicKey key = certificate.getPublicKey();
+		if ( key instanceof ECPublicKey ) 
+			return ((ECPublicKey) key).getParams().getCurve().getField().getFieldSize();
 		if ( key instanceof RSAPublicKey == false ) return -1;
 		RSAPublicKey rsaKey = (RSAPublicKey) key;
 		return rsaKey.getModulus().bitLength();
@@ -0,0 +1,227 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.security;
+
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.utils.CryptoUtil;
+
+/**
+ * CryptoProvider that routes each operation to a provider chosen by its
+ * {@link SecurityAlgorithm}, e.g. AES to a JCE provider that uses the AES
+ * instructions of the CPU and RSA to BouncyCastle.
+ * <p>
+ * Symmetric operations are routed by the symmetric encryption or signature
+ * algorithm of their policy, the other operations by their algorithm.
+ * Algorithms without a provider of their own, and the operations that have no
+ * algorithm, use the default provider.
+ * <p>
+ * The providers are either configured with
+ * {@link #setProvider(SecurityAlgorithm, CryptoProvider)}, or measured at
+ * startup with {@link CryptoProviderBenchmark#select()}. Use
+ * {@link CryptoUtil#setCryptoProvider(CryptoProvider)} to take it in use.
+ */
+public class CompositeCryptoProvider implements CryptoProvider {
+
+	private final CryptoProvider defaultProvider;
+	/** Providers of the algorithms, replaced as a whole when changed */
+	private volatile Map<SecurityAlgorithm, CryptoProvider> providers = Collections.emptyMap();
+
+	/**
+	 * Create a provider that routes every algorithm to the default provider
+	 * until other providers are set.
+	 *
+	 * @param defaultProvider provider of the algorithms that are not set
+	 */
+	public CompositeCryptoProvider(CryptoProvider defaultProvider) {
+		if (defaultProvider == null)
+			throw new IllegalArgumentException("defaultProvider cannot be null");
+		this.defaultProvider = defaultProvider;
+	}
+
+	/**
+	 * <p>Getter for the field <code>defaultProvider</code>.</p>
+	 *
+	 * @return the provider of the algorithms that are not set
+	 */
+	public CryptoProvider getDefaultProvider() {
+		return defaultProvider;
+	}
+
+	/**
+	 * Get the provider of an algorithm.
+	 *
+	 * @param algorithm algorithm, may be null
+	 * @return the provider set for the algorithm, or the default provider
+	 */
+	public CryptoProvider getProvider(SecurityAlgorithm algorithm) {
+		if (algorithm == null)
+			return defaultProvider;
+		CryptoProvider provider = providers.get(algorithm);
+		return provider == null ? defaultProvider : provider;
+	}
+
+	/**
+	 * Set the provider of an algorithm.
+	 *
+	 * @param algorithm algorithm
+	 * @param provider provider, or null to use the default provider
+	 */
+	public synchronized void setProvider(SecurityAlgorithm algorithm, CryptoProvider provider) {
+		if (algorithm == null)
+			throw new IllegalArgumentException("algorithm cannot be null");
+		if (provider == this)
+			throw new IllegalArgumentException("provider cannot be the composite itself");
+		Map<SecurityAlgorithm, CryptoProvider> map = new EnumMap<SecurityAlgorithm, CryptoProvider>(SecurityAlgorithm.class);
+		map.putAll(providers);
+		if (provider == null)
+			map.remove(algorithm);
+		else
+			map.put(algorithm, provider);
+		providers = map;
+	}
+
+	/**
+	 * Get the providers that have been set.
+	 *
+	 * @return the providers of the algorithms that do not use the default provider
+	 */
+	public Map<SecurityAlgorithm, CryptoProvider> getProviders() {
+		return Collections.unmodifiableMap(providers);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] base64Decode(String string) {
+		return defaultProvider.base64Decode(string);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String base64Encode(byte[] bytes) {
+		return defaultProvider.base64Encode(bytes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getSecurityProviderName(Class<?> clazz) {
+		return defaultProvider.getSecurityProviderName(clazz);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Mac createMac(SecurityAlgorithm algorithm, byte[] secret) throws ServiceResultException {
+		return getProvider(algorithm).createMac(algorithm, secret);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int decryptAsymm(PrivateKey decryptingKey, SecurityAlgorithm algorithm, byte[] dataToDecrypt,
+			byte[] output, int outputOffset) throws ServiceResultException {
+		return getProvider(algorithm).decryptAsymm(decryptingKey, algorithm, dataToDecrypt, output, outputOffset);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+		return getProvider(policy.getSymmetricEncryptionAlgorithm()).decryptSymm(policy, encryptingKey, iv,
+				dataToDecrypt, inputOffset, inputLength, output, outputOffset);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void encryptAsymm(PublicKey encryptingCertificate, SecurityAlgorithm algorithm, byte[] dataToEncrypt,
+			byte[] output, int outputOffset) throws ServiceResultException {
+		getProvider(algorithm).encryptAsymm(encryptingCertificate, algorithm, dataToEncrypt, output, outputOffset);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+		return getProvider(policy.getSymmetricEncryptionAlgorithm()).encryptSymm(policy, encryptingKey, iv,
+				dataToEncrypt, inputOffset, inputLength, output, outputOffset);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] signAsymm(PrivateKey senderPrivate, SecurityAlgorithm algorithm, byte[] dataToSign)
+			throws ServiceResultException {
+		return getProvider(algorithm).signAsymm(senderPrivate, algorithm, dataToSign);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void signSymm(SecurityPolicy policy, byte[] key, byte[] input, int inputOffset, int verifyLen,
+			byte[] output, int outputOffset) throws ServiceResultException {
+		getProvider(policy.getSymmetricSignatureAlgorithm()).signSymm(policy, key, input, inputOffset, verifyLen,
+				output, outputOffset);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean verifyAsymm(PublicKey signingCertificate, SecurityAlgorithm algorithm, byte[] dataToVerify,
+			byte[] signature) throws ServiceResultException {
+		return getProvider(algorithm).verifyAsymm(signingCertificate, algorithm, dataToVerify, signature);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void verifySymm(SecurityPolicy policy, byte[] key, byte[] dataToVerify, int inputOffset, int verifyLen,
+			byte[] signature) throws ServiceResultException {
+		getProvider(policy.getSymmetricSignatureAlgorithm()).verifySymm(policy, key, dataToVerify, inputOffset,
+				verifyLen, signature);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return getProvider(policy.getSymmetricEncryptionAlgorithm()).encryptSymm(policy, encryptingKey, iv, buffer,
+				offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return getProvider(policy.getSymmetricEncryptionAlgorithm()).decryptSymm(policy, encryptingKey, iv, buffer,
+				offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		getProvider(policy.getSymmetricSignatureAlgorithm()).signSymm(policy, key, buffer, offset, length,
+				signatureOffset, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		getProvider(policy.getSymmetricSignatureAlgorithm()).verifySymm(policy, key, buffer, offset, length,
+				signatureOffset, contexts);
+	}
+
+}
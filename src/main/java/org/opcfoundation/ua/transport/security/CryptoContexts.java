@@ -0,0 +1,146 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.security;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+
+/**
+ * Keyed crypto contexts (Mac, Cipher) of the symmetric keys of a security
+ * token.
+ * <p>
+ * The keys and initialization vectors of a token do not change during its
+ * lifetime. A {@link CryptoProvider} initializes a context with them once,
+ * and keeps it here for the next message of the token. The contexts are
+ * released with the token.
+ * <p>
+ * A context is used by one thread at a time: it is taken for an operation
+ * and put back when the operation has completed. A context whose operation
+ * fails is not put back, so its state does not leak to the next message.
+ */
+public final class CryptoContexts {
+
+	/**
+	 * Creates the contexts of one kind of operation of a provider.
+	 *
+	 * @param <T> context type
+	 */
+	static abstract class Factory<T> {
+
+		/**
+		 * Take a free context of the key, or create one.
+		 *
+		 * @param contexts contexts of the token, null to create a new context
+		 * @param algorithm algorithm
+		 * @param key key
+		 * @param iv initialization vector, null if not used by the context
+		 * @return context
+		 * @throws ServiceResultException if the context cannot be created
+		 */
+		@SuppressWarnings("unchecked")
+		T take(CryptoContexts contexts, SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException {
+			if (contexts != null) {
+				Object context = contexts.take(this, key, iv);
+				if (context != null)
+					return (T) context;
+			}
+			return create(algorithm, key, iv);
+		}
+
+		/**
+		 * Put a context back after a completed operation.
+		 *
+		 * @param contexts contexts of the token, may be null
+		 * @param key key
+		 * @param iv initialization vector, null if not used by the context
+		 * @param context context taken with the same key and iv
+		 */
+		void release(CryptoContexts contexts, byte[] key, byte[] iv, T context) {
+			if (contexts != null)
+				contexts.put(this, key, iv, context);
+		}
+
+		/**
+		 * Create a new context.
+		 *
+		 * @param algorithm algorithm
+		 * @param key key
+		 * @param iv initialization vector, null if not used by the context
+		 * @return context initialized with the key and iv
+		 * @throws ServiceResultException if the context cannot be created
+		 */
+		protected abstract T create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException;
+
+	}
+
+	/** Free contexts of a factory for a key */
+	private static final class Slot {
+		final Factory<?> factory;
+		final byte[] key;
+		final byte[] iv;
+		final ConcurrentLinkedQueue<Object> free = new ConcurrentLinkedQueue<Object>();
+
+		Slot(Factory<?> factory, byte[] key, byte[] iv) {
+			this.factory = factory;
+			this.key = key;
+			this.iv = iv;
+		}
+	}
+
+	private static final Slot[] NO_SLOTS = new Slot[0];
+
+	/** A token has a few keys, so the slots are scanned */
+	private volatile Slot[] slots = NO_SLOTS;
+
+	private Object take(Factory<?> factory, byte[] key, byte[] iv) {
+		Slot slot = find(factory, key, iv);
+		return slot == null ? null : slot.free.poll();
+	}
+
+	private void put(Factory<?> factory, byte[] key, byte[] iv, Object context) {
+		Slot slot = find(factory, key, iv);
+		if (slot == null)
+			slot = add(factory, key, iv);
+		slot.free.offer(context);
+	}
+
+	private Slot find(Factory<?> factory, byte[] key, byte[] iv) {
+		for (Slot slot : slots)
+			if (slot.factory == factory && slot.key == key && slot.iv == iv)
+				return slot;
+		return null;
+	}
+
+	/**
+	 * @return number of free contexts
+	 */
+	int getPooledCount() {
+		int count = 0;
+		for (Slot slot : slots)
+			count += slot.free.size();
+		return count;
+	}
+
+	private synchronized Slot add(Factory<?> factory, byte[] key, byte[] iv) {
+		Slot slot = find(factory, key, iv);
+		if (slot != null)
+			return slot;
+		Slot[] newSlots = new Slot[slots.length + 1];
+		System.arraycopy(slots, 0, newSlots, 0, slots.length);
+		slot = newSlots[slots.length] = new Slot(factory, key, iv);
+		slots = newSlots;
+		return slot;
+	}
+
+}
@@ -11,6 +11,7 @@
 */
 package org.opcfoundation.ua.transport.security;
 
+import java.nio.ByteBuffer;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 
@@ -61,4 +62,72 @@ public interface CryptoProvider {
 	public void verifySymm(SecurityPolicy policy, byte[] key, byte[] dataToVerify, int inputOffset, int verifyLen,
 			byte[] signature) throws ServiceResultException;
 
+	/**
+	 * Encrypt bytes of a buffer in place. The buffer may be direct or heap
+	 * based. Its position and limit are not changed.
+	 *
+	 * @param policy security policy
+	 * @param encryptingKey encrypting key
+	 * @param initializationVector initialization vector
+	 * @param buffer buffer
+	 * @param offset index of the first byte to encrypt
+	 * @param length number of bytes to encrypt, a multiple of the block size
+	 * @param contexts crypto contexts of the token of the key, null if there is no token
+	 * @return number of encrypted bytes
+	 * @throws ServiceResultException if the bytes cannot be encrypted
+	 */
+	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] initializationVector, ByteBuffer buffer,
+			int offset, int length, CryptoContexts contexts) throws ServiceResultException;
+
+	/**
+	 * Decrypt bytes of a buffer in place. The buffer may be direct or heap
+	 * based. Its position and limit are not changed.
+	 *
+	 * @param policy security policy
+	 * @param encryptingKey encrypting key
+	 * @param initializationVector initialization vector
+	 * @param buffer buffer
+	 * @param offset index of the first byte to decrypt
+	 * @param length number of bytes to decrypt, a multiple of the block size
+	 * @param contexts crypto contexts of the token of the key, null if there is no token
+	 * @return number of decrypted bytes
+	 * @throws ServiceResultException if the bytes cannot be decrypted
+	 */
+	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] initializationVector, ByteBuffer buffer,
+			int offset, int length, CryptoContexts contexts) throws ServiceResultException;
+
+	/**
+	 * Sign bytes of a buffer and write the signature to the same buffer. The
+	 * buffer may be direct or heap based. Its position and limit are not
+	 * changed.
+	 *
+	 * @param policy security policy
+	 * @param key signing key
+	 * @param buffer buffer
+	 * @param offset index of the first byte to sign
+	 * @param length number of bytes to sign
+	 * @param signatureOffset index where the signature is written
+	 * @param contexts crypto contexts of the token of the key, null if there is no token
+	 * @throws ServiceResultException if the bytes cannot be signed
+	 */
+	public void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException;
+
+	/**
+	 * Verify the signature of bytes of a buffer. The signature is read from the
+	 * same buffer. The buffer may be direct or heap based. Its position and
+	 * limit are not changed.
+	 *
+	 * @param policy security policy
+	 * @param key signing key
+	 * @param buffer buffer
+	 * @param offset index of the first signed byte
+	 * @param length number of signed bytes
+	 * @param signatureOffset index of the signature
+	 * @param contexts crypto contexts of the token of the key, null if there is no token
+	 * @throws ServiceResultException Bad_SecurityChecksFailed if the signature is not valid
+	 */
+	public void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException;
+
 }
@@ -0,0 +1,318 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.security;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Micro-benchmark that measures the throughput of CryptoProviders for each
+ * {@link SecurityAlgorithm} used by the {@link SecurityPolicy}s, and selects
+ * the fastest provider of each algorithm.
+ * <p>
+ * The benchmark is meant to be run once at startup, e.g.
+ *
+ * <pre>
+ * CryptoUtil.setCryptoProvider(new CryptoProviderBenchmark(
+ * 		new BcJceCryptoProvider(), new BcCryptoProvider()).select());
+ * </pre>
+ *
+ * Each measurement takes {@link #getDuration()} milliseconds after a warm-up of
+ * the same length, so the whole run takes about
+ * 2 * duration * (number of candidates) * (number of algorithms). Startup
+ * measurements are short and noisy, so they only tell apart providers whose
+ * throughput differs clearly. If the fastest providers of the deployment are
+ * known, set them in a {@link CompositeCryptoProvider} instead.
+ * <p>
+ * A provider that fails an operation is not selected for its algorithm.
+ */
+public class CryptoProviderBenchmark {
+
+	private static final Logger logger = LoggerFactory.getLogger(CryptoProviderBenchmark.class);
+
+	/** Default time of one measurement, in milliseconds */
+	public static final long DEFAULT_DURATION = 25;
+	/** Default size of the data of the symmetric operations, in bytes */
+	public static final int DEFAULT_DATA_SIZE = 8192;
+	/** RSA key size of the asymmetric operations */
+	static final int RSA_KEY_SIZE = 2048;
+
+	/** One measured operation */
+	private interface Operation {
+		void run() throws ServiceResultException;
+	}
+
+	private final CryptoProvider[] candidates;
+	private long duration = DEFAULT_DURATION;
+	private int dataSize = DEFAULT_DATA_SIZE;
+	/** RSA and EC key pairs by curve, generated when first needed */
+	private final Map<String, java.security.KeyPair> keyPairs = new HashMap<String, java.security.KeyPair>();
+	private final Random random = new Random();
+
+	/**
+	 * Create a benchmark of providers.
+	 *
+	 * @param candidates the providers to choose from. The first one is the
+	 *            default provider of the selected composite.
+	 */
+	public CryptoProviderBenchmark(CryptoProvider... candidates) {
+		if (candidates == null || candidates.length == 0)
+			throw new IllegalArgumentException("No candidates");
+		this.candidates = candidates.clone();
+	}
+
+	/**
+	 * <p>Getter for the field <code>duration</code>.</p>
+	 *
+	 * @return the time of one measurement, in milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Set the time of one measurement. The warm-up before it takes the same
+	 * time.
+	 * <p>
+	 * Default: {@value #DEFAULT_DURATION}
+	 *
+	 * @param duration time in milliseconds
+	 */
+	public void setDuration(long duration) {
+		if (duration <= 0)
+			throw new IllegalArgumentException("duration must be > 0");
+		this.duration = duration;
+	}
+
+	/**
+	 * <p>Getter for the field <code>dataSize</code>.</p>
+	 *
+	 * @return the size of the data of the symmetric operations, in bytes
+	 */
+	public int getDataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * Set the size of the data of the symmetric operations. It should be close
+	 * to the chunk size of the secure channels.
+	 * <p>
+	 * Default: {@value #DEFAULT_DATA_SIZE}
+	 *
+	 * @param dataSize size in bytes, a multiple of the AES block size
+	 */
+	public void setDataSize(int dataSize) {
+		if (dataSize <= 64 || dataSize % 16 != 0)
+			throw new IllegalArgumentException("dataSize must be a multiple of 16 and > 64");
+		this.dataSize = dataSize;
+	}
+
+	/**
+	 * Get the algorithms that are measured, i.e. the symmetric and asymmetric
+	 * encryption and signature algorithms of the security policies.
+	 *
+	 * @return algorithms
+	 */
+	public static Set<SecurityAlgorithm> getAlgorithms() {
+		Set<SecurityAlgorithm> result = new LinkedHashSet<SecurityAlgorithm>();
+		for (SecurityPolicy policy : SecurityPolicy.values()) {
+			SecurityAlgorithm[] algorithms = { policy.getSymmetricEncryptionAlgorithm(),
+					policy.getSymmetricSignatureAlgorithm(), policy.getAsymmetricEncryptionAlgorithm(),
+					policy.getAsymmetricSignatureAlgorithm() };
+			for (SecurityAlgorithm algorithm : algorithms)
+				if (algorithm != null)
+					result.add(algorithm);
+		}
+		return result;
+	}
+
+	/**
+	 * Measure every candidate for every algorithm and select the fastest one.
+	 *
+	 * @return a composite that uses the fastest candidate of each algorithm
+	 */
+	public CompositeCryptoProvider select() {
+		CompositeCryptoProvider result = new CompositeCryptoProvider(candidates[0]);
+		for (SecurityAlgorithm algorithm : getAlgorithms()) {
+			CryptoProvider best = null;
+			double bestRate = 0;
+			for (CryptoProvider candidate : candidates) {
+				double rate = measure(candidate, algorithm);
+				if (rate > bestRate) {
+					best = candidate;
+					bestRate = rate;
+				}
+			}
+			if (best == null) {
+				logger.warn("{}: no candidate supports it", algorithm.name());
+				continue;
+			}
+			logger.info("{}: {} ({} op/s)", algorithm.name(), best.getClass().getSimpleName(), Math.round(bestRate));
+			if (best != candidates[0])
+				result.setProvider(algorithm, best);
+		}
+		return result;
+	}
+
+	/**
+	 * Measure the throughput of a provider for an algorithm. The symmetric
+	 * operations encrypt or sign {@link #getDataSize()} bytes in place in a
+	 * heap buffer. An asymmetric signature operation signs and verifies, and
+	 * an asymmetric encryption operation encrypts and decrypts one block.
+	 *
+	 * @param provider provider
+	 * @param algorithm algorithm, one of {@link #getAlgorithms()}
+	 * @return operations per second, or 0 if the provider cannot do the operation
+	 */
+	public double measure(CryptoProvider provider, SecurityAlgorithm algorithm) {
+		try {
+			Operation operation = createOperation(provider, algorithm);
+			run(operation, duration);
+			return run(operation, duration);
+		} catch (ServiceResultException e) {
+			logger.debug("{}: {} failed", algorithm.name(), provider.getClass().getSimpleName(), e);
+		} catch (RuntimeException e) {
+			logger.debug("{}: {} failed", algorithm.name(), provider.getClass().getSimpleName(), e);
+		}
+		return 0;
+	}
+
+	/**
+	 * Run an operation repeatedly.
+	 *
+	 * @return operations per second
+	 */
+	private static double run(Operation operation, long duration) throws ServiceResultException {
+		long start = System.nanoTime();
+		long end = start + duration * 1000000L;
+		long count = 0;
+		long now;
+		do {
+			operation.run();
+			count++;
+		} while ((now = System.nanoTime()) < end);
+		return count * 1e9 / (now - start);
+	}
+
+	private Operation createOperation(final CryptoProvider provider, final SecurityAlgorithm algorithm)
+			throws ServiceResultException {
+		switch (algorithm.getType()) {
+		case SymmetricEncryption: {
+			final SecurityPolicy policy = getPolicy(algorithm);
+			final byte[] key = randomBytes(policy.getEncryptionKeySize());
+			final byte[] iv = randomBytes(policy.getEncryptionBlockSize());
+			final ByteBuffer data = ByteBuffer.wrap(randomBytes(dataSize));
+			// As the messages of a security token
+			final CryptoContexts contexts = new CryptoContexts();
+			return new Operation() {
+				@Override
+				public void run() throws ServiceResultException {
+					provider.encryptSymm(policy, key, iv, data, 0, dataSize, contexts);
+				}
+			};
+		}
+		case SymmetricSignature: {
+			final SecurityPolicy policy = getPolicy(algorithm);
+			final byte[] key = randomBytes(policy.getSignatureKeySize());
+			final ByteBuffer data = ByteBuffer.wrap(randomBytes(dataSize));
+			final int verifyLen = dataSize - policy.getSymmetricSignatureSize();
+			final CryptoContexts contexts = new CryptoContexts();
+			return new Operation() {
+				@Override
+				public void run() throws ServiceResultException {
+					provider.signSymm(policy, key, data, 0, verifyLen, verifyLen, contexts);
+				}
+			};
+		}
+		case AsymmetricSignature: {
+			final java.security.KeyPair keyPair = getKeyPair(algorithm);
+			final byte[] data = randomBytes(1024);
+			return new Operation() {
+				@Override
+				public void run() throws ServiceResultException {
+					byte[] signature = provider.signAsymm(keyPair.getPrivate(), algorithm, data);
+					if (!provider.verifyAsymm(keyPair.getPublic(), algorithm, data, signature))
+						throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed);
+				}
+			};
+		}
+		case AsymmetricEncryption: {
+			final java.security.KeyPair keyPair = getKeyPair(algorithm);
+			final byte[] data = randomBytes(32);
+			final byte[] encrypted = new byte[RSA_KEY_SIZE / 8];
+			final byte[] decrypted = new byte[RSA_KEY_SIZE / 8];
+			return new Operation() {
+				@Override
+				public void run() throws ServiceResultException {
+					provider.encryptAsymm(keyPair.getPublic(), algorithm, data, encrypted, 0);
+					provider.decryptAsymm(keyPair.getPrivate(), algorithm, encrypted, decrypted, 0);
+				}
+			};
+		}
+		default:
+			throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected, algorithm.getUri());
+		}
+	}
+
+	/** Get a policy that uses a symmetric algorithm */
+	private static SecurityPolicy getPolicy(SecurityAlgorithm algorithm) throws ServiceResultException {
+		for (SecurityPolicy policy : SecurityPolicy.values())
+			if (policy.getSymmetricEncryptionAlgorithm() == algorithm
+					|| policy.getSymmetricSignatureAlgorithm() == algorithm)
+				return policy;
+		throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected, algorithm.getUri());
+	}
+
+	/** Get a key pair of an asymmetric algorithm, shared by the algorithms of the same key type */
+	private java.security.KeyPair getKeyPair(SecurityAlgorithm algorithm) throws ServiceResultException {
+		boolean ec = algorithm == SecurityAlgorithm.EcdsaSha256 || algorithm == SecurityAlgorithm.EcdsaSha384;
+		String name = ec ? "secp" + algorithm.getKeySize() + "r1" : "RSA";
+		java.security.KeyPair keyPair = keyPairs.get(name);
+		if (keyPair == null) {
+			try {
+				KeyPairGenerator generator;
+				if (ec) {
+					generator = KeyPairGenerator.getInstance("EC");
+					generator.initialize(new ECGenParameterSpec(name));
+				} else {
+					generator = KeyPairGenerator.getInstance("RSA");
+					generator.initialize(RSA_KEY_SIZE);
+				}
+				keyPair = generator.generateKeyPair();
+			} catch (GeneralSecurityException e) {
+				throw new ServiceResultException(StatusCodes.Bad_InternalError, e);
+			}
+			keyPairs.put(name, keyPair);
+		}
+		return keyPair;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,147 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.security;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+
+import javax.crypto.KeyAgreement;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.utils.CryptoUtil;
+
+/**
+ * Ephemeral EC key pair of a secure channel token, used by the security
+ * policies that establish the token keys with ECDH instead of exchanging
+ * random nonces.
+ * <p>
+ * The nonce sent in OpenSecureChannel is the public key, encoded as the
+ * X and Y coordinates each padded to the size of the curve.
+ */
+public final class EphemeralKey {
+
+	private final SecurityPolicy policy;
+	private final java.security.KeyPair keyPair;
+	private final int coordinateSize;
+	private final ByteString nonce;
+
+	/**
+	 * Generate a new ephemeral key for a key agreement policy.
+	 *
+	 * @param policy security policy
+	 * @return a new key
+	 * @throws ServiceResultException Bad_SecurityPolicyRejected if the policy does not use key agreement
+	 */
+	public static EphemeralKey generate(SecurityPolicy policy) throws ServiceResultException {
+		if (!policy.usesKeyAgreement())
+			throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected, policy.getPolicyUri());
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC",
+					CryptoUtil.getSecurityProviderName(KeyPairGenerator.class));
+			generator.initialize(new ECGenParameterSpec(getCurveName(policy)), CryptoUtil.getRandom());
+			return new EphemeralKey(policy, generator.generateKeyPair());
+		} catch (GeneralSecurityException e) {
+			throw new ServiceResultException(StatusCodes.Bad_InternalError, e);
+		}
+	}
+
+	/**
+	 * Get the name of the curve of a key agreement policy.
+	 *
+	 * @param policy security policy
+	 * @return curve name, e.g. secp256r1
+	 */
+	public static String getCurveName(SecurityPolicy policy) {
+		return "secp" + policy.getKeyAgreementAlgorithm().getKeySize() + "r1";
+	}
+
+	private EphemeralKey(SecurityPolicy policy, java.security.KeyPair keyPair) {
+		this.policy = policy;
+		this.keyPair = keyPair;
+		this.coordinateSize = (policy.getKeyAgreementAlgorithm().getKeySize() + 7) / 8;
+		ECPoint w = ((ECPublicKey) keyPair.getPublic()).getW();
+		byte[] encoded = new byte[2 * coordinateSize];
+		copyCoordinate(w.getAffineX(), encoded, 0);
+		copyCoordinate(w.getAffineY(), encoded, coordinateSize);
+		this.nonce = ByteString.valueOf(encoded);
+	}
+
+	private void copyCoordinate(BigInteger value, byte[] output, int offset) {
+		byte[] bytes = value.toByteArray();
+		int start = bytes.length > coordinateSize ? bytes.length - coordinateSize : 0;
+		int n = bytes.length - start;
+		System.arraycopy(bytes, start, output, offset + coordinateSize - n, n);
+	}
+
+	/**
+	 * <p>Getter for the field <code>policy</code>.</p>
+	 *
+	 * @return a {@link org.opcfoundation.ua.transport.security.SecurityPolicy} object.
+	 */
+	public SecurityPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Get the public key encoded as a nonce.
+	 *
+	 * @return X | Y
+	 */
+	public ByteString getNonce() {
+		return nonce;
+	}
+
+	/**
+	 * Compute the shared secret with the ephemeral key of the peer.
+	 *
+	 * @param remoteNonce the public key of the peer, encoded as a nonce
+	 * @return shared secret
+	 * @throws ServiceResultException Bad_NonceInvalid if the nonce is not a valid point of the curve
+	 */
+	public byte[] agree(ByteString remoteNonce) throws ServiceResultException {
+		if (remoteNonce == null || remoteNonce.getLength() != 2 * coordinateSize)
+			throw new ServiceResultException(StatusCodes.Bad_NonceInvalid);
+		byte[] value = remoteNonce.getValue();
+		byte[] x = new byte[coordinateSize];
+		byte[] y = new byte[coordinateSize];
+		System.arraycopy(value, 0, x, 0, coordinateSize);
+		System.arraycopy(value, coordinateSize, y, 0, coordinateSize);
+		ECParameterSpec params = ((ECPublicKey) keyPair.getPublic()).getParams();
+		try {
+			KeyFactory keyFactory = KeyFactory.getInstance("EC",
+					CryptoUtil.getSecurityProviderName(KeyFactory.class));
+			ECPublicKey remoteKey = (ECPublicKey) keyFactory.generatePublic(
+					new ECPublicKeySpec(new ECPoint(new BigInteger(1, x), new BigInteger(1, y)), params));
+			KeyAgreement agreement = KeyAgreement.getInstance("ECDH",
+					CryptoUtil.getSecurityProviderName(KeyAgreement.class));
+			agreement.init(keyPair.getPrivate());
+			agreement.doPhase(remoteKey, true);
+			return agreement.generateSecret();
+		} catch (GeneralSecurityException e) {
+			// Includes points that are not on the curve
+			throw new ServiceResultException(StatusCodes.Bad_NonceInvalid, e);
+		} catch (IllegalArgumentException e) {
+			throw new ServiceResultException(StatusCodes.Bad_NonceInvalid, e);
+		}
+	}
+
+}
@@ -11,6 +11,7 @@
 */
 package org.opcfoundation.ua.transport.security;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -21,6 +22,7 @@ import java.security.Provider;
 import java.security.PublicKey;
 import java.security.Security;
 import java.security.Signature;
+import java.security.interfaces.ECKey;
 import java.security.interfaces.RSAPrivateKey;
 
 import javax.crypto.Cipher;
@@ -48,6 +50,53 @@ public class JceCryptoProvider implements CryptoProvider {
 	
 	protected final Provider provider;
 
+	/** Mac of a symmetric signing key */
+	private final CryptoContexts.Factory<Mac> macs = new CryptoContexts.Factory<Mac>() {
+		@Override
+		protected Mac create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException {
+			return createMac(algorithm, key);
+		}
+	};
+
+	/**
+	 * Cipher of a symmetric key and IV. A cipher returns to its initialized
+	 * state after doFinal, so it is only initialized when it is created.
+	 */
+	private final CryptoContexts.Factory<Cipher> decryptCiphers = new CryptoContexts.Factory<Cipher>() {
+		@Override
+		protected Cipher create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException {
+			return createSymmetricCipher(Cipher.DECRYPT_MODE, algorithm, key, iv);
+		}
+	};
+
+	private final CryptoContexts.Factory<Cipher> encryptCiphers = new CryptoContexts.Factory<Cipher>() {
+		@Override
+		protected Cipher create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException {
+			return createSymmetricCipher(Cipher.ENCRYPT_MODE, algorithm, key, iv);
+		}
+	};
+
+	/** In-place operations on buffers, with the contexts of a token */
+	private final BufferCrypto buffers = new BufferCrypto() {
+		@Override
+		int encrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] input,
+				int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			return JceCryptoProvider.this.encryptSymm(contexts, policy, encryptingKey, iv, input, inputOffset, inputLength, output, outputOffset);
+		}
+
+		@Override
+		int decrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] input,
+				int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			return JceCryptoProvider.this.decryptSymm(contexts, policy, encryptingKey, iv, input, inputOffset, inputLength, output, outputOffset);
+		}
+
+		@Override
+		void sign(CryptoContexts contexts, SecurityPolicy policy, byte[] key, byte[] input, int inputOffset,
+				int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			JceCryptoProvider.this.signSymm(contexts, policy, key, input, inputOffset, inputLength, output, outputOffset);
+		}
+	};
+
 	/**
 	 * Constructs new {@link JceCryptoProvider} using the given JCE provider. 
 	 * JCE Providers can be obtained by calling {@link Security#getProvider(String)}. 
@@ -157,6 +206,12 @@ public class JceCryptoProvider implements CryptoProvider {
 	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
 			int inputOffset, int inputLength, byte[] output, int outputOffset)
 			throws ServiceResultException {
+		return decryptSymm(null, policy, encryptingKey, iv, dataToDecrypt, inputOffset, inputLength, output, outputOffset);
+	}
+
+	int decryptSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset)
+			throws ServiceResultException {
 
 		// Decrypt
 		SecurityAlgorithm algorithm = policy.getSymmetricEncryptionAlgorithm();
@@ -172,23 +227,15 @@ public class JceCryptoProvider implements CryptoProvider {
 			logger.trace("decrypt: algorithm=" + algorithm);
 		}
 
-		Cipher cipher;
+		Cipher cipher = decryptCiphers.take(contexts, algorithm, encryptingKey, iv);
 		int decryptedBytes = 0;
 
-		SecretKeySpec spec = new SecretKeySpec(encryptingKey,
-				algorithm.getStandardName());
-
 		try {
-			cipher = Cipher.getInstance(algorithm.getTransformation());
-			cipher.init(Cipher.DECRYPT_MODE, spec,
-					new IvParameterSpec(iv));
 			decryptedBytes = cipher.update(dataToDecrypt, inputOffset,
 					inputLength, output, outputOffset);
 			decryptedBytes += cipher.doFinal(output, outputOffset
 					+ decryptedBytes);
-		} catch (InvalidKeyException e) {
-			throw new ServiceResultException(
-					StatusCodes.Bad_SecurityChecksFailed, e);
+			decryptCiphers.release(contexts, encryptingKey, iv, cipher);
 		} catch (GeneralSecurityException e) {
 			throw new ServiceResultException(StatusCodes.Bad_InternalError, e);
 		} catch (IllegalStateException e) {
@@ -255,26 +302,46 @@ public class JceCryptoProvider implements CryptoProvider {
 	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
 			int inputOffset, int inputLength, byte[] output, int outputOffset)
 			throws ServiceResultException {
+		return encryptSymm(null, policy, encryptingKey, iv, dataToEncrypt, inputOffset, inputLength, output, outputOffset);
+	}
+
+	int encryptSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset)
+			throws ServiceResultException {
 
 		SecurityAlgorithm algorithm = policy.getSymmetricEncryptionAlgorithm();
-		SecretKeySpec spec = new SecretKeySpec(encryptingKey,
-				algorithm.getStandardName());
+		Cipher cipher = encryptCiphers.take(contexts, algorithm, encryptingKey, iv);
 
 		try {
-			Cipher cipher = Cipher.getInstance(algorithm.getTransformation());
-			cipher.init(Cipher.ENCRYPT_MODE, spec, new IvParameterSpec(iv));
 			int encryptedBytes = cipher.update(dataToEncrypt, inputOffset,
 					inputLength, output, outputOffset);
 			encryptedBytes += cipher.doFinal(output, outputOffset
 					+ encryptedBytes);
+			encryptCiphers.release(contexts, encryptingKey, iv, cipher);
 			return encryptedBytes;
+		} catch (GeneralSecurityException e) {
+			throw new ServiceResultException(StatusCodes.Bad_InternalError, e);
+		}
+
+	}
+
+	/**
+	 * Create a symmetric cipher, initialized with the key and IV.
+	 */
+	private Cipher createSymmetricCipher(int mode, SecurityAlgorithm algorithm, byte[] key, byte[] iv)
+			throws ServiceResultException {
+		SecretKeySpec spec = new SecretKeySpec(key,
+				algorithm.getStandardName());
+		try {
+			Cipher cipher = Cipher.getInstance(algorithm.getTransformation());
+			cipher.init(mode, spec, new IvParameterSpec(iv));
+			return cipher;
 		} catch (InvalidKeyException e) {
 			throw new ServiceResultException(
 					StatusCodes.Bad_SecurityChecksFailed, e);
 		} catch (GeneralSecurityException e) {
 			throw new ServiceResultException(StatusCodes.Bad_InternalError, e);
 		}
-
 	}
 
 	/** {@inheritDoc} */
@@ -295,6 +362,9 @@ public class JceCryptoProvider implements CryptoProvider {
 			signer.initSign(senderPrivate);
 			// compute hash of the message
 			signer.update(dataToSign);
+			if (senderPrivate instanceof ECKey)
+				return CryptoUtil.derToEcdsaSignature(signer.sign(),
+						CryptoUtil.getEcdsaSignatureSize((ECKey) senderPrivate));
 			return signer.sign();
 
 		} catch (GeneralSecurityException e) {
@@ -307,10 +377,16 @@ public class JceCryptoProvider implements CryptoProvider {
 	@Override
 	public void signSymm(SecurityPolicy policy, byte[] key, byte[] input, int inputOffset, int verifyLen,
 			byte[] output, int outputOffset) throws ServiceResultException {
-		Mac hmac = createMac(policy.getSymmetricSignatureAlgorithm(), key);
+		signSymm(null, policy, key, input, inputOffset, verifyLen, output, outputOffset);
+	}
+
+	void signSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] key, byte[] input, int inputOffset,
+			int verifyLen, byte[] output, int outputOffset) throws ServiceResultException {
+		Mac hmac = macs.take(contexts, policy.getSymmetricSignatureAlgorithm(), key, null);
 		hmac.update(input, inputOffset, verifyLen);
 		try {
 			hmac.doFinal(output, outputOffset);
+			macs.release(contexts, key, null, hmac);
 		} catch (GeneralSecurityException e) {
 			throw new RuntimeServiceResultException(new ServiceResultException(
 					StatusCodes.Bad_InternalError, e));
@@ -332,6 +408,11 @@ public class JceCryptoProvider implements CryptoProvider {
 			Signature verifier = getSignature(algorithm);
 			verifier.initVerify(signingCertificate);
 			verifier.update(dataToVerify);
+			if (signingCertificate instanceof ECKey) {
+				if (signature.length != CryptoUtil.getEcdsaSignatureSize((ECKey) signingCertificate))
+					return false;
+				signature = CryptoUtil.ecdsaSignatureToDer(signature);
+			}
 			if (verifier.verify(signature)) {
 				logger.debug("Asym Signature Verify : OK");
 				return true;
@@ -391,6 +472,34 @@ public class JceCryptoProvider implements CryptoProvider {
 
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return buffers.encryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return buffers.decryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		buffers.signSymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		buffers.verifySymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+	}
+
 	private Cipher getAsymmetricCipher(SecurityAlgorithm algorithm,
 			PrivateKey privateKey) throws NoSuchProviderException,
 			NoSuchPaddingException, NoSuchAlgorithmException,
@@ -24,6 +24,7 @@ import java.security.KeyStoreException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.interfaces.RSAPrivateKey;
@@ -59,7 +60,10 @@ public class PrivKey {
 	private static final String END_PRIVATE_KEY_REGEX = "-----END .*PRIVATE KEY-----";
 	private static final String BEGIN_PRIVATE_KEY_REGEX = "-----BEGIN .*PRIVATE KEY-----";
 
+	/** @deprecated The key if it is an RSA key, else null. Use {@link #getKey()} */
+	@Deprecated
 	public final RSAPrivateKey privateKey;
+	private final PrivateKey key;
 	private static Logger logger = LoggerFactory.getLogger(PrivKey.class);
 	/**
 	 * Load private key from a PKCS12 key store
@@ -303,7 +307,7 @@ public class PrivKey {
 	public void save(File file, String privateKeyPassword) throws IOException
 	{
 		if (privateKeyPassword == null || privateKeyPassword.length() == 0) {
-			PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(getPrivateKey()
+			PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(getKey()
 					.getEncoded());
 			FileWriter fw = new FileWriter(file);
 			try {
@@ -327,7 +331,7 @@ public class PrivKey {
 	 */
 	private void savePemWithBC(File file, String privateKeyPassword)
 			throws IOException {
-		BouncyCastleUtils.writeToPem(getPrivateKey(), file, privateKeyPassword, "AES-128-CBC");
+		BouncyCastleUtils.writeToPem(getKey(), file, privateKeyPassword, "AES-128-CBC");
 	}
 
 	/**
@@ -342,21 +346,29 @@ public class PrivKey {
 	throws IOException, InvalidKeySpecException, NoSuchAlgorithmException
 	{
 		if (encodedPrivateKey==null) throw new IllegalArgumentException("null arg");
-		this.privateKey = decodeRSAPrivateKey(encodedPrivateKey);
+		PrivateKey key;
+		try {
+			key = decodePrivateKey(encodedPrivateKey, "RSA");
+		} catch (InvalidKeySpecException e) {
+			// Not an RSA key, ECC_ policies use EC keys
+			key = decodePrivateKey(encodedPrivateKey, "EC");
+		}
+		this.key = key;
+		this.privateKey = key instanceof RSAPrivateKey ? (RSAPrivateKey) key : null;
 	}
 
-	private RSAPrivateKey decodeRSAPrivateKey(byte[] keyBytes) throws NoSuchAlgorithmException, InvalidKeySpecException {
+	private PrivateKey decodePrivateKey(byte[] keyBytes, String algorithm) throws NoSuchAlgorithmException, InvalidKeySpecException {
 		PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
 		// Try to read the private key with the default provider first
 		try
 		{
-			KeyFactory kf = KeyFactory.getInstance("RSA");
-			return (RSAPrivateKey) kf.generatePrivate(spec);
+			KeyFactory kf = KeyFactory.getInstance(algorithm);
+			return kf.generatePrivate(spec);
 		} catch (Exception e) {
 			// For some reason the Sun provider cannot read all keys: try with Bouncy Castle if it fails
 			try {
-				KeyFactory kf = KeyFactory.getInstance("RSA", CryptoUtil.getSecurityProviderName());
-				return (RSAPrivateKey) kf.generatePrivate(spec);
+				KeyFactory kf = KeyFactory.getInstance(algorithm, CryptoUtil.getSecurityProviderName());
+				return kf.generatePrivate(spec);
 			} catch (NoSuchProviderException e1) {
 				logger.error("Could not read private key with default Provider and Bouncy Castle not available");
 				throw new RuntimeException("Could not read private key with default Provider and Bouncy Castle not available", e1); 
@@ -371,7 +383,18 @@ public class PrivKey {
 	 */
 	public PrivKey(RSAPrivateKey privateKey)
 	{
-		this.privateKey = privateKey;
+		this((PrivateKey) privateKey);
+	}
+
+	/**
+	 * <p>Constructor for PrivKey.</p>
+	 *
+	 * @param key an RSA or EC private key
+	 */
+	public PrivKey(PrivateKey key)
+	{
+		this.key = key;
+		this.privateKey = key instanceof RSAPrivateKey ? (RSAPrivateKey) key : null;
 	}
 	
 	/**
@@ -381,17 +404,30 @@ public class PrivKey {
 	 */
 	public byte[] getEncodedPrivateKey() 
 	{
-		return privateKey.getEncoded();
+		return key.getEncoded();
 	}
 	
 	/**
 	 * <p>Getter for the field <code>privateKey</code>.</p>
 	 *
 	 * @return a {@link java.security.interfaces.RSAPrivateKey} object.
+	 * @throws java.lang.ClassCastException if the key is not an RSA key
+	 * @deprecated EC keys are not RSA keys, use {@link #getKey()}
 	 */
+	@Deprecated
 	public RSAPrivateKey getPrivateKey()
 	{
-		return privateKey;
+		return (RSAPrivateKey) key;
+	}
+
+	/**
+	 * <p>Getter for the field <code>key</code>.</p>
+	 *
+	 * @return a {@link java.security.PrivateKey} object, an RSA or EC key.
+	 */
+	public PrivateKey getKey()
+	{
+		return key;
 	}
 
 	/**
@@ -424,7 +460,7 @@ public class PrivKey {
 			NoSuchProviderException, NoSuchAlgorithmException,
 			CertificateException {
 		String alias = "key";
-		CertificateUtils.saveToProtectedStore(getPrivateKey(), cert.getCertificate(),
+		CertificateUtils.saveToProtectedStore(getKey(), cert.getCertificate(),
 				file, alias, privateKeyPassword, keyStorePassword,
 				keyStoreType);
 	
@@ -22,6 +22,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -103,7 +104,7 @@ public class ScCertificateProvider implements CertificateProvider {
 					to, new X500Principal(domainName), publicKey);
 			authorityKeyIdentifier = extUtils
 					.createAuthorityKeyIdentifier(caCert);
-			signerKey = issuerKeys.getPrivateKey().getPrivateKey();
+			signerKey = issuerKeys.getPrivateKey().getKey();
 		}
 		certBldr.addExtension(Extension.authorityKeyIdentifier, false,
 				authorityKeyIdentifier)
@@ -114,7 +115,9 @@ public class ScCertificateProvider implements CertificateProvider {
 								.addExtension(
 										Extension.keyUsage,
 										false,
-										new KeyUsage(KeyUsage.digitalSignature
+										new KeyUsage(publicKey instanceof ECKey
+												? KeyUsage.digitalSignature | KeyUsage.nonRepudiation | KeyUsage.keyCertSign
+												: KeyUsage.digitalSignature
 												| KeyUsage.keyEncipherment
 												| KeyUsage.nonRepudiation
 												| KeyUsage.dataEncipherment
@@ -183,7 +186,7 @@ public class ScCertificateProvider implements CertificateProvider {
 		// ***** generate certificate ***********/
 		try {
 			ContentSigner signer = new JcaContentSignerBuilder(
-					CertificateUtils.getCertificateSignatureAlgorithm())
+					CertificateUtils.getCertificateSignatureAlgorithm(signerKey))
 			.setProvider("SC").build(signerKey);
 			return new JcaX509CertificateConverter().setProvider("SC")
 					.getCertificate(certBldr.build(signer));
@@ -237,7 +240,7 @@ public class ScCertificateProvider implements CertificateProvider {
 		ContentSigner signer;
 		try {
 			signer = new JcaContentSignerBuilder(
-					CertificateUtils.getCertificateSignatureAlgorithm())
+					CertificateUtils.getCertificateSignatureAlgorithm(privateKey))
 			.setProvider("SC").build(privateKey);
 		} catch (OperatorCreationException e) {
 			throw new GeneralSecurityException(
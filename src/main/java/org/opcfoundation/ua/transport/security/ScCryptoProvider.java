@@ -12,10 +12,13 @@
 package org.opcfoundation.ua.transport.security;
 
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.ECKey;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -34,9 +37,11 @@ import org.spongycastle.crypto.CipherParameters;
 import org.spongycastle.crypto.CryptoException;
 import org.spongycastle.crypto.DataLengthException;
 import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.Digest;
 import org.spongycastle.crypto.Signer;
 import org.spongycastle.crypto.digests.SHA1Digest;
 import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.digests.SHA384Digest;
 import org.spongycastle.crypto.encodings.OAEPEncoding;
 import org.spongycastle.crypto.encodings.PKCS1Encoding;
 import org.spongycastle.crypto.engines.AESEngine;
@@ -49,8 +54,11 @@ import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
 import org.spongycastle.crypto.params.RSAKeyParameters;
 import org.spongycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.spongycastle.crypto.signers.ECDSASigner;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
 import org.spongycastle.crypto.signers.PSSSigner;
 import org.spongycastle.crypto.signers.RSADigestSigner;
+import org.spongycastle.jcajce.provider.asymmetric.util.ECUtil;
 import org.spongycastle.util.encoders.Base64;
 
 /**
@@ -61,6 +69,57 @@ public class ScCryptoProvider implements CryptoProvider {
 
 	static Logger logger = LoggerFactory.getLogger(ScCryptoProvider.class);
 
+	/** HMac of a symmetric signing key */
+	private final CryptoContexts.Factory<HMac> macs = new CryptoContexts.Factory<HMac>() {
+		@Override
+		protected HMac create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) throws ServiceResultException {
+			return createMac(algorithm, new KeyParameter(key));
+		}
+	};
+
+	/**
+	 * Cipher of a symmetric key and IV. A cipher returns to its initial state
+	 * after each message, so it is only initialized when it is created.
+	 */
+	private final CryptoContexts.Factory<BufferedBlockCipher> decryptCiphers = new CryptoContexts.Factory<BufferedBlockCipher>() {
+		@Override
+		protected BufferedBlockCipher create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) {
+			BufferedBlockCipher cipher = new BufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
+			cipher.init(false, new ParametersWithIV(new KeyParameter(key), iv));
+			return cipher;
+		}
+	};
+
+	private final CryptoContexts.Factory<BufferedBlockCipher> encryptCiphers = new CryptoContexts.Factory<BufferedBlockCipher>() {
+		@Override
+		protected BufferedBlockCipher create(SecurityAlgorithm algorithm, byte[] key, byte[] iv) {
+			BufferedBlockCipher cipher = new BufferedBlockCipher(new CBCBlockCipher(new RijndaelEngine()));
+			cipher.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+			return cipher;
+		}
+	};
+
+	/** In-place operations on buffers, with the contexts of a token */
+	private final BufferCrypto buffers = new BufferCrypto() {
+		@Override
+		int encrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] input,
+				int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			return ScCryptoProvider.this.encryptSymm(contexts, policy, encryptingKey, iv, input, inputOffset, inputLength, output, outputOffset);
+		}
+
+		@Override
+		int decrypt(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] input,
+				int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			return ScCryptoProvider.this.decryptSymm(contexts, policy, encryptingKey, iv, input, inputOffset, inputLength, output, outputOffset);
+		}
+
+		@Override
+		void sign(CryptoContexts contexts, SecurityPolicy policy, byte[] key, byte[] input, int inputOffset,
+				int inputLength, byte[] output, int outputOffset) throws ServiceResultException {
+			ScCryptoProvider.this.signSymm(contexts, policy, key, input, inputOffset, inputLength, output, outputOffset);
+		}
+	};
+
 	/**
 	 * <p>Constructor for ScCryptoProvider.</p>
 	 */
@@ -148,15 +207,14 @@ public class ScCryptoProvider implements CryptoProvider {
 	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
 			int inputOffset, int inputLength, byte[] output, int outputOffset)
 					throws ServiceResultException {
+		return decryptSymm(null, policy, encryptingKey, iv, dataToDecrypt, inputOffset, inputLength, output, outputOffset);
+	}
 
-		final BufferedBlockCipher cipher;
-//		if(SecurityPolicy.PUBSUB_AES128_CTR.equals(policy) || SecurityPolicy.PUBSUB_AES256_CTR.equals(policy)) {
-//			cipher = new BufferedBlockCipher(new SICBlockCipher(new AESEngine()));
-//		}else {
-			cipher = new BufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
-//		}
+	int decryptSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToDecrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset)
+					throws ServiceResultException {
 
-		cipher.init(false, new ParametersWithIV(new KeyParameter(encryptingKey), iv));
+		final BufferedBlockCipher cipher = decryptCiphers.take(contexts, policy.getSymmetricEncryptionAlgorithm(), encryptingKey, iv);
 
 		int decryptedBytes = cipher.processBytes(dataToDecrypt, inputOffset,
 				inputLength, output, outputOffset);
@@ -165,6 +223,7 @@ public class ScCryptoProvider implements CryptoProvider {
 
 			decryptedBytes += cipher.doFinal(output, outputOffset
 					+ decryptedBytes);
+			decryptCiphers.release(contexts, encryptingKey, iv, cipher);
 			return decryptedBytes;
 
 		} catch (DataLengthException e) {
@@ -215,15 +274,14 @@ public class ScCryptoProvider implements CryptoProvider {
 	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
 			int inputOffset, int inputLength, byte[] output, int outputOffset)
 					throws ServiceResultException {
+		return encryptSymm(null, policy, encryptingKey, iv, dataToEncrypt, inputOffset, inputLength, output, outputOffset);
+	}
 
-		final BufferedBlockCipher cipher;
-//		if(SecurityPolicy.PUBSUB_AES128_CTR.equals(policy) || SecurityPolicy.PUBSUB_AES256_CTR.equals(policy)) {
-//			cipher = new BufferedBlockCipher(new SICBlockCipher(new AESEngine()));
-//		}else {
-			cipher = new BufferedBlockCipher(new CBCBlockCipher(new RijndaelEngine()));
-//		}
+	int encryptSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] encryptingKey, byte[] iv, byte[] dataToEncrypt,
+			int inputOffset, int inputLength, byte[] output, int outputOffset)
+					throws ServiceResultException {
 
-		cipher.init(true, new ParametersWithIV(new KeyParameter(encryptingKey), iv));
+		final BufferedBlockCipher cipher = encryptCiphers.take(contexts, policy.getSymmetricEncryptionAlgorithm(), encryptingKey, iv);
 
 		int encryptedBytes = cipher.processBytes(dataToEncrypt, inputOffset,
 				inputLength, output, outputOffset);
@@ -232,6 +290,7 @@ public class ScCryptoProvider implements CryptoProvider {
 
 			encryptedBytes += cipher.doFinal(output, outputOffset
 					+ encryptedBytes);
+			encryptCiphers.release(contexts, encryptingKey, iv, cipher);
 			return encryptedBytes;
 
 		} catch (DataLengthException e) {
@@ -256,6 +315,9 @@ public class ScCryptoProvider implements CryptoProvider {
 		if (dataToSign == null || senderPrivate == null)
 			throw new IllegalArgumentException("null arg");
 
+		if (senderPrivate instanceof ECKey)
+			return signEcdsa(senderPrivate, algorithm, dataToSign);
+
 		RSAPrivateKey privKey;
 		if (senderPrivate instanceof java.security.interfaces.RSAPrivateCrtKey) {
 			java.security.interfaces.RSAPrivateCrtKey privateKey = (java.security.interfaces.RSAPrivateCrtKey) senderPrivate;
@@ -292,9 +354,15 @@ public class ScCryptoProvider implements CryptoProvider {
 	@Override
 	public void signSymm(SecurityPolicy policy, byte[] key, byte[] input, int inputOffset, int verifyLen,
 			byte[] output, int outputOffset) throws ServiceResultException {
-		HMac hmac = createMac(policy.getSymmetricSignatureAlgorithm(), new KeyParameter(key));
+		signSymm(null, policy, key, input, inputOffset, verifyLen, output, outputOffset);
+	}
+
+	void signSymm(CryptoContexts contexts, SecurityPolicy policy, byte[] key, byte[] input, int inputOffset,
+			int verifyLen, byte[] output, int outputOffset) throws ServiceResultException {
+		HMac hmac = macs.take(contexts, policy.getSymmetricSignatureAlgorithm(), key, null);
 		hmac.update(input, inputOffset, verifyLen);
 		hmac.doFinal(output, outputOffset);
+		macs.release(contexts, key, null, hmac);
 	}
 
 	/** {@inheritDoc} */
@@ -308,6 +376,9 @@ public class ScCryptoProvider implements CryptoProvider {
 				|| signature == null)
 			throw new IllegalArgumentException("null arg");
 
+		if (signingCertificate instanceof ECKey)
+			return verifyEcdsa(signingCertificate, algorithm, dataToVerify, signature);
+
 		java.security.interfaces.RSAPublicKey signingCertificateRSA = (java.security.interfaces.RSAPublicKey) signingCertificate;
 		RSAPublicKey publicKey = new RSAPublicKey(
 				signingCertificateRSA.getModulus(),
@@ -353,6 +424,34 @@ public class ScCryptoProvider implements CryptoProvider {
 		// Everything went fine, signatures matched
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return buffers.encryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int decryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+			int length, CryptoContexts contexts) throws ServiceResultException {
+		return buffers.decryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		buffers.signSymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+			int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+		buffers.verifySymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+	}
+
 	private HMac createMac(SecurityAlgorithm algorithm, KeyParameter param)
 			throws ServiceResultException {
 
@@ -361,6 +460,8 @@ public class ScCryptoProvider implements CryptoProvider {
 			hmac = new HMac(new SHA1Digest());
 		} else if (algorithm.equals(SecurityAlgorithm.HmacSha256)) {
 			hmac = new HMac(new SHA256Digest());
+		} else if (algorithm.equals(SecurityAlgorithm.HmacSha384)) {
+			hmac = new HMac(new SHA384Digest());
 		} else {
 			throw new ServiceResultException(
 					StatusCodes.Bad_SecurityPolicyRejected,
@@ -371,6 +472,58 @@ public class ScCryptoProvider implements CryptoProvider {
 
 	}
 
+	private byte[] signEcdsa(PrivateKey senderPrivate,
+			SecurityAlgorithm algorithm, byte[] dataToSign)
+					throws ServiceResultException {
+		Digest digest = getEcdsaDigest(algorithm);
+		// Deterministic k (RFC 6979)
+		ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(getEcdsaDigest(algorithm)));
+		try {
+			signer.init(true, ECUtil.generatePrivateKeyParameter(senderPrivate));
+		} catch (InvalidKeyException e) {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, e);
+		}
+		byte[] hash = new byte[digest.getDigestSize()];
+		digest.update(dataToSign, 0, dataToSign.length);
+		digest.doFinal(hash, 0);
+		BigInteger[] rs = signer.generateSignature(hash);
+		return CryptoUtil.encodeEcdsaSignature(rs[0], rs[1],
+				CryptoUtil.getEcdsaSignatureSize((ECKey) senderPrivate));
+	}
+
+	private boolean verifyEcdsa(PublicKey signingCertificate,
+			SecurityAlgorithm algorithm, byte[] dataToVerify, byte[] signature)
+					throws ServiceResultException {
+		if (signature.length != CryptoUtil.getEcdsaSignatureSize((ECKey) signingCertificate))
+			return false;
+		Digest digest = getEcdsaDigest(algorithm);
+		ECDSASigner signer = new ECDSASigner();
+		try {
+			signer.init(false, ECUtil.generatePublicKeyParameter(signingCertificate));
+		} catch (InvalidKeyException e) {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, e);
+		}
+		byte[] hash = new byte[digest.getDigestSize()];
+		digest.update(dataToVerify, 0, dataToVerify.length);
+		digest.doFinal(hash, 0);
+		int half = signature.length / 2;
+		BigInteger r = new BigInteger(1, java.util.Arrays.copyOfRange(signature, 0, half));
+		BigInteger s = new BigInteger(1, java.util.Arrays.copyOfRange(signature, half, signature.length));
+		return signer.verifySignature(hash, r, s);
+	}
+
+	private Digest getEcdsaDigest(SecurityAlgorithm algorithm) throws ServiceResultException {
+		if (algorithm.equals(SecurityAlgorithm.EcdsaSha256)) {
+			return new SHA256Digest();
+		} else if (algorithm.equals(SecurityAlgorithm.EcdsaSha384)) {
+			return new SHA384Digest();
+		} else {
+			throw new ServiceResultException(
+					StatusCodes.Bad_SecurityPolicyRejected,
+					"Unsupported asymmetric signature algorithm: " + algorithm);
+		}
+	}
+
 	private AsymmetricBlockCipher getAsymmetricCipher(boolean forEncryption,
 			SecurityAlgorithm algorithm, CipherParameters params)
 					throws ServiceResultException {
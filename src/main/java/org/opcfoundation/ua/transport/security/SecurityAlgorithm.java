@@ -21,6 +21,7 @@ public enum SecurityAlgorithm {
 	// Symmetric signature	
 	HmacSha1(AlgorithmType.SymmetricSignature, "http://www.w3.org/2000/09/xmldsig#hmac-sha1", "HmacSHA1", 160),
 	HmacSha256(AlgorithmType.SymmetricSignature, "http://www.w3.org/2000/09/xmldsig#hmac-sha256", "HmacSHA256", 256),
+	HmacSha384(AlgorithmType.SymmetricSignature, "http://www.w3.org/2001/04/xmldsig-more#hmac-sha384", "HmacSHA384", 384),
 
 	// Symmetric encryption
 	Aes128(AlgorithmType.SymmetricEncryption, "http://www.w3.org/2001/04/xmlenc#aes128-cbc", "AES/CBC/NoPadding", 128),
@@ -34,6 +35,9 @@ public enum SecurityAlgorithm {
 	RsaSha1(AlgorithmType.AsymmetricSignature, "http://www.w3.org/2000/09/xmldsig#rsa-sha1", "SHA1withRSA", 160),
 	RsaSha256(AlgorithmType.AsymmetricSignature, "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", "SHA256withRSA", 256),
 	RsaPssSha256(AlgorithmType.AsymmetricSignature, "http://opcfoundation.org/UA/security/rsa-pss-sha2-256", "SHA256withRSAandMGF1", 256),
+	// ECDSA signatures are encoded as r | s, both padded to the size of the curve
+	EcdsaSha256(AlgorithmType.AsymmetricSignature, "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256", "SHA256withECDSA", 256),
+	EcdsaSha384(AlgorithmType.AsymmetricSignature, "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha384", "SHA384withECDSA", 384),
 
 	// Asymmetric encryption
 	Rsa15(AlgorithmType.AsymmetricEncryption, "http://www.w3.org/2001/04/xmlenc#rsa-1_5", "RSA/NONE/PKCS1Padding", 0),
@@ -46,9 +50,15 @@ public enum SecurityAlgorithm {
 	KwRsaOaep(AlgorithmType.AsymmetricKeywrap, "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p","", 0),
 	KwRsa15(AlgorithmType.AsymmetricKeywrap, "http://www.w3.org/2001/04/xmlenc#rsa-1_5","", 0),
 
+	// Key agreement with ephemeral keys, the key size is the size of the curve
+	EcdhNistP256(AlgorithmType.KeyAgreement, "http://opcfoundation.org/UA/security/ecdh-nistP256", "ECDH", 256),
+	EcdhNistP384(AlgorithmType.KeyAgreement, "http://opcfoundation.org/UA/security/ecdh-nistP384", "ECDH", 384),
+
 	// key derivation
 	PSha1(AlgorithmType.KeyDerivation, "http://www.w3.org/2001/04/xmlenc#aes128-cbc","HmacSHA1", 0),
-	PSha256(AlgorithmType.KeyDerivation, "http://docs.oasis-open.org/ws-sx/ws-secureconversation/200512/dk/p_sha256","HmacSHA256", 0);
+	PSha256(AlgorithmType.KeyDerivation, "http://docs.oasis-open.org/ws-sx/ws-secureconversation/200512/dk/p_sha256","HmacSHA256", 0),
+	HkdfSha256(AlgorithmType.KeyDerivation, "http://opcfoundation.org/UA/security/hkdf-sha2-256","HmacSHA256", 0),
+	HkdfSha384(AlgorithmType.KeyDerivation, "http://opcfoundation.org/UA/security/hkdf-sha2-384","HmacSHA384", 0);
 
 
 	public enum AlgorithmType {
@@ -57,6 +67,7 @@ public enum SecurityAlgorithm {
 		AsymmetricSignature,
 		AsymmetricEncryption,
 		AsymmetricKeywrap,
+		KeyAgreement,
 		KeyDerivation
 	}
 
@@ -12,6 +12,7 @@
 
 package org.opcfoundation.ua.transport.security;
 
+import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import org.slf4j.Logger;
@@ -105,7 +106,7 @@ public class SecurityConfiguration {
 	 */
 	public byte[] getEncodedLocalPrivateKey() {
 		if (localCertificate==null) return null;
-		return localCertificate.getPrivateKey().getPrivateKey().getEncoded();
+		return localCertificate.getPrivateKey().getKey().getEncoded();
 	}
 
 	/**
@@ -152,10 +153,23 @@ public class SecurityConfiguration {
 	 * <p>getLocalPrivateKey.</p>
 	 *
 	 * @return a {@link java.security.interfaces.RSAPrivateKey} object.
+	 * @throws java.lang.ClassCastException if the local key is not an RSA key
+	 * @deprecated EC keys are not RSA keys, use {@link #getLocalKey()}
 	 */
+	@Deprecated
 	public RSAPrivateKey getLocalPrivateKey() {
 		if (localCertificate==null) return null;
-		return (RSAPrivateKey) localCertificate.getPrivateKey().getPrivateKey();
+		return (RSAPrivateKey) localCertificate.getPrivateKey().getKey();
+	}
+
+	/**
+	 * <p>getLocalKey.</p>
+	 *
+	 * @return a {@link java.security.PrivateKey} object, an RSA or EC key.
+	 */
+	public PrivateKey getLocalKey() {
+		if (localCertificate==null) return null;
+		return localCertificate.getPrivateKey().getKey();
 	}
 
 	/**
@@ -213,6 +227,20 @@ public class SecurityConfiguration {
 	public MessageSecurityMode getMessageSecurityMode() {
 		return mode.getMessageSecurityMode();
 	}	
+
+	/**
+	 * Get the protection of OpenSecureChannel messages. Policies with
+	 * asymmetric encryption always sign and encrypt them, also in Sign mode.
+	 * Policies with key agreement only sign them.
+	 *
+	 * @return the message security mode of asymmetric chunks
+	 */
+	public MessageSecurityMode getAsymmetricMessageSecurityMode() {
+		MessageSecurityMode msm = mode.getMessageSecurityMode();
+		if (!msm.hasSigning())
+			return msm;
+		return getSecurityPolicy().usesKeyAgreement() ? MessageSecurityMode.Sign : MessageSecurityMode.SignAndEncrypt;
+	}
 	
 	static {		
 		NO_SECURITY = new SecurityConfiguration(SecurityMode.NONE, null, null);
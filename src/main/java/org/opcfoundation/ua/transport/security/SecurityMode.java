@@ -40,6 +40,10 @@ public final class SecurityMode {
 	public final static SecurityMode AES128_SIGN = new SecurityMode(SecurityPolicy.AES128_SHA256_RSAOAEP, MessageSecurityMode.Sign);
 	public final static SecurityMode AES256_SIGN_ENCRYPT = new SecurityMode(SecurityPolicy.AES256_SHA256_RSAPSS, MessageSecurityMode.SignAndEncrypt);
 	public final static SecurityMode AES256_SIGN = new SecurityMode(SecurityPolicy.AES256_SHA256_RSAPSS, MessageSecurityMode.Sign);
+	public final static SecurityMode ECC_NISTP256_SIGN_ENCRYPT = new SecurityMode(SecurityPolicy.ECC_NISTP256, MessageSecurityMode.SignAndEncrypt);
+	public final static SecurityMode ECC_NISTP256_SIGN = new SecurityMode(SecurityPolicy.ECC_NISTP256, MessageSecurityMode.Sign);
+	public final static SecurityMode ECC_NISTP384_SIGN_ENCRYPT = new SecurityMode(SecurityPolicy.ECC_NISTP384, MessageSecurityMode.SignAndEncrypt);
+	public final static SecurityMode ECC_NISTP384_SIGN = new SecurityMode(SecurityPolicy.ECC_NISTP384, MessageSecurityMode.Sign);
 	
 //	public final static SecurityMode PUBSUB_AES128CTR_SIGN = new SecurityMode(SecurityPolicy.PUBSUB_AES128_CTR, MessageSecurityMode.Sign);
 //	public final static SecurityMode PUBSUB_AES256CTR_SIGN = new SecurityMode(SecurityPolicy.PUBSUB_AES256_CTR, MessageSecurityMode.Sign);
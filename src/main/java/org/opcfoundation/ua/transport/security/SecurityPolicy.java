@@ -12,6 +12,7 @@
 
 package org.opcfoundation.ua.transport.security;
 
+import java.security.interfaces.ECPublicKey;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Map;
@@ -81,7 +82,30 @@ public enum SecurityPolicy {
 			SecurityAlgorithm.KwRsaOaep,// Asymmetric keywrap
 			SecurityAlgorithm.RsaOaep256, // Asymmetric encryption
 			SecurityAlgorithm.PSha256, // key derivation
-			32, 32, 32, 16, 2048, 4096, 32);
+			32, 32, 32, 16, 2048, 4096, 32),
+
+	/**
+	 * OpenSecureChannel messages are signed with ECDSA, but not encrypted. The
+	 * nonces are ephemeral public keys, and the symmetric keys are derived
+	 * from their ECDH shared secret.
+	 */
+	ECC_NISTP256(
+			SecurityPolicyUri.URI_BINARY_ECC_NISTP256, 
+			SecurityAlgorithm.HmacSha256, // Symmetric signature
+			SecurityAlgorithm.Aes128, // Symmetric encryption
+			SecurityAlgorithm.EcdsaSha256, // Asymmetric signature
+			SecurityAlgorithm.EcdhNistP256, // Key agreement
+			SecurityAlgorithm.HkdfSha256, // key derivation
+			32, 32, 16, 16, 256, 256, 64),
+
+	ECC_NISTP384(
+			SecurityPolicyUri.URI_BINARY_ECC_NISTP384, 
+			SecurityAlgorithm.HmacSha384, // Symmetric signature
+			SecurityAlgorithm.Aes256, // Symmetric encryption
+			SecurityAlgorithm.EcdsaSha384, // Asymmetric signature
+			SecurityAlgorithm.EcdhNistP384, // Key agreement
+			SecurityAlgorithm.HkdfSha384, // key derivation
+			48, 48, 32, 16, 384, 384, 96);
 	
 	/**
 	 * Policies defined in OPC UA 1.01. Includes {@link #BASIC128RSA15} and {@link #BASIC256}. This set in unmodifiable.
@@ -103,6 +127,11 @@ public enum SecurityPolicy {
 	 */
 	public static final Set<SecurityPolicy> ALL_SECURE_104 = Collections.unmodifiableSet(EnumSet.of(BASIC256SHA256, AES128_SHA256_RSAOAEP, AES256_SHA256_RSAPSS));
 	
+	/**
+	 * Elliptic curve policies. Includes {@link #ECC_NISTP256} and {@link #ECC_NISTP384}. This set in unmodifiable.
+	 */
+	public static final Set<SecurityPolicy> ALL_SECURE_ECC = Collections.unmodifiableSet(EnumSet.of(ECC_NISTP256, ECC_NISTP384));
+	
 	
 	public static final SecurityPolicy[] EMPTY_ARRAY = new SecurityPolicy[0];
 	
@@ -115,6 +144,8 @@ public enum SecurityPolicy {
 		addSecurityPolicy(BASIC256SHA256);
 		addSecurityPolicy(AES128_SHA256_RSAOAEP);
 		addSecurityPolicy(AES256_SHA256_RSAPSS);
+		addSecurityPolicy(ECC_NISTP256);
+		addSecurityPolicy(ECC_NISTP384);
 	}
 
 	/**
@@ -162,6 +193,7 @@ public enum SecurityPolicy {
 
 	private final SecurityAlgorithm asymmetricKeyWrapAlgorithm;
 	private final SecurityAlgorithm asymmetricSignatureAlgorithm;
+	private final SecurityAlgorithm keyAgreementAlgorithm;
 	private final byte[] encodedPolicyUri;
 
 	private final int encryptionBlockSize;
@@ -195,9 +227,46 @@ public enum SecurityPolicy {
 			int signatureKeySize, int encryptionKeySize,
 			int encryptionBlockSize, int minAsymmetricKeyLength,
 			int maxAsymmetricKeyLength, int symmetricEncryptionNonceLength) {
+		this(policyUri, symmetricSignatureAlgorithmUri, symmetricEncryptionAlgorithmUri,
+				asymmetricSignatureAlgorithmUri, asymmetricKeyWrapAlgorithmUri,
+				asymmetricEncryptionAlgorithmUri, null, keyDerivationAlgorithmUri,
+				hmacHashSize, signatureKeySize, encryptionKeySize, encryptionBlockSize,
+				minAsymmetricKeyLength, maxAsymmetricKeyLength, symmetricEncryptionNonceLength);
+	}
+
+	SecurityPolicy(String policyUri, 
+			SecurityAlgorithm symmetricSignatureAlgorithmUri,
+			SecurityAlgorithm symmetricEncryptionAlgorithmUri,
+			SecurityAlgorithm asymmetricSignatureAlgorithmUri,
+			SecurityAlgorithm keyAgreementAlgorithmUri,
+			SecurityAlgorithm keyDerivationAlgorithmUri,
+			int hmacHashSize,
+			int signatureKeySize, int encryptionKeySize,
+			int encryptionBlockSize, int minAsymmetricKeyLength,
+			int maxAsymmetricKeyLength, int symmetricEncryptionNonceLength) {
+		this(policyUri, symmetricSignatureAlgorithmUri, symmetricEncryptionAlgorithmUri,
+				asymmetricSignatureAlgorithmUri, null, null, keyAgreementAlgorithmUri,
+				keyDerivationAlgorithmUri, hmacHashSize, signatureKeySize, encryptionKeySize,
+				encryptionBlockSize, minAsymmetricKeyLength, maxAsymmetricKeyLength,
+				symmetricEncryptionNonceLength);
+	}
+
+	SecurityPolicy(String policyUri, 
+			SecurityAlgorithm symmetricSignatureAlgorithmUri,
+			SecurityAlgorithm symmetricEncryptionAlgorithmUri,
+			SecurityAlgorithm asymmetricSignatureAlgorithmUri,
+			SecurityAlgorithm asymmetricKeyWrapAlgorithmUri,
+			SecurityAlgorithm asymmetricEncryptionAlgorithmUri,
+			SecurityAlgorithm keyAgreementAlgorithmUri,
+			SecurityAlgorithm keyDerivationAlgorithmUri,
+			int hmacHashSize,
+			int signatureKeySize, int encryptionKeySize,
+			int encryptionBlockSize, int minAsymmetricKeyLength,
+			int maxAsymmetricKeyLength, int symmetricEncryptionNonceLength) {
 		this.asymmetricEncryptionAlgorithm = asymmetricEncryptionAlgorithmUri;
 		this.asymmetricKeyWrapAlgorithm = asymmetricKeyWrapAlgorithmUri;
 		this.asymmetricSignatureAlgorithm = asymmetricSignatureAlgorithmUri;
+		this.keyAgreementAlgorithm = keyAgreementAlgorithmUri;
 		this.keyDerivationAlgorithm = keyDerivationAlgorithmUri;
 		this.policyUri = policyUri;
 		this.symmetricEncryptionAlgorithm = symmetricEncryptionAlgorithmUri;
@@ -239,6 +308,26 @@ public enum SecurityPolicy {
 	public SecurityAlgorithm getAsymmetricSignatureAlgorithm() {
 		return asymmetricSignatureAlgorithm;
 	}
+	/**
+	 * <p>Getter for the field <code>keyAgreementAlgorithm</code>.</p>
+	 *
+	 * @return the key agreement algorithm, or null if the policy uses asymmetric encryption instead
+	 */
+	public SecurityAlgorithm getKeyAgreementAlgorithm() {
+		return keyAgreementAlgorithm;
+	}
+
+	/**
+	 * Tells if the symmetric keys are derived from an ephemeral key agreement.
+	 * In that case the secure channel nonces are ephemeral public keys and
+	 * OpenSecureChannel messages are signed but never encrypted.
+	 *
+	 * @return true for the elliptic curve policies
+	 */
+	public boolean usesKeyAgreement() {
+		return keyAgreementAlgorithm != null;
+	}
+
 	/**
 	 * <p>Getter for the field <code>encodedPolicyUri</code>.</p>
 	 *
@@ -349,6 +438,8 @@ public enum SecurityPolicy {
 	 * @return true if certificate is usable
 	 */
 	public boolean isUsableWith(Cert cert) {
+		if (usesKeyAgreement() != (cert.getCertificate().getPublicKey() instanceof ECPublicKey))
+			return false;
 		int keySize = cert.getKeySize();
 		return keySize >= minAsymmetricKeyLength
 				&& keySize <= maxAsymmetricKeyLength;
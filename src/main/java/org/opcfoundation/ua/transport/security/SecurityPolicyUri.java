@@ -22,6 +22,8 @@ public class SecurityPolicyUri {
 	public static final String URI_BINARY_BASIC256SHA256 = "http://opcfoundation.org/UA/SecurityPolicy#Basic256Sha256";
 	public static final String URI_BINARY_AES128_SHA256_RSAOAEP = "http://opcfoundation.org/UA/SecurityPolicy#Aes128_Sha256_RsaOaep";
 	public static final String URI_BINARY_AES256_SHA256_RSAPSS = "http://opcfoundation.org/UA/SecurityPolicy#Aes256_Sha256_RsaPss";
+	public static final String URI_BINARY_ECC_NISTP256 = "http://opcfoundation.org/UA/SecurityPolicy#ECC_nistP256";
+	public static final String URI_BINARY_ECC_NISTP384 = "http://opcfoundation.org/UA/SecurityPolicy#ECC_nistP384";
 	public static final String URI_BINARY_PUBSUB_AES128_CTR = "http://opcfoundation.org/UA/SecurityPolicy#PubSub_Aes128_CTR";
 	public static final String URI_BINARY_PUBSUB_AES256_CTR = "http://opcfoundation.org/UA/SecurityPolicy#PubSub_Aes256_CTR";
 	public static final String URI_XML_NONE = "http://opcfoundation.org/UA-Profile/Securitypolicy/None";
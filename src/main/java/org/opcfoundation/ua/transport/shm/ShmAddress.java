@@ -0,0 +1,88 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.io.File;
+import java.net.SocketAddress;
+import java.util.regex.Matcher;
+
+import org.opcfoundation.ua.transport.UriUtil;
+
+/**
+ * Address of an opc.shm endpoint. It is the directory of the url, e.g.
+ * "/dev/shm/ua" in "opc.shm:///dev/shm/ua", in which the clients create
+ * the shared memory files of their connections.
+ */
+public class ShmAddress extends SocketAddress {
+
+	private static final long serialVersionUID = 1L;
+
+	private final File directory;
+
+	/**
+	 * <p>Constructor for ShmAddress.</p>
+	 *
+	 * @param directory directory of the connection files
+	 */
+	public ShmAddress(File directory) {
+		if (directory == null)
+			throw new IllegalArgumentException("directory must not be null");
+		this.directory = directory.getAbsoluteFile();
+	}
+
+	/**
+	 * Get the address of an opc.shm url
+	 *
+	 * @param endpointUrl url, e.g. "opc.shm:///dev/shm/ua"
+	 * @return address
+	 * @throws java.lang.IllegalArgumentException if the url is not an opc.shm url
+	 */
+	public static ShmAddress valueOf(String endpointUrl)
+	throws IllegalArgumentException
+	{
+		Matcher m = UriUtil.PATTERN_SHM.matcher(endpointUrl);
+		if (!m.matches())
+			throw new IllegalArgumentException("Not an " + UriUtil.SCHEME_SHM + " url: " + endpointUrl);
+		return new ShmAddress(new File(m.group(1)));
+	}
+
+	/**
+	 * @return the directory of the connection files
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return directory.hashCode();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof ShmAddress))
+			return false;
+		return directory.equals(((ShmAddress) obj).directory);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return UriUtil.SCHEME_SHM + "://" + directory.getPath();
+	}
+
+}
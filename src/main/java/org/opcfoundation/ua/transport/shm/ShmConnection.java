@@ -0,0 +1,455 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.common.RuntimeServiceResultException;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.EncoderContext;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.opcfoundation.ua.transport.security.SecurityConfiguration;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.tcp.impl.Acknowledge;
+import org.opcfoundation.ua.transport.tcp.impl.ChunkAsymmDecryptVerifier;
+import org.opcfoundation.ua.transport.tcp.impl.ChunkAsymmEncryptSigner;
+import org.opcfoundation.ua.transport.tcp.impl.ChunkFactory;
+import org.opcfoundation.ua.transport.tcp.impl.ChunkSymmDecryptVerifier;
+import org.opcfoundation.ua.transport.tcp.impl.ChunkSymmEncryptSigner;
+import org.opcfoundation.ua.transport.tcp.impl.ChunkUtils;
+import org.opcfoundation.ua.transport.tcp.impl.ErrorMessage;
+import org.opcfoundation.ua.transport.tcp.impl.Hello;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
+import org.opcfoundation.ua.transport.tcp.impl.TcpConnectionParameters;
+import org.opcfoundation.ua.transport.tcp.impl.TcpMessageType;
+import org.opcfoundation.ua.transport.tcp.nio.ChunksToMessage;
+import org.opcfoundation.ua.transport.tcp.nio.MessageToChunks;
+import org.opcfoundation.ua.transport.tcp.nio.MessageType;
+import org.opcfoundation.ua.utils.CryptoUtil;
+import org.opcfoundation.ua.utils.StackUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One end of an opc.shm connection.
+ * <p>
+ * The messages are the UA Secure Conversation messages of opc.tcp: Hello,
+ * Acknowledge and Error, OpenSecureChannel, and the other messages secured
+ * with the symmetric chunk processors and the token of the channel. The
+ * chunks are written to the outgoing ring of the {@link ShmFile} and read
+ * from the incoming ring by the thread of the connection.
+ * <p>
+ * OpenSecureChannel has no certificates and is neither signed nor encrypted.
+ * The policy uri of its security header is the policy of the channel, and
+ * with Sign and SignAndEncrypt the keys of the token are derived from the
+ * nonces of the request and the response, as in opc.tcp. The nonces can be
+ * read by anyone who can read the connection file, so the security of the
+ * channel does not protect more than the file permissions do; it lets the
+ * endpoints that require Sign or SignAndEncrypt be used over opc.shm.
+ * <p>
+ * An idle reader spins, then yields, then parks for a period that doubles
+ * up to a millisecond. A writer that finds the ring full waits the same way.
+ */
+abstract class ShmConnection implements Runnable {
+
+	static Logger logger = LoggerFactory.getLogger(ShmConnection.class);
+
+	/** Busy polls before an idle thread yields */
+	static final int SPINS = 2000;
+	/** Yields before an idle thread parks */
+	static final int YIELDS = 100;
+	/** Longest park of an idle thread */
+	static final long MAX_PARK_NANOS = 1000000L;
+
+	/**
+	 * Wait after a number of polls that found nothing to do.
+	 *
+	 * @param count number of polls so far
+	 */
+	static void idle(int count) {
+		if (count < SPINS) {
+			ShmRing.fence();
+		} else if (count < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			int shift = Math.min(count - SPINS - YIELDS, 10);
+			LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+		}
+	}
+
+	final ShmFile file;
+	final TcpConnectionParameters ctx = new TcpConnectionParameters();
+	final EncoderContext encoderCtx;
+	/** OpenSecureChannel of opc.shm has no certificates and no security */
+	final SecurityConfiguration handshakeConfiguration = new SecurityConfiguration(SecurityMode.NONE, null, null);
+	/** Security policy uri of the last OpenSecureChannel message, read by the thread of the connection */
+	String openSecurityPolicyUri;
+	final AtomicInteger sendSequenceNumber = new AtomicInteger();
+	/** Token of the symmetric messages */
+	volatile SecurityToken token;
+	/** Token before the last renewal, accepted until the peer uses the new one */
+	volatile SecurityToken previousToken;
+	/** Chunks of the message that is being received */
+	final List<ByteBuffer> receivedChunks = new ArrayList<ByteBuffer>();
+	final Object writeLock = new Object();
+	volatile boolean closed;
+	Thread thread;
+
+	ShmConnection(ShmFile file, EncoderContext encoderCtx) {
+		this.file = file;
+		this.encoderCtx = encoderCtx;
+		int chunkSize = Math.min(file.getMaxChunkSize(), file.capacity / 4);
+		ctx.maxSendChunkSize = chunkSize;
+		ctx.maxRecvChunkSize = chunkSize;
+	}
+
+	/**
+	 * Start the thread that reads the incoming ring.
+	 *
+	 * @param name thread name
+	 */
+	void start(String name) {
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Send Hello, Acknowledge or Error.
+	 *
+	 * @param messageType {@link TcpMessageType#HELLO}, {@link TcpMessageType#ACKNOWLEDGE} or {@link TcpMessageType#ERROR}
+	 * @param msg message
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if the connection is closed
+	 */
+	void sendRaw(int messageType, IEncodeable msg) throws ServiceResultException {
+		ChunkFactory cf = new ChunkFactory(ctx.maxSendChunkSize, 8, 0, 0, 0, 1, MessageSecurityMode.None, 0);
+		ByteBuffer[] chunks = cf.expandToCompleteChunk(new MessageToChunks(msg, ctx, encoderCtx, cf, MessageType.Encodeable).call());
+		if (chunks.length != 1)
+			throw new ServiceResultException(StatusCodes.Bad_TcpMessageTooLarge);
+		chunks[0].putInt(messageType | TcpMessageType.FINAL);
+		chunks[0].rewind();
+		synchronized (writeLock) {
+			write(chunks);
+		}
+	}
+
+	/**
+	 * Send an OpenSecureChannel request or response.
+	 *
+	 * @param msg message
+	 * @param secureChannelId secure channel id, 0 for a new channel
+	 * @param requestId request id
+	 * @param policy security policy of the channel
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if the connection is closed
+	 */
+	void sendOpen(IEncodeable msg, int secureChannelId, int requestId, SecurityPolicy policy) throws ServiceResultException {
+		byte[] policyUri = policy.getEncodedPolicyUri();
+		// The security header has the policy of the channel, not the one of handshakeConfiguration
+		ChunkFactory cf = new ChunkFactory(ctx.maxSendChunkSize, 12, 12 + policyUri.length, 8, 0, 1, MessageSecurityMode.None, 0);
+		ByteBuffer[] plaintexts = new MessageToChunks(msg, ctx, encoderCtx, cf, MessageType.Message).call();
+		ByteBuffer[] chunks = cf.expandToCompleteChunk(plaintexts);
+		synchronized (writeLock) {
+			for (int i = 0; i < chunks.length; i++) {
+				ByteBuffer chunk = chunks[i];
+				chunk.putInt(TcpMessageType.OPEN | (i == chunks.length - 1 ? TcpMessageType.FINAL : TcpMessageType.CONTINUE));
+				chunk.position(8);
+				chunk.putInt(secureChannelId);
+				// -- Security Header, no certificates --
+				chunk.putInt(policyUri.length);
+				chunk.put(policyUri);
+				chunk.putInt(-1);
+				chunk.putInt(-1);
+				// -- Sequence header --
+				chunk.putInt(sendSequenceNumber.getAndIncrement());
+				chunk.putInt(requestId);
+				new ChunkAsymmEncryptSigner(chunk, plaintexts[i], handshakeConfiguration).run();
+				chunk.rewind();
+			}
+			write(chunks);
+		}
+	}
+
+	/**
+	 * Send a message with the token of the channel.
+	 *
+	 * @param messageType {@link TcpMessageType#MESSAGE} or {@link TcpMessageType#CLOSE}
+	 * @param msg message
+	 * @param requestId request id
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if the channel is not open or the connection is closed
+	 */
+	void sendSecureMessage(int messageType, IEncodeable msg, int requestId) throws ServiceResultException {
+		SecurityToken token = this.token;
+		if (token == null)
+			throw new ServiceResultException(StatusCodes.Bad_SecureChannelClosed);
+		MessageSecurityMode mode = token.getMessageSecurityMode();
+		SecurityPolicy policy = token.getSecurityPolicy();
+		int signatureSize = mode.hasSigning() ? policy.getSymmetricSignatureSize() : 0;
+		int cipherBlockSize = mode == MessageSecurityMode.SignAndEncrypt ? CryptoUtil.getCipherBlockSize(policy.getSymmetricEncryptionAlgorithm(), null) : 1;
+		int keySize = mode == MessageSecurityMode.SignAndEncrypt ? token.getRemoteEncryptingKey().length : 0;
+		ChunkFactory cf = new ChunkFactory(ctx.maxSendChunkSize, 8, 8, 8, signatureSize, cipherBlockSize, mode, keySize);
+		ByteBuffer[] plaintexts = new MessageToChunks(msg, ctx, encoderCtx, cf, MessageType.Message).call();
+		ByteBuffer[] chunks = cf.expandToCompleteChunk(plaintexts);
+		synchronized (writeLock) {
+			for (int i = 0; i < chunks.length; i++) {
+				ByteBuffer chunk = chunks[i];
+				chunk.putInt(messageType | (i == chunks.length - 1 ? TcpMessageType.FINAL : TcpMessageType.CONTINUE));
+				chunk.position(8);
+				chunk.putInt(token.getSecureChannelId());
+				// -- Security Header --
+				chunk.putInt(token.getTokenId());
+				// -- Sequence Header --
+				chunk.putInt(sendSequenceNumber.getAndIncrement());
+				chunk.putInt(requestId);
+				new ChunkSymmEncryptSigner(chunk, plaintexts[i], token).run();
+				chunk.rewind();
+			}
+			write(chunks);
+		}
+	}
+
+	/**
+	 * Write chunks to the outgoing ring. Waits while the ring is full.
+	 * The caller holds {@link #writeLock}, so that the chunks of a message
+	 * are not mixed with the chunks of another.
+	 */
+	void write(ByteBuffer[] chunks) throws ServiceResultException {
+		for (ByteBuffer chunk : chunks) {
+			int count = 0;
+			while (!file.out.offer(chunk)) {
+				if (closed || file.getState() == ShmFile.STATE_CLOSED)
+					throw new ServiceResultException(StatusCodes.Bad_ConnectionClosed);
+				idle(count++);
+			}
+		}
+	}
+
+	/**
+	 * Read and handle the incoming chunks until the connection is closed.
+	 */
+	@Override
+	public void run() {
+		ServiceResultException error = null;
+		try {
+			int count = 0;
+			while (!closed) {
+				ByteBuffer chunk = file.in.poll();
+				if (chunk == null) {
+					if (count >= SPINS) {
+						if (file.getState() == ShmFile.STATE_CLOSED)
+							break;
+						onIdle();
+					}
+					idle(count++);
+					continue;
+				}
+				count = 0;
+				handleChunk(chunk);
+			}
+		} catch (ServiceResultException e) {
+			error = e;
+		} catch (RuntimeServiceResultException e) {
+			error = e.getCause();
+		} catch (Exception e) {
+			error = StackUtils.toServiceResultException(e);
+		}
+		if (error != null)
+			logger.debug("{}: {}", file, error);
+		closed = true;
+		onClosed(error);
+	}
+
+	void handleChunk(ByteBuffer chunk) throws Exception {
+		int type = ChunkUtils.getMessageType(chunk);
+		int messageType = type & TcpMessageType.MESSAGE_TYPE_MASK;
+		int chunkType = type & TcpMessageType.CHUNK_TYPE_MASK;
+		if (chunk.getInt(4) != chunk.limit())
+			throw new ServiceResultException(StatusCodes.Bad_TcpMessageTypeInvalid, "Chunk size does not match");
+
+		if (messageType == TcpMessageType.HELLO || messageType == TcpMessageType.ACKNOWLEDGE || messageType == TcpMessageType.ERROR) {
+			if (chunkType != TcpMessageType.FINAL)
+				throw new ServiceResultException(StatusCodes.Bad_TcpMessageTypeInvalid);
+			Class<? extends IEncodeable> clazz = messageType == TcpMessageType.HELLO ? Hello.class : messageType == TcpMessageType.ACKNOWLEDGE ? Acknowledge.class : ErrorMessage.class;
+			chunk.position(8);
+			onRawMessage(messageType, new ChunksToMessage(ctx, encoderCtx, clazz, chunk).call());
+			return;
+		}
+
+		if (chunkType == TcpMessageType.ABORT) {
+			receivedChunks.clear();
+			return;
+		}
+		if (messageType == TcpMessageType.OPEN) {
+			ChunkAsymmDecryptVerifier verifier = new ChunkAsymmDecryptVerifier(chunk, handshakeConfiguration);
+			verifier.run();
+			openSecurityPolicyUri = verifier.getSecurityPolicyUri();
+		} else if (messageType == TcpMessageType.MESSAGE || messageType == TcpMessageType.CLOSE) {
+			int tokenId = ChunkUtils.getTokenId(chunk);
+			SecurityToken token = this.token;
+			if (token == null || token.getTokenId() != tokenId) {
+				token = previousToken;
+				if (token == null || token.getTokenId() != tokenId)
+					throw new ServiceResultException(StatusCodes.Bad_SecureChannelTokenUnknown);
+			}
+			new ChunkSymmDecryptVerifier(chunk, token).run();
+		} else {
+			throw new ServiceResultException(StatusCodes.Bad_TcpMessageTypeInvalid);
+		}
+
+		// The plaintext is between position and limit, after the sequence header
+		int requestId = chunk.getInt(chunk.position() - 4);
+		receivedChunks.add(chunk);
+		if (chunkType == TcpMessageType.CONTINUE)
+			return;
+		ByteBuffer[] plaintexts = receivedChunks.toArray(new ByteBuffer[receivedChunks.size()]);
+		receivedChunks.clear();
+		int secureChannelId = plaintexts[0].getInt(8);
+		onSecureMessage(messageType, secureChannelId, requestId, new ChunksToMessage(ctx, encoderCtx, null, plaintexts).call());
+	}
+
+	/**
+	 * Create the token of the channel.
+	 *
+	 * @param mode security of the channel
+	 * @param secureChannelId secure channel id
+	 * @param tokenId token id
+	 * @param lifetime lifetime in milliseconds
+	 * @param localNonce nonce of this end
+	 * @param remoteNonce nonce of the peer
+	 * @return the token
+	 * @throws org.opcfoundation.ua.common.ServiceResultException Bad_NonceInvalid if a nonce is too short for the policy
+	 */
+	static SecurityToken createToken(SecurityMode mode, int secureChannelId, int tokenId, long lifetime, ByteString localNonce, ByteString remoteNonce) throws ServiceResultException {
+		if (mode.getMessageSecurityMode().hasSigning()) {
+			int nonceLength = mode.getSecurityPolicy().getSecureChannelNonceLength();
+			if (localNonce == null || localNonce.getLength() < nonceLength || remoteNonce == null || remoteNonce.getLength() < nonceLength)
+				throw new ServiceResultException(StatusCodes.Bad_NonceInvalid);
+		}
+		return new SecurityToken(new ChannelSecurity(mode), secureChannelId, tokenId, System.currentTimeMillis(), lifetime, localNonce, remoteNonce);
+	}
+
+	/**
+	 * Create a nonce for the OpenSecureChannel messages.
+	 *
+	 * @param mode security of the channel
+	 * @return a random nonce, empty without security
+	 */
+	static ByteString createNonce(SecurityMode mode) {
+		if (!mode.getMessageSecurityMode().hasSigning())
+			return ByteString.EMPTY;
+		return CryptoUtil.createNonce(mode.getSecurityPolicy().getSecureChannelNonceLength());
+	}
+
+	/**
+	 * Check the security of a channel.
+	 *
+	 * @param mode security of the channel
+	 * @throws org.opcfoundation.ua.common.ServiceResultException Bad_SecurityPolicyRejected if opc.shm cannot secure the channel with it
+	 */
+	static void checkSecurityMode(SecurityMode mode) throws ServiceResultException {
+		SecurityPolicy policy = mode.getSecurityPolicy();
+		MessageSecurityMode msm = mode.getMessageSecurityMode();
+		if (msm == MessageSecurityMode.Invalid)
+			throw new ServiceResultException(StatusCodes.Bad_SecurityModeRejected);
+		if (msm.hasSigning() == (policy == SecurityPolicy.NONE))
+			throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected, msm + " does not match " + policy.getPolicyUri());
+		// The nonces of these policies are ephemeral keys, opc.shm only exchanges random nonces
+		if (policy.usesKeyAgreement())
+			throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected, "opc.shm does not support " + policy.getPolicyUri());
+	}
+
+	/**
+	 * Close the connection. The thread of the connection stops and calls
+	 * {@link #onClosed(ServiceResultException)}.
+	 */
+	void closeFile() {
+		closed = true;
+		file.close();
+		if (thread != null && thread != Thread.currentThread())
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Handle Hello, Acknowledge or Error.
+	 *
+	 * @param messageType message type
+	 * @param msg message
+	 * @throws org.opcfoundation.ua.common.ServiceResultException to close the connection
+	 */
+	protected abstract void onRawMessage(int messageType, IEncodeable msg) throws ServiceResultException;
+
+	/**
+	 * Handle a complete secure message.
+	 *
+	 * @param messageType {@link TcpMessageType#OPEN}, {@link TcpMessageType#MESSAGE} or {@link TcpMessageType#CLOSE}
+	 * @param secureChannelId secure channel id of the message
+	 * @param requestId request id
+	 * @param msg message
+	 * @throws org.opcfoundation.ua.common.ServiceResultException to close the connection
+	 */
+	protected abstract void onSecureMessage(int messageType, int secureChannelId, int requestId, IEncodeable msg) throws ServiceResultException;
+
+	/**
+	 * Called when the incoming ring has been empty for a while.
+	 *
+	 * @throws org.opcfoundation.ua.common.ServiceResultException to close the connection
+	 */
+	protected void onIdle() throws ServiceResultException {
+	}
+
+	/**
+	 * Called by the thread of the connection when it stops.
+	 *
+	 * @param error the error that closed the connection, or null
+	 */
+	protected abstract void onClosed(ServiceResultException error);
+
+	/**
+	 * Security of the symmetric messages. {@link SecurityConfiguration}
+	 * needs certificates for Sign and SignAndEncrypt, which the channels of
+	 * opc.shm do not have; the token only uses the mode and the policy.
+	 */
+	static class ChannelSecurity extends SecurityConfiguration {
+
+		final SecurityMode channelMode;
+
+		ChannelSecurity(SecurityMode channelMode) {
+			super(SecurityMode.NONE, null, null);
+			this.channelMode = channelMode;
+		}
+
+		@Override
+		public SecurityMode getSecurityMode() {
+			return channelMode;
+		}
+
+		@Override
+		public MessageSecurityMode getMessageSecurityMode() {
+			return channelMode.getMessageSecurityMode();
+		}
+
+		@Override
+		public SecurityPolicy getSecurityPolicy() {
+			return channelMode.getSecurityPolicy();
+		}
+
+	}
+
+}
@@ -0,0 +1,183 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Memory mapped file of one opc.shm connection.
+ * <p>
+ * The file is created by the client in the directory of the endpoint. It
+ * has a header and two {@link ShmRing}s, one for the chunks from the client
+ * to the server, and one for the chunks from the server to the client.
+ * <pre>
+ *   0  magic "UASH"
+ *   4  version
+ *   8  capacity of a ring
+ *  12  state: new, ready, accepted or closed
+ * 128  ring client to server
+ *      ring server to client
+ * </pre>
+ * The client sets the state ready once the file is initialized, the server
+ * sets it accepted. Either side sets it closed.
+ */
+class ShmFile {
+
+	/** "UASH" */
+	static final int MAGIC = 0x48534155;
+	static final int VERSION = 1;
+	static final int HEADER = 128;
+	static final int OFFSET_MAGIC = 0;
+	static final int OFFSET_VERSION = 4;
+	static final int OFFSET_CAPACITY = 8;
+	static final int OFFSET_STATE = 12;
+
+	static final int STATE_NEW = 0;
+	static final int STATE_READY = 1;
+	static final int STATE_ACCEPTED = 2;
+	static final int STATE_CLOSED = 3;
+
+	/** File name suffix of the connection files */
+	static final String SUFFIX = ".uashm";
+	/** Default capacity of a ring, 1 MiB */
+	static final int DEFAULT_CAPACITY = 1 << 20;
+
+	static int size(int capacity) {
+		return HEADER + 2 * ShmRing.size(capacity);
+	}
+
+	final File file;
+	final MappedByteBuffer map;
+	final int capacity;
+	/** Ring that this side reads */
+	final ShmRing in;
+	/** Ring that this side writes */
+	final ShmRing out;
+
+	/**
+	 * Create the file of a new connection. The state is ready when this
+	 * method returns.
+	 *
+	 * @param directory directory of the endpoint
+	 * @param capacity capacity of a ring, a power of two
+	 * @return file of the client
+	 * @throws java.io.IOException if the file cannot be created
+	 */
+	static ShmFile create(File directory, int capacity) throws IOException {
+		if (!directory.isDirectory())
+			throw new IOException("Not a directory: " + directory);
+		File file = File.createTempFile("client", SUFFIX, directory);
+		try {
+			MappedByteBuffer map = map(file, size(capacity));
+			ShmFile result = new ShmFile(file, map, capacity, true);
+			map.putInt(OFFSET_MAGIC, MAGIC);
+			map.putInt(OFFSET_VERSION, VERSION);
+			map.putInt(OFFSET_CAPACITY, capacity);
+			result.setState(STATE_READY);
+			return result;
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} catch (RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open the file of a client.
+	 *
+	 * @param file a connection file
+	 * @return file of the server, or null if the client has not initialized the file yet
+	 * @throws java.io.IOException if the file cannot be read or is not a connection file
+	 */
+	static ShmFile open(File file) throws IOException {
+		long length = file.length();
+		if (length < HEADER)
+			return null;
+		MappedByteBuffer header = map(file, HEADER);
+		if (header.getInt(OFFSET_STATE) == STATE_NEW)
+			return null;
+		if (header.getInt(OFFSET_MAGIC) != MAGIC || header.getInt(OFFSET_VERSION) != VERSION)
+			throw new IOException("Not an opc.shm connection file: " + file);
+		int capacity = header.getInt(OFFSET_CAPACITY);
+		if (capacity < 1024 || Integer.bitCount(capacity) != 1 || length != size(capacity))
+			throw new IOException("Invalid opc.shm connection file: " + file);
+		return new ShmFile(file, map(file, size(capacity)), capacity, false);
+	}
+
+	static MappedByteBuffer map(File file, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer map = channel.map(MapMode.READ_WRITE, 0, size);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			return map;
+		} finally {
+			// The mapping stays valid
+			raf.close();
+		}
+	}
+
+	ShmFile(File file, MappedByteBuffer map, int capacity, boolean client) {
+		this.file = file;
+		this.map = map;
+		this.capacity = capacity;
+		map.position(HEADER);
+		ShmRing clientToServer = new ShmRing(map, capacity);
+		map.position(HEADER + ShmRing.size(capacity));
+		ShmRing serverToClient = new ShmRing(map, capacity);
+		map.position(0);
+		this.in = client ? serverToClient : clientToServer;
+		this.out = client ? clientToServer : serverToClient;
+	}
+
+	int getState() {
+		ShmRing.fence();
+		return map.getInt(OFFSET_STATE);
+	}
+
+	void setState(int state) {
+		ShmRing.fence();
+		map.putInt(OFFSET_STATE, state);
+		ShmRing.fence();
+	}
+
+	/**
+	 * @return the largest chunk that a ring can hold
+	 */
+	int getMaxChunkSize() {
+		return in.getMaxChunkSize();
+	}
+
+	/**
+	 * Set the state closed and delete the file. The mapping is released
+	 * when the buffer is garbage collected.
+	 */
+	void close() {
+		setState(STATE_CLOSED);
+		file.delete();
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+
+}
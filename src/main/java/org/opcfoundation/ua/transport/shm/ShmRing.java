@@ -0,0 +1,242 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+
+/**
+ * Single-producer single-consumer ring of chunks in a region of shared memory.
+ * <p>
+ * The region starts with the write position (head) and the read position
+ * (tail), each on a cache line of its own, followed by the data area. The
+ * positions only grow, a position is at offset position &amp; (capacity-1)
+ * of the data area. A record is the length of the chunk (int) followed by
+ * the chunk, padded to 8 bytes, so the length never wraps around the end
+ * of the data area. The chunk may wrap, it is then copied in two parts.
+ * <p>
+ * One thread writes and one thread reads, usually in different processes.
+ * The writer publishes a record by advancing head after the record is
+ * written, the reader frees it by advancing tail after it is read. The
+ * order of these accesses is kept by {@link #fence()}.
+ * <p>
+ * The fence is Unsafe.fullFence() of Java 8 and later. Java 6 and 7 have
+ * no fence for the plain accesses of a mapped buffer, there a volatile
+ * write is used, which orders them only on the strong memory model of
+ * x86 and amd64. On the other architectures of these runtimes, e.g.
+ * AArch64 and POWER, the ring is not supported, see {@link #isSupported()},
+ * and opc.shm refuses to bind or to connect.
+ */
+class ShmRing {
+
+	/** Offset of the write position */
+	static final int HEAD = 0;
+	/** Offset of the read position */
+	static final int TAIL = 64;
+	/** Offset of the data area */
+	static final int DATA = 128;
+	/** Size of the length of a record */
+	static final int RECORD_HEADER = 4;
+
+	/** Written by {@link #fence()} if there is no {@link #FULL_FENCE} */
+	static volatile int fence;
+	/** sun.misc.Unsafe, null if not available */
+	static final Object UNSAFE;
+	/** Unsafe.fullFence(), null if not available (before Java 8) */
+	static final Method FULL_FENCE;
+	/** true if the processor orders all accesses but stores before loads (x86, amd64) */
+	static final boolean TSO;
+
+	static {
+		Object unsafe = null;
+		Method fullFence = null;
+		try {
+			Class<?> clazz = Class.forName("sun.misc.Unsafe");
+			Field field = clazz.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			fullFence = clazz.getMethod("fullFence");
+			unsafe = field.get(null);
+		} catch (Exception e) {
+			fullFence = null;
+		} catch (LinkageError e) {
+			fullFence = null;
+		}
+		UNSAFE = fullFence == null ? null : unsafe;
+		FULL_FENCE = UNSAFE == null ? null : fullFence;
+		String arch = System.getProperty("os.arch", "");
+		TSO = arch.equals("x86") || arch.equals("i386") || arch.equals("i486") || arch.equals("i586") || arch.equals("i686")
+				|| arch.equals("amd64") || arch.equals("x86_64");
+	}
+
+	/**
+	 * Check if the ring is safe on this runtime, that is if {@link #fence()}
+	 * orders the accesses of the shared region for the processor.
+	 *
+	 * @return true if Unsafe.fullFence() is available or the processor is x86 or amd64
+	 */
+	static boolean isSupported() {
+		return FULL_FENCE != null || TSO;
+	}
+
+	/**
+	 * Memory fence between the accesses of the shared region. Unsafe.fullFence()
+	 * if it is available. Otherwise a volatile write, which HotSpot compiles to
+	 * a full fence on x86 and amd64 (a locked instruction), but which does not
+	 * order the plain accesses of the mapped buffer on weaker processors.
+	 */
+	static void fence() {
+		if ( FULL_FENCE != null ) {
+			try {
+				FULL_FENCE.invoke(UNSAFE);
+				return;
+			} catch (Exception e) {
+				// Checked in the static initializer, cannot happen
+			}
+		}
+		fence = 0;
+	}
+
+	/**
+	 * Check that opc.shm can be used on this runtime.
+	 *
+	 * @throws org.opcfoundation.ua.common.ServiceResultException Bad_NotSupported if {@link #isSupported()} is false
+	 */
+	static void checkSupported() throws ServiceResultException {
+		if ( !isSupported() )
+			throw new ServiceResultException(StatusCodes.Bad_NotSupported,
+					"opc.shm needs Java 8 or an x86/amd64 processor, os.arch is " + System.getProperty("os.arch"));
+	}
+
+	/**
+	 * Get the size of the region of a ring.
+	 *
+	 * @param capacity size of the data area
+	 * @return size of the region in bytes
+	 */
+	static int size(int capacity) {
+		return DATA + capacity;
+	}
+
+	static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	final ByteBuffer buf;
+	/** View of the writer */
+	final ByteBuffer writeView;
+	/** View of the reader */
+	final ByteBuffer readView;
+	final int capacity;
+	final int mask;
+
+	/**
+	 * Create a ring over a region.
+	 *
+	 * @param region region of {@link #size(int)} bytes at position 0
+	 * @param capacity size of the data area, a power of two
+	 */
+	ShmRing(ByteBuffer region, int capacity) {
+		if (capacity < 1024 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("capacity must be a power of two and at least 1024: " + capacity);
+		ByteBuffer b = region.duplicate();
+		b.limit(b.position() + size(capacity));
+		this.buf = b.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.writeView = buf.duplicate();
+		this.readView = buf.duplicate();
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return the largest chunk that the ring can hold
+	 */
+	int getMaxChunkSize() {
+		return capacity - RECORD_HEADER;
+	}
+
+	/**
+	 * Write a chunk, if there is room.
+	 *
+	 * @param chunk chunk between position and limit
+	 * @return true if the chunk was written, false if the ring is too full
+	 * @throws java.lang.IllegalArgumentException if the chunk is larger than {@link #getMaxChunkSize()}
+	 */
+	boolean offer(ByteBuffer chunk) {
+		int len = chunk.remaining();
+		int recordSize = align(RECORD_HEADER + len);
+		if (recordSize > capacity)
+			throw new IllegalArgumentException("Chunk of " + len + " bytes does not fit the ring");
+		long head = buf.getLong(HEAD);
+		long tail = buf.getLong(TAIL);
+		if (head + recordSize - tail > capacity)
+			return false;
+		// The reader has read the records before tail
+		fence();
+		int offset = (int) (head & mask);
+		buf.putInt(DATA + offset, len);
+		int pos = offset + RECORD_HEADER;
+		int first = Math.min(len, capacity - pos);
+		int limit = chunk.limit();
+		chunk.limit(chunk.position() + first);
+		writeView.limit(DATA + capacity).position(DATA + pos);
+		writeView.put(chunk);
+		chunk.limit(limit);
+		if (chunk.hasRemaining()) {
+			writeView.position(DATA);
+			writeView.put(chunk);
+		}
+		// Publish the record after it is written
+		fence();
+		buf.putLong(HEAD, head + recordSize);
+		return true;
+	}
+
+	/**
+	 * Read a chunk, if there is one.
+	 *
+	 * @return a heap buffer that contains the chunk, or null if the ring is empty
+	 * @throws java.lang.IllegalStateException if the ring is corrupt
+	 */
+	ByteBuffer poll() {
+		long tail = buf.getLong(TAIL);
+		long head = buf.getLong(HEAD);
+		if (head == tail)
+			return null;
+		// The writer has written the records before head
+		fence();
+		int offset = (int) (tail & mask);
+		int len = buf.getInt(DATA + offset);
+		int recordSize = align(RECORD_HEADER + len);
+		if (len < 0 || recordSize > head - tail)
+			throw new IllegalStateException("Corrupt ring: record of " + len + " bytes at " + tail);
+		byte[] data = new byte[len];
+		int pos = offset + RECORD_HEADER;
+		int first = Math.min(len, capacity - pos);
+		readView.limit(DATA + capacity).position(DATA + pos);
+		readView.get(data, 0, first);
+		if (first < len) {
+			readView.position(DATA);
+			readView.get(data, first, len - first);
+		}
+		// Free the record after it is read
+		fence();
+		buf.putLong(TAIL, tail + recordSize);
+		return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+}
@@ -0,0 +1,400 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.ServiceResponse;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.ChannelSecurityToken;
+import org.opcfoundation.ua.core.CloseSecureChannelRequest;
+import org.opcfoundation.ua.core.EndpointConfiguration;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.OpenSecureChannelRequest;
+import org.opcfoundation.ua.core.OpenSecureChannelResponse;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.ResponseHeader;
+import org.opcfoundation.ua.core.SecurityTokenRequestType;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.EncoderContext;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.TransportChannelSettings;
+import org.opcfoundation.ua.transport.impl.AsyncResultImpl;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.tcp.impl.Acknowledge;
+import org.opcfoundation.ua.transport.tcp.impl.ErrorMessage;
+import org.opcfoundation.ua.transport.tcp.impl.Hello;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
+import org.opcfoundation.ua.transport.tcp.impl.TcpMessageType;
+import org.opcfoundation.ua.transport.tcp.io.TcpConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client end of an opc.shm secure channel.
+ * <p>
+ * {@link #open()} creates the connection file in the directory of the url
+ * and opens the secure channel once the {@link ShmServer} has picked the
+ * file up. The responses are read by the thread of the connection, which
+ * completes the results that the callers wait for. The channel has the
+ * security mode and policy of the endpoint description, see
+ * {@link ShmConnection} for what they protect. The policies with key
+ * agreement are not supported.
+ */
+public class ShmSecureChannel implements SecureChannel {
+
+	static Logger logger = LoggerFactory.getLogger(ShmSecureChannel.class);
+
+	String connectUrl;
+	ShmAddress address;
+	/** Security of the channel */
+	SecurityMode securityMode = SecurityMode.NONE;
+	TransportChannelSettings settings;
+	EncoderContext ctx;
+	volatile ClientConnection connection;
+	AtomicInteger requestIdCounter = new AtomicInteger();
+	/** Requests that are not answered */
+	Map<Integer, AsyncResultImpl<ServiceResponse>> requests = new ConcurrentHashMap<Integer, AsyncResultImpl<ServiceResponse>>();
+
+	/** {@inheritDoc} */
+	@Override
+	public void initialize(String connectUrl, TransportChannelSettings settings, EncoderContext ctx) throws ServiceResultException {
+		ShmRing.checkSupported();
+		try {
+			this.address = ShmAddress.valueOf(connectUrl);
+		} catch (IllegalArgumentException e) {
+			throw new ServiceResultException(StatusCodes.Bad_ServerUriInvalid, e);
+		}
+		EndpointDescription description = settings.getDescription();
+		SecurityMode mode = SecurityMode.NONE;
+		if ( description != null && description.getSecurityMode() != null && description.getSecurityMode() != MessageSecurityMode.None ) {
+			mode = new SecurityMode( SecurityPolicy.getSecurityPolicy( description.getSecurityPolicyUri() ), description.getSecurityMode() );
+			ShmConnection.checkSecurityMode(mode);
+		}
+		this.securityMode = mode;
+		this.connectUrl = connectUrl;
+		this.settings = settings;
+		this.ctx = ctx;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void initialize(TransportChannelSettings settings, EncoderContext ctx) throws ServiceResultException {
+		initialize(settings.getDescription().getEndpointUrl(), settings, ctx);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void open() throws ServiceResultException {
+		if ( isOpen() ) return;
+		ShmFile file;
+		try {
+			file = ShmFile.create(address.getDirectory(), ShmFile.DEFAULT_CAPACITY);
+		} catch (IOException e) {
+			throw new ServiceResultException(StatusCodes.Bad_ServerNotConnected, e);
+		}
+		ClientConnection c = new ClientConnection(file);
+		c.start("ShmSecureChannel-" + file.file.getName());
+		try {
+			int handshakeTimeout = settings.getOpctcpSettings().getHandshakeTimeout();
+			if ( handshakeTimeout < 0 ) handshakeTimeout = TcpConnection.getDefaultHandshakeTimeout();
+
+			// Hello
+			EndpointDescription description = settings.getDescription();
+			Hello h = new Hello();
+			h.setProtocolVersion( UnsignedInteger.valueOf(0) );
+			h.setEndpointUrl( description != null && description.getEndpointUrl() != null ? description.getEndpointUrl() : connectUrl );
+			h.setReceiveBufferSize( UnsignedInteger.valueOf(c.ctx.maxRecvChunkSize) );
+			h.setSendBufferSize( UnsignedInteger.valueOf(c.ctx.maxSendChunkSize) );
+			h.setMaxMessageSize( UnsignedInteger.valueOf(ctx.getMaxMessageSize()) );
+			h.setMaxChunkCount( UnsignedInteger.valueOf(0) );
+			c.sendRaw(TcpMessageType.HELLO, h);
+			Acknowledge a = c.acknowledge.waitForResult(handshakeTimeout, TimeUnit.MILLISECONDS);
+			c.ctx.maxSendChunkSize = Math.min(c.ctx.maxSendChunkSize, a.getReceiveBufferSize().intValue());
+			if ( a.getMaxMessageSize() != null )
+				c.ctx.maxSendMessageSize = a.getMaxMessageSize().intValue();
+			if ( a.getMaxChunkCount() != null )
+				c.ctx.maxSendChunkCount = a.getMaxChunkCount().intValue();
+
+			// Open the secure channel
+			Integer lifetime = settings.getConfiguration() == null ? null : settings.getConfiguration().getSecurityTokenLifetime();
+			OpenSecureChannelRequest req = new OpenSecureChannelRequest();
+			req.setRequestHeader( new RequestHeader() );
+			req.setClientProtocolVersion( UnsignedInteger.valueOf(0) );
+			req.setRequestType( SecurityTokenRequestType.Issue );
+			req.setSecurityMode( securityMode.getMessageSecurityMode() );
+			req.setClientNonce( ShmConnection.createNonce(securityMode) );
+			req.setRequestedLifetime( UnsignedInteger.valueOf( lifetime == null ? 3600000 : lifetime ) );
+			int requestId = requestIdCounter.incrementAndGet();
+			AsyncResultImpl<ServiceResponse> result = new AsyncResultImpl<ServiceResponse>();
+			requests.put(requestId, result);
+			c.sendOpen(req, 0, requestId, securityMode.getSecurityPolicy());
+			OpenSecureChannelResponse res = (OpenSecureChannelResponse) result.waitForResult(handshakeTimeout, TimeUnit.MILLISECONDS);
+			ChannelSecurityToken t = res.getSecurityToken();
+			c.token = ShmConnection.createToken(securityMode, t.getChannelId().intValue(), t.getTokenId().intValue(),
+					t.getRevisedLifetime().longValue(), req.getClientNonce(), res.getServerNonce());
+		} catch (ServiceResultException e) {
+			c.closeFile();
+			throw e;
+		}
+		connection = c;
+		logger.debug("open: SecureChannelId={}", getSecureChannelId());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<SecureChannel> openAsync() {
+		AsyncResultImpl<SecureChannel> result = new AsyncResultImpl<SecureChannel>();
+		try {
+			open();
+			result.setResult(this);
+		} catch (ServiceResultException e) {
+			result.setError(e);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServiceResponse serviceRequest(ServiceRequest request) throws ServiceResultException {
+		AsyncResultImpl<ServiceResponse> result = new AsyncResultImpl<ServiceResponse>();
+		int requestId = send(request, result);
+		long timeout = getRequestTimeout(request);
+		ServiceResponse res;
+		try {
+			res = timeout == 0 ? result.waitForResult() : result.waitForResult(timeout, TimeUnit.MILLISECONDS);
+		} finally {
+			requests.remove(requestId);
+		}
+		ResponseHeader responseHeader = res.getResponseHeader();
+		StatusCode statusCode = responseHeader == null ? null : responseHeader.getServiceResult();
+		if ( statusCode != null && statusCode.isBad() ) {
+			logger.debug("BAD response: {}", statusCode);
+			throw new ServiceFaultException(new ServiceFault(responseHeader));
+		}
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<ServiceResponse> serviceRequestAsync(ServiceRequest request) {
+		AsyncResultImpl<ServiceResponse> result = new AsyncResultImpl<ServiceResponse>();
+		send(request, result);
+		return result;
+	}
+
+	int send(ServiceRequest request, AsyncResultImpl<ServiceResponse> result) {
+		int requestId = requestIdCounter.incrementAndGet();
+		ClientConnection c = connection;
+		if ( c == null || c.closed ) {
+			result.setError(new ServiceResultException(StatusCodes.Bad_SecureChannelClosed));
+			return requestId;
+		}
+		requests.put(requestId, result);
+		try {
+			c.sendSecureMessage(TcpMessageType.MESSAGE, request, requestId);
+		} catch (ServiceResultException e) {
+			requests.remove(requestId);
+			result.setError(e);
+		}
+		return requestId;
+	}
+
+	/**
+	 * Get the timeout of a request, the timeout hint of the request or
+	 * the operation timeout.
+	 *
+	 * @param request request
+	 * @return timeout in milliseconds, 0 for none
+	 */
+	protected long getRequestTimeout(ServiceRequest request) {
+		UnsignedInteger timeoutHint = request.getRequestHeader() != null ? request.getRequestHeader().getTimeoutHint() : null;
+		return timeoutHint != null ? timeoutHint.longValue() : getOperationTimeout();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getSecureChannelId() {
+		ClientConnection c = connection;
+		SecurityToken t = c == null ? null : c.token;
+		return t == null ? -1 : t.getSecureChannelId();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServerConnection getConnection() {
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public MessageSecurityMode getMessageSecurityMode() {
+		return securityMode.getMessageSecurityMode();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SecurityPolicy getSecurityPolicy() {
+		return securityMode.getSecurityPolicy();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getConnectURL() {
+		return isOpen() ? connectUrl : null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isOpen() {
+		ClientConnection c = connection;
+		return c != null && !c.closed;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		ClientConnection c = connection;
+		connection = null;
+		if ( c == null ) return;
+		try {
+			CloseSecureChannelRequest req = new CloseSecureChannelRequest(new RequestHeader());
+			c.sendSecureMessage(TcpMessageType.CLOSE, req, requestIdCounter.incrementAndGet());
+		} catch (ServiceResultException e) {
+			// The server is gone
+		}
+		c.closeFile();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<SecureChannel> closeAsync() {
+		AsyncResultImpl<SecureChannel> result = new AsyncResultImpl<SecureChannel>();
+		close();
+		result.setResult(this);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void dispose() {
+		close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointDescription getEndpointDescription() {
+		return settings == null ? null : settings.getDescription();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointConfiguration getEndpointConfiguration() {
+		return settings == null ? null : settings.getConfiguration();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EncoderContext getMessageContext() {
+		return ctx;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setOperationTimeout(int timeout) {
+		EndpointConfiguration ec = settings.getConfiguration();
+		if ( ec == null ) {
+			ec = new EndpointConfiguration();
+			settings.setConfiguration(ec);
+		}
+		ec.setOperationTimeout(timeout);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getOperationTimeout() {
+		EndpointConfiguration ec = settings == null ? null : settings.getConfiguration();
+		Integer timeout = ec == null ? null : ec.getOperationTimeout();
+		return timeout == null ? 0 : timeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "ShmSecureChannel(" + connectUrl + ", SecureChannelId=" + getSecureChannelId() + ")";
+	}
+
+	class ClientConnection extends ShmConnection {
+
+		AsyncResultImpl<Acknowledge> acknowledge = new AsyncResultImpl<Acknowledge>();
+
+		ClientConnection(ShmFile file) {
+			super(file, ShmSecureChannel.this.ctx);
+		}
+
+		@Override
+		protected void onRawMessage(int messageType, IEncodeable msg) throws ServiceResultException {
+			if ( messageType == TcpMessageType.ACKNOWLEDGE ) {
+				acknowledge.setResult( (Acknowledge) msg );
+			} else if ( messageType == TcpMessageType.ERROR ) {
+				ErrorMessage e = (ErrorMessage) msg;
+				throw new ServiceResultException(new StatusCode(e.getError()), e.getReason());
+			} else {
+				throw new ServiceResultException(StatusCodes.Bad_TcpMessageTypeInvalid);
+			}
+		}
+
+		@Override
+		protected void onSecureMessage(int messageType, int secureChannelId, int requestId, IEncodeable msg) throws ServiceResultException {
+			AsyncResultImpl<ServiceResponse> result = requests.remove(requestId);
+			if ( result == null ) {
+				logger.debug("Response to an unknown request {}", requestId);
+				return;
+			}
+			if ( msg instanceof ServiceFault )
+				result.setError( new ServiceFaultException( (ServiceFault) msg ) );
+			else if ( msg instanceof ServiceResponse )
+				result.setResult( (ServiceResponse) msg );
+			else
+				result.setError( new ServiceResultException(StatusCodes.Bad_UnexpectedError, "Not a response: " + msg.getClass().getSimpleName()) );
+		}
+
+		@Override
+		protected void onClosed(ServiceResultException error) {
+			file.close();
+			ServiceResultException e = error != null ? error : new ServiceResultException(StatusCodes.Bad_SecureChannelClosed);
+			acknowledge.setError(e);
+			for ( Integer requestId : new ArrayList<Integer>( requests.keySet() ) ) {
+				AsyncResultImpl<ServiceResponse> result = requests.remove(requestId);
+				if ( result != null ) result.setError(e);
+			}
+		}
+
+	}
+
+}
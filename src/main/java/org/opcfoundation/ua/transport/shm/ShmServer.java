@@ -0,0 +1,398 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.SocketAddress;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.EncoderContext;
+import org.opcfoundation.ua.transport.CloseableObject;
+import org.opcfoundation.ua.transport.CloseableObjectState;
+import org.opcfoundation.ua.transport.Endpoint;
+import org.opcfoundation.ua.transport.EndpointBinding;
+import org.opcfoundation.ua.transport.EndpointServer;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.endpoint.EndpointBindingCollection;
+import org.opcfoundation.ua.transport.impl.ConnectionCollection;
+import org.opcfoundation.ua.utils.AbstractState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Host for opc.shm endpoints.
+ * <p>
+ * opc.shm is a transport between processes of one host over shared memory.
+ * The address of an endpoint is a directory, e.g. "opc.shm:///dev/shm/ua".
+ * A client connects by creating a memory mapped file in the directory,
+ * see {@link ShmFile}, which the server picks up every {@link #getPollInterval()}
+ * milliseconds. The client and the server then exchange the UA Secure
+ * Conversation messages of opc.tcp through two rings in the file, without
+ * system calls. Each connection has a thread that reads its ring and serves
+ * the requests in order; a service handler that blocks should answer its
+ * request asynchronously.
+ * <p>
+ * The transport is experimental. The OpenSecureChannel messages have no
+ * certificates, the channels of the endpoints that require Sign or
+ * SignAndEncrypt derive their keys from nonces that are exchanged in the
+ * connection file, and access is controlled with the file permissions of
+ * the directory, see {@link ShmConnection}. A peer that exits without
+ * closing its connection is not detected by the other end. The rings need
+ * Java 8 or an x86/amd64 processor, see {@link ShmRing}; elsewhere bind
+ * fails with Bad_NotSupported.
+ * <p>
+ * A directory is bound by one server at a time, which holds a lock of the
+ * file "server.lock" in it.
+ */
+public class ShmServer extends AbstractState<CloseableObjectState, ServiceResultException> implements EndpointServer {
+
+	/** Logger */
+	static Logger logger = LoggerFactory.getLogger(ShmServer.class);
+
+	/** Lock file of a bound directory */
+	static final String LOCK_FILE = "server.lock";
+
+	/** Application */
+	Application application;
+	/** Secure channel counter */
+	AtomicInteger secureChannelCounter = new AtomicInteger();
+	/** Endpoint bindings */
+	EndpointBindingCollection endpointBindings = new EndpointBindingCollection();
+	/** Connection listeners */
+	ConnectionCollection connections = new ConnectionCollection(this);
+	/** Endpoint handles by address */
+	Map<ShmAddress, Map<Endpoint, ShmEndpointHandle>> addressHandles = new LinkedHashMap<ShmAddress, Map<Endpoint, ShmEndpointHandle>>();
+	/** Directory locks by address */
+	Map<ShmAddress, FileLock> locks = new LinkedHashMap<ShmAddress, FileLock>();
+	/** Files of the open connections */
+	Set<File> acceptedFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+	/** Thread that accepts connections */
+	Thread acceptor;
+	/** Poll interval of the directories in milliseconds */
+	volatile long pollInterval = 10;
+
+	/**
+	 * <p>Constructor for ShmServer.</p>
+	 *
+	 * @param application a {@link org.opcfoundation.ua.application.Application} object.
+	 */
+	public ShmServer(Application application) {
+		super(CloseableObjectState.Closed, CloseableObjectState.Closed);
+		this.application = application;
+	}
+
+	/**
+	 * @return the interval in milliseconds in which the bound directories are scanned for new connections
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	/**
+	 * Set the interval in which the bound directories are scanned for new
+	 * connections. Default is 10 ms.
+	 *
+	 * @param pollInterval interval in milliseconds
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointHandle bind(SocketAddress socketAddress, EndpointBinding endpointBinding) throws ServiceResultException {
+		if ( endpointBinding == null || !(socketAddress instanceof ShmAddress) || endpointBinding.endpointServer!=this )
+			throw new IllegalArgumentException();
+		ShmRing.checkSupported();
+		ShmAddress address = (ShmAddress) socketAddress;
+		ShmEndpointHandle handle;
+		synchronized (this) {
+			if ( !locks.containsKey(address) )
+				locks.put(address, lock(address));
+			Map<Endpoint, ShmEndpointHandle> endpoints = addressHandles.get(address);
+			if ( endpoints == null ) {
+				endpoints = new LinkedHashMap<Endpoint, ShmEndpointHandle>();
+				addressHandles.put(address, endpoints);
+			}
+			handle = endpoints.get(endpointBinding.endpointAddress);
+			if ( handle == null ) {
+				handle = new ShmEndpointHandle(address, endpointBinding);
+				endpoints.put(endpointBinding.endpointAddress, handle);
+				// Add endpointBinding to EndpointServer
+				endpointBindings.add(endpointBinding);
+				// Add endpointBinding to Server
+				endpointBinding.serviceServer.getEndpointBindings().add(endpointBinding);
+			} else if ( !handle.endpointBinding.equals( endpointBinding ) ) {
+				throw new ServiceResultException( StatusCodes.Bad_UnexpectedError, "Cannot bind an endpoint address to two different servers." );
+			}
+			if ( !getState().isOpen() ) setState(CloseableObjectState.Open);
+			if ( acceptor == null ) {
+				acceptor = new Thread(new Acceptor(), "ShmServer-acceptor");
+				acceptor.setDaemon(true);
+				acceptor.start();
+			}
+		}
+		logger.info("Endpoint bound to {}", endpointBinding.endpointAddress.getEndpointUrl());
+		return handle;
+	}
+
+	static FileLock lock(ShmAddress address) throws ServiceResultException {
+		File directory = address.getDirectory();
+		if ( !directory.isDirectory() && !directory.mkdirs() )
+			throw new ServiceResultException(StatusCodes.Bad_ResourceUnavailable, "Cannot create directory " + directory);
+		FileLock lock = null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+			lock = raf.getChannel().tryLock();
+		} catch (IOException e) {
+			throw new ServiceResultException(StatusCodes.Bad_ResourceUnavailable, e);
+		} catch (OverlappingFileLockException e) {
+			// Locked by another server of this JVM
+		}
+		if ( lock == null ) {
+			try {
+				if ( raf != null ) raf.close();
+			} catch (IOException e) {
+			}
+			throw new ServiceResultException(StatusCodes.Bad_ResourceUnavailable, address + " is already bound by another server.");
+		}
+		return lock;
+	}
+
+	static void release(FileLock lock) {
+		try {
+			lock.channel().close();
+		} catch (IOException e) {
+			logger.debug("release", e);
+		}
+	}
+
+	/**
+	 * Get the endpoint handles of an address.
+	 *
+	 * @param address address
+	 * @return handles, empty if the address is not bound
+	 */
+	public synchronized ShmEndpointHandle[] endpointHandleSnapshot(SocketAddress address) {
+		Map<Endpoint, ShmEndpointHandle> endpoints = addressHandles.get(address);
+		if ( endpoints == null ) return new ShmEndpointHandle[0];
+		return endpoints.values().toArray( new ShmEndpointHandle[ endpoints.size() ] );
+	}
+
+	/**
+	 * Find the endpoint of a url. The endpoint whose url matches is used,
+	 * or if none matches, the first endpoint of the address, e.g. for
+	 * discovery.
+	 *
+	 * @param address bound address
+	 * @param endpointUrl endpoint url
+	 * @return endpoint binding or null
+	 */
+	EndpointBinding getEndpointBinding(ShmAddress address, String endpointUrl) {
+		EndpointBinding endpointBinding = null;
+		for ( ShmEndpointHandle handle : endpointHandleSnapshot(address) ) {
+			if ( endpointBinding == null )
+				endpointBinding = handle.endpointBinding;
+			if ( handle.endpointBinding.endpointAddress.getEndpointUrl().equalsIgnoreCase( endpointUrl ) ) {
+				endpointBinding = handle.endpointBinding;
+				break;
+			}
+		}
+		return endpointBinding;
+	}
+
+	/**
+	 * Scan a directory for new connection files.
+	 */
+	void accept(ShmAddress address) {
+		File[] files = address.getDirectory().listFiles();
+		if ( files == null ) return;
+		for ( File f : files ) {
+			if ( !f.getName().endsWith(ShmFile.SUFFIX) || acceptedFiles.contains(f) ) continue;
+			try {
+				ShmFile file = ShmFile.open(f);
+				if ( file == null ) continue;
+				int state = file.getState();
+				if ( state == ShmFile.STATE_READY ) {
+					file.setState(ShmFile.STATE_ACCEPTED);
+					acceptedFiles.add(f);
+					ShmServerConnection connection = new ShmServerConnection(this, address, file);
+					synchronized (connections) {
+						connections.addConnection(connection);
+					}
+					connection.start("ShmServerConnection-" + f.getName());
+					logger.debug("Accepted {}", file);
+				} else if ( state == ShmFile.STATE_CLOSED ) {
+					// Left by a closed connection
+					f.delete();
+				}
+			} catch (IOException e) {
+				logger.warn("Cannot open {}: {}", f, e.getMessage());
+			}
+		}
+	}
+
+	void removeConnection(ShmServerConnection connection) {
+		acceptedFiles.remove(connection.file.file);
+		synchronized (connections) {
+			connections.removeConnection(connection);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void bindReverse(SocketAddress addressToConnect, String endpointUrl) {
+		throw new UnsupportedOperationException("opc.shm does not support ReverseHello");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addConnectionListener(ConnectListener l) {
+		connections.addConnectionListener(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getConnections(Collection<ServerConnection> result) {
+		connections.getConnections(result);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeConnectionListener(ConnectListener l) {
+		connections.removeConnectionListener(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized List<SocketAddress> getBoundSocketAddresses() {
+		return new ArrayList<SocketAddress>( addressHandles.keySet() );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EncoderContext getEncoderContext() {
+		return application.getEncoderContext();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EndpointBindingCollection getEndpointBindings() {
+		return endpointBindings;
+	}
+
+	/**
+	 * Unbind all endpoints and close the open connections.
+	 *
+	 * @return a {@link org.opcfoundation.ua.transport.CloseableObject} object.
+	 */
+	public CloseableObject close() {
+		Thread t;
+		synchronized (this) {
+			if ( getState() == CloseableObjectState.Closed ) return this;
+			setState(CloseableObjectState.Closing);
+			for ( ShmAddress address : new ArrayList<ShmAddress>( addressHandles.keySet() ) ) {
+				for ( ShmEndpointHandle handle : endpointHandleSnapshot(address) )
+					handle.close();
+			}
+			t = acceptor;
+			acceptor = null;
+		}
+		if ( t != null ) t.interrupt();
+		List<ServerConnection> list = new ArrayList<ServerConnection>();
+		getConnections(list);
+		for ( ServerConnection connection : list )
+			((ShmServerConnection) connection).close(null);
+		setState(CloseableObjectState.Closed);
+		return this;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return "ShmServer(" + addressHandles.keySet() + ")";
+	}
+
+	class Acceptor implements Runnable {
+		@Override
+		public void run() {
+			while ( getState().isOpen() ) {
+				List<SocketAddress> addresses = getBoundSocketAddresses();
+				for ( SocketAddress address : addresses )
+					accept( (ShmAddress) address );
+				try {
+					Thread.sleep( pollInterval );
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+	}
+
+	public class ShmEndpointHandle implements EndpointHandle {
+		ShmAddress address;
+		EndpointBinding endpointBinding;
+		ShmEndpointHandle(ShmAddress address, EndpointBinding endpointBinding) {
+			this.address = address;
+			this.endpointBinding = endpointBinding;
+		}
+		@Override
+		public SocketAddress socketAddress() {
+			return address;
+		}
+		@Override
+		public EndpointBinding endpointBinding() {
+			return endpointBinding;
+		}
+		@Override
+		public void close() {
+			synchronized (ShmServer.this) {
+				Map<Endpoint, ShmEndpointHandle> endpoints = addressHandles.get(address);
+				if ( endpoints == null || endpoints.get(endpointBinding.endpointAddress) != this ) return;
+				endpoints.remove(endpointBinding.endpointAddress);
+				// Release the directory if this was the last
+				if ( endpoints.isEmpty() ) {
+					addressHandles.remove(address);
+					FileLock lock = locks.remove(address);
+					if ( lock != null ) release(lock);
+				}
+				// Remove endpointBinding if it is not bound to other addresses
+				for ( Map<Endpoint, ShmEndpointHandle> e : addressHandles.values() )
+					if ( e.containsKey(endpointBinding.endpointAddress) ) return;
+				endpointBindings.remove(endpointBinding);
+				endpointBinding.serviceServer.getEndpointBindings().remove(endpointBinding);
+			}
+		}
+		@Override
+		public String toString() {
+			return "("+endpointBinding.endpointAddress.toString()+")";
+		}
+	}
+
+}
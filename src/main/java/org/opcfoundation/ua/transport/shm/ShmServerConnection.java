@@ -0,0 +1,276 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.ChannelSecurityToken;
+import org.opcfoundation.ua.core.OpenSecureChannelRequest;
+import org.opcfoundation.ua.core.OpenSecureChannelResponse;
+import org.opcfoundation.ua.core.ResponseHeader;
+import org.opcfoundation.ua.core.SecurityTokenRequestType;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.opcfoundation.ua.transport.EndpointBinding;
+import org.opcfoundation.ua.transport.IConnectionListener;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.tcp.impl.Acknowledge;
+import org.opcfoundation.ua.transport.tcp.impl.ErrorMessage;
+import org.opcfoundation.ua.transport.tcp.impl.Hello;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
+import org.opcfoundation.ua.transport.tcp.impl.TcpMessageType;
+import org.opcfoundation.ua.utils.StackUtils;
+
+/**
+ * Server end of an opc.shm connection. The connection has one secure
+ * channel, whose requests are served in the thread of the connection.
+ */
+public class ShmServerConnection extends ShmConnection implements ServerConnection {
+
+	/** Time in milliseconds for the client to open the secure channel */
+	static final long HANDSHAKE_TIMEOUT = 10000;
+
+	ShmServer server;
+	ShmAddress address;
+	long acceptTime = System.currentTimeMillis();
+	/** Endpoint selected by Hello */
+	volatile EndpointBinding endpointBinding;
+	volatile ShmServerSecureChannel secureChannel;
+	int tokenIdCounter;
+	CopyOnWriteArrayList<SecureChannelListener> secureChannelListeners = new CopyOnWriteArrayList<SecureChannelListener>();
+	CopyOnWriteArrayList<IConnectionListener> connectionListeners = new CopyOnWriteArrayList<IConnectionListener>();
+
+	ShmServerConnection(ShmServer server, ShmAddress address, ShmFile file) {
+		super(file, server.getEncoderContext());
+		this.server = server;
+		this.address = address;
+	}
+
+	/**
+	 * @return the secure channel of the connection, or null if it is not open
+	 */
+	public ShmServerSecureChannel getSecureChannel() {
+		return secureChannel;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void onRawMessage(int messageType, IEncodeable msg) throws ServiceResultException {
+		if ( messageType != TcpMessageType.HELLO || endpointBinding != null )
+			throw new ServiceResultException(StatusCodes.Bad_TcpMessageTypeInvalid);
+		Hello h = (Hello) msg;
+		EndpointBinding binding = server.getEndpointBinding(address, h.getEndpointUrl());
+		if ( binding == null )
+			throw new ServiceResultException(StatusCodes.Bad_TcpEndpointUrlInvalid, "No endpoint is bound to " + address);
+		if ( h.getSendBufferSize().longValue() < 8192 || h.getReceiveBufferSize().longValue() < 8192 )
+			throw new ServiceResultException(StatusCodes.Bad_TcpInternalError, "Peer buffer size < 8192");
+
+		// Limits of the client
+		if ( h.getMaxMessageSize() != null && h.getMaxMessageSize().intValue() != 0 )
+			ctx.maxSendMessageSize = h.getMaxMessageSize().intValue();
+		if ( h.getMaxChunkCount() != null && h.getMaxChunkCount().intValue() != 0 )
+			ctx.maxSendChunkCount = h.getMaxChunkCount().intValue();
+		ctx.maxSendChunkSize = Math.min(ctx.maxSendChunkSize, h.getReceiveBufferSize().intValue());
+		ctx.maxRecvChunkSize = Math.min(ctx.maxRecvChunkSize, h.getSendBufferSize().intValue());
+		int maxMessageSize = binding.endpointAddress.getEndpointConfiguration().getMaxMessageSize();
+		ctx.maxSendMessageSize = ctx.maxSendMessageSize == 0 ? maxMessageSize : Math.min(ctx.maxSendMessageSize, maxMessageSize);
+		ctx.maxRecvMessageSize = maxMessageSize;
+		ctx.endpointUrl = h.getEndpointUrl();
+		endpointBinding = binding;
+
+		Acknowledge a = new Acknowledge();
+		a.setProtocolVersion( UnsignedInteger.getFromBits( Math.min(StackUtils.TCP_PROTOCOL_VERSION, h.getProtocolVersion().intValue()) ) );
+		a.setReceiveBufferSize( UnsignedInteger.getFromBits( ctx.maxRecvChunkSize ) );
+		a.setSendBufferSize( UnsignedInteger.getFromBits( ctx.maxSendChunkSize ) );
+		a.setMaxMessageSize( UnsignedInteger.getFromBits( ctx.maxRecvMessageSize ) );
+		a.setMaxChunkCount( UnsignedInteger.getFromBits( ctx.maxRecvChunkCount ) );
+		sendRaw(TcpMessageType.ACKNOWLEDGE, a);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void onSecureMessage(int messageType, int secureChannelId, int requestId, IEncodeable msg) throws ServiceResultException {
+		EndpointBinding binding = endpointBinding;
+		if ( binding == null )
+			throw new ServiceResultException(StatusCodes.Bad_TcpMessageTypeInvalid, "Hello expected");
+		ShmServerSecureChannel channel = secureChannel;
+		if ( messageType == TcpMessageType.OPEN ) {
+			handleOpenSecureChannelRequest(binding, channel, secureChannelId, requestId, (OpenSecureChannelRequest) msg);
+			return;
+		}
+		if ( channel == null || channel.getSecureChannelId() != secureChannelId )
+			throw new ServiceResultException(StatusCodes.Bad_SecureChannelIdInvalid);
+		if ( messageType == TcpMessageType.CLOSE ) {
+			close(null);
+			return;
+		}
+		if ( !(msg instanceof ServiceRequest) )
+			throw new ServiceResultException(StatusCodes.Bad_UnexpectedError, "Not a request: " + msg.getClass().getSimpleName());
+		channel.serve(requestId, (ServiceRequest) msg);
+	}
+
+	void handleOpenSecureChannelRequest(EndpointBinding binding, ShmServerSecureChannel channel, int secureChannelId, int requestId, OpenSecureChannelRequest req) throws ServiceResultException {
+		if ( req.getSecurityMode() == null )
+			throw new ServiceResultException(StatusCodes.Bad_SecurityModeRejected);
+		SecurityMode mode = new SecurityMode( SecurityPolicy.getSecurityPolicy(openSecurityPolicyUri), req.getSecurityMode() );
+		checkSecurityMode(mode);
+		if ( !binding.endpointAddress.supportsSecurityMode( mode ) )
+			throw new ServiceResultException(StatusCodes.Bad_SecurityModeRejected, "The endpoint does not support " + mode);
+		if ( req.getRequestType() == SecurityTokenRequestType.Issue ) {
+			if ( channel != null )
+				throw new ServiceResultException(StatusCodes.Bad_UnexpectedError, "The secure channel is already open");
+			channel = new ShmServerSecureChannel(this, binding, server.secureChannelCounter.incrementAndGet());
+		} else if ( channel == null || channel.getSecureChannelId() != secureChannelId ) {
+			throw new ServiceResultException(StatusCodes.Bad_SecureChannelIdInvalid);
+		} else if ( !mode.equals( token.getSecurityConfiguration().getSecurityMode() ) ) {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected, "The security of a secure channel cannot change");
+		}
+
+		UnsignedInteger lifetime = req.getRequestedLifetime() != null && req.getRequestedLifetime().longValue() > 0
+				? req.getRequestedLifetime() : StackUtils.SERVER_GIVEN_TOKEN_LIFETIME;
+		ByteString serverNonce = createNonce(mode);
+		SecurityToken newToken = createToken(mode, channel.getSecureChannelId(), ++tokenIdCounter,
+				lifetime.longValue(), serverNonce, req.getClientNonce());
+
+		ChannelSecurityToken chanToken = new ChannelSecurityToken();
+		chanToken.setChannelId( UnsignedInteger.valueOf(channel.getSecureChannelId()) );
+		chanToken.setCreatedAt( new DateTime() );
+		chanToken.setRevisedLifetime( lifetime );
+		chanToken.setTokenId( UnsignedInteger.valueOf(newToken.getTokenId()) );
+		OpenSecureChannelResponse res = new OpenSecureChannelResponse();
+		res.setSecurityToken(chanToken);
+		res.setServerNonce(serverNonce);
+		res.setServerProtocolVersion( UnsignedInteger.valueOf(0) );
+		ResponseHeader header = new ResponseHeader();
+		header.setRequestHandle( req.getRequestHeader() == null ? null : req.getRequestHeader().getRequestHandle() );
+		res.setResponseHeader( header );
+
+		previousToken = token;
+		token = newToken;
+		sendOpen(res, channel.getSecureChannelId(), requestId, mode.getSecurityPolicy());
+		if ( secureChannel == null ) {
+			secureChannel = channel;
+			channel.open();
+			for (SecureChannelListener l : secureChannelListeners)
+				l.onSecureChannelAttached(this, channel);
+			for (IConnectionListener l : connectionListeners)
+				l.onOpen();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void onIdle() throws ServiceResultException {
+		if ( secureChannel == null && System.currentTimeMillis() - acceptTime > HANDSHAKE_TIMEOUT )
+			throw new ServiceResultException(StatusCodes.Bad_Timeout, "The secure channel was not opened in time");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void onClosed(ServiceResultException error) {
+		if ( error != null && file.getState() != ShmFile.STATE_CLOSED ) {
+			try {
+				sendRaw(TcpMessageType.ERROR, new ErrorMessage(error.getStatusCode(), error.getMessage()));
+			} catch (ServiceResultException e) {
+				// The client is gone
+			}
+		}
+		file.close();
+		server.removeConnection(this);
+		ShmServerSecureChannel channel = secureChannel;
+		if ( channel != null ) {
+			channel.onClosed();
+			for (SecureChannelListener l : secureChannelListeners)
+				l.onSecureChannelDetached(this, channel);
+		}
+		for (IConnectionListener l : connectionListeners)
+			l.onClosed(error);
+	}
+
+	/**
+	 * Close the connection and its secure channel.
+	 *
+	 * @param error the reason, sent to the client, or null
+	 */
+	void close(ServiceResultException error) {
+		if ( error != null ) {
+			try {
+				sendRaw(TcpMessageType.ERROR, new ErrorMessage(error.getStatusCode(), error.getMessage()));
+			} catch (ServiceResultException e) {
+				// The client is gone
+			}
+		}
+		closeFile();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SocketAddress getLocalAddress() {
+		return address;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SocketAddress getRemoteAddress() {
+		return address;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getSecureChannels(Collection<ServerSecureChannel> list) {
+		ShmServerSecureChannel channel = secureChannel;
+		if ( channel != null && channel.isOpen() )
+			list.add( channel );
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addSecureChannelListener(SecureChannelListener l) {
+		secureChannelListeners.add(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeSecureChannelListener(SecureChannelListener l) {
+		secureChannelListeners.remove(l);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addConnectionListener(IConnectionListener listener) {
+		connectionListeners.add(listener);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeConnectionListener(IConnectionListener listener) {
+		connectionListeners.remove(listener);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "ShmServerConnection(" + file + ")";
+	}
+
+}
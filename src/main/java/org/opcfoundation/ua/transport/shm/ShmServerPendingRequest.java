@@ -0,0 +1,73 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.ServiceResponse;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.transport.AsyncWrite;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.tcp.impl.TcpMessageType;
+
+/**
+ * Request of an opc.shm secure channel. The response is written to the
+ * ring of the client in the thread that sends it.
+ */
+class ShmServerPendingRequest extends EndpointServiceRequest<ServiceRequest, ServiceResponse> {
+
+	ShmServerSecureChannel channel;
+	int requestId;
+
+	ShmServerPendingRequest(ShmServerSecureChannel channel, int requestId, ServiceRequest request) {
+		super(request, channel.getServer(), channel.getEndpoint());
+		this.channel = channel;
+		this.requestId = requestId;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SecurityMode getSecurityMode() {
+		return SecurityMode.NONE;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServerSecureChannel getChannel() {
+		return channel;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void writeResponse(AsyncWrite write) {
+		channel.requests.remove(requestId);
+		write.setQueued();
+		write.setWriting();
+		try {
+			channel.connection.sendSecureMessage(TcpMessageType.MESSAGE, write.getMessage(), requestId);
+			write.setWritten();
+		} catch (ServiceResultException e) {
+			write.setError(e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncWrite sendResponse(ServiceResponse response) {
+		AsyncWrite write = new AsyncWrite(response);
+		sendResponse(write);
+		return write;
+	}
+
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.shm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.CloseableObjectState;
+import org.opcfoundation.ua.transport.Endpoint;
+import org.opcfoundation.ua.transport.EndpointBinding;
+import org.opcfoundation.ua.transport.ServerConnection;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.AbstractServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.impl.AsyncResultImpl;
+import org.opcfoundation.ua.transport.security.Cert;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
+
+/**
+ * Server end of an opc.shm secure channel.
+ */
+public class ShmServerSecureChannel extends AbstractServerSecureChannel {
+
+	/** Connection */
+	ShmServerConnection connection;
+	/** Endpoint binding */
+	EndpointBinding endpointBinding;
+	/** Requests that are not answered */
+	Map<Integer, ShmServerPendingRequest> requests = new ConcurrentHashMap<Integer, ShmServerPendingRequest>();
+
+	ShmServerSecureChannel(ShmServerConnection connection, EndpointBinding endpointBinding, int secureChannelId) {
+		super(secureChannelId);
+		this.connection = connection;
+		this.endpointBinding = endpointBinding;
+	}
+
+	void open() {
+		setState(CloseableObjectState.Open);
+	}
+
+	/**
+	 * Serve a request of the client.
+	 *
+	 * @param requestId request id
+	 * @param request request
+	 */
+	void serve(int requestId, ServiceRequest request) {
+		ShmServerPendingRequest req = new ShmServerPendingRequest(this, requestId, request);
+		requests.put(requestId, req);
+		try {
+			getServer().serve(req);
+		} catch (ServiceResultException e) {
+			req.sendException(e);
+		}
+	}
+
+	/**
+	 * Called when the connection is closed. The requests that are not
+	 * answered are cancelled with Bad_SecureChannelClosed.
+	 */
+	void onClosed() {
+		synchronized (this) {
+			if ( !isOpen() ) return;
+			super.close();
+		}
+		for ( ShmServerPendingRequest req : new ArrayList<ShmServerPendingRequest>( requests.values() ) )
+			req.cancel( StatusCodes.Bad_SecureChannelClosed );
+		requests.clear();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public KeyPair getLocalCertificate() {
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Cert getRemoteCertificate() {
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public MessageSecurityMode getMessageSecurityMode() {
+		SecurityToken t = connection.token;
+		return t == null ? MessageSecurityMode.None : t.getMessageSecurityMode();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SecurityPolicy getSecurityPolicy() {
+		SecurityToken t = connection.token;
+		return t == null ? SecurityPolicy.NONE : t.getSecurityPolicy();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ServerConnection getConnection() {
+		return connection;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getConnectURL() {
+		return endpointBinding.endpointAddress.getEndpointUrl();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Endpoint getEndpoint() {
+		return endpointBinding.endpointAddress;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Server getServer() {
+		return endpointBinding.serviceServer;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean needsCertificate() {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getPendingServiceRequests(Collection<EndpointServiceRequest<?, ?>> result) {
+		result.addAll( requests.values() );
+	}
+
+	/**
+	 * Close the channel and its connection.
+	 */
+	@Override
+	public void close() {
+		connection.close(null);
+		onClosed();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AsyncResult<ServerSecureChannel> closeAsync() {
+		AsyncResultImpl<ServerSecureChannel> result = new AsyncResultImpl<ServerSecureChannel>();
+		close();
+		result.setResult(this);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void dispose() {
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Code for the experimental opc.shm transport, where client and server run on the same host and exchange chunks through shared memory
+ */
+package org.opcfoundation.ua.transport.shm;
@@ -67,8 +67,7 @@ public class ChunkAsymmDecryptVerifier implements Runnable {
 	public void run() throws RuntimeServiceResultException {
 		try {
 			SecurityPolicy policy = securityProfile.getSecurityPolicy();
-			MessageSecurityMode msm = securityProfile.getMessageSecurityMode();
-			if ( msm == MessageSecurityMode.Sign ) msm = MessageSecurityMode.SignAndEncrypt;
+			MessageSecurityMode msm = securityProfile.getAsymmetricMessageSecurityMode();
 
 			// securityPolicyURI
 			chunk.position(12);
@@ -101,7 +100,7 @@ public class ChunkAsymmDecryptVerifier implements Runnable {
 				chunk.get(dataToDecrypt, 0, dataToDecrypt.length);
 	
 				// Run decrypt algorithm
-				decryptedBytes = decrypt(dataToDecrypt, securityProfile.getLocalPrivateKey(), chunk.array(), headersEnd + chunk.arrayOffset());
+				decryptedBytes = decrypt(dataToDecrypt, securityProfile.getLocalKey(), chunk.array(), headersEnd + chunk.arrayOffset());
 				
 				if (logger.isTraceEnabled()) {
 					logger.trace("Chunk decrypted: {}", CryptoUtil.toHex(chunk.array(), 64));
@@ -14,8 +14,8 @@ package org.opcfoundation.ua.transport.tcp.impl;
 
 import java.nio.ByteBuffer;
 import java.security.Key;
+import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 
 import org.opcfoundation.ua.common.RuntimeServiceResultException;
@@ -70,13 +70,12 @@ public class ChunkAsymmEncryptSigner implements Runnable {
 	{
 		try {
 			int plaintextSize = plaintext.limit();
-			MessageSecurityMode msm = profile.getMessageSecurityMode();
-			if ( msm == MessageSecurityMode.Sign ) msm = MessageSecurityMode.SignAndEncrypt;
+			MessageSecurityMode msm = profile.getAsymmetricMessageSecurityMode();
 
 			SecurityPolicy policy = profile.getSecurityPolicy();
 			int sequenceHeader = 8;
 			SecurityAlgorithm signatureAlgorithm = policy.getAsymmetricSignatureAlgorithm();
-			signatureSize = msm.hasSigning() ? CryptoUtil.getSignatureSize(signatureAlgorithm, profile.getLocalPrivateKey()) : 0;
+			signatureSize = msm.hasSigning() ? CryptoUtil.getSignatureSize(signatureAlgorithm, profile.getLocalKey()) : 0;
 			
 			//At this point padding has already added to the chunk, check AsymChunkfactory
 			
@@ -106,7 +105,7 @@ public class ChunkAsymmEncryptSigner implements Runnable {
 		        chunk.get(plaintextForSign, 0, plaintextForSign.length);
 		        
 		        // Sign
-		        byte[] signature = sign(plaintextForSign, profile.getLocalPrivateKey());
+		        byte[] signature = sign(plaintextForSign, profile.getLocalKey());
 		        
 		        // Write back to chunk
 	        	chunk.put(signature);
@@ -206,7 +205,7 @@ public class ChunkAsymmEncryptSigner implements Runnable {
 		
 	}
 	
-	private byte[] sign(byte[] dataToSign, RSAPrivateKey senderPrivate) throws ServiceResultException{		
+	private byte[] sign(byte[] dataToSign, PrivateKey senderPrivate) throws ServiceResultException{		
 		SecurityPolicy policy = profile.getSecurityPolicy();
 		//Default
 		if(policy == SecurityPolicy.NONE) {
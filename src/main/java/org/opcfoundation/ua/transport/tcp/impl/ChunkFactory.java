@@ -125,6 +125,27 @@ public class ChunkFactory extends ByteBufferFactory {
 	 */
 	public ByteBuffer allocate(int bodySize) {
 		bodySize = Math.min(bodySize, maxPlaintextSize);
+		ByteBuffer result = ByteBuffer.allocate(getChunkSize(bodySize));
+		result = allocateChunk(bodySize, result);
+		
+		// Change limit and offset
+		result = result.slice(); // Slice forgets byte order
+		result.order(ByteOrder.LITTLE_ENDIAN);
+		return result;
+	}
+
+	/**
+	 * Get the size of the chunk for a message with a given body size.
+	 *
+	 * @param bodySize size of the plaintext, at most maxPlaintextSize
+	 * @return chunk size
+	 */
+	public int getChunkSize(int bodySize) {
+		bodySize = Math.min(bodySize, maxPlaintextSize);
+		return bodySize + messageHeaderSize + securityHeader + sequenceHeader + signatureSize + getPadding(bodySize);
+	}
+
+	private int getPadding(int bodySize) {
 		int padding = 0;
 		// calculate Padding
 		if (securityMode == MessageSecurityMode.SignAndEncrypt) {
@@ -138,14 +159,32 @@ public class ChunkFactory extends ByteBufferFactory {
 			
 			logger.trace("allocate: padding={}", padding);
 		}
-		
+		return padding;
+	}
+
+	/**
+	 * Prepare a chunk for a message with a given body size in memory that
+	 * the caller provides, e.g. a pooled direct buffer. Unlike the plaintext
+	 * of {@link #allocate(int)}, the result covers the complete chunk, so
+	 * {@link #expandToCompleteChunk(ByteBuffer)} is not needed.
+	 *
+	 * @param bodySize size of the plaintext, at most maxPlaintextSize
+	 * @param memory buffer of at least {@link #getChunkSize(int)} bytes from its position
+	 * @return the chunk, a buffer of the chunk size whose position and limit
+	 *         are the bounds of the plaintext
+	 */
+	public ByteBuffer allocateChunk(int bodySize, ByteBuffer memory) {
+		bodySize = Math.min(bodySize, maxPlaintextSize);
+		int padding = getPadding(bodySize);
 		int chunkSize = bodySize + messageHeaderSize + securityHeader + sequenceHeader + signatureSize + padding;
 		
 		logger.trace("allocate: chunkSize={}", chunkSize);
 		
 		assert(chunkSize<=maxChunkSize);
 		
-		ByteBuffer result = ByteBuffer.allocate(chunkSize);
+		ByteBuffer result = memory.slice();
+		result.limit(chunkSize);
+		result = result.slice();
 		result.order(ByteOrder.LITTLE_ENDIAN);
 		
 		// Write chunk size at position 4
@@ -157,11 +196,8 @@ public class ChunkFactory extends ByteBufferFactory {
 			writePadding(messageHeaderSize + securityHeader + sequenceHeader + bodySize, padding, result);
 		}
 		
-		// Change limit and offset
 		result.position(messageHeaderSize + securityHeader + sequenceHeader);
-		result = result.slice(); // Slice forgets byte order
-		result.order(ByteOrder.LITTLE_ENDIAN);
-		result.limit(bodySize);				
+		result.limit(result.position() + bodySize);
 		return result;
 	}
 
@@ -193,7 +229,8 @@ public class ChunkFactory extends ByteBufferFactory {
 			result.put( (byte) ( (padding-2) >> 8 ) );
 		}
 		
-		logger.trace("writePadding: result={}", CryptoUtil.toHex(result.array(), 64));
+		if (logger.isTraceEnabled() && result.hasArray())
+			logger.trace("writePadding: result={}", CryptoUtil.toHex(result.array(), 64));
 	}
 
 	/**
@@ -216,7 +253,8 @@ public class ChunkFactory extends ByteBufferFactory {
 			result.put( (byte) ( (paddingSize-2) >> 8 ) );
 		}
 		
-		logger.trace("writePadding: result={}", CryptoUtil.toHex(result.array(), 64));
+		if (logger.isTraceEnabled() && result.hasArray())
+			logger.trace("writePadding: result={}", CryptoUtil.toHex(result.array(), 64));
 	}
 	
 	/**
@@ -343,20 +381,20 @@ public class ChunkFactory extends ByteBufferFactory {
 					profile.getMessageSecurityMode().hasSigning() ? 
 							CryptoUtil.getSignatureSize(
 									profile.getSecurityPolicy().getAsymmetricSignatureAlgorithm(), 
-									profile.getLocalPrivateKey() ) : 
+									profile.getLocalKey() ) : 
 							0,
 
 					// Cipher block size
-					profile.getMessageSecurityMode() != MessageSecurityMode.None ? 
+					profile.getAsymmetricMessageSecurityMode() == MessageSecurityMode.SignAndEncrypt ? 
 							CryptoUtil.getCipherBlockSize(
 									profile.getSecurityPolicy().getAsymmetricEncryptionAlgorithm(),
 									profile.getRemoteCertificate().getPublicKey() ) :
 							1,
 											
-					profile.getMessageSecurityMode(),
+					profile.getAsymmetricMessageSecurityMode(),
 
-					// KeySize used to calc paddingSize
-					profile.getLocalCertificate() == null ? 0 :
+					// KeySize used to calc paddingSize, no padding when not encrypted
+					profile.getAsymmetricMessageSecurityMode() != MessageSecurityMode.SignAndEncrypt ? 0 :
 							((RSAPublicKey) profile.getRemoteCertificate().getPublicKey()).getModulus().bitLength());
 		
 			this.profile = profile;
@@ -365,7 +403,6 @@ public class ChunkFactory extends ByteBufferFactory {
 		@Override
 		public ByteBuffer allocate(int bodySize) {
 			MessageSecurityMode msm = securityMode;
-			if ( msm == MessageSecurityMode.Sign ) msm = MessageSecurityMode.SignAndEncrypt;
 			bodySize = Math.min(bodySize, maxPlaintextSize);
 			int encryptedBlocks = -1; //initialize blocksize and ciphertext size
 			int cipherTextSize = -1;
@@ -74,25 +74,10 @@ public class ChunkSymmDecryptVerifier implements Runnable {
 				throw new ServiceResultException(
 						StatusCodes.Bad_UnexpectedError);
 
-			// Move chunk position to the starting point of the body
-			
 			int decryptedBytes;
 			if ( msm == MessageSecurityMode.SignAndEncrypt ) {
-				// Option A: Decrypt to separate memory block
-
-				// Get bytes that need to be decrypted
-				chunk.position(SymmetricHeaders);
-				byte dataToDecrypt[] = new byte[ chunk.limit() - SymmetricHeaders];
-				chunk.get(dataToDecrypt, 0, dataToDecrypt.length);
-				
-				// Run decrypt algorithm
-				decryptedBytes = decrypt( token, dataToDecrypt, 0, dataToDecrypt.length, chunk.array(), SymmetricHeaders + chunk.arrayOffset() );
-
-				// Option B: Decrypt in same memory block
-				// int decryptedBytes = decrypt(token, chunk.array(),
-				// SymmetricHeaders + chunk.arrayOffset(),
-				// chunk.limit() - SymmetricHeaders, chunk.array(),
-				// SymmetricHeaders + chunk.arrayOffset());
+				// Decrypt in the same memory block
+				decryptedBytes = decrypt( token, chunk, SymmetricHeaders, chunkSize - SymmetricHeaders );
 			} else {			
 				decryptedBytes = chunk.limit() - SymmetricHeaders;
 			}
@@ -102,22 +87,12 @@ public class ChunkSymmDecryptVerifier implements Runnable {
 			
 			// Verify Signature
 			if ( msm == MessageSecurityMode.Sign || msm == MessageSecurityMode.SignAndEncrypt) {
-				// Verify signature
-				byte[] signature = new byte[signatureSize];
-				// Extract signature from decrypted message
-				// move buffer to the beginning of the signature
-				//chunk.position(16 + decryptedBytes - signatureSize);
-				chunk.position(chunkSize - signatureSize);
-				// Read signature from buffer
-				chunk.get(signature);
-
-				// Get the data to verify
-				chunk.position(0);
-				byte[] dataToVerify = new byte[16 + decryptedBytes - signatureSize];
-				chunk.get(dataToVerify, 0, dataToVerify.length);
+				// The signature is at the end of the decrypted message and
+				// signs everything before it
+				int verifyLen = SymmetricHeaders + decryptedBytes - signatureSize;
 
 				// Verify signature, throws ServiceResultException if fails
-				verify(token, dataToVerify, signature);
+				verify(token, chunk, verifyLen, chunkSize - signatureSize);
 			}
 			
 			// Assert padding is ok
@@ -153,13 +128,13 @@ public class ChunkSymmDecryptVerifier implements Runnable {
 		}
 	}
 	
-	private int decrypt(SecurityToken token, byte[] dataToDecrypt, int inputOffset, int inputLength, byte[] output, int outputOffset) throws ServiceResultException{
-		logger.debug("decrypt: dataToDecrypt.length={} inputOffset={} inputLength={} output.length={} outputOffset={}", dataToDecrypt.length, inputOffset, inputLength, output.length, outputOffset);
-		return CryptoUtil.getCryptoProvider().decryptSymm(token.getSecurityPolicy(), token.getRemoteEncryptingKey(), token.getRemoteInitializationVector(), dataToDecrypt, inputOffset, inputLength, output, outputOffset);
+	private int decrypt(SecurityToken token, ByteBuffer chunk, int offset, int length) throws ServiceResultException{
+		logger.debug("decrypt: offset={} length={}", offset, length);
+		return CryptoUtil.getCryptoProvider().decryptSymm(token.getSecurityPolicy(), token.getRemoteEncryptingKey(), token.getRemoteInitializationVector(), chunk, offset, length, token.getCryptoContexts());
 	}
 
-	private void verify(SecurityToken token, byte[] dataToVerify, byte[] signature) throws ServiceResultException {
-		CryptoUtil.getCryptoProvider().verifySymm(token.getSecurityPolicy(), token.getRemoteSigningKey(), dataToVerify, 0, dataToVerify.length, signature);
+	private void verify(SecurityToken token, ByteBuffer chunk, int verifyLen, int signatureOffset) throws ServiceResultException {
+		CryptoUtil.getCryptoProvider().verifySymm(token.getSecurityPolicy(), token.getRemoteSigningKey(), chunk, 0, verifyLen, signatureOffset, token.getCryptoContexts());
 	}
 	
 }
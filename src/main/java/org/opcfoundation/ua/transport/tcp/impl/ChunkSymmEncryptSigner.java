@@ -76,17 +76,16 @@ public class ChunkSymmEncryptSigner implements Runnable {
 			int signatureSize = policy.getSymmetricSignatureSize();
 			if ( msm == MessageSecurityMode.Sign || msm == MessageSecurityMode.SignAndEncrypt ) {
 					
-				// Message written so far will be signed
+				// Message written so far will be signed, the signature is
+				// written after it
 				int verifyLen = chunkSize - signatureSize;
-				byte[] signature = new byte[ signatureSize ];
-				
-				sign(token, chunk.array(), verifyLen, signature);
-				
-				chunk.position(chunkSize - signatureSize);
-				chunk.put(signature, 0, signatureSize);
+				sign(token, chunk, verifyLen);
 				
 				//isTraceEnabled checked because potentially time consuming CryptoUtil method gets evaluated otherwise every time.
 				if (logger.isTraceEnabled()) {
+					byte[] signature = new byte[ signatureSize ];
+					chunk.position(verifyLen);
+					chunk.get(signature);
 					logger.trace("signature={}", CryptoUtil.toHex(signature));
 				}
 				
@@ -95,8 +94,7 @@ public class ChunkSymmEncryptSigner implements Runnable {
 			// Padding
 			int padding = 0;
 			if ( msm == MessageSecurityMode.SignAndEncrypt ) {
-				chunk.position( chunkSize - signatureSize - 1 );
-				padding = chunk.get() + 1;
+				padding = chunk.get( chunkSize - signatureSize - 1 ) + 1;
 			}
 
 //			count += messageHeaderSize + securityHeader;
@@ -105,15 +103,13 @@ public class ChunkSymmEncryptSigner implements Runnable {
 			chunk.position(4);
 			chunk.putInt(chunkSize);
 
-			// Encrypt
+			// Encrypt in place
 			if ( msm == MessageSecurityMode.SignAndEncrypt ) {
 				
-				byte[] plaintext = new byte[ sequenceHeader + bodySize + padding + signatureSize ];
-				chunk.position( messageHeaderSize + securityHeader );
-				chunk.get(plaintext);
+				int plaintextSize = sequenceHeader + bodySize + padding + signatureSize;
 				
 				// Run encrypt algorithm	
-				encrypt(token, plaintext, 0, plaintext.length, chunk.array(), messageHeaderSize + securityHeader);
+				encrypt(token, chunk, messageHeaderSize + securityHeader, plaintextSize);
 			}
 			
 		} catch (ServiceResultException e) {
@@ -121,14 +117,14 @@ public class ChunkSymmEncryptSigner implements Runnable {
 		}
 	}
 	
-	private int encrypt(SecurityToken token, byte[] dataToEncrypt, int inputOffset, int inputLength, byte[] output, int outputOffset) 
+	private int encrypt(SecurityToken token, ByteBuffer chunk, int offset, int length) 
 			throws ServiceResultException {
-		return CryptoUtil.getCryptoProvider().encryptSymm(token.getSecurityPolicy(),token.getLocalEncryptingKey(), token.getLocalInitializationVector(), dataToEncrypt, inputOffset, inputLength, output, outputOffset);
+		return CryptoUtil.getCryptoProvider().encryptSymm(token.getSecurityPolicy(),token.getLocalEncryptingKey(), token.getLocalInitializationVector(), chunk, offset, length, token.getCryptoContexts());
 	}
 	
-	private void sign(SecurityToken token, byte[] input, int verifyLen, byte[] output)
+	private void sign(SecurityToken token, ByteBuffer chunk, int verifyLen)
 			throws ServiceResultException {
-		CryptoUtil.getCryptoProvider().signSymm(token.getSecurityPolicy(), token.getLocalSigningKey(), input, 0, verifyLen, output, 0);
+		CryptoUtil.getCryptoProvider().signSymm(token.getSecurityPolicy(), token.getLocalSigningKey(), chunk, 0, verifyLen, verifyLen, token.getCryptoContexts());
 	}
 
 }
@@ -13,8 +13,10 @@
 package org.opcfoundation.ua.transport.tcp.impl;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 
 import javax.crypto.Mac;
@@ -23,6 +25,9 @@ import org.opcfoundation.ua.builtintypes.ByteString;
 import org.opcfoundation.ua.common.ServiceResultException;
 import org.opcfoundation.ua.core.MessageSecurityMode;
 import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.security.CryptoContexts;
+import org.opcfoundation.ua.transport.security.EphemeralKey;
+import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
 import org.opcfoundation.ua.transport.security.SecurityConfiguration;
 import org.opcfoundation.ua.transport.security.SecurityPolicy;
 import org.opcfoundation.ua.utils.CryptoUtil;
@@ -48,6 +53,8 @@ public class SecurityToken {
     private byte[] remoteSigningKey;
     private byte[] remoteEncryptingKey;
     private byte[] remoteInitializationVector;
+    /** Macs and ciphers of the keys, released with the token */
+    private final CryptoContexts cryptoContexts = new CryptoContexts();
     
 	/**
 	 * Create new security token.
@@ -91,6 +98,95 @@ public class SecurityToken {
 		remoteInitializationVector = isNone? null : PSHA(getLocalNonce(), null, getRemoteNonce(), sks + eks, ebs);
 	}	
 	
+	/**
+	 * Create new security token for a policy that uses key agreement. The
+	 * keys are derived with HKDF from the ECDH shared secret.
+	 *
+	 * @param securityProfile a {@link org.opcfoundation.ua.transport.security.SecurityConfiguration} object.
+	 * @param secureChannelId a int.
+	 * @param tokenId a int.
+	 * @param creationTime a long.
+	 * @param lifetime a long.
+	 * @param localKey the ephemeral key sent in the local nonce
+	 * @param remoteNonce the ephemeral public key of the peer
+	 * @param client true if this is the client side of the channel
+	 * @throws org.opcfoundation.ua.common.ServiceResultException Bad_NonceInvalid if remoteNonce is not a valid key
+	 */
+	public SecurityToken(SecurityConfiguration securityProfile, 
+			int secureChannelId, int tokenId, 
+			long creationTime, long lifetime,
+			EphemeralKey localKey, ByteString remoteNonce, boolean client) 
+	throws ServiceResultException
+	{
+		if (securityProfile==null || localKey==null)
+			throw new IllegalArgumentException("null arg");
+		this.secureChannelId = secureChannelId;
+		this.securityConfiguration = securityProfile;
+		this.tokenId = tokenId;
+		this.lifetime = lifetime;
+		this.creationTime = creationTime;
+		
+		this.localNonce = localKey.getNonce();
+		this.remoteNonce = remoteNonce;
+		
+		byte[] secret = localKey.agree(remoteNonce);
+		int sks = getSecurityPolicy().getSignatureKeySize();
+		int eks = getSecurityPolicy().getEncryptionKeySize();
+		int ebs = getSecurityPolicy().getEncryptionBlockSize();
+		// Part 6, 6.8.1: keys of each side are derived with the salt
+		// L | label of the side | own nonce | nonce of the other side
+		SecurityAlgorithm kdf = getSecurityPolicy().getKeyDerivationAlgorithm();
+		byte[] salt = salt(client ? "opcua-client" : "opcua-server", localNonce, remoteNonce, sks + eks + ebs);
+		byte[] localKeys = HKDF(kdf, secret, salt, salt, sks + eks + ebs);
+		salt = salt(client ? "opcua-server" : "opcua-client", remoteNonce, localNonce, sks + eks + ebs);
+		byte[] remoteKeys = HKDF(kdf, secret, salt, salt, sks + eks + ebs);
+		localSigningKey = Arrays.copyOfRange(localKeys, 0, sks);
+		localEncryptingKey = Arrays.copyOfRange(localKeys, sks, sks + eks);
+		localInitializationVector = Arrays.copyOfRange(localKeys, sks + eks, sks + eks + ebs);
+		remoteSigningKey = Arrays.copyOfRange(remoteKeys, 0, sks);
+		remoteEncryptingKey = Arrays.copyOfRange(remoteKeys, sks, sks + eks);
+		remoteInitializationVector = Arrays.copyOfRange(remoteKeys, sks + eks, sks + eks + ebs);
+	}
+
+	/**
+	 * Salt of the key derivation: L | label | firstNonce | secondNonce,
+	 * where L is the length of the derived keys as a UInt16.
+	 */
+	static byte[] salt(String label, ByteString firstNonce, ByteString secondNonce, int length) {
+		byte[] labelBytes = label.getBytes(UTF8);
+		ByteBuffer buf = ByteBuffer.allocate(2 + labelBytes.length + firstNonce.getLength() + secondNonce.getLength());
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putShort((short) length);
+		buf.put(labelBytes);
+		buf.put(firstNonce.getValue());
+		buf.put(secondNonce.getValue());
+		return buf.array();
+	}
+
+	/**
+	 * HKDF (RFC 5869). The channel keys use the salt as the info as well.
+	 */
+	static byte[] HKDF(SecurityAlgorithm algorithm, byte[] secret, byte[] salt, byte[] info, int length) throws ServiceResultException {
+		// Extract
+		Mac hmac = CryptoUtil.createMac(algorithm, salt);
+		byte[] prk = hmac.doFinal(secret);
+		// Expand
+		hmac = CryptoUtil.createMac(algorithm, prk);
+		byte[] output = new byte[length];
+		byte[] t = new byte[0];
+		int position = 0;
+		for (int i = 1; position < length; i++) {
+			hmac.update(t);
+			hmac.update(info);
+			hmac.update((byte) i);
+			t = hmac.doFinal();
+			int n = Math.min(t.length, length - position);
+			System.arraycopy(t, 0, output, position, n);
+			position += n;
+		}
+		return output;
+	}
+
 	/**
      * Generates a Pseudo random sequence of bits using the P_SHA1 or P_SHA256 alhorithm.
      * 
@@ -252,6 +348,15 @@ public class SecurityToken {
 		return securityConfiguration.getMessageSecurityMode();
 	}
 	
+	/**
+	 * Get the crypto contexts of the symmetric keys of the token.
+	 *
+	 * @return the crypto contexts of the token
+	 */
+	public CryptoContexts getCryptoContexts() {
+		return cryptoContexts;
+	}
+
 	/**
 	 * <p>Getter for the field <code>localSigningKey</code>.</p>
 	 *
@@ -0,0 +1,179 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.tcp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.util.TimerTask;
+
+import org.opcfoundation.ua.utils.TimerUtil;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
+
+/**
+ * Socket view of a connected blocking {@link SocketChannel} that has no socket
+ * adaptor of its own, such as a unix domain socket channel. Reads and writes
+ * go straight to the channel, so a thread may read while another writes.
+ * <p>
+ * TCP options are ignored. A read that exceeds the timeout of
+ * {@link #setSoTimeout(int)} closes the socket and throws
+ * {@link SocketTimeoutException}, which is enough for the handshake timeout
+ * of {@link TcpConnection}.
+ */
+class ChannelSocket extends Socket {
+
+	final SocketChannel channel;
+	volatile int soTimeout;
+	volatile boolean timedOut;
+	final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n;
+			while ((n = read(b, 0, 1)) == 0);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+			int timeout = soTimeout;
+			if (timeout <= 0)
+				return channel.read(buf);
+			TimerTask task = new TimerTask() {
+				@Override
+				public void run() {
+					timedOut = true;
+					try {
+						channel.close();
+					} catch (IOException e) {
+					}
+				}
+			};
+			TimerUtil.getTimer().schedule(task, timeout);
+			try {
+				return channel.read(buf);
+			} catch (AsynchronousCloseException e) {
+				if (timedOut)
+					throw new SocketTimeoutException("Read timed out");
+				throw e;
+			} finally {
+				task.cancel();
+			}
+		}
+	};
+	final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+			while (buf.hasRemaining())
+				channel.write(buf);
+		}
+	};
+
+	ChannelSocket(SocketChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint) throws IOException {
+		channel.connect(endpoint);
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint, int timeout) throws IOException {
+		channel.connect(endpoint);
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) {
+		soTimeout = timeout;
+	}
+
+	@Override
+	public int getSoTimeout() {
+		return soTimeout;
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) {
+	}
+
+	@Override
+	public void setKeepAlive(boolean on) {
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) {
+	}
+
+	@Override
+	public void setSendBufferSize(int size) {
+	}
+
+	@Override
+	public boolean isConnected() {
+		return channel.isConnected();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return !channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return UnixDomainSocketUtil.getLocalAddress(channel);
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return UnixDomainSocketUtil.getRemoteAddress(channel);
+	}
+
+	@Override
+	public String toString() {
+		return "ChannelSocket[" + getRemoteSocketAddress() + "]";
+	}
+
+}
@@ -0,0 +1,258 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.tcp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opcfoundation.ua.utils.bytebuffer.OutputStreamWriteable;
+
+/**
+ * Coalescing writer of finished chunks.
+ * <p>
+ * Chunks of several messages are queued with {@link #enqueue(ByteBuffer)} in the
+ * order they must appear on the wire. The first thread that calls
+ * {@link #flush(long)} becomes the writer and writes everything queued so far
+ * with one gathering write per cycle. Threads that call flush while a write is in
+ * progress wait until their chunks have been written by the current writer, or
+ * become the next writer themselves.
+ * <p>
+ * The size of one write cycle is capped by <code>maxBatchBytes</code> and
+ * {@link #MAX_BATCH_BUFFERS}, which bounds the time a chunk may wait behind
+ * chunks queued before it. No artificial delay is added to collect chunks.
+ * <p>
+ * A chunk whose position on the wire is known before its content is final (e.g.
+ * it is encrypted in parallel with other chunks) is queued with
+ * {@link #reserve(ByteBuffer)} and released with {@link #hatch(ByteBuffer)}.
+ * Chunks are written only up to the first chunk that has not hatched.
+ * <p>
+ * If the transport has no {@link GatheringByteChannel} (e.g. a socket accepted
+ * for ReverseHello), the batch is written to the output stream and flushed once.
+ */
+class ChunkWriter {
+
+	/** Max number of buffers in one gathering write (well below common IOV_MAX) */
+	static final int MAX_BATCH_BUFFERS = 64;
+
+	private final GatheringByteChannel channel;
+	private final OutputStreamWriteable out;
+	private final int maxBatchBytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition written = lock.newCondition();
+	private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+	/** Reserved chunks that have not hatched */
+	private final Map<ByteBuffer, ByteBuffer> incubating = new IdentityHashMap<ByteBuffer, ByteBuffer>();
+
+	/** Number of chunks enqueued */
+	private long enqueuedCount;
+	/** Number of chunks written */
+	private long writtenCount;
+	/** True while a thread is writing */
+	private boolean writing;
+	/** Write error, after which the writer is unusable */
+	private IOException error;
+
+	/**
+	 * @param channel gathering channel to write to, or null to use out
+	 * @param out output stream used if channel is null
+	 * @param maxBatchBytes max number of bytes written in one cycle
+	 */
+	ChunkWriter(GatheringByteChannel channel, OutputStreamWriteable out, int maxBatchBytes) {
+		this.channel = channel;
+		this.out = out;
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	/**
+	 * Queue a finished chunk for writing. Chunks are written in the order they
+	 * are enqueued.
+	 *
+	 * @param chunk chunk, position is rewound to 0
+	 * @return ticket of the chunk, to be passed to {@link #flush(long)}
+	 */
+	long enqueue(ByteBuffer chunk) {
+		chunk.rewind();
+		lock.lock();
+		try {
+			queue.add(chunk);
+			return ++enqueuedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reserve the next position on the wire for a chunk that is not yet
+	 * complete. The chunk, and the chunks queued after it, are not written
+	 * until {@link #hatch(ByteBuffer)} is called for it.
+	 *
+	 * @param chunk chunk
+	 * @return ticket of the chunk, to be passed to {@link #flush(long)}
+	 */
+	long reserve(ByteBuffer chunk) {
+		lock.lock();
+		try {
+			queue.add(chunk);
+			incubating.put(chunk, chunk);
+			return ++enqueuedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Mark a reserved chunk complete.
+	 *
+	 * @param chunk chunk given to {@link #reserve(ByteBuffer)}, position is rewound to 0
+	 */
+	void hatch(ByteBuffer chunk) {
+		chunk.rewind();
+		lock.lock();
+		try {
+			incubating.remove(chunk);
+			written.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Fail the writer, e.g. if a reserved chunk cannot be completed. Queued
+	 * chunks are discarded and flush throws the error.
+	 *
+	 * @param e error
+	 */
+	void abort(IOException e) {
+		lock.lock();
+		try {
+			if (error == null)
+				error = e;
+			queue.clear();
+			incubating.clear();
+			written.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns when the chunk of the given ticket, and thus all chunks enqueued
+	 * before it, have been written to the transport.
+	 *
+	 * @param ticket ticket returned by {@link #enqueue(ByteBuffer)}
+	 * @throws IOException if write failed
+	 */
+	void flush(long ticket) throws IOException {
+		lock.lock();
+		try {
+			while (true) {
+				if (error != null)
+					throw error;
+				if (writtenCount >= ticket)
+					return;
+				if (!writing)
+					break;
+				written.awaitUninterruptibly();
+			}
+			writing = true;
+		} finally {
+			lock.unlock();
+		}
+
+		ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_BUFFERS];
+		try {
+			boolean done = false;
+			while (!done) {
+				int count = 0;
+				long bytes = 0;
+				lock.lock();
+				try {
+					while (true) {
+						if (error != null)
+							throw error;
+						while (count < MAX_BATCH_BUFFERS && !queue.isEmpty()) {
+							ByteBuffer next = queue.peek();
+							if (incubating.containsKey(next))
+								break;
+							if (count > 0 && bytes + next.remaining() > maxBatchBytes)
+								break;
+							batch[count++] = queue.poll();
+							bytes += next.remaining();
+						}
+						// Wait for a reserved chunk only if it is needed for the ticket
+						if (count > 0 || queue.isEmpty() || writtenCount >= ticket)
+							break;
+						written.awaitUninterruptibly();
+					}
+				} finally {
+					lock.unlock();
+				}
+				if (count == 0)
+					break;
+
+				write(batch, count, bytes);
+
+				lock.lock();
+				try {
+					writtenCount += count;
+					done = writtenCount >= ticket;
+					written.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				for (int i = 0; i < count; i++)
+					batch[i] = null;
+			}
+		} catch (IOException e) {
+			lock.lock();
+			try {
+				if (error == null)
+					error = e;
+				queue.clear();
+				incubating.clear();
+			} finally {
+				lock.unlock();
+			}
+			throw e;
+		} finally {
+			lock.lock();
+			try {
+				writing = false;
+				written.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void write(ByteBuffer[] batch, int count, long bytes) throws IOException {
+		if (channel != null) {
+			while (bytes > 0) {
+				long n = channel.write(batch, 0, count);
+				bytes -= n;
+			}
+		} else {
+			for (int i = 0; i < count; i++)
+				out.put(batch[i]);
+			out.flush();
+		}
+	}
+
+}
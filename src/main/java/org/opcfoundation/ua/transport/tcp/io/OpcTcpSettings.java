@@ -33,6 +33,7 @@ public class OpcTcpSettings implements Cloneable{
 	int handshakeTimeout = -1;
 	int connectTimeout = -1;
 	int reverseHelloAcceptTimeout = -1;
+	String unixSocketPath;
 	public enum Flag {
 		/**
 		 * In multithread mode, depending on implementation, channels 
@@ -171,6 +172,22 @@ public class OpcTcpSettings implements Cloneable{
 	public void setConnectTimeout(int connectTimeout) {
 		this.connectTimeout = connectTimeout;
 	}
+
+	/**
+	 * Path of a unix domain socket to connect to, instead of the host and port of the endpoint url.
+	 * The endpoint url is still sent to the server in the Hello message. Requires Java 16 or later. 
+	 * null (the default) connects with TCP/IP. Not used for reverse connections.
+	 */
+	public String getUnixSocketPath() {
+		return unixSocketPath;
+	}
+
+	/**
+	 * See {@link #getUnixSocketPath()}.
+	 */
+	public void setUnixSocketPath(String unixSocketPath) {
+		this.unixSocketPath = unixSocketPath;
+	}
 	/**
 	 * <p>readFrom.</p>
 	 *
@@ -184,6 +201,7 @@ public class OpcTcpSettings implements Cloneable{
 		this.reverseHelloAcceptTimeout = tcs.reverseHelloAcceptTimeout;
 		this.handshakeTimeout = tcs.handshakeTimeout;
 		this.connectTimeout = tcs.connectTimeout;
+		if (tcs.unixSocketPath!=null) unixSocketPath = tcs.unixSocketPath;
 	}
 	
 	/** {@inheritDoc} */
@@ -200,6 +218,7 @@ public class OpcTcpSettings implements Cloneable{
 		result.setConnectTimeout(connectTimeout);
 		result.setHandshakeTimeout(handshakeTimeout);
 		result.setReverseHelloAcceptTimeout(reverseHelloAcceptTimeout);
+		result.setUnixSocketPath(unixSocketPath);
 		return result;
 	}	
 
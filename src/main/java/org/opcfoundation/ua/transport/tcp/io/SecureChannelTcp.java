@@ -88,7 +88,10 @@ import org.opcfoundation.ua.utils.TimerUtil;
  * of the following wait periods { 0, 1, 2, 4, 8, 16, 32, 64, 120, 120, ... }.<p>
  *
  * If error recovery state fails to re-establish new security token before the old
- * expires, the secure channel will be closed.
+ * expires, the secure channel will be closed.<p>
+ *
+ * The security token is renewed in the background after 75% of its lifetime.
+ * Requests are sent with the current token while the renewal is in progress.
  *
  * Despite the name SecureChannelTcp, the class is 99% implemented as transport
  * channel agnostic. The plan is to upgrade the class to support SOAP transport
@@ -109,18 +112,18 @@ public class SecureChannelTcp implements IMessageListener, IConnectionListener,
 	/**
 	 * Secure channel id. If this value is -1 the secure channel is closed.
 	 */
-	int secureChannelId = -1;
+	volatile int secureChannelId = -1;
 	
 	/**
 	 * The time when token was issued in time system of {@link System#currentTimeMillis()}.
 	 */
-	long tokenIssueTime;
+	volatile long tokenIssueTime;
 	
 	/**
 	 * Value in milliseconds that indicates the token life time.
 	 * The secure channel expires after 125% of the token life time has elapsed.
 	 */
-	long tokenLifetime;
+	volatile long tokenLifetime;
 	
     IEncodeableSerializer serializer = EncodeableSerializer.getInstance();
 	TransportChannelSettings settings;
@@ -628,7 +631,8 @@ public class SecureChannelTcp implements IMessageListener, IConnectionListener,
 		OpenSecureChannelRequest req = new OpenSecureChannelRequest();								
 		
 		SecurityPolicy policy = SecurityPolicy.getSecurityPolicy( settings.getDescription().getSecurityPolicyUri() );
-		ByteString nonce = CryptoUtil.createNonce(policy.getSecureChannelNonceLength());
+		// With key agreement the connection sends an ephemeral key as the nonce
+		ByteString nonce = policy.usesKeyAgreement() ? null : CryptoUtil.createNonce(policy.getSecureChannelNonceLength());
 		
 		Integer tokenLifetime = settings.getConfiguration().getSecurityTokenLifetime();
 		if (tokenLifetime==null) tokenLifetime = 3600000;
@@ -709,7 +713,12 @@ public class SecureChannelTcp implements IMessageListener, IConnectionListener,
 			// Successful Open secure channel
 			OpenSecureChannelResponse opn = (OpenSecureChannelResponse) res;
 			final ChannelSecurityToken token = opn.getSecurityToken();
-			this.secureChannelId = token.getChannelId().intValue();
+			
+			// HAX! In Reconnect to secure channel -situation, the C# Server implementation sends
+			// two conflicting secure channel id's. 
+			// The old channel (correct) in message header and a new channel id in the message body. 
+			// The id is not changed on renewal, so that concurrent requests keep using it.
+			if (!renew) this.secureChannelId = token.getChannelId().intValue();
 			
 			if (renew) {
 				logger.debug("{} Secure channel renewed, SecureChannelId={}, TokenId={}", this.secureChannelId, this.secureChannelId, token.getTokenId().longValue());
@@ -717,12 +726,6 @@ public class SecureChannelTcp implements IMessageListener, IConnectionListener,
 				logger.debug("{} Secure channel opened, SecureChannelId={}, TokenId={}", this.secureChannelId, this.secureChannelId, token.getTokenId().longValue());
 			}
 			
-			// HAX! In Reconnect to secure channel -situation, the C# Server implementation sends
-			// two conflicting secure channel id's. 
-			// The old channel (correct) in message header and a new channel id in the message body. 
-			// 
-			if (renew) this.secureChannelId = chanId;
-			
 			long currentTime = System.currentTimeMillis();
 			this.tokenIssueTime = startTime/2 + currentTime/2;
 			this.tokenLifetime = token.getRevisedLifetime().longValue();
@@ -1077,6 +1080,30 @@ public class SecureChannelTcp implements IMessageListener, IConnectionListener,
 		return expireTime > currentTime; 
 	}
 
+	/**
+	 * Return true if the lifetime of the security token has passed, i.e. the
+	 * token has not been renewed in time. The channel may still be open for
+	 * the rest of the 25% grace period.
+	 *
+	 * @return true if the token is past its lifetime or the channel is closed
+	 */
+	public boolean isTokenExpired() {
+		if (secureChannelId==-1) return true;
+		return tokenIssueTime + tokenLifetime <= System.currentTimeMillis();
+	}
+
+	/**
+	 * Return true if the transport connection has failed and the channel is
+	 * trying to reconnect it.
+	 *
+	 * @return true if in error recovery state
+	 */
+	public boolean isInErrorRecovery() {
+		synchronized(errorRecoveryLock) {
+			return errorRecoveryState;
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 *
@@ -14,6 +14,7 @@ package org.opcfoundation.ua.transport.tcp.io;
 
 import static org.opcfoundation.ua.core.StatusCodes.Bad_CertificateInvalid;
 import static org.opcfoundation.ua.core.StatusCodes.Bad_CommunicationError;
+import static org.opcfoundation.ua.core.StatusCodes.Bad_ConfigurationError;
 import static org.opcfoundation.ua.core.StatusCodes.Bad_ConnectionClosed;
 import static org.opcfoundation.ua.core.StatusCodes.Bad_ConnectionRejected;
 import static org.opcfoundation.ua.core.StatusCodes.Bad_ProtocolVersionUnsupported;
@@ -36,8 +37,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
 import java.security.cert.CertificateException;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
@@ -45,6 +48,7 @@ import java.util.Map;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
@@ -82,6 +86,7 @@ import org.opcfoundation.ua.transport.security.CertificateValidator;
 import org.opcfoundation.ua.transport.security.KeyPair;
 import org.opcfoundation.ua.transport.security.PrivKey;
 import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
+import org.opcfoundation.ua.transport.security.EphemeralKey;
 import org.opcfoundation.ua.transport.security.SecurityConfiguration;
 import org.opcfoundation.ua.transport.security.SecurityMode;
 import org.opcfoundation.ua.transport.security.SecurityPolicy;
@@ -102,7 +107,8 @@ import org.opcfoundation.ua.utils.CryptoUtil;
 import org.opcfoundation.ua.utils.SizeCalculationOutputStream;
 import org.opcfoundation.ua.utils.StackUtils;
 import org.opcfoundation.ua.utils.TimerUtil;
-import org.opcfoundation.ua.utils.bytebuffer.ByteBufferArrayReadable;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
+import org.opcfoundation.ua.utils.bytebuffer.BlockingByteBufferArrayReadable;
 import org.opcfoundation.ua.utils.bytebuffer.ByteBufferArrayWriteable2;
 import org.opcfoundation.ua.utils.bytebuffer.IBinaryReadable;
 import org.opcfoundation.ua.utils.bytebuffer.InputStreamReadable;
@@ -143,7 +149,9 @@ import org.opcfoundation.ua.utils.bytebuffer.OutputStreamWriteable;
  * connection.
  *
  * TcpConnection captures security tokens from OpenSecureChannel conversation
- * and uses them for symmetric messaging. The oldest non-expired token is used.
+ * and uses them for symmetric messaging. The newest token is used from the
+ * moment its OpenSecureChannelResponse is received. Sending is not held during
+ * the renewal, and the previous token is accepted until it expires.
  * 
  */
 public class TcpConnection implements IConnection {
@@ -193,6 +201,8 @@ public class TcpConnection implements IConnection {
 	EnumSet<OpcTcpSettings.Flag> flags = EnumSet.noneOf(OpcTcpSettings.Flag.class);
 	int connectTimeout = defaultHandshakeTimeout;
 	int handshakeTimeout = defaultHandshakeTimeout;
+	/** Unix domain socket to connect to instead of addr, see {@link OpcTcpSettings#getUnixSocketPath()} */
+	String unixSocketPath;
 	SecurityConfiguration securityConfiguration;
 
 	/**
@@ -200,12 +210,25 @@ public class TcpConnection implements IConnection {
 	 */
 	final List<SecurityToken> tokens = new CopyOnWriteArrayList<SecurityToken>();
 
+	/**
+	 * The tokens of {@link #tokens} by secure channel id and token id, see
+	 * {@link #tokenKey(int, int)}.
+	 */
+	final Map<Long, SecurityToken> tokenIndex = new ConcurrentHashMap<Long, SecurityToken>();
+
 	/**
 	 * This map captures that last used TokenId of the input channel for a
 	 * secure channel Map<SecureChannelId, TokenId>
 	 */
 	final Map<Integer, SecurityToken> activeTokenIdMap = new ConcurrentHashMap<Integer, SecurityToken>();
 
+	/**
+	 * The token that requests are sent with, by secure channel id. A renewed
+	 * token replaces the previous one atomically when its
+	 * OpenSecureChannelResponse is received, see {@link #setSendToken(SecurityToken)}.
+	 */
+	final ConcurrentHashMap<Integer, SecurityToken> sendTokens = new ConcurrentHashMap<Integer, SecurityToken>();
+
 	/**
 	 * Map<RequestId, ClientNonce> Capture of client nonces. Nonce is captured
 	 * in sendRequest( OpenSecureMessageRequest ) and released in Readthread
@@ -214,6 +237,13 @@ public class TcpConnection implements IConnection {
 	 */
 	final Map<Integer, ByteString> clientNonces = new ConcurrentHashMap<Integer, ByteString>();
 
+	/**
+	 * Map<RequestId, EphemeralKey> Ephemeral keys of OpenSecureChannelRequests
+	 * with key agreement policies, captured and released together with
+	 * {@link #clientNonces}.
+	 */
+	final Map<Integer, EphemeralKey> ephemeralKeys = new ConcurrentHashMap<Integer, EphemeralKey>();
+
 	/**
 	 * Map<SecureChannelId, SequenceNumber> Sequence numbering of secure
 	 * channels.
@@ -259,6 +289,13 @@ public class TcpConnection implements IConnection {
 	 */
 	ReentrantLock lock = new ReentrantLock();
 
+	/**
+	 * Writer of encrypted chunks. Chunks are enqueued under {@link #lock} in
+	 * sequence number order and written outside the lock with gathering writes,
+	 * so that chunks of concurrent requests are coalesced.
+	 */
+	ChunkWriter writer;
+
 	/**
 	 * Read thread is instantiated and active while socket connection is
 	 * established. The read thread shuts down itself automatically when there
@@ -365,6 +402,60 @@ public class TcpConnection implements IConnection {
 
 	private static int sendBufferSize = 0;
 
+	private static int writeBatchSize = 64 * 1024;
+
+	/**
+	 * <p>Getter for the field <code>writeBatchSize</code>.</p>
+	 *
+	 * @return the max number of bytes written to the socket in one write.
+	 */
+	public static int getWriteBatchSize() {
+		return writeBatchSize;
+	}
+
+	/**
+	 * Define the max number of bytes that are coalesced into one socket write.
+	 * Chunks of concurrent requests are queued and written together with a
+	 * gathering write. The value caps the latency a chunk may get from chunks
+	 * queued before it. A single chunk is always written, even if it is larger.
+	 * <p>
+	 * Default value: 65536
+	 *
+	 * @param writeBatchSize
+	 *            the new size in bytes
+	 */
+	public static void setWriteBatchSize(int writeBatchSize) {
+		TcpConnection.writeBatchSize = writeBatchSize;
+	}
+
+	private static boolean parallelChunkEncryption = true;
+
+	/**
+	 * <p>Getter for the field <code>parallelChunkEncryption</code>.</p>
+	 *
+	 * @return true if the chunks of a message are signed and encrypted in parallel.
+	 */
+	public static boolean isParallelChunkEncryption() {
+		return parallelChunkEncryption;
+	}
+
+	/**
+	 * Define whether the chunks of a multi-chunk message are signed and
+	 * encrypted in parallel on the non-blocking executor of {@link StackUtils}.
+	 * The calling thread takes part in the work. The chunks are written to the
+	 * socket in order as soon as the preceding chunks are complete. Messages of
+	 * a single chunk and messages of security mode None are always processed on
+	 * the calling thread.
+	 * <p>
+	 * Default value: true
+	 *
+	 * @param parallelChunkEncryption
+	 *            true to sign and encrypt chunks in parallel
+	 */
+	public static void setParallelChunkEncryption(boolean parallelChunkEncryption) {
+		TcpConnection.parallelChunkEncryption = parallelChunkEncryption;
+	}
+
 	/**
 	 * <p>Getter for the field <code>sendBufferSize</code>.</p>
 	 *
@@ -432,6 +523,7 @@ public class TcpConnection implements IConnection {
 			}
 			
 			this.addr = addr;
+			this.unixSocketPath = settings.getOpctcpSettings().getUnixSocketPath();
 			if(settings instanceof ReverseTransportChannelSettings) {
 				this.reverseHelloServerUri = ((ReverseTransportChannelSettings) settings).getReverseHelloServerUri();
 			}else {
@@ -482,12 +574,34 @@ public class TcpConnection implements IConnection {
 
 			boolean isReverse = reverseHelloServerUri != null;
 			
+			if(!isReverse && unixSocketPath != null) {
+				// Connect to a unix domain socket, the handshake is the same
+				try {
+					logger.info("{} Connecting to unix domain socket {}", addr, unixSocketPath);
+					SocketAddress unixAddr = UnixDomainSocketUtil.toAddress(unixSocketPath);
+					s = new ChannelSocket(UnixDomainSocketUtil.openSocketChannel());
+					setSocket(s);
+					if(handshakeTimeout > 0) {
+						s.setSoTimeout(handshakeTimeout);
+					}
+					s.connect(unixAddr);
+				} catch (UnsupportedOperationException e) {
+					throw new ServiceResultException(Bad_ConfigurationError, e);
+				} catch (IOException e) {
+					logger.info(unixSocketPath + " Connect failed", e);
+					throw new ServiceResultException(Bad_ConnectionRejected, e);
+				} catch (IllegalArgumentException e) {
+					throw new ServiceResultException(Bad_ServerUriInvalid, e);
+				}
+				logger.debug("{} Socket connected", unixSocketPath);
+			} else
 			if(!isReverse) {
 				// Connect
 				try {
 					logger.info("{} Connecting", addr);
 					
-					s = new Socket();
+					// Use a channel socket to enable gathering writes
+					s = SocketChannel.open().socket();
 					// Disable Nagle's algorithm
 					s.setTcpNoDelay(true);
 					if (receiveBufferSize > 0)
@@ -720,6 +834,7 @@ public class TcpConnection implements IConnection {
 				thread.start();
 				this.ctx = enc.getEncoderContext();
 				this.out = out;
+				this.writer = new ChunkWriter(s.getChannel(), out, writeBatchSize);
 			} catch (IOException e) {
 				try {
 					s.close();
@@ -818,6 +933,7 @@ public class TcpConnection implements IConnection {
 			setSocket(null);
 			// out = null;
 			clientNonces.clear();
+			ephemeralKeys.clear();
 //			activeTokenIdMap.clear();
 //			tokens.clear();			
 			logger.info(addr + " Closed");
@@ -860,17 +976,93 @@ public class TcpConnection implements IConnection {
 		}
 	}
 
+	/**
+	 * Message that is being received. Chunks are offered to the decoder as
+	 * they are verified and deciphered, so decoding can proceed while the
+	 * rest of the chunks are read.
+	 */
+	class IncomingMessage {
+		final int requestId;
+		final int secureChannelId;
+		final BlockingByteBufferArrayReadable chunks = new BlockingByteBufferArrayReadable();
+		final BinaryDecoder dec;
+		/** The message, if it was decoded in the read thread */
+		IEncodeable message;
+		/** Set if the message was aborted or reading was interrupted */
+		volatile boolean aborted;
+
+		IncomingMessage(int requestId, int secureChannelId, EncoderContext ctx) {
+			this.requestId = requestId;
+			this.secureChannelId = secureChannelId;
+			chunks.order(ByteOrder.LITTLE_ENDIAN);
+			dec = new BinaryDecoder(chunks);
+			dec.setEncoderContext(ctx);
+		}
+
+		void abort() {
+			aborted = true;
+			chunks.forceClose();
+		}
+	}
+
 	/**
 	 * ReadThread is a thread that does blocking read to the input stream. If
 	 * errors occur in the input stream, the error is logged and the socket
-	 * closed. It deciphers and deserializes incoming messages and fires events
-	 * to TcpConnection.
+	 * closed. It deciphers incoming chunks and fires events to TcpConnection.
 	 * 
+	 * Symmetric messages are decoded in the blocking work executor, one message
+	 * at a time in the order they were received, while the read thread
+	 * continues reading the next chunks. OpenSecureChannelResponses are decoded
+	 * in the read thread, because the token they carry is needed to decipher the
+	 * following chunks, and their listeners are notified in order after the
+	 * previous messages.
 	 */
 	class ReadThread extends Thread {
 		Socket s;
 		EncoderContext ctx;
 
+		/**
+		 * Messages waiting to be decoded, guarded by itself
+		 */
+		final ArrayDeque<IncomingMessage> decodeQueue = new ArrayDeque<IncomingMessage>();
+
+		/**
+		 * True while decodeRun is scheduled or running, guarded by decodeQueue
+		 */
+		boolean decoding = false;
+
+		/**
+		 * Decodes the messages in decodeQueue in order
+		 */
+		final Runnable decodeRun = new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					IncomingMessage m;
+					synchronized (decodeQueue) {
+						m = decodeQueue.poll();
+						if (m == null) {
+							decoding = false;
+							decodeQueue.notifyAll();
+							return;
+						}
+					}
+					ServiceResultException error = decode(m);
+					if (error != null) {
+						synchronized (decodeQueue) {
+							for (IncomingMessage pending : decodeQueue)
+								pending.abort();
+							decodeQueue.clear();
+							decoding = false;
+							decodeQueue.notifyAll();
+						}
+						close(error);
+						return;
+					}
+				}
+			}
+		};
+
 		/**
 		 * Variable where close cause is stored
 		 */
@@ -882,6 +1074,11 @@ public class TcpConnection implements IConnection {
 		 */
 		boolean closing = false;
 
+		/**
+		 * The message being read
+		 */
+		IncomingMessage incoming;
+
 		/**
 		 * Create new read thread.
 		 * 
@@ -896,6 +1093,70 @@ public class TcpConnection implements IConnection {
 			this.ctx = ctx;
 		}
 
+		/**
+		 * Queue message for decoding
+		 */
+		void submit(IncomingMessage m) {
+			synchronized (decodeQueue) {
+				decodeQueue.add(m);
+				if (decoding)
+					return;
+				decoding = true;
+			}
+			StackUtils.getBlockingWorkExecutor().execute(decodeRun);
+		}
+
+		/**
+		 * Wait until all the queued messages have been decoded and notified
+		 */
+		void waitDecoded() {
+			synchronized (decodeQueue) {
+				while (decoding) {
+					try {
+						decodeQueue.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Decode a message and notify listeners.
+		 * 
+		 * @return error to close the connection with or null
+		 */
+		ServiceResultException decode(IncomingMessage m) {
+			try {
+				IEncodeable message = m.message != null ? m.message : m.dec.getMessage();
+				if (m.aborted)
+					return null;
+				clientNonces.remove(m.requestId);
+				ephemeralKeys.remove(m.requestId);
+				for (IMessageListener l : listeners)
+					l.onMessage(m.requestId, m.secureChannelId, message);
+				return null;
+			} catch (DecodingException e) {
+				if (m.aborted)
+					return null;
+				logger.warn(addr+" Error", e);
+				return e;
+			} catch (RuntimeServiceResultException e) {
+				ServiceResultException sre = (ServiceResultException) e.getCause();
+				logger.warn(addr+" Error", sre);
+				return sre;
+			} catch (Exception e) {
+				ServiceResultException sre = new ServiceResultException(StatusCodes.Bad_InternalError, e);
+				logger.error("Error in message decoding", sre);
+				return sre;
+			} catch (StackOverflowError e) {
+				ServiceResultException sre = new ServiceResultException(StatusCodes.Bad_DecodingError, e);
+				logger.error("Error in message decoding", sre);
+				return sre;
+			}
+		}
+
 		@Override
 		public void run() {
 			try {
@@ -905,11 +1166,10 @@ public class TcpConnection implements IConnection {
 				// TransportChannelSettings.Flag.MultiThread );
 				IBinaryReadable in = new InputStreamReadable(s.getInputStream(), Long.MAX_VALUE);
 				in.order(ByteOrder.LITTLE_ENDIAN);
-				ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>(256);
 
 				read: while (this.s == TcpConnection.this.getSocket()) {
 					// Read new message
-					chunks.clear();
+					incoming = null;
 					int messageType = 0;
 					int chunkNumber = 0;
 					int chunkContinuationType = 0;
@@ -1043,12 +1303,8 @@ public class TcpConnection implements IConnection {
 							int securityTokenId = ChunkUtils.getTokenId(chunk);
 
 							// Find token
-							SecurityToken token = null;
-							logger.debug("tokens({})={}", tokens.size(), tokens);
-							for (SecurityToken t : tokens) 
-								if (t.getTokenId() == securityTokenId && t.getSecureChannelId() == chunkSecureChannelId) 
-									token = t;				
-							logger.debug("token={}", token);
+							SecurityToken token = tokenIndex.get(tokenKey(chunkSecureChannelId, securityTokenId));
+							logger.trace("token={}", token);
 							if (token==null) {								
 								closeError = new ServiceResultException("Unexpected securityTokenId = "+securityTokenId);										
 								logger.warn("{} Unexpected securityTokenId = {}", addr, securityTokenId);
@@ -1095,8 +1351,15 @@ public class TcpConnection implements IConnection {
 							}
 						}
 
-						// Add chunk
-						chunks.add(chunk);
+						// Add chunk, symmetric messages are decoded while the
+						// rest of the chunks are read
+						if (chunkNumber == 0) {
+							incoming = new IncomingMessage(requestId, secureChannelId, ctx);
+							if (messageType == TcpMessageType.MESSAGE)
+								submit(incoming);
+						}
+						if (chunkContinuationType != TcpMessageType.ABORT)
+							incoming.chunks.offer(chunk);
 
 						// Prepare next chunk
 						chunkNumber++;
@@ -1104,15 +1367,17 @@ public class TcpConnection implements IConnection {
 
 					} while (chunkContinuationType == TcpMessageType.CONTINUE);
 
-					if (chunkContinuationType == TcpMessageType.ABORT)
+					if (chunkContinuationType == TcpMessageType.ABORT) {
+						incoming.abort();
+						continue;
+					}
+					incoming.chunks.close();
+					if (messageType == TcpMessageType.MESSAGE)
 						continue;
 
-					// Decode message
-					IBinaryReadable r = new ByteBufferArrayReadable(chunks.toArray(new ByteBuffer[chunks.size()]));
-					r.order(ByteOrder.LITTLE_ENDIAN);
-					BinaryDecoder dec = new BinaryDecoder(r);
-					dec.setEncoderContext(ctx);
-					IEncodeable message = dec.getMessage();
+					// Decode OpenSecureChannelResponse without waiting for the
+					// previous messages, they are not secured with its token
+					IEncodeable message = incoming.dec.getMessage();
 
 					// Capture security token
 					if (message instanceof OpenSecureChannelResponse) {
@@ -1135,7 +1400,19 @@ public class TcpConnection implements IConnection {
 							logger.warn("{} OpenSecureChannel, server sent two secureChannelIds {} and {} using {}", addr, __secureChannelId, ___secureChannelId, __secureChannelId);
 						
 						try {
-							SecurityToken token = new SecurityToken(
+							EphemeralKey ephemeralKey = ephemeralKeys.get(requestId);
+							SecurityToken token = ephemeralKey != null ?
+								new SecurityToken(
+									TcpConnection.this.securityConfiguration,
+									__secureChannelId,
+									tkn.getTokenId().intValue(),
+									System.currentTimeMillis(),
+									tkn.getRevisedLifetime().longValue(),
+									ephemeralKey,
+									serverNonce,
+									true
+								) :
+								new SecurityToken(
 									TcpConnection.this.securityConfiguration,
 									__secureChannelId,
 									tkn.getTokenId().intValue(),
@@ -1146,6 +1423,8 @@ public class TcpConnection implements IConnection {
 								);
 							logger.debug("new token={}", token);
 							tokens.add( token );
+							tokenIndex.put(tokenKey(__secureChannelId, token.getTokenId()), token);
+							setSendToken(token);
 							
 							// Add new sequence number counter
 							if (!sequenceNumbers.containsKey(__secureChannelId))
@@ -1157,13 +1436,11 @@ public class TcpConnection implements IConnection {
 							break read;
 						}
 					}
-					clientNonces.remove(requestId);
-
-					for (IMessageListener l : listeners)
-						l.onMessage(requestId, secureChannelId, message);
+					incoming.message = message;
+					submit(incoming);
 				}
 			} catch (IOException e) {
-				if (e instanceof SocketException) {
+				if (e instanceof SocketException || e instanceof ClosedChannelException) {
 					if (!closing) {
 						logger.info("{} Closed (unexpected)", addr);
 						closeError = new ServiceResultException(Bad_ConnectionClosed, e, "Connection closed (unexpected)");					
@@ -1197,6 +1474,10 @@ public class TcpConnection implements IConnection {
 				logger.error("Error in ReadThread", closeError);
 			}
 
+			// Deliver the messages that were received completely before closing
+			if (incoming != null && !incoming.chunks.isClosed())
+				incoming.abort();
+			waitDecoded();
 			close(closeError);
 		}
 	}
@@ -1246,6 +1527,7 @@ public class TcpConnection implements IConnection {
 			setSocket(null);
 			ctx = null;
 			out = null;
+			writer = null;
 			quotas = null;
 			limits = null;
 		} finally {
@@ -1277,6 +1559,14 @@ public class TcpConnection implements IConnection {
 
 			SecurityToken token = null;
 
+			// With key agreement the client nonce is the public key of a new
+			// ephemeral key, which is needed again for the response
+			EphemeralKey ephemeralKey = null;
+			if (asymm && securityConfiguration != null && securityConfiguration.getSecurityPolicy().usesKeyAgreement()) {
+				ephemeralKey = EphemeralKey.generate(securityConfiguration.getSecurityPolicy());
+				((OpenSecureChannelRequest) request).setClientNonce(ephemeralKey.getNonce());
+			}
+
 			// Count message size
 			SizeCalculationOutputStream calcBuf = new SizeCalculationOutputStream();
 			BinaryEncoder calc = new BinaryEncoder(calcBuf);
@@ -1302,54 +1592,78 @@ public class TcpConnection implements IConnection {
 					ByteBuffer[] chunks = buffers.getChunks();
 					ByteBuffer[] plaintexts = buffers.getPlaintexts();
 					if ((chunks != null) & (plaintexts != null)) {
+						ChunkWriter w;
+						long ticket = 0;
+						boolean parallel = false;
+						lock.lock();
 						try {
-							lock.lock();
-							try {
-								if (asymm) {
-									// Capture ClientNonce of the request
-									// message
-									ByteString clientNonce = ((OpenSecureChannelRequest) request).getClientNonce();
-									clientNonces.put(requestId, clientNonce);
-									//
-
-									for (int i = 0; i < chunks.length; i++) {
-										boolean finalChunk = i == chunks.length - 1;
-										sendAsymmChunk(secureChannelId, requestId, securityMode, chunks[i], plaintexts[i], finalChunk);
-										plaintexts[i] = null;
-										chunks[i] = null;
-									}
-
-								} else {
-
-									activeTokenIdMap.put(secureChannelId, token);
-									SequenceNumber seq = sequenceNumbers.get(secureChannelId);
+							w = writer;
+							if (w == null)
+								throw new ServiceResultException(Bad_ServerNotConnected);
+							if (asymm) {
+								// Capture ClientNonce of the request
+								// message
+								ByteString clientNonce = ((OpenSecureChannelRequest) request).getClientNonce();
+								clientNonces.put(requestId, clientNonce);
+								if (ephemeralKey != null)
+									ephemeralKeys.put(requestId, ephemeralKey);
+								//
+
+								for (int i = 0; i < chunks.length; i++) {
+									boolean finalChunk = i == chunks.length - 1;
+									sendAsymmChunk(secureChannelId, requestId, securityMode, chunks[i], plaintexts[i], finalChunk);
+									ticket = w.enqueue(chunks[i]);
+									plaintexts[i] = null;
+									chunks[i] = null;
+								}
 
-									// Add chunk headers
-									for (int i = 0; i < chunks.length; i++) {
-										ByteBuffer chunk = chunks[i];
-										final ByteBuffer plaintext = plaintexts[i];
-										boolean finalChunk = chunk == chunks[chunks.length - 1];
-										int msgType = TcpMessageType.MSGC;
-										if(finalChunk) msgType = TcpMessageType.MSGF;
-										if(request instanceof CloseSecureChannelRequest)
-											msgType = TcpMessageType.CLOSE | TcpMessageType.FINAL;
+							} else {
+
+								activeTokenIdMap.put(secureChannelId, token);
+								SequenceNumber seq = sequenceNumbers.get(secureChannelId);
+								parallel = parallelChunkEncryption && chunks.length > 1
+										&& token.getMessageSecurityMode() != MessageSecurityMode.None;
+
+								// Add chunk headers
+								for (int i = 0; i < chunks.length; i++) {
+									ByteBuffer chunk = chunks[i];
+									final ByteBuffer plaintext = plaintexts[i];
+									boolean finalChunk = chunk == chunks[chunks.length - 1];
+									int msgType = TcpMessageType.MSGC;
+									if(finalChunk) msgType = TcpMessageType.MSGF;
+									if(request instanceof CloseSecureChannelRequest)
+										msgType = TcpMessageType.CLOSE | TcpMessageType.FINAL;
+									if (parallel) {
+										// Reserve the place of the chunk, it is
+										// encrypted outside the lock
+										writeSymmChunkHeader(requestId, token, seq, chunk, msgType);
+										ticket = w.reserve(chunk);
+									} else {
 										sendSymmChunk(requestId, token, seq, chunk, plaintext, msgType);
+										ticket = w.enqueue(chunk);
 										plaintexts[i] = null;
 										chunks[i] = null;
 									}
 								}
-
-								out.flush();
-
-							} catch (IOException e) {
-								clientNonces.remove(requestId);
-								logger.info(addr + " Connect failed", e);
-								close();
-								throw new ServiceResultException(Bad_CommunicationError, e);
 							}
 						} finally {
 							lock.unlock();
 						}
+
+						if (parallel)
+							encryptChunks(w, token, chunks, plaintexts);
+
+						// Write outside the lock, chunks of concurrent requests
+						// are written in the same gathering write
+						try {
+							w.flush(ticket);
+						} catch (IOException e) {
+							clientNonces.remove(requestId);
+							ephemeralKeys.remove(requestId);
+							logger.info(addr + " Connect failed", e);
+							close();
+							throw new ServiceResultException(Bad_CommunicationError, e);
+						}
 					}
 				}
 			}
@@ -1370,9 +1684,21 @@ public class TcpConnection implements IConnection {
 	 * @param plaintext
 	 * @param finalChunk
 	 * @throws ServiceResultException
-	 * @throws IOException
 	 */
-	private void sendSymmChunk(int requestId, SecurityToken token, SequenceNumber seq, ByteBuffer chunk, final ByteBuffer plaintext, int msgType) throws ServiceResultException, IOException {
+	private void sendSymmChunk(int requestId, SecurityToken token, SequenceNumber seq, ByteBuffer chunk, final ByteBuffer plaintext, int msgType) throws ServiceResultException {
+		writeSymmChunkHeader(requestId, token, seq, chunk, msgType);
+		try {
+			new ChunkSymmEncryptSigner(chunk, plaintext, token).run();
+		} catch (RuntimeServiceResultException sre) {
+			throw (ServiceResultException) sre.getCause();
+		}
+	}
+
+	/**
+	 * Write message, security and sequence headers of a symmetric chunk. The
+	 * sequence number is taken from seq, so this must be called in send order.
+	 */
+	private void writeSymmChunkHeader(int requestId, SecurityToken token, SequenceNumber seq, ByteBuffer chunk, int msgType) {
 		chunk.rewind();
 		chunk.putInt(msgType);
 		chunk.position(8);
@@ -1385,14 +1711,36 @@ public class TcpConnection implements IConnection {
 		int sequenceNumber = seq.getNextSendSequencenumber();
 		chunk.putInt(sequenceNumber);
 		chunk.putInt(requestId); // Request number
+	}
 
-		try {
-			new ChunkSymmEncryptSigner(chunk, plaintext, token).run();
-		} catch (RuntimeServiceResultException sre) {
-			throw (ServiceResultException) sre.getCause();
-		}
-		chunk.rewind();
-		out.put(chunk);
+	/**
+	 * Sign and encrypt chunks reserved in the writer, in parallel on the
+	 * non-blocking executor and the calling thread. Chunks are taken in order so
+	 * that the writer can start with the first ones while the rest are being
+	 * processed. If a chunk fails, the writer is aborted.
+	 */
+	private void encryptChunks(final ChunkWriter w, final SecurityToken token, final ByteBuffer[] chunks, final ByteBuffer[] plaintexts) {
+		final AtomicInteger next = new AtomicInteger();
+		Runnable encrypter = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < chunks.length) {
+					try {
+						new ChunkSymmEncryptSigner(chunks[i], plaintexts[i], token).run();
+					} catch (RuntimeException e) {
+						logger.warn("Failed to sign and encrypt chunk", e);
+						w.abort(new IOException(e));
+						return;
+					}
+					w.hatch(chunks[i]);
+				}
+			}
+		};
+		int helpers = Math.min(chunks.length, StackUtils.cores()) - 1;
+		for (int i = 0; i < helpers; i++)
+			StackUtils.getNonBlockingWorkExecutor().execute(encrypter);
+		encrypter.run();
 	}
 
 	/**
@@ -1403,9 +1751,8 @@ public class TcpConnection implements IConnection {
 	 * @param plaintext
 	 * @param finalChunk
 	 * @throws ServiceResultException
-	 * @throws IOException
 	 */
-	private void sendAsymmChunk(int secureChannelId, int requestId, SecurityMode securityMode, ByteBuffer chunk, final ByteBuffer plaintext, boolean finalChunk) throws ServiceResultException, IOException {
+	private void sendAsymmChunk(int secureChannelId, int requestId, SecurityMode securityMode, ByteBuffer chunk, final ByteBuffer plaintext, boolean finalChunk) throws ServiceResultException {
 		chunk.rewind();
 		chunk.putInt(finalChunk ? TcpMessageType.OPNF : TcpMessageType.OPNC);
 		chunk.position(8);
@@ -1441,9 +1788,6 @@ public class TcpConnection implements IConnection {
 		} catch (RuntimeServiceResultException sre) {
 			throw (ServiceResultException) sre.getCause();
 		}
-
-		chunk.rewind();
-		out.put(chunk);
 	}
 
 	private MessageBuffers encodeMessage(ChunkFactory cf, final int len, IEncodeable request) throws ServiceResultException {
@@ -1557,8 +1901,11 @@ public class TcpConnection implements IConnection {
 	 *             Bad_CommunicationError if no suitable token is available
 	 */
 	private SecurityToken getSecurityTokenToUse(int secureChannelId) throws ServiceResultException {
+		SecurityToken token = sendTokens.get(secureChannelId);
+		if (token != null && token.isValid())
+			return token;
 		pruneInvalidTokens();
-		SecurityToken token = null;
+		token = null;
 		// Find youngest token
 		logger.debug("tokens={}", tokens);
 		for (SecurityToken t : tokens) {
@@ -1570,15 +1917,46 @@ public class TcpConnection implements IConnection {
 		if (token==null) {
 			throw new ServiceResultException(Bad_CommunicationError, "All security tokens have expired");
 		}
+		setSendToken(token);
 		return token;
 	}
+
+	/**
+	 * Start sending with a token, unless a newer token of its secure channel is
+	 * already used. The requests that are being sent complete with the
+	 * previous token, which stays valid until it expires.
+	 *
+	 * @param token token
+	 */
+	void setSendToken(SecurityToken token) {
+		Integer secureChannelId = token.getSecureChannelId();
+		for (;;) {
+			SecurityToken current = sendTokens.putIfAbsent(secureChannelId, token);
+			if (current == null || current == token)
+				return;
+			if (current.getCreationTime() > token.getCreationTime() && current.isValid())
+				return;
+			if (sendTokens.replace(secureChannelId, current, token))
+				return;
+		}
+	}
 	
+	/**
+	 * Key of a token in {@link #tokenIndex}
+	 */
+	static long tokenKey(int secureChannelId, int tokenId) {
+		return ((long) secureChannelId << 32) | (tokenId & 0xffffffffL);
+	}
+
 	private void pruneInvalidTokens()
 	{	
 		logger.debug("pruneInvalidTokens: tokens({})={}", tokens.size(), tokens);
 		for (SecurityToken t : tokens)
-			if (!t.isValid())
+			if (!t.isValid()) {
 				tokens.remove(t); // works with COW list
+				tokenIndex.remove(tokenKey(t.getSecureChannelId(), t.getTokenId()));
+				sendTokens.remove(t.getSecureChannelId(), t);
+			}
 	}
 
 	/**
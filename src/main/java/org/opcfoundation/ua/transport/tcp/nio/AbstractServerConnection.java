@@ -62,7 +62,7 @@ public abstract class AbstractServerConnection extends AbstractState<CloseableOb
 	/** Message builder, complies chunks into complete messages */
 	SecureInputMessageBuilder secureMessageBuilder;
 	/** List of secure channels open in this connection */
-	Map<Integer, ServerSecureChannel> secureChannels = new ConcurrentHashMap<Integer, ServerSecureChannel>();
+	Map<Integer, ServerSecureChannel> secureChannels = new ConcurrentHashMap<Integer, ServerSecureChannel>(2, 0.75f, 1);
 	/** List of secure channel listener */
 	CopyOnWriteArrayList<SecureChannelListener> secureChannelListeners = new CopyOnWriteArrayList<SecureChannelListener>();	
 	/** Chunk incubate (are encoded and signed) before sending to stream */
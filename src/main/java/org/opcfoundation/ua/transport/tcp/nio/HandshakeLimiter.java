@@ -0,0 +1,214 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.transport.tcp.nio;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admission control of the OpenSecureChannel handshakes of an
+ * {@link OpcTcpServer}.
+ * <p>
+ * A handshake is admitted if fewer than {@link #getMaxConcurrentHandshakes()}
+ * handshakes are in progress and the source address of the connection has a
+ * token in its bucket. The bucket of an address holds at most
+ * {@link #getHandshakeBurst()} tokens and is refilled with
+ * {@link #getHandshakesPerSecond()} tokens per second. Handshakes that are not
+ * admitted are answered with Bad_TcpServerTooBusy before any asymmetric
+ * crypto is done for them.
+ * <p>
+ * Only new secure channels are limited, renewals of open secure channels are
+ * always admitted.
+ * <p>
+ * A server has no limiter by default. Use
+ * {@link OpcTcpServer#setHandshakeLimiter(HandshakeLimiter)} to enable one.
+ */
+public class HandshakeLimiter {
+
+	/** Default max number of handshakes in progress */
+	public static final int DEFAULT_MAX_CONCURRENT_HANDSHAKES = 64;
+	/** Default rate of handshakes of one address */
+	public static final double DEFAULT_HANDSHAKES_PER_SECOND = 10;
+	/** Default max number of handshakes of one address at once */
+	public static final int DEFAULT_HANDSHAKE_BURST = 20;
+	/** Default max number of addresses whose buckets are kept */
+	public static final int DEFAULT_MAX_TRACKED_ADDRESSES = 10000;
+
+	/** Token bucket of one address */
+	static class Bucket {
+		double tokens;
+		/** Time (ns) of the last refill */
+		long time;
+
+		Bucket(double tokens, long time) {
+			this.tokens = tokens;
+			this.time = time;
+		}
+	}
+
+	/** Buckets of the addresses, least recently used first */
+	final Map<InetAddress, Bucket> buckets = new LinkedHashMap<InetAddress, Bucket>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<InetAddress, Bucket> eldest) {
+			return size() > maxTrackedAddresses;
+		}
+	};
+	int running;
+	int maxConcurrentHandshakes = DEFAULT_MAX_CONCURRENT_HANDSHAKES;
+	double handshakesPerSecond = DEFAULT_HANDSHAKES_PER_SECOND;
+	int handshakeBurst = DEFAULT_HANDSHAKE_BURST;
+	int maxTrackedAddresses = DEFAULT_MAX_TRACKED_ADDRESSES;
+
+	/**
+	 * Admit a handshake. An admitted handshake must be ended with
+	 * {@link #release()}.
+	 *
+	 * @param address source address of the connection, or null if it has
+	 *            none, in which case only the number of handshakes is limited
+	 * @return true if the handshake is admitted
+	 */
+	public synchronized boolean tryAcquire(InetAddress address) {
+		if (running >= maxConcurrentHandshakes)
+			return false;
+		if (address != null && !takeToken(address))
+			return false;
+		running++;
+		return true;
+	}
+
+	/**
+	 * End an admitted handshake.
+	 */
+	public synchronized void release() {
+		if (running > 0)
+			running--;
+	}
+
+	private boolean takeToken(InetAddress address) {
+		long now = nanoTime();
+		Bucket bucket = buckets.get(address);
+		if (bucket == null) {
+			bucket = new Bucket(handshakeBurst, now);
+			buckets.put(address, bucket);
+		} else {
+			double refill = (now - bucket.time) * handshakesPerSecond / 1e9;
+			bucket.tokens = Math.min(handshakeBurst, bucket.tokens + refill);
+			bucket.time = now;
+		}
+		if (bucket.tokens < 1)
+			return false;
+		bucket.tokens--;
+		return true;
+	}
+
+	/**
+	 * Get the current time for the token buckets.
+	 *
+	 * @return time in nanoseconds
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @return the number of handshakes in progress
+	 */
+	public synchronized int getRunningHandshakes() {
+		return running;
+	}
+
+	/**
+	 * @return the max number of handshakes in progress
+	 */
+	public synchronized int getMaxConcurrentHandshakes() {
+		return maxConcurrentHandshakes;
+	}
+
+	/**
+	 * Set the max number of handshakes in progress. Handshakes beyond it are
+	 * rejected with Bad_TcpServerTooBusy.
+	 * <p>
+	 * Default: {@value #DEFAULT_MAX_CONCURRENT_HANDSHAKES}
+	 *
+	 * @param maxConcurrentHandshakes max number of handshakes
+	 */
+	public synchronized void setMaxConcurrentHandshakes(int maxConcurrentHandshakes) {
+		if (maxConcurrentHandshakes < 1)
+			throw new IllegalArgumentException("maxConcurrentHandshakes must be > 0");
+		this.maxConcurrentHandshakes = maxConcurrentHandshakes;
+	}
+
+	/**
+	 * @return the rate of handshakes of one address, per second
+	 */
+	public synchronized double getHandshakesPerSecond() {
+		return handshakesPerSecond;
+	}
+
+	/**
+	 * Set the sustained rate of handshakes of one source address.
+	 * <p>
+	 * Default: {@value #DEFAULT_HANDSHAKES_PER_SECOND}
+	 *
+	 * @param handshakesPerSecond handshakes per second
+	 */
+	public synchronized void setHandshakesPerSecond(double handshakesPerSecond) {
+		if (handshakesPerSecond <= 0)
+			throw new IllegalArgumentException("handshakesPerSecond must be > 0");
+		this.handshakesPerSecond = handshakesPerSecond;
+	}
+
+	/**
+	 * @return the max number of handshakes of one address at once
+	 */
+	public synchronized int getHandshakeBurst() {
+		return handshakeBurst;
+	}
+
+	/**
+	 * Set the number of handshakes that one source address may start at
+	 * once, i.e. the size of its token bucket.
+	 * <p>
+	 * Default: {@value #DEFAULT_HANDSHAKE_BURST}
+	 *
+	 * @param handshakeBurst max number of handshakes
+	 */
+	public synchronized void setHandshakeBurst(int handshakeBurst) {
+		if (handshakeBurst < 1)
+			throw new IllegalArgumentException("handshakeBurst must be > 0");
+		this.handshakeBurst = handshakeBurst;
+	}
+
+	/**
+	 * @return the max number of addresses whose buckets are kept
+	 */
+	public synchronized int getMaxTrackedAddresses() {
+		return maxTrackedAddresses;
+	}
+
+	/**
+	 * Set the max number of source addresses whose token buckets are kept.
+	 * The buckets of the least recently seen addresses are dropped first.
+	 * <p>
+	 * Default: {@value #DEFAULT_MAX_TRACKED_ADDRESSES}
+	 *
+	 * @param maxTrackedAddresses max number of addresses
+	 */
+	public synchronized void setMaxTrackedAddresses(int maxTrackedAddresses) {
+		this.maxTrackedAddresses = maxTrackedAddresses;
+	}
+
+}
@@ -43,6 +43,7 @@ import org.opcfoundation.ua.transport.impl.ConnectionCollection;
 import org.opcfoundation.ua.transport.tcp.impl.ReverseHello;
 import org.opcfoundation.ua.utils.AbstractState;
 import org.opcfoundation.ua.utils.StackUtils;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
 import org.opcfoundation.ua.utils.asyncsocket.AsyncServerSocket;
 import org.opcfoundation.ua.utils.asyncsocket.AsyncSocketImpl;
 import org.slf4j.Logger;
@@ -72,6 +73,9 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 	
 	private int receiveBufferSize = 0;
 
+	/** Admission control of OpenSecureChannel handshakes, null = none */
+	private volatile HandshakeLimiter handshakeLimiter;
+
 	/** Endpoint handles */
 	Map<SocketAddress, SocketHandle> socketHandles = new HashMap<SocketAddress, SocketHandle>();
 	
@@ -109,7 +113,8 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 			for (SocketHandle sh : socketHandleSnapshot()) {
 				try {
 					AsyncServerSocket ass = sh.socket;
-					if ( ass!=null ) {
+					// Unix domain sockets have no socket adaptor
+					if ( ass!=null && !UnixDomainSocketUtil.isUnixAddress(sh.socketAddress) ) {
 						ass.socket().setReceiveBufferSize(receiveBufferSize);
 					}
 				} catch (SocketException e) {
@@ -119,10 +124,32 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 		}
 	}
 	
+	/**
+	 * <p>Getter for the field <code>handshakeLimiter</code>.</p>
+	 *
+	 * @return the admission control of OpenSecureChannel handshakes, or null
+	 */
+	public HandshakeLimiter getHandshakeLimiter() {
+		return handshakeLimiter;
+	}
+
+	/**
+	 * Define the admission control of the OpenSecureChannel handshakes of new
+	 * secure channels, e.g. <code>setHandshakeLimiter(new HandshakeLimiter())</code>
+	 * to limit them with the default limits of {@link HandshakeLimiter}.
+	 * <p>
+	 * Default value: null, all handshakes are admitted
+	 *
+	 * @param handshakeLimiter the limiter, or null to admit all handshakes
+	 */
+	public void setHandshakeLimiter(HandshakeLimiter handshakeLimiter) {
+		this.handshakeLimiter = handshakeLimiter;
+	}
+
 	/** AsyncServerSocket Connect listener */
 	org.opcfoundation.ua.utils.asyncsocket.AsyncServerSocket.ConnectListener connectListener = new org.opcfoundation.ua.utils.asyncsocket.AsyncServerSocket.ConnectListener() {		
 		public void onConnected(AsyncServerSocket sender, AsyncSocketImpl newConnection) {
-			logger.info("{}: {} connected", OpcTcpServer.this, newConnection.socket().getRemoteSocketAddress());
+			logger.info("{}: {} connected", OpcTcpServer.this, UnixDomainSocketUtil.getRemoteAddress(newConnection.socketChannel()));
 			final OpcTcpServerConnection conn = new OpcTcpServerConnection(OpcTcpServer.this, newConnection);
 			connections.addConnection(conn);
 			
@@ -173,7 +200,10 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 		
 		if ( socketHandle.socket == null ) {
 			try {
-				socketHandle.setChannel(ServerSocketChannel.open());
+				if ( UnixDomainSocketUtil.isUnixAddress(socketAddress) )
+					socketHandle.setChannel(UnixDomainSocketUtil.openServerSocketChannel());
+				else
+					socketHandle.setChannel(ServerSocketChannel.open());
 				socketHandle.getChannel().configureBlocking(false);
 			
 				socketHandle.socket = new AsyncServerSocket(
@@ -182,6 +212,7 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 						//new AsyncSelector(Selector.open())
 						,StackUtils.getSelector()
 						);
+				socketHandle.socket.setConnectionSelectors(StackUtils.getSelectors());
 				socketHandle.socket.bind(socketHandle.socketAddress, 0);
 				socketHandle.socket.addListener(connectListener);
 				logger.info("TCP/IP Socket bound to {}", socketAddress);
@@ -210,7 +241,7 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 				socketHandle.setChannel(SocketChannel.open());
 				socketHandle.getChannel().configureBlocking(false);
 				
-				socketHandle.socket = new AsyncSocketImpl(socketHandle.getChannel(), StackUtils.getNonBlockingWorkExecutor(), StackUtils.getSelector());
+				socketHandle.socket = new AsyncSocketImpl(socketHandle.getChannel(), StackUtils.getNonBlockingWorkExecutor(), StackUtils.nextSelector());
 
 				ReverseHello rh = new ReverseHello();
 				rh.setEndpointUrl(endpointUrl);
@@ -441,7 +472,11 @@ public class OpcTcpServer extends AbstractState<CloseableObjectState, ServiceRes
 			if ( socket!=null ) {
 				AsyncServerSocket ass = socket;
 				socket = null;
+				// The socket file is not removed when the channel is closed
+				boolean ownsFile = UnixDomainSocketUtil.isUnixAddress(socketAddress) && UnixDomainSocketUtil.getLocalAddress(ass.channel()) != null;
 				ass.close();				
+				if ( ownsFile )
+					UnixDomainSocketUtil.getFile(socketAddress).delete();
 			}
 		}
 		@Override
@@ -19,19 +19,23 @@ import static org.opcfoundation.ua.core.StatusCodes.Bad_Timeout;
 import static org.opcfoundation.ua.core.StatusCodes.Bad_UnexpectedError;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opcfoundation.ua.builtintypes.StatusCode;
 import org.opcfoundation.ua.builtintypes.UnsignedInteger;
@@ -82,6 +86,7 @@ import org.opcfoundation.ua.utils.SizeCalculationOutputStream;
 import org.opcfoundation.ua.utils.StackUtils;
 import org.opcfoundation.ua.utils.StateListener;
 import org.opcfoundation.ua.utils.TimerUtil;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
 import org.opcfoundation.ua.utils.asyncsocket.AsyncInputStream;
 import org.opcfoundation.ua.utils.asyncsocket.AsyncSocket;
 import org.opcfoundation.ua.utils.asyncsocket.AsyncSocketImpl;
@@ -90,6 +95,8 @@ import org.opcfoundation.ua.utils.asyncsocket.MonitorListener;
 import org.opcfoundation.ua.utils.asyncsocket.SocketState;
 import org.opcfoundation.ua.utils.bytebuffer.ByteBufferArrayWriteable2;
 import org.opcfoundation.ua.utils.bytebuffer.ByteBufferArrayWriteable2.ChunkListener;
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
+import org.opcfoundation.ua.utils.bytebuffer.SegmentPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -103,6 +110,9 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 	/** Logger */
 	private final static Logger logger = LoggerFactory.getLogger(OpcTcpServerConnection.class);
 
+	/** Direct memory of the chunks that are not encrypted, see {@link #sendSecureMessage(AsyncWrite, SecurityToken, int, int, AtomicInteger)} */
+	static final SegmentPool CHUNK_POOL = new SegmentPool(SegmentPool.DEFAULT_SEGMENT_SIZE, SegmentPool.DEFAULT_MAX_POOLED, SegmentPool.DEFAULT_IDLE_RELEASE_PERIOD, true);
+
 	// Give client 10 minutes to handshake
 	private static long handshakeTimeout = 10 * 60 * 1000; // 10 minutes
 	/**
@@ -127,7 +137,7 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 	/** Agreed protocol version */
 	int agreedProtocolVersion;
 	/**  Request id - Pending Request mapping */
-	Map<Integer, PendingRequest> pendingRequests  = new ConcurrentHashMap<Integer, PendingRequest>();
+	Map<Integer, PendingRequest> pendingRequests  = new ConcurrentHashMap<Integer, PendingRequest>(4, 0.75f, 1);
 
 	/** An endpoint binding associated with this connection. Set after hello */
 	EndpointBinding binding;
@@ -138,6 +148,15 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 	/** Event based asynchronous socket */
 	AsyncSocket s;
 
+	/** Pooled segments of the chunk being handled, read and released by the input listener */
+	final List<Segment> chunkSegments = new ArrayList<Segment>(2);
+
+	/** Pooled segments of the chunks being sent, released by the output stream after they are written. Guarded by this connection. */
+	final Map<ByteBuffer, Segment> sendSegments = new IdentityHashMap<ByteBuffer, Segment>();
+
+	/** Limiter that admitted the handshake in progress, null if none */
+	final AtomicReference<HandshakeLimiter> admittedHandshake = new AtomicReference<HandshakeLimiter>();
+
 	/** Optional ReverseHello message, if operating in ReverseHello-mode */
 	ReverseHello rh;
 	
@@ -202,7 +221,7 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 
 				if (is.available()>=chunkSize) {
 					// Chunk is readable
-					ByteBuffer chunk = is.read(chunkSize);
+					ByteBuffer chunk = is.read(chunkSize, chunkSegments);
 					chunk.rewind();
 					try {
 						try {
@@ -214,6 +233,11 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 					} catch (ServiceResultException se) {
 						logger.info("Error in handleChunk", se);
 						setError(se);
+					} finally {
+						// Message builders retain the segments they keep
+						for (Segment segment : chunkSegments)
+							segment.release();
+						chunkSegments.clear();
 					}
 					// Wait for next chunk header
 					is.createMonitor(is.getPosition()+8, this);
@@ -356,17 +380,13 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 			/** {@inheritDoc} */
 			@Override
 			public SocketAddress getLocalAddress() {
-				Socket socket = s.socket();
-				if (socket==null) return null;
-				return socket.getLocalSocketAddress();
+				return UnixDomainSocketUtil.getLocalAddress(s.socketChannel());
 			}
 
 			/** {@inheritDoc} */
 			@Override
 			public SocketAddress getRemoteAddress() {
-				Socket socket = s.socket();
-				if (socket==null) return null;
-				return socket.getRemoteSocketAddress();
+				return UnixDomainSocketUtil.getRemoteAddress(s.socketChannel());
 			}
 
 			/** {@inheritDoc} */
@@ -402,7 +422,10 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 			}
 
 			/**
-			 * Flushes queued chunks (see startChunkSend())
+			 * Flushes queued chunks (see startChunkSend()). All chunks that
+			 * are ready are handed to the socket at once, so that they are
+			 * written with one gathering write. The pooled segments of the
+			 * chunks go with them, the socket releases them after the write.
 			 *
 			 * @param chunk chunk to send
 			 */
@@ -410,14 +433,39 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 			{
 				chunkIncubator.hatch(chunk);
 				synchronized(this) {
+					if (!chunkIncubator.nextIsHatched()) return;
+					List<ByteBuffer> ready = new ArrayList<ByteBuffer>();
+					List<Segment> segments = null;
 					while (chunkIncubator.nextIsHatched()) {
 						ByteBuffer c = chunkIncubator.removeNextHatchedIfAvailable();
 						c.rewind();
-						s.getOutputStream().offer(c);
+						Segment segment = sendSegments.isEmpty() ? null : sendSegments.remove(c);
+						if (segment != null && segments == null) {
+							segments = new ArrayList<Segment>();
+							for (int i=0; i<ready.size(); i++) segments.add(null);
+						}
+						if (segments != null) segments.add(segment);
+						ready.add(c);
 					}
+					ByteBuffer[] bufs = ready.toArray(new ByteBuffer[ready.size()]);
+					if (segments == null)
+						s.getOutputStream().offer(bufs);
+					else
+						s.getOutputStream().offer(bufs, segments.toArray(new Segment[segments.size()]));
 				}
 			}
 
+			/**
+			 * Get the number of bytes queued for write but not yet written
+			 * to the socket.
+			 *
+			 * @return number of unflushed bytes
+			 */
+			public long getUnflushedBytes()
+			{
+				return s.getOutputStream().getUnflushedBytes();
+			}
+
 			/**
 			 * <p>flush.</p>
 			 *
@@ -465,6 +513,9 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 					//			int secureChannelId = chunk.getInt();
 					int secureChannelId = ChunkUtils.getSecureChannelId(chunk);
 					OpcTcpServerSecureChannel secureChannel =(OpcTcpServerSecureChannel) secureChannels.get(secureChannelId);
+					// Renewals of open secure channels are not limited
+					if (secureChannel==null)
+						admitHandshake();
 					String securityPolicyUri = ChunkUtils.getString(chunk);
 					SecurityPolicy securityPolicy = SecurityPolicy.getSecurityPolicy(securityPolicyUri);
 					if (securityPolicy==null)
@@ -527,7 +578,34 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 					secureMessageBuilder = new SecureInputMessageBuilder(securityConfiguration, messageListener, ctx, encoderCtx, recvSequenceNumber);
 				}
 				logger.debug("onAsymmSecureChunk: {}", chunk);
-				secureMessageBuilder.addChunk(chunk);
+				secureMessageBuilder.addChunk(chunk, chunkSegments);
+			}
+
+			/**
+			 * Admit the handshake of a new secure channel, before any asymmetric
+			 * crypto is done for it.
+			 *
+			 * @throws org.opcfoundation.ua.common.ServiceResultException Bad_TcpServerTooBusy if the handshake is not admitted
+			 */
+			protected void admitHandshake() throws ServiceResultException {
+				HandshakeLimiter limiter = endpointServer.getHandshakeLimiter();
+				if (limiter==null || admittedHandshake.get()!=null) return;
+				SocketAddress remoteAddress = getRemoteAddress();
+				InetAddress address = remoteAddress instanceof InetSocketAddress ? ((InetSocketAddress) remoteAddress).getAddress() : null;
+				if (!limiter.tryAcquire(address)) {
+					logger.info("OpenSecureChannel from {} rejected: too many handshakes", remoteAddress);
+					throw new ServiceResultException(StatusCodes.Bad_TcpServerTooBusy, "Too many OpenSecureChannel requests");
+				}
+				if (!admittedHandshake.compareAndSet(null, limiter))
+					limiter.release();
+			}
+
+			/**
+			 * End the admitted handshake, if any.
+			 */
+			protected void endHandshake() {
+				HandshakeLimiter limiter = admittedHandshake.getAndSet(null);
+				if (limiter!=null) limiter.release();
 			}
 
 			/**
@@ -809,13 +887,10 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 					throw new ServiceResultException(StatusCodes.Bad_SecureChannelClosed);
 				}
 
-				SecurityToken activeToken = channel.getActiveSecurityToken();
-				if (token!=activeToken) {
-					logger.debug("handleSymmChunk: activeToken={}, token={}", activeToken, token);
-					if (activeToken.getCreationTime() < token.getCreationTime()) {
-						channel.setActiveSecurityToken(token);
-					}
-				}
+				// The client uses a renewed token once it has received it,
+				// the previous token is still accepted until it expires
+				if (token!=channel.getActiveSecurityToken() && channel.activateSecurityToken(token))
+					logger.debug("handleSymmChunk: activeToken={}", token);
 				logger.debug("handleSymmChunk: {}", secureMessageBuilder);
 				if (secureMessageBuilder!=null && !secureMessageBuilder.moreChunksRequired()) secureMessageBuilder = null;
 				if (secureMessageBuilder==null) {
@@ -824,7 +899,7 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 					//				onSecureMessageBegin(secureMessageBuilder, chunk);
 				}
 
-				secureMessageBuilder.addChunk(chunk);
+				secureMessageBuilder.addChunk(chunk, chunkSegments);
 			}
 
 			// Propagate connection closed/error to channels
@@ -837,6 +912,7 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 
 				if (newState == CloseableObjectState.Closing)
 				{
+					endHandshake();
 					ServiceResultException err = getError();
 					List<ServerSecureChannel> list = new ArrayList<ServerSecureChannel>();
 					OpcTcpServerConnection.this.getSecureChannels(list);
@@ -899,11 +975,53 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 				}
 				SecurityPolicy policy = securityConfiguration.getSecurityPolicy();
 
-				startChunkSend(chunks);
+				// The chunks are sent when they have been signed and encrypted
+				// and they have been queued for send, whichever is later
+				final AtomicInteger pending = new AtomicInteger(2);
+				Runnable signer = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int i=0; i<chunks.length; i++)
+								new ChunkAsymmEncryptSigner(chunks[i], plaintexts[i], securityConfiguration).run();
+						} catch (RuntimeException e) {
+							ServiceResultException se = StackUtils.toServiceResultException(e);
+							logger.info("Could not sign OpenSecureChannel response", e);
+							msg.setError(se);
+							endHandshake();
+							setError(se);
+							return;
+						}
+						if (pending.decrementAndGet()==0)
+							flushAsymmChunks(msg, chunks);
+					}};
+
+				synchronized(this) {
+					writeAsymmChunkHeaders(chunks, policy, securityConfiguration, secureChannelId, requestNumber, sendSequenceNumber);
+					try {
+						StackUtils.getHandshakeWorkExecutor().execute(signer);
+					} catch (RejectedExecutionException e) {
+						ServiceResultException se = new ServiceResultException(StatusCodes.Bad_TcpServerTooBusy, "Too many handshakes in progress");
+						msg.setError(se);
+						endHandshake();
+						throw se;
+					}
+					startChunkSend(chunks);
+				}
+				if (pending.decrementAndGet()==0)
+					flushAsymmChunks(msg, chunks);
+				return chunks.length;
+			}
+
+			/**
+			 * Write the message, security and sequence headers of asymmetric chunks.
+			 */
+			private void writeAsymmChunkHeaders(ByteBuffer[] chunks, SecurityPolicy policy, SecurityConfiguration securityConfiguration,
+					int secureChannelId, int requestNumber, AtomicInteger sendSequenceNumber)
+			{
 				for (int i=0; i<chunks.length; i++)
 				{
 					ByteBuffer chunk = chunks[i];
-					ByteBuffer plaintext = plaintexts[i];
 					boolean finalChunk = chunk == chunks[chunks.length-1];
 					chunk.rewind();
 					chunk.putInt( TcpMessageType.OPEN | (finalChunk ? TcpMessageType.FINAL : TcpMessageType.CONTINUE) );
@@ -929,21 +1047,29 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 					// -- Sequence header --
 					chunk.putInt(sendSequenceNumber.getAndIncrement());
 					chunk.putInt(requestNumber); // Request number
+				}
+			}
 
-					new ChunkAsymmEncryptSigner(chunk, plaintext, securityConfiguration).run();
+			/**
+			 * Send signed and encrypted asymmetric chunks and end the handshake.
+			 */
+			private void flushAsymmChunks(AsyncWrite msg, ByteBuffer[] chunks)
+			{
+				for (ByteBuffer chunk : chunks) {
 					chunk.rewind();
 					endChunkSend(chunk);
 				}
 				msg.setWritten();
-				return chunks.length;
+				endHandshake();
 			}
 
 			/**
-			 * Send chunks.
+			 * Send chunks. The incubator keeps the chunks in order, so
+			 * no lock of the connection is held while they are sent.
 			 *
 			 * @param chunks a {@link java.nio.ByteBuffer} object.
 			 */
-			protected synchronized void sendChunks(ByteBuffer...chunks)
+			protected void sendChunks(ByteBuffer...chunks)
 			{
 				startChunkSend(chunks);
 				for (ByteBuffer chunk : chunks)
@@ -1022,6 +1148,7 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 			{
 				assert(token!=null);
 				ByteBuffer chunks[], plaintexts[];
+				Segment segments[] = null;
 				boolean concurrent;
 				try {
 					synchronized(msg) {
@@ -1076,20 +1203,36 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 						throw new ServiceResultException(StatusCodes.Bad_TcpMessageTooLarge);
 					concurrent = (count > 1) && (CORES>0) && (mode != MessageSecurityMode.None);
 
-					// Allocate chunks
+					// Allocate chunks. Chunks that are not encrypted are encoded
+					// into pooled direct memory, which the socket writes without
+					// copying it. Encrypted chunks stay on the heap, the ciphers
+					// of the crypto providers work on arrays.
+					boolean pooled = mode != MessageSecurityMode.SignAndEncrypt && cf.maxChunkSize <= CHUNK_POOL.getSegmentSize();
 					int bytesLeft = len;
 					plaintexts = new ByteBuffer[count];
 					chunks = new ByteBuffer[count];
+					segments = pooled ? new Segment[count] : null;
 					for (int i=0; i<count; i++) {
-						plaintexts[i] = cf.allocate(bytesLeft);
-						chunks[i] = cf.expandToCompleteChunk(plaintexts[i]);
+						if (pooled) {
+							segments[i] = CHUNK_POOL.take();
+							chunks[i] = cf.allocateChunk(bytesLeft, segments[i].getBuffer());
+							plaintexts[i] = chunks[i].slice().order(ByteOrder.LITTLE_ENDIAN);
+							chunks[i].clear();
+						} else {
+							plaintexts[i] = cf.allocate(bytesLeft);
+							chunks[i] = cf.expandToCompleteChunk(plaintexts[i]);
+						}
 						bytesLeft -= plaintexts[i].remaining();
 					}
 					assert(bytesLeft==0);
 
 					// Start write
 					synchronized(msg) {
-						if (msg.isCanceled()) return;
+						if (msg.isCanceled()) {
+							if (segments != null)
+								for (Segment segment : segments) segment.release();
+							return;
+						}
 						msg.setWriting();
 					}
 				} catch (ServiceResultException se) {
@@ -1104,6 +1247,8 @@ public class OpcTcpServerConnection extends AbstractServerConnection {
 				int sequenceNumber = 0;
 				synchronized(this) {
 					sequenceNumber = sendSequenceNumber.getAndAdd(chunks.length);
+					if (segments != null)
+						for (int i=0; i<count; i++) sendSegments.put(chunks[i], segments[i]);
 					startChunkSend(chunks);
 				}
 
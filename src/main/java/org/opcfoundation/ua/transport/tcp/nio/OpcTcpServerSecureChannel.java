@@ -39,6 +39,7 @@ import org.opcfoundation.ua.transport.ServerConnection;
 import org.opcfoundation.ua.transport.endpoint.AbstractServerSecureChannel;
 import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
 import org.opcfoundation.ua.transport.security.Cert;
+import org.opcfoundation.ua.transport.security.EphemeralKey;
 import org.opcfoundation.ua.transport.security.KeyPair;
 import org.opcfoundation.ua.transport.security.SecurityConfiguration;
 import org.opcfoundation.ua.transport.security.SecurityMode;
@@ -146,20 +147,36 @@ public class OpcTcpServerSecureChannel extends AbstractServerSecureChannel {
 		int requestId = mb.getRequestId();
 		PendingRequest req = new PendingRequest(this, getEndpoint(), getServer(), mb.getRequestId(), (ServiceRequest) msg); 
 		connection.pendingRequests.put(requestId, req);
-		getServer().getServiceHandlerComposition().serve(req);
+		getServer().serve(req);
 	}
 
 	private SecurityToken createToken(OpenSecureChannelRequest req, InputMessage mb) throws ServiceResultException 	{
 		ByteString clientNonce = req.getClientNonce();
 		int tokenId = tokenIdCounter.incrementAndGet();
 
-		ByteString serverNonce = CryptoUtil.createNonce(securityConfiguration.getSecurityPolicy().getSecureChannelNonceLength());
-		
 		final UnsignedInteger tokenLifetime = 
 			req.getRequestedLifetime() != null && req.getRequestedLifetime().intValue() > 0 
 				? req.getRequestedLifetime() 
 				: StackUtils.SERVER_GIVEN_TOKEN_LIFETIME;
 		logger.debug("tokenLifetime: {}", tokenLifetime);
+		SecurityPolicy policy = securityConfiguration.getSecurityPolicy();
+		if (policy.usesKeyAgreement()) {
+			// The server nonce is the public key of a new ephemeral key
+			SecurityToken token = new SecurityToken(
+					securityConfiguration, 
+					getSecureChannelId(),
+					tokenId,
+					System.currentTimeMillis(),
+					tokenLifetime.longValue(),
+					EphemeralKey.generate(policy),
+					clientNonce,
+					false
+					);
+			tokens.put(tokenId, token);
+			return token;
+		}
+
+		ByteString serverNonce = CryptoUtil.createNonce(policy.getSecureChannelNonceLength());
 		SecurityToken token = new SecurityToken(
 				securityConfiguration, 
 				getSecureChannelId(),
@@ -201,7 +218,7 @@ public class OpcTcpServerSecureChannel extends AbstractServerSecureChannel {
 		if (isAsync) {
 			connection.sendAsymmSecureMessage(msgToWrite, securityConfiguration, token.getSecureChannelId(), mb.getRequestId(), sendSequenceNumber);
 		} else {
-			connection.sendSecureMessage(msgToWrite, activeToken, mb.getRequestId(), TcpMessageType.MESSAGE, sendSequenceNumber);
+			connection.sendSecureMessage(msgToWrite, getActiveSecurityToken(), mb.getRequestId(), TcpMessageType.MESSAGE, sendSequenceNumber);
 		}
 		
 	}
@@ -264,6 +281,8 @@ public class OpcTcpServerSecureChannel extends AbstractServerSecureChannel {
 		}
 		*/
 		
+		// The new token becomes active when the client first uses it, until
+		// then the messages are still sent with the previous token
 		SecurityToken token = createToken(req, mb);
 		sendOpenChannelResponse(mb, token, (SecurityConfiguration) mb.getToken());
 		logger.info("SecureChannel renewed; {}", token);
@@ -294,7 +313,7 @@ public class OpcTcpServerSecureChannel extends AbstractServerSecureChannel {
 		super.onStateTransition(oldState, newState);
 		
 		if (newState==CloseableObjectState.Closed) {	
-			logger.info("Secure Channel closed, token={}", activeToken);
+			logger.info("Secure Channel closed, token={}", getActiveSecurityToken());
 			connection.secureChannels.remove( getSecureChannelId() ); //COMPLIANCE
 			//deadChannels.add(getSecureChannelId(), DateTime.currentTime());
 			connection.fireSecureChannelDetached( this );
@@ -57,7 +57,8 @@ public class PendingRequest extends EndpointServiceRequest<ServiceRequest, Servi
 	
 	/** {@inheritDoc} */
 	@Override
-	public void sendResponse(AsyncWrite response) {
+	protected void writeResponse(AsyncWrite response) {
+		write = response;
 		channel.connection.pendingRequests.remove(requestId);
 		channel.connection.sendSecureMessage(response, channel.getActiveSecurityToken(), requestId, TcpMessageType.MESSAGE, channel.sendSequenceNumber);
 	}
@@ -65,7 +66,7 @@ public class PendingRequest extends EndpointServiceRequest<ServiceRequest, Servi
 	/** {@inheritDoc} */
 	@Override
 	public AsyncWrite sendResponse(ServiceResponse response) {
-		write = new AsyncWrite(response);
+		AsyncWrite write = new AsyncWrite(response);
 		sendResponse(write);
 		return write;
 	}
@@ -17,6 +17,7 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opcfoundation.ua.common.ServiceResultException;
@@ -32,8 +33,8 @@ import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
 import org.opcfoundation.ua.transport.tcp.impl.TcpConnectionParameters;
 import org.opcfoundation.ua.transport.tcp.impl.TcpMessageType;
 import org.opcfoundation.ua.utils.StackUtils;
-import org.opcfoundation.ua.utils.bytebuffer.IncubationBuffer;
-import org.opcfoundation.ua.utils.bytebuffer.InputStreamReadable;
+import org.opcfoundation.ua.utils.bytebuffer.ByteBufferArrayReadable;
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +44,8 @@ import org.slf4j.LoggerFactory;
  * Message is decoded and chunks are deciphered and validated in background threads.
  * Deciphering is executed in StackUtils.getNonBlockerExecutor() which has one thread for each CPU core.
  * Decoding is executed in StackUtils.getBlockerExecutor() which creates new threads as needed.
+ * Decoding is started only after the final chunk has been added and all chunks
+ * have been validated, so no thread waits for chunks that are still on the network.
  */
 public class SecureInputMessageBuilder implements InputMessage {
 	
@@ -56,13 +59,20 @@ public class SecureInputMessageBuilder implements InputMessage {
 	EncoderContext								encoderCtx;
 	/** Stored error */
 	Exception									error;
-	/** Producer for decoder, consumer for chunk validator&decrypter */
-	IncubationBuffer							chunkSink;
-//	OrderedByteBufferInputStream chunkSink;
+	/** Chunks in order, plaintext between position and limit once validated */
+	List<ByteBuffer>							chunks = new ArrayList<ByteBuffer>(1);
+	/** Pooled segments that the chunks are in, released once the message is decoded */
+	List<Segment>								segments = new ArrayList<Segment>(1);
 	/** Decode work */
 	Runnable									messageDecoderRun;
 	/** Chunks added counter */
 	int											chunksAdded;
+	/** Chunks validated counter */
+	int											chunksValidated;
+	/** Plaintext bytes of validated chunks */
+	long										plaintextSize;
+	/** Maximum plaintext bytes of the message */
+	final long									maxRecvSize;
 	/** The end result */
 	IEncodeable									msg;
 	Integer										requestId;
@@ -97,7 +107,7 @@ public class SecureInputMessageBuilder implements InputMessage {
 	 * @param expectedSequenceNumber a {@link java.util.concurrent.atomic.AtomicInteger} object.
 	 * @param encoderCtx a {@link org.opcfoundation.ua.encoding.EncoderContext} object.
 	 */
-	public SecureInputMessageBuilder(Object token, MessageListener listener, TcpConnectionParameters ctx, EncoderContext encoderCtx, AtomicInteger expectedSequenceNumber)
+	public SecureInputMessageBuilder(Object token, MessageListener listener, TcpConnectionParameters ctx, final EncoderContext encoderCtx, AtomicInteger expectedSequenceNumber)
 	{
 		assert(token!=null);
 		this.listener = listener;
@@ -107,23 +117,24 @@ public class SecureInputMessageBuilder implements InputMessage {
 		
 		this.expectedSequenceNumber = expectedSequenceNumber;
 		log.debug("SecureInputMessageBuilder: expectedSequenceNumber={}", expectedSequenceNumber);
-		// chunkSink is a byte input stream that is handed over to message decoder
-		// New bytes become available as chunks are added by handleChunkRuns (see addChunk()). 
-		chunkSink = new IncubationBuffer();		
-//		chunkSink = new OrderedByteBufferInputStream();
-		int maxRecvSize = ctx.maxRecvMessageSize==0 ? Integer.MAX_VALUE : ctx.maxRecvMessageSize;
-		InputStreamReadable isr = new InputStreamReadable(chunkSink, maxRecvSize);
-		isr.order(ByteOrder.LITTLE_ENDIAN);		
-		final BinaryDecoder messageDecoder = new BinaryDecoder(isr);
-		messageDecoder.setEncoderContext(encoderCtx);
+		maxRecvSize = ctx.maxRecvMessageSize==0 ? Integer.MAX_VALUE : ctx.maxRecvMessageSize;
 		
-		// Runnable that starts decoding the message. 
-		// It is started in a thread right after the first chunk is added (addChunk())
+		// Runnable that decodes the message. 
+		// It is started when the last chunk has been validated (see chunkValidated())
 		messageDecoderRun = new Runnable() {
 			public void run() {				
+				ByteBuffer[] plaintexts;
+				List<Segment> retained;
+				synchronized (SecureInputMessageBuilder.this) {
+					plaintexts = chunks.toArray(new ByteBuffer[chunks.size()]);
+					retained = segments;
+					segments = null;
+				}
 				try {					
-					// Decode the message using the chunk sink (set in dec)
-					// Decoding proceeds as chunks are added to the chunk sink. 
+					ByteBufferArrayReadable readable = new ByteBufferArrayReadable(plaintexts);
+					readable.order(ByteOrder.LITTLE_ENDIAN);
+					BinaryDecoder messageDecoder = new BinaryDecoder(readable);
+					messageDecoder.setEncoderContext(encoderCtx);
 					IEncodeable message = messageDecoder.getMessage();
 					
 					// assert sequence numbers are consecutive
@@ -146,6 +157,13 @@ public class SecureInputMessageBuilder implements InputMessage {
 					// JVM setting -Xss influences possible level of nesting. At least 100 levels of nesting must be supported, this should not be a problem with normal thread stack sizes. 
 					// Inform receiving side that error has happened.
 					setError(new ServiceResultException(StatusCodes.Bad_DecodingError, "Stack overflow: " + Arrays.toString(Arrays.copyOf(e1.getStackTrace(), 30)) + "..."));
+				} finally {
+					// The decoder copies what it keeps, so the segments of the
+					// chunks can be reused. If the message fails before it is
+					// decoded, they are left to the garbage collector, as
+					// validation may still be running on them.
+					for (Segment segment : retained)
+						segment.release();
 				}
 			}};
 	}
@@ -169,9 +187,25 @@ public class SecureInputMessageBuilder implements InputMessage {
 	 * @param chunk a {@link java.nio.ByteBuffer} object.
 	 * @throws org.opcfoundation.ua.common.ServiceResultException if any.
 	 */
-	public synchronized void addChunk(final ByteBuffer chunk) throws ServiceResultException
+	public void addChunk(final ByteBuffer chunk) throws ServiceResultException
+	{
+		addChunk(chunk, null);
+	}
+
+	/**
+	 * Add a chunk that is in pooled segments. The builder retains the
+	 * segments until the message has been decoded.
+	 *
+	 * @param chunk a {@link java.nio.ByteBuffer} object.
+	 * @param chunkSegments the segments of the chunk, or null
+	 * @throws org.opcfoundation.ua.common.ServiceResultException if any.
+	 */
+	public synchronized void addChunk(final ByteBuffer chunk, List<Segment> chunkSegments) throws ServiceResultException
 	{
 		if (!acceptsChunks) throw new ServiceResultException(StatusCodes.Bad_UnexpectedError, "Final chunk added to message builder");
+		if (chunkSegments != null)
+			for (Segment segment : chunkSegments)
+				segments.add(segment.retain());
 		final int chunkNumber = chunksAdded++;	
 		chunkSequenceNumbers.add(null);
 		int type = ChunkUtils.getMessageType(chunk);
@@ -189,7 +223,7 @@ public class SecureInputMessageBuilder implements InputMessage {
 			this.securityChannelId = ChunkUtils.getSecureChannelId(chunk);
 		}		
 		
-		chunkSink.incubate(chunk);
+		chunks.add(chunk);
 		Runnable handleChunkRun = new Runnable() {
 			public void run() {
 				if (hasError()) return;
@@ -205,11 +239,6 @@ public class SecureInputMessageBuilder implements InputMessage {
 						receiverCertificateThumbPrint = asdf.getReceiverCertificateThumbprint();
 					}
 					
-					int pos = chunk.position();
-					byte[] dada = new byte[chunk.remaining()];
-					chunk.get(dada);
-					chunk.position(pos);
-					
 					int plaintextStart = chunk.position();
 					chunk.position(plaintextStart-8);
 					int chunkSequenceNumber = chunk.getInt();
@@ -238,23 +267,42 @@ public class SecureInputMessageBuilder implements InputMessage {
 						throw new ServiceResultException(StatusCodes.Bad_UnexpectedError, "secureChannelId="+secureChannelId+", expected Id");
 					
 					chunk.position(plaintextStart);
-					chunkSink.hatch(chunk);
-//					chunkSink.offer(chunkNumber, chunk);
+					chunkValidated(chunk);
 				} catch (Exception e) {
 					log.info("addChunk: failed", e);
-					chunkSink.forceClose();
 					setError(e);
 				}				
 			}};
 			
-		// Validate chunk
-		StackUtils.getNonBlockingWorkExecutor().execute(handleChunkRun);
-		
-		// Start decoding message
-		if (chunkNumber==0)
-			StackUtils.getBlockingWorkExecutor().execute(messageDecoderRun);		
+		// Validate chunk. Asymmetric chunks are validated in their own executor,
+		// so that handshakes do not delay the messages of open secure channels
+		if (token instanceof SecurityConfiguration) {
+			try {
+				StackUtils.getHandshakeWorkExecutor().execute(handleChunkRun);
+			} catch (RejectedExecutionException e) {
+				throw new ServiceResultException(StatusCodes.Bad_TcpServerTooBusy, "Too many handshakes in progress");
+			}
+		} else
+			StackUtils.getNonBlockingWorkExecutor().execute(handleChunkRun);
 	}	
 	
+	/**
+	 * Count a validated chunk and start decoding when all chunks of the
+	 * message have been validated.
+	 */
+	private void chunkValidated(ByteBuffer chunk) throws ServiceResultException
+	{
+		synchronized (this) {
+			if (done) return;
+			chunksValidated++;
+			plaintextSize += chunk.remaining();
+			if (plaintextSize > maxRecvSize)
+				throw new ServiceResultException(StatusCodes.Bad_TcpMessageTooLarge, "Message size exceeded maximum ("+maxRecvSize+")");
+			if (acceptsChunks || chunksValidated < chunksAdded) return;
+		}
+		StackUtils.getBlockingWorkExecutor().execute(messageDecoderRun);
+	}
+	
 	/**
 	 * <p>fireComplete.</p>
 	 */
@@ -276,7 +324,7 @@ public class SecureInputMessageBuilder implements InputMessage {
 			}
 			done = true;
 			this.error = e;
-			chunkSink.forceClose();
+			chunks.clear();
 		}
 		fireComplete();
 	}	
@@ -291,7 +339,7 @@ public class SecureInputMessageBuilder implements InputMessage {
 		synchronized (this) {
 			if (done)
 				return;
-			chunkSink.close();
+			chunks.clear();
 			done = true;
 			this.msg = msg;
 		}
@@ -335,10 +383,10 @@ public class SecureInputMessageBuilder implements InputMessage {
 	/**
 	 * <p>close.</p>
 	 */
-	public void close() {
+	public synchronized void close() {
 		if (done) return;
 		done = true;
-		chunkSink.forceClose();
+		chunks.clear();
 	}
 	
 	/**
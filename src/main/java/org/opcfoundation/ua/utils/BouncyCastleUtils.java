@@ -23,6 +23,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -148,7 +149,7 @@ public class BouncyCastleUtils {
 								| KeyUsage.keyCertSign | KeyUsage.cRLSign));
 		ContentSigner signer;
 		try {
-			signer = new JcaContentSignerBuilder(CertificateUtils.getCertificateSignatureAlgorithm())
+			signer = new JcaContentSignerBuilder(CertificateUtils.getCertificateSignatureAlgorithm(privateKey))
 					.setProvider("BC").build(privateKey);
 		} catch (OperatorCreationException e) {
 			throw new GeneralSecurityException("Failed to sign the certificate", e);
@@ -209,7 +210,7 @@ public class BouncyCastleUtils {
 			certBldr = new JcaX509v3CertificateBuilder(
 				caCert, serial, from, to, new X500Principal(domainName), publicKey);
 			 authorityKeyIdentifier = extUtils.createAuthorityKeyIdentifier(caCert);
-			 signerKey = issuerKeys.getPrivateKey().getPrivateKey();
+			 signerKey = issuerKeys.getPrivateKey().getKey();
 		}
 		certBldr.addExtension(Extension.authorityKeyIdentifier, false,
 				authorityKeyIdentifier)
@@ -220,7 +221,9 @@ public class BouncyCastleUtils {
 				.addExtension(
 						Extension.keyUsage,
 						false,
-						new KeyUsage(KeyUsage.digitalSignature
+						new KeyUsage(publicKey instanceof ECKey
+								? KeyUsage.digitalSignature | KeyUsage.nonRepudiation | KeyUsage.keyCertSign
+								: KeyUsage.digitalSignature
 								| KeyUsage.keyEncipherment
 								| KeyUsage.nonRepudiation
 								| KeyUsage.dataEncipherment
@@ -299,7 +302,7 @@ public class BouncyCastleUtils {
 		//***** generate certificate ***********/
 		try {
 			ContentSigner signer = new JcaContentSignerBuilder(
-					CertificateUtils.getCertificateSignatureAlgorithm()).setProvider("BC")
+					CertificateUtils.getCertificateSignatureAlgorithm(signerKey)).setProvider("BC")
 					.build(signerKey);
 			return new JcaX509CertificateConverter().setProvider("BC")
 					.getCertificate(certBldr.build(signer));
@@ -43,7 +43,9 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
 import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
@@ -55,8 +57,10 @@ import org.opcfoundation.ua.common.ServiceResultException;
 import org.opcfoundation.ua.core.SignatureData;
 import org.opcfoundation.ua.transport.security.Cert;
 import org.opcfoundation.ua.transport.security.CertificateProvider;
+import org.opcfoundation.ua.transport.security.EphemeralKey;
 import org.opcfoundation.ua.transport.security.PrivKey;
 import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -309,7 +313,7 @@ public class CertificateUtils {
 		// create certificate chain containing only 1 certificate
 		Certificate[] chain = new Certificate[1];
 		chain[0] = keyPairToSave.certificate.getCertificate();
-		store.setKeyEntry(alias, keyPairToSave.privateKey.getPrivateKey(),
+		store.setKeyEntry(alias, keyPairToSave.privateKey.getKey(),
 				privatePW.toCharArray(), chain);
 
 		FileOutputStream fOut = new FileOutputStream(storeLocation);
@@ -353,7 +357,7 @@ public class CertificateUtils {
 		X509Certificate cert = (X509Certificate) store.getCertificate(alias);
 
 		// Try to load private key from keystore
-		RSAPrivateKey key = (RSAPrivateKey) store.getKey(alias,
+		PrivateKey key = (PrivateKey) store.getKey(alias,
 				privatePW.toCharArray());
 
 		return new org.opcfoundation.ua.transport.security.KeyPair(new Cert(
@@ -395,7 +399,7 @@ public class CertificateUtils {
 		// use the same keypair for the new certificate
 		PublicKey certPubKey = oldKeys.getCertificate().getCertificate()
 				.getPublicKey();
-		RSAPrivateKey certPrivKey = oldKeys.getPrivateKey().getPrivateKey();
+		PrivateKey certPrivKey = oldKeys.getPrivateKey().getKey();
 
 		X509Certificate cert = generateCertificate(
 				"CN=" + commonName
@@ -407,7 +411,7 @@ public class CertificateUtils {
 		// Encapsulate Certificate and private key to CertificateKeyPair
 		Cert certificate = new Cert(cert);
 		org.opcfoundation.ua.transport.security.PrivKey UAkey = new org.opcfoundation.ua.transport.security.PrivKey(
-				(RSAPrivateKey) certPrivKey);
+				certPrivKey);
 		return new org.opcfoundation.ua.transport.security.KeyPair(certificate,
 				UAkey);
 	}
@@ -659,13 +663,46 @@ public class CertificateUtils {
 			String commonName, String organisation, String applicationUri,
 			int validityTime, org.opcfoundation.ua.transport.security.KeyPair issuerKeys, String... hostNames) throws IOException,
 			GeneralSecurityException {
+		return createApplicationInstanceCertificate(null, commonName, organisation, applicationUri, validityTime, issuerKeys, hostNames);
+	}
+
+	/**
+	 * Create an application instance certificate for the given security
+	 * policy. The ECC policies require an EC key on the curve of the policy,
+	 * the other policies use an RSA key of {@link #getKeySize()}.
+	 *
+	 * @param policy
+	 *            - the security policy to create the certificate for, null for RSA
+	 * @param commonName
+	 *            - Common Name (CN) for the generated certificate
+	 * @param organisation
+	 *            - Organisation (O) for the generated certificate
+	 * @param applicationUri
+	 *            - Alternative name (one of x509 extensiontype) for generated
+	 *            certificate. Must not be null
+	 * @param validityTime
+	 *            - the time that the certificate is valid (in days)
+	 * @param issuerKeys
+	 *            the optional issuer certificate and private key to use for
+	 *            signing the certificate. If null a self-signed certificate is generated
+	 * @param hostNames
+	 *            - alternate host names or IP addresses to add to
+	 *            SubjectAlternativeNames
+	 * @throws java.io.IOException if any.
+	 * @throws java.security.GeneralSecurityException if any.
+	 * @return a {@link org.opcfoundation.ua.transport.security.KeyPair} object.
+	 */
+	public static org.opcfoundation.ua.transport.security.KeyPair createApplicationInstanceCertificate(
+			SecurityPolicy policy, String commonName, String organisation, String applicationUri,
+			int validityTime, org.opcfoundation.ua.transport.security.KeyPair issuerKeys, String... hostNames) throws IOException,
+			GeneralSecurityException {
 		if (applicationUri == null)
 			throw new NullPointerException("applicationUri must not be null");
 		// Add provider for generator
 		if (logger.isDebugEnabled())
 			logger.debug("createApplicationInstanceCertificate: getProviders={}", Arrays.toString(Security.getProviders()));
 
-		KeyPair keyPair = generateKeyPair();
+		KeyPair keyPair = policy != null && policy.usesKeyAgreement() ? generateEcKeyPair(policy) : generateKeyPair();
 		
 		// The fields appear in reverse order in the final certificate!
 		String name = 
@@ -697,7 +734,7 @@ public class CertificateUtils {
 			throws CertificateEncodingException {
 		Cert certificate = new Cert(cert);
 		org.opcfoundation.ua.transport.security.PrivKey UAkey = new org.opcfoundation.ua.transport.security.PrivKey(
-				(RSAPrivateKey) privateKey);
+				privateKey);
 		return new org.opcfoundation.ua.transport.security.KeyPair(certificate,
 				UAkey);
 	}
@@ -713,6 +750,12 @@ public class CertificateUtils {
 		return keyPair;
 	}
 
+	private static KeyPair generateEcKeyPair(SecurityPolicy policy) throws GeneralSecurityException {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+		keyPairGenerator.initialize(new ECGenParameterSpec(EphemeralKey.getCurveName(policy)));
+		return keyPairGenerator.generateKeyPair();
+	}
+
 	/**
 	 * Create a new issuer certificate that can be used to issue certificates built
 	 * with
@@ -878,6 +921,20 @@ public class CertificateUtils {
 	public static String getCertificateSignatureAlgorithm() {
 		return certificateSignatureAlgorithm;
 	}
+
+	/**
+	 * Get the algorithm to use for certificate signatures with the given key.
+	 * EC keys use ECDSA with the hash that matches the curve, other keys use
+	 * {@link #getCertificateSignatureAlgorithm()}.
+	 *
+	 * @param signerKey the key that signs the certificate
+	 * @return the signature algorithm
+	 */
+	public static String getCertificateSignatureAlgorithm(PrivateKey signerKey) {
+		if (signerKey instanceof ECKey)
+			return ((ECKey) signerKey).getParams().getCurve().getField().getFieldSize() > 256 ? "SHA384withECDSA" : "SHA256withECDSA";
+		return certificateSignatureAlgorithm;
+	}
     
 	/*
 	 * This code is copied from the openJDK, which checks the AltNames correctly
@@ -931,5 +988,69 @@ public class CertificateUtils {
 		return getApplicationUriOfCertificate(certificate.getCertificate());
 	}	
 
+	/**
+	 * Get the key identifier of the SubjectKeyIdentifier extension of a
+	 * certificate.
+	 *
+	 * @param certificate the certificate
+	 * @return the key identifier, or null if the certificate does not have one
+	 */
+	public static byte[] getSubjectKeyIdentifier(X509Certificate certificate) {
+		// OCTET STRING { OCTET STRING keyIdentifier }
+		byte[] value = certificate.getExtensionValue("2.5.29.14");
+		int[] content = derContent(value, 0, 0x04);
+		if (content == null)
+			return null;
+		content = derContent(value, content[0], 0x04);
+		return content == null ? null : Arrays.copyOfRange(value, content[0], content[1]);
+	}
+
+	/**
+	 * Get the key identifier of the AuthorityKeyIdentifier extension of a
+	 * certificate, i.e. the SubjectKeyIdentifier of its issuer.
+	 *
+	 * @param certificate the certificate
+	 * @return the key identifier, or null if the certificate does not have one
+	 */
+	public static byte[] getAuthorityKeyIdentifier(X509Certificate certificate) {
+		// OCTET STRING { SEQUENCE { [0] keyIdentifier OPTIONAL, ... } }
+		byte[] value = certificate.getExtensionValue("2.5.29.35");
+		int[] content = derContent(value, 0, 0x04);
+		if (content == null)
+			return null;
+		content = derContent(value, content[0], 0x30);
+		if (content == null || content[0] >= content[1])
+			return null;
+		content = derContent(value, content[0], 0x80);
+		return content == null ? null : Arrays.copyOfRange(value, content[0], content[1]);
+	}
+
+	/**
+	 * Find the content of a DER element.
+	 *
+	 * @param der encoded data
+	 * @param offset offset of the element
+	 * @param tag expected tag of the element
+	 * @return start and end offset of the content, or null if there is no such element
+	 */
+	private static int[] derContent(byte[] der, int offset, int tag) {
+		if (der == null || offset + 2 > der.length || (der[offset] & 0xFF) != tag)
+			return null;
+		int length = der[offset + 1] & 0xFF;
+		int start = offset + 2;
+		if (length > 0x80) {
+			int n = length - 0x80;
+			if (n > 3 || start + n > der.length)
+				return null;
+			length = 0;
+			for (int i = 0; i < n; i++)
+				length = (length << 8) | (der[start++] & 0xFF);
+		} else if (length == 0x80)
+			return null;
+		if (start + length > der.length)
+			return null;
+		return new int[] { start, start + length };
+	}
+
 
 }
@@ -12,6 +12,7 @@
 
 package org.opcfoundation.ua.utils;
 
+import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
@@ -23,6 +24,7 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
@@ -572,7 +574,9 @@ public class CryptoUtil {
 		if (signatureAlgorithm.getType().equals(
 				SecurityAlgorithm.AlgorithmType.SymmetricSignature))
 			return signatureAlgorithm.getKeySize() / 8;
-		else {
+		else if (key instanceof ECKey) {
+			return getEcdsaSignatureSize((ECKey) key);
+		} else {
 			if (key instanceof RSAPublicKey)
 				return ((RSAPublicKey) key).getModulus().bitLength() / 8;
 			if (key instanceof RSAPrivateKey)
@@ -603,6 +607,101 @@ public class CryptoUtil {
 				signatureAlgorithm.getUri());
 	}
 
+	/**
+	 * Get the size of an ECDSA signature, which is r and s each padded to the
+	 * size of the curve.
+	 *
+	 * @param key EC public or private key
+	 * @return signature size in bytes
+	 */
+	public static int getEcdsaSignatureSize(ECKey key) {
+		return 2 * ((key.getParams().getCurve().getField().getFieldSize() + 7) / 8);
+	}
+
+	/**
+	 * Encode an ECDSA signature as r | s, as required by the OPC UA ECC
+	 * policies.
+	 *
+	 * @param r r of the signature
+	 * @param s s of the signature
+	 * @param signatureSize the size of the signature, see {@link #getEcdsaSignatureSize(ECKey)}
+	 * @return the encoded signature
+	 */
+	public static byte[] encodeEcdsaSignature(BigInteger r, BigInteger s, int signatureSize) {
+		byte[] result = new byte[signatureSize];
+		int half = signatureSize / 2;
+		writeUnsigned(r, result, 0, half);
+		writeUnsigned(s, result, half, half);
+		return result;
+	}
+
+	/**
+	 * Convert an ECDSA signature from ASN.1 DER, which JCE produces, to r | s.
+	 *
+	 * @param der the DER encoded signature
+	 * @param signatureSize the size of the signature, see {@link #getEcdsaSignatureSize(ECKey)}
+	 * @return the encoded signature
+	 * @throws ServiceResultException Bad_SecurityChecksFailed if the signature is malformed
+	 */
+	public static byte[] derToEcdsaSignature(byte[] der, int signatureSize) throws ServiceResultException {
+		try {
+			int pos = 1;
+			if (der[0] != 0x30)
+				throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, "Malformed ECDSA signature");
+			// Skip the length of the sequence
+			pos += (der[pos] & 0x80) != 0 ? 1 + (der[pos] & 0x7f) : 1;
+			BigInteger[] rs = new BigInteger[2];
+			for (int i = 0; i < 2; i++) {
+				if (der[pos++] != 0x02)
+					throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, "Malformed ECDSA signature");
+				int len = der[pos++] & 0xff;
+				byte[] value = new byte[len];
+				System.arraycopy(der, pos, value, 0, len);
+				rs[i] = new BigInteger(1, value);
+				pos += len;
+			}
+			return encodeEcdsaSignature(rs[0], rs[1], signatureSize);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, "Malformed ECDSA signature");
+		}
+	}
+
+	/**
+	 * Convert an ECDSA signature from r | s to ASN.1 DER, which JCE expects.
+	 *
+	 * @param signature the signature as r | s
+	 * @return the DER encoded signature
+	 */
+	public static byte[] ecdsaSignatureToDer(byte[] signature) {
+		int half = signature.length / 2;
+		byte[] r = new BigInteger(1, Arrays.copyOfRange(signature, 0, half)).toByteArray();
+		byte[] s = new BigInteger(1, Arrays.copyOfRange(signature, half, signature.length)).toByteArray();
+		int len = 2 + r.length + 2 + s.length;
+		int header = len < 128 ? 2 : 3;
+		byte[] der = new byte[header + len];
+		int pos = 0;
+		der[pos++] = 0x30;
+		if (len >= 128)
+			der[pos++] = (byte) 0x81;
+		der[pos++] = (byte) len;
+		der[pos++] = 0x02;
+		der[pos++] = (byte) r.length;
+		System.arraycopy(r, 0, der, pos, r.length);
+		pos += r.length;
+		der[pos++] = 0x02;
+		der[pos++] = (byte) s.length;
+		System.arraycopy(s, 0, der, pos, s.length);
+		return der;
+	}
+
+	private static void writeUnsigned(BigInteger value, byte[] output, int offset, int length) {
+		byte[] bytes = value.toByteArray();
+		// toByteArray adds a leading zero for the sign bit
+		int start = bytes.length > length ? bytes.length - length : 0;
+		int n = bytes.length - start;
+		System.arraycopy(bytes, start, output, offset + length - n, n);
+	}
+
 	/**
 	 * <p>hexToBytes.</p>
 	 *
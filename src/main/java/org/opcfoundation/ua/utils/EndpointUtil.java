@@ -35,6 +35,7 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Matcher;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -58,9 +59,11 @@ import org.opcfoundation.ua.core.UserTokenType;
 import org.opcfoundation.ua.core.X509IdentityToken;
 import org.opcfoundation.ua.encoding.binary.BinaryEncoder;
 import org.opcfoundation.ua.transport.UriUtil;
+import org.opcfoundation.ua.transport.local.LocalAddress;
 import org.opcfoundation.ua.transport.security.Cert;
 import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
 import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.shm.ShmAddress;
 import org.opcfoundation.ua.utils.bytebuffer.ByteBufferUtils;
 
 
@@ -132,6 +135,24 @@ public class EndpointUtil {
 			// Choose one endpoint
 			return httpsEndpoints[ 0 ];
 		}
+
+		// Find in-process endpoints
+		exit: {
+			EndpointDescription[] localEndpoints = EndpointUtil.selectByProtocol(endpoints, UriUtil.SCHEME_LOCAL);
+			// No suitable endpoint was found
+			if ( localEndpoints.length == 0 ) break exit;
+			// Choose one endpoint
+			return localEndpoints[ 0 ];
+		}
+
+		// Find shared-memory endpoints
+		exit: {
+			EndpointDescription[] shmEndpoints = EndpointUtil.selectByProtocol(endpoints, UriUtil.SCHEME_SHM);
+			// No suitable endpoint was found
+			if ( shmEndpoints.length == 0 ) break exit;
+			// Choose one endpoint
+			return shmEndpoints[ 0 ];
+		}
 		
 		throw new ServiceResultException("No compatible endpoint was found");
 	}
@@ -545,6 +566,9 @@ public class EndpointUtil {
 	}
 	/**
 	 * Convert endpoint url to socket addresses.
+	 * An opc.local url is converted to its {@link LocalAddress}, and an
+	 * opc.tcp+unix url to the address of its unix domain socket. An opc.shm
+	 * url is converted to its {@link ShmAddress}.
 	 *
 	 * @param endpointUrl a {@link java.lang.String} object.
 	 * @param enableIPv6 Set true to enable IPv6 addressing. Requires Java 7 or later on Windows platforms.
@@ -558,6 +582,23 @@ public class EndpointUtil {
 
 		if (endpointUrl == null) 
 			throw new IllegalArgumentException("URL not valid.");
+		// In-process endpoints are bound to a name, not to a socket
+		if (UriUtil.PATTERN_LOCAL.matcher(endpointUrl).matches()) {
+			result.add(LocalAddress.valueOf(endpointUrl));
+			return result;
+		}
+		// Shared-memory endpoints are bound to a directory
+		if (UriUtil.PATTERN_SHM.matcher(endpointUrl).matches()) {
+			result.add(ShmAddress.valueOf(endpointUrl));
+			return result;
+		}
+		Matcher unixMatcher = UriUtil.PATTERN_OPCTCP_UNIX.matcher(endpointUrl);
+		if (unixMatcher.matches()) {
+			if (!UnixDomainSocketUtil.isSupported())
+				throw new IllegalArgumentException("Unix domain sockets require Java 16 or later: " + endpointUrl);
+			result.add(UnixDomainSocketUtil.toAddress(unixMatcher.group(1)));
+			return result;
+		}
 		try {
 			URI uri = new URI(endpointUrl);
 			String proto = UriUtil.getTransportProtocol(endpointUrl);
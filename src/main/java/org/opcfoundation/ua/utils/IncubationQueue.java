@@ -12,18 +12,25 @@
 
 package org.opcfoundation.ua.utils;
 
-import java.util.HashMap;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * IncubationQueue is ordered queue where objects are added in two phases;
  * (a) as incubating, they are given queuing number, and as (b) hatched they become
  * available to the consumer. Objects become consumable when they are hatch()ed.
  * The order of incubation is maintained. Objects become consumable in the order they
- * were incubate()ed. This class is synchronized and is multi-thread-safe.
+ * were incubate()ed. This class is multi-thread-safe.
+ * <p>
+ * The queue is lock-free. Objects are kept in a linked list in the order of
+ * incubation, each with its hatch state, and are looked up from a concurrent
+ * map. Only threads that wait for an object take a monitor, and objects
+ * are added, hatched and removed without locking while no one waits.
  * <p>
  * Example:
  *
@@ -44,8 +51,61 @@ import java.util.Map;
  */
 public class IncubationQueue<T> {
 
-	Map<T, T> hatchMap; // value=key, if null it is hatched
-	LinkedList<T> orderList = new LinkedList<T>();
+	static final int INCUBATING = 0;
+	static final int HATCHED = 1;
+
+	/**
+	 * Queued object and its state
+	 */
+	static final class Node<T> {
+		volatile T item;
+		final Object key;
+		volatile int state;
+		volatile Node<T> next;
+
+		Node(T item, Object key) {
+			this.item = item;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Key that compares the object with ==
+	 */
+	static final class IdentityKey {
+		final Object o;
+
+		IdentityKey(Object o) {
+			this.o = o;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(o);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey) obj).o == o;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	static final AtomicIntegerFieldUpdater<Node> STATE = AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+	final boolean identityComparison;
+	// Nodes by key
+	final ConcurrentHashMap<Object, Node<T>> nodes = new ConcurrentHashMap<Object, Node<T>>(4, 0.75f, 1);
+	// head is a consumed node, the queue continues from head.next
+	final AtomicReference<Node<T>> head;
+	final AtomicReference<Node<T>> tail;
+	// Threads waiting on lock, notified only if there are any. Threads
+	// waiting for the next object are woken only by changes at the head.
+	final AtomicInteger waiters = new AtomicInteger();
+	final AtomicInteger headWaiters = new AtomicInteger();
+	final Object lock = new Object();
 	
 	/**
 	 * Create new Incubation queue that compares with equals()/hashCode
@@ -62,9 +122,10 @@ public class IncubationQueue<T> {
 	 */
 	public IncubationQueue(boolean identityComparison)
 	{
-		hatchMap = identityComparison ?
-				new IdentityHashMap<T, T>() :
-		 		new HashMap<T, T>(); 
+		this.identityComparison = identityComparison;
+		Node<T> sentinel = new Node<T>(null, null);
+		head = new AtomicReference<Node<T>>(sentinel);
+		tail = new AtomicReference<Node<T>>(sentinel);
 	}
 	
 	
@@ -73,14 +134,27 @@ public class IncubationQueue<T> {
 	 *
 	 * @param o object not null and not in queue
 	 */
-	public synchronized void incubate(T o) {
+	public void incubate(T o) {
 		if (o==null)
 			throw new IllegalArgumentException("null arg");
-		if (hatchMap.containsKey(o)) 
+		Object key = keyOf(o);
+		Node<T> node = new Node<T>(o, key);
+		if (nodes.putIfAbsent(key, node)!=null)
 			throw new IllegalArgumentException(o+" is already incubating");
-		hatchMap.put(o, o);
-		orderList.addLast(o);
-		notifyAll();
+		while (true) {
+			Node<T> t = tail.get();
+			Node<T> n = t.next;
+			if (n==null) {
+				if (NEXT.compareAndSet(t, null, node)) {
+					tail.compareAndSet(t, node);
+					break;
+				}
+			} else {
+				tail.compareAndSet(t, n);
+			}
+		}
+		if (headWaiters.get()>0 && head.get().next==node)
+			signal();
 	}
 	
 	/**
@@ -94,17 +168,18 @@ public class IncubationQueue<T> {
 	 * @throws java.lang.IllegalArgumentException if o was not incubating
 	 * @return true if o was incubating
 	 */
-	public synchronized boolean hatch(T o)
+	public boolean hatch(T o)
 	throws IllegalArgumentException
 	{
 		if (o==null)
 			throw new IllegalArgumentException("null arg");
-		if (!hatchMap.containsKey(o)) 		
+		Node<T> node = nodes.get(keyOf(o));
+		if (node==null)
 			throw new IllegalArgumentException(o+" is not incubating");
-		T key = hatchMap.get(o);
-		hatchMap.put(key, null);
-		notifyAll();		
-		return key!=null;
+		boolean result = STATE.compareAndSet(node, INCUBATING, HATCHED);
+		if (waiters.get()>0 || (headWaiters.get()>0 && head.get().next==node))
+			signal();
+		return result;
 	}
 
 	/**
@@ -112,14 +187,22 @@ public class IncubationQueue<T> {
 	 *
 	 * @return next hatched object or null
 	 */
-	public synchronized T removeNextHatchedIfAvailable() 
+	public T removeNextHatchedIfAvailable() 
 	{
-		T o = getNextHatchedIfAvailable();
-		if (o==null) return null;
-		orderList.removeFirst();
-		hatchMap.remove(o);
-		notifyAll();
-		return o;
+		while (true) {
+			Node<T> h = head.get();
+			Node<T> first = h.next;
+			if (first==null || first.state!=HATCHED) return null;
+			T o = first.item;
+			if (head.compareAndSet(h, first)) {
+				// first is the new head, it does not hold the object anymore
+				first.item = null;
+				nodes.remove(first.key, first);
+				if (waiters.get()>0 || headWaiters.get()>0)
+					signal();
+				return o;
+			}
+		}
 	}
 		
 	/**
@@ -128,14 +211,21 @@ public class IncubationQueue<T> {
 	 * @return next hatched object
 	 * @throws java.lang.InterruptedException if any.
 	 */
-	public synchronized T removeNextHatched() 
+	public T removeNextHatched() 
 	throws InterruptedException
 	{
-		T o = getNextHatched();
-		orderList.removeFirst();
-		hatchMap.remove(o);
-		notifyAll();
-		return o;
+		while (true) {
+			T o = removeNextHatchedIfAvailable();
+			if (o!=null) return o;
+			synchronized(lock) {
+				headWaiters.incrementAndGet();
+				try {
+					if (!nextIsHatched()) lock.wait();
+				} finally {
+					headWaiters.decrementAndGet();
+				}
+			}
+		}
 	}
 	
 	/**
@@ -143,7 +233,7 @@ public class IncubationQueue<T> {
 	 *
 	 * @return next hatched object
 	 */
-	public synchronized T removeNextHatchedUninterruptibly()
+	public T removeNextHatchedUninterruptibly()
 	{
 		while (true) {
 			try {
@@ -159,11 +249,10 @@ public class IncubationQueue<T> {
 	 *
 	 * @return true if there is an object in queue and it is hatched
 	 */
-	public synchronized boolean nextIsHatched()
+	public boolean nextIsHatched()
 	{
-		if (orderList.isEmpty()) return false;
-		T o = orderList.getFirst();
-		return hatchMap.get(o)==null;
+		Node<T> first = head.get().next;
+		return first!=null && first.state==HATCHED;
 	}
 
 	/**
@@ -171,12 +260,11 @@ public class IncubationQueue<T> {
 	 *
 	 * @return next hatched object or null
 	 */
-	public synchronized T getNextHatchedIfAvailable()
+	public T getNextHatchedIfAvailable()
 	{
-		if (orderList.isEmpty()) return null;
-		T key = orderList.getFirst();
-		if (hatchMap.get(key)!=null) return null;
-		return key;		
+		Node<T> first = head.get().next;
+		if (first==null || first.state!=HATCHED) return null;
+		return first.item;		
 	}
 
 	/**
@@ -189,10 +277,15 @@ public class IncubationQueue<T> {
 	throws InterruptedException
 	{
 		while (true) {
-			T key = getNext();
-			waitUntilIncubated(key);
-			synchronized(this) {
-				if (orderList.getFirst()==key) return key;
+			T o = getNextHatchedIfAvailable();
+			if (o!=null) return o;
+			synchronized(lock) {
+				headWaiters.incrementAndGet();
+				try {
+					if (!nextIsHatched()) lock.wait();
+				} finally {
+					headWaiters.decrementAndGet();
+				}
 			}
 		}
 	}
@@ -203,11 +296,25 @@ public class IncubationQueue<T> {
 	 * @return a T object.
 	 * @throws java.lang.InterruptedException if any.
 	 */
-	public synchronized T getNext()
+	public T getNext()
 	throws InterruptedException
 	{
-		while(orderList.isEmpty()) wait();
-		return orderList.getFirst();		
+		while (true) {
+			Node<T> first = head.get().next;
+			if (first!=null) {
+				T o = first.item;
+				if (o!=null) return o;
+				continue;
+			}
+			synchronized(lock) {
+				headWaiters.incrementAndGet();
+				try {
+					if (head.get().next==null) lock.wait();
+				} finally {
+					headWaiters.decrementAndGet();
+				}
+			}
+		}
 	}
 	
 	/**
@@ -215,17 +322,28 @@ public class IncubationQueue<T> {
 	 *
 	 * @return a boolean.
 	 */
-	public synchronized boolean isEmpty() {
-		return hatchMap.isEmpty();
+	public boolean isEmpty() {
+		return nodes.isEmpty();
 	}
 	
 	/**
 	 * <p>clear.</p>
 	 */
-	public synchronized void clear() {
-		orderList.clear();
-		hatchMap.clear();
-		notifyAll();
+	public void clear() {
+		Node<T> h, t;
+		do {
+			h = head.get();
+			t = h;
+			for (Node<T> n = t.next; n!=null; n = n.next)
+				t = n;
+		} while (!head.compareAndSet(h, t));
+		for (Node<T> n = h.next; n!=null; n = n.next) {
+			nodes.remove(n.key, n);
+			if (n==t) break;
+		}
+		t.item = null;
+		if (waiters.get()>0 || headWaiters.get()>0)
+			signal();
 	}
 	
 	/**
@@ -233,8 +351,8 @@ public class IncubationQueue<T> {
 	 *
 	 * @return a int.
 	 */
-	public synchronized int size() {
-		return hatchMap.size();
+	public int size() {
+		return nodes.size();
 	}
 	
 	/**
@@ -243,7 +361,33 @@ public class IncubationQueue<T> {
 	 * @return iterator
 	 */
 	public Iterator<T> iterator() {
-		return orderList.iterator();
+		return new Iterator<T>() {
+			Node<T> next = advance(head.get().next);
+
+			Node<T> advance(Node<T> n) {
+				while (n!=null && n.item==null)
+					n = n.next;
+				return n;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next!=null;
+			}
+
+			@Override
+			public T next() {
+				if (next==null) throw new NoSuchElementException();
+				T o = next.item;
+				next = advance(next.next);
+				return o;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 	
 	/**
@@ -252,9 +396,9 @@ public class IncubationQueue<T> {
 	 * @param o a T object.
 	 * @return a boolean.
 	 */
-	public synchronized boolean contains(T o)
+	public boolean contains(T o)
 	{
-		return hatchMap.containsKey(o);
+		return nodes.containsKey(keyOf(o));
 	}
 	
 	/**
@@ -263,10 +407,10 @@ public class IncubationQueue<T> {
 	 * @param o a T object.
 	 * @return a boolean.
 	 */
-	public synchronized boolean isHatched(T o)
+	public boolean isHatched(T o)
 	{
-		if (!hatchMap.containsKey(o)) return false;
-		return hatchMap.get(o) == null;
+		Node<T> node = nodes.get(keyOf(o));
+		return node!=null && node.state==HATCHED;
 	}
 
 	/**
@@ -275,10 +419,10 @@ public class IncubationQueue<T> {
 	 * @param o a T object.
 	 * @return a boolean.
 	 */
-	public synchronized boolean isIncubating(T o)
+	public boolean isIncubating(T o)
 	{
-		if (!hatchMap.containsKey(o)) return false;
-		return hatchMap.get(o) != null;
+		Node<T> node = nodes.get(keyOf(o));
+		return node!=null && node.state==INCUBATING;
 	}
 	
 	/**
@@ -287,10 +431,30 @@ public class IncubationQueue<T> {
 	 * @param o a T object.
 	 * @throws java.lang.InterruptedException if any.
 	 */
-	public synchronized void waitUntilIncubated(T o) 
+	public void waitUntilIncubated(T o) 
 	throws InterruptedException
 	{
-		while (isIncubating(o)) wait();
+		while (isIncubating(o)) {
+			synchronized(lock) {
+				waiters.incrementAndGet();
+				try {
+					if (isIncubating(o)) lock.wait();
+				} finally {
+					waiters.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	private Object keyOf(Object o) {
+		return identityComparison ? new IdentityKey(o) : o;
+	}
+
+	// Wake up waiting threads
+	private void signal() {
+		synchronized(lock) {
+			lock.notifyAll();
+		}
 	}
 	
 }
@@ -19,6 +19,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -116,7 +117,7 @@ public class SpongyCastleUtils {
 								| KeyUsage.keyCertSign | KeyUsage.cRLSign));
 		ContentSigner signer;
 		try {
-			signer = new JcaContentSignerBuilder(CertificateUtils.getCertificateSignatureAlgorithm())
+			signer = new JcaContentSignerBuilder(CertificateUtils.getCertificateSignatureAlgorithm(privateKey))
 					.setProvider("SC").build(privateKey);
 		} catch (OperatorCreationException e) {
 			throw new GeneralSecurityException("Failed to sign the certificate", e);
@@ -177,7 +178,7 @@ public class SpongyCastleUtils {
 			certBldr = new JcaX509v3CertificateBuilder(
 				caCert, serial, from, to, new X500Principal(domainName), publicKey);
 			 authorityKeyIdentifier = extUtils.createAuthorityKeyIdentifier(caCert);
-			 signerKey = issuerKeys.getPrivateKey().getPrivateKey();
+			 signerKey = issuerKeys.getPrivateKey().getKey();
 		}
 		certBldr.addExtension(Extension.authorityKeyIdentifier, false,
 				authorityKeyIdentifier)
@@ -188,7 +189,9 @@ public class SpongyCastleUtils {
 				.addExtension(
 						Extension.keyUsage,
 						false,
-						new KeyUsage(KeyUsage.digitalSignature
+						new KeyUsage(publicKey instanceof ECKey
+								? KeyUsage.digitalSignature | KeyUsage.nonRepudiation | KeyUsage.keyCertSign
+								: KeyUsage.digitalSignature
 								| KeyUsage.keyEncipherment
 								| KeyUsage.nonRepudiation
 								| KeyUsage.dataEncipherment
@@ -256,7 +259,7 @@ public class SpongyCastleUtils {
 		//***** generate certificate ***********/
 		try {
 			ContentSigner signer = new JcaContentSignerBuilder(
-					CertificateUtils.getCertificateSignatureAlgorithm()).setProvider("SC")
+					CertificateUtils.getCertificateSignatureAlgorithm(signerKey)).setProvider("SC")
 					.build(signerKey);
 			return new JcaX509CertificateConverter().setProvider("SC")
 					.getCertificate(certBldr.build(signer));
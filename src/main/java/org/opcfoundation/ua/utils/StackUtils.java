@@ -27,6 +27,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
@@ -99,6 +100,17 @@ public class StackUtils {
 	 */
 	private static Executor BLOCKING_EXECUTOR;
 
+	/**
+	 * Use {@link #getHandshakeWorkExecutor()} instead
+	 */
+	private static ThreadPoolExecutor HANDSHAKE_EXECUTOR;
+
+	/** Number of threads for asymmetric crypto, 0 = half of the cores */
+	private static int handshakeWorkerThreadPoolSize = 0;
+
+	/** Max number of queued handshake tasks */
+	private static int handshakeWorkQueueSize = 1024;
+
 	private static ExecutorService rejectionExecutor;
 
 	/**
@@ -106,6 +118,16 @@ public class StackUtils {
 	 */
 	private static AsyncSelector SELECTOR;
 
+	/**
+	 * Use #nextSelector() instead.
+	 */
+	private static AsyncSelector[] SELECTORS;
+
+	private static final AtomicInteger SELECTOR_INDEX = new AtomicInteger();
+
+	/** Number of selector loops for connections, 0 = one per core */
+	private static int selectorCount = 0;
+
 	/** Constant <code>RANDOM</code> */
 	public static Random RANDOM = new Random();
 
@@ -126,6 +148,11 @@ public class StackUtils {
 	 */
 	public static String BLOCKING_WORK_EXECUTOR_NAME_PATTERN = "OPC-UA-Stack-Blocking-Work-Executor-%d";
 
+	/**
+	 * Naming pattern for the {@link #getHandshakeWorkExecutor()} thread names. Can include a single %d for the number of the thread.
+	 */
+	public static String HANDSHAKE_WORK_EXECUTOR_NAME_PATTERN = "OPC-UA-Stack-Handshake-Work-Executor-%d";
+
 	/**
 	 * Name used for the Thread in {@link TimerUtil}.
 	 */
@@ -135,6 +162,11 @@ public class StackUtils {
 	 * Name used for the Thread of {@link #getSelector()}. 
 	 */
 	public static String SELECTOR_NAME_PATTERN = "OPC-UA-Stack-Async-Selector";
+
+	/**
+	 * Naming pattern for the threads of {@link #getSelectors()}. Can include a single %d for the number of the thread.
+	 */
+	public static String SELECTOR_POOL_NAME_PATTERN = "OPC-UA-Stack-Async-Selector-%d";
 	
 	private static IEncodeableSerializer DEFAULT_SERIALIZER;
 
@@ -322,6 +354,86 @@ public class StackUtils {
 		return NON_BLOCKING_EXECUTOR;
 	}
 
+	/**
+	 * Get Executor for the asymmetric crypto of secure channel handshakes,
+	 * i.e. the OpenSecureChannel chunks. The executor is separate from
+	 * {@link #getNonBlockingWorkExecutor()}, so that a burst of handshakes
+	 * does not delay the symmetric chunks of established secure channels.
+	 * <p>
+	 * The executor has {@link #getHandshakeWorkerThreadPoolSize()} threads and
+	 * a queue of {@link #getHandshakeWorkQueueSize()} tasks. Tasks beyond that
+	 * are rejected with {@link RejectedExecutionException}.
+	 *
+	 * @return Executor for asymmetric crypto operations.
+	 */
+	public static synchronized Executor getHandshakeWorkExecutor() {
+		if (HANDSHAKE_EXECUTOR == null) {
+			final AtomicInteger counter = new AtomicInteger(0);
+			ThreadFactory tf = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, String.format(HANDSHAKE_WORK_EXECUTOR_NAME_PATTERN, counter.incrementAndGet()));
+					t.setDaemon(true);
+					t.setUncaughtExceptionHandler(uncaughtExceptionHandler);
+					return t;
+				}};
+				int threads = getHandshakeWorkerThreadPoolSize();
+				HANDSHAKE_EXECUTOR =
+						new ThreadPoolExecutor(
+								threads,
+								threads,
+								3L, TimeUnit.SECONDS,
+								new LinkedBlockingQueue<Runnable>( handshakeWorkQueueSize ),
+								tf,
+								new ThreadPoolExecutor.AbortPolicy());
+				HANDSHAKE_EXECUTOR.allowCoreThreadTimeOut(true);
+		}
+		return HANDSHAKE_EXECUTOR;
+	}
+
+	/**
+	 * <p>Getter for the field <code>handshakeWorkerThreadPoolSize</code>.</p>
+	 *
+	 * @return the number of threads of the HandshakeWorkExecutor.
+	 */
+	public static int getHandshakeWorkerThreadPoolSize() {
+		int size = handshakeWorkerThreadPoolSize;
+		return size > 0 ? size : Math.max(1, CORES / 2);
+	}
+
+	/**
+	 * Define the number of threads of the HandshakeWorkExecutor. Must be set
+	 * before the executor is first used.
+	 * <p>
+	 * Default: 0, which is half of the cores, at least 1
+	 *
+	 * @param handshakeWorkerThreadPoolSize number of threads, 0 = default
+	 */
+	public static void setHandshakeWorkerThreadPoolSize(int handshakeWorkerThreadPoolSize) {
+		StackUtils.handshakeWorkerThreadPoolSize = handshakeWorkerThreadPoolSize;
+	}
+
+	/**
+	 * <p>Getter for the field <code>handshakeWorkQueueSize</code>.</p>
+	 *
+	 * @return the max number of queued tasks of the HandshakeWorkExecutor.
+	 */
+	public static int getHandshakeWorkQueueSize() {
+		return handshakeWorkQueueSize;
+	}
+
+	/**
+	 * Define the max number of queued tasks of the HandshakeWorkExecutor.
+	 * Must be set before the executor is first used.
+	 * <p>
+	 * Default: 1024
+	 *
+	 * @param handshakeWorkQueueSize max number of tasks
+	 */
+	public static void setHandshakeWorkQueueSize(int handshakeWorkQueueSize) {
+		StackUtils.handshakeWorkQueueSize = handshakeWorkQueueSize;
+	}
+
 	/**
 	 * Get Executor that handles tasks that are rejected by blocking work executor
 	 *
@@ -358,6 +470,76 @@ public class StackUtils {
 		return SELECTOR;
 	}
 
+	/**
+	 * Get the pool of selector loops that serve connections. The pool is
+	 * created on first use with {@link #getSelectorCount()} loops.
+	 * <p>
+	 * Each connection is registered to one loop for its lifetime, see
+	 * {@link #nextSelector()}, so that readiness events of different
+	 * connections are handled in parallel.
+	 *
+	 * @return selector loops
+	 */
+	public static synchronized AsyncSelector[] getSelectors() {
+		if (SELECTORS == null) {
+			AsyncSelector[] selectors = new AsyncSelector[getSelectorCount()];
+			try {
+				for (int i = 0; i < selectors.length; i++)
+					selectors[i] = new AsyncSelector(Selector.open(), String.format(SELECTOR_POOL_NAME_PATTERN, i + 1));
+			} catch (IOException e) {
+				closeSelectors(selectors);
+				throw new Error(e);
+			}
+			SELECTORS = selectors;
+		}
+		return SELECTORS;
+	}
+
+	/**
+	 * Get the selector loop for a new connection. The loops of
+	 * {@link #getSelectors()} are assigned round-robin.
+	 *
+	 * @return a {@link org.opcfoundation.ua.utils.asyncsocket.AsyncSelector} object.
+	 */
+	public static AsyncSelector nextSelector() {
+		AsyncSelector[] selectors = getSelectors();
+		int i = SELECTOR_INDEX.getAndIncrement() & Integer.MAX_VALUE;
+		return selectors[i % selectors.length];
+	}
+
+	/**
+	 * Number of selector loops in {@link #getSelectors()}.
+	 * <p>
+	 * Default: number of cores
+	 *
+	 * @return a int.
+	 */
+	public static int getSelectorCount() {
+		return selectorCount > 0 ? selectorCount : CORES;
+	}
+
+	/**
+	 * Define the number of selector loops in {@link #getSelectors()}. Must be
+	 * set before the first server is bound; 0 uses one loop per core.
+	 *
+	 * @param selectorCount a int.
+	 */
+	public static void setSelectorCount(int selectorCount) {
+		if (selectorCount < 0)
+			throw new IllegalArgumentException("selectorCount must be >= 0");
+		StackUtils.selectorCount = selectorCount;
+	}
+
+	private static void closeSelectors(AsyncSelector[] selectors) {
+		for (AsyncSelector s : selectors)
+			if (s != null)
+				try {
+					s.close();
+				} catch (IOException e) {
+					logger.debug("SELECTORS.close failed", e);
+				}
+	}
+
 	/**
 	 * The handler that is called, if any of the worker threads encounter an exception that is not handled.
 	 *
@@ -373,6 +555,8 @@ public class StackUtils {
 	public static void logStatus() {
 		logExecutor("BLOCKING_EXECUTOR", (ThreadPoolExecutor)BLOCKING_EXECUTOR);
 		logExecutor("NON_BLOCKING_EXECUTOR", (ThreadPoolExecutor)NON_BLOCKING_EXECUTOR);
+		if (HANDSHAKE_EXECUTOR != null)
+			logExecutor("HANDSHAKE_EXECUTOR", HANDSHAKE_EXECUTOR);
 	}
 	/**
 	 * <p>newNamedThreadFactory.</p>
@@ -425,7 +609,7 @@ public class StackUtils {
 	/**
 	 * Perform a "context shutdown" to clean up the Stack resources. Necessary for web service modules, etc.
 	 * <p>
-	 * Shuts down {@link #BLOCKING_EXECUTOR} and {@link #NON_BLOCKING_EXECUTOR}, closes {@link #SELECTOR}
+	 * Shuts down {@link #BLOCKING_EXECUTOR}, {@link #NON_BLOCKING_EXECUTOR} and {@link #HANDSHAKE_EXECUTOR}, closes {@link #SELECTOR} and {@link #SELECTORS}
 	 * and cancels {@link TimerUtil#getTimer()}.
 	 */
 	public static void shutdown() {
@@ -437,6 +621,12 @@ public class StackUtils {
 			((ThreadPoolExecutor)NON_BLOCKING_EXECUTOR).shutdown();
 			NON_BLOCKING_EXECUTOR = null;
 		}
+		synchronized (StackUtils.class) {
+			if (HANDSHAKE_EXECUTOR != null) {
+				HANDSHAKE_EXECUTOR.shutdown();
+				HANDSHAKE_EXECUTOR = null;
+			}
+		}
 
 		if(rejectionExecutor != null){
 			rejectionExecutor.shutdown();
@@ -451,6 +641,13 @@ public class StackUtils {
 				logger.debug("SELECTOR.close failed", e);
 			}
 		}
+
+		synchronized (StackUtils.class) {
+			if (SELECTORS != null) {
+				closeSelectors(SELECTORS);
+				SELECTORS = null;
+			}
+		}
 		
 		WeakReference<Timer> timerContainer = TimerUtil.timer;
 		Timer timer = timerContainer==null ? null : timerContainer.get();
@@ -0,0 +1,242 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Access to unix domain socket channels (AF_UNIX).
+ * <p>
+ * Unix domain channels were added in Java 16. The stack is compiled for
+ * older Java versions, so the channels are opened by reflection, without
+ * referring to the Java 7 ProtocolFamily type, and
+ * {@link #isSupported()} returns false on older runtimes. Unix domain
+ * channels have no {@link java.net.Socket} adaptor, so their addresses
+ * are read with the methods of this class.
+ */
+public class UnixDomainSocketUtil {
+
+	static final String ADDRESS_CLASS = "java.net.UnixDomainSocketAddress";
+
+	/** java.net.StandardProtocolFamily.UNIX */
+	static Object unix;
+	static Method addressOf;
+	static Method addressPath;
+	static Method openSocketChannel;
+	static Method openServerSocketChannel;
+	static Method bind;
+	static Method localAddress;
+	static Method remoteAddress;
+
+	static {
+		try {
+			Class<?> addressClass = Class.forName(ADDRESS_CLASS);
+			addressOf = addressClass.getMethod("of", String.class);
+			addressPath = addressClass.getMethod("getPath");
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			Object family = Enum.valueOf((Class<Enum>) Class.forName("java.net.StandardProtocolFamily"), "UNIX");
+			Class<?> protocolFamily = Class.forName("java.net.ProtocolFamily");
+			openSocketChannel = SocketChannel.class.getMethod("open", protocolFamily);
+			openServerSocketChannel = ServerSocketChannel.class.getMethod("open", protocolFamily);
+			bind = ServerSocketChannel.class.getMethod("bind", SocketAddress.class, int.class);
+			Class<?> networkChannel = Class.forName("java.nio.channels.NetworkChannel");
+			localAddress = networkChannel.getMethod("getLocalAddress");
+			remoteAddress = SocketChannel.class.getMethod("getRemoteAddress");
+			unix = family;
+		} catch (Exception e) {
+			// Not supported by this runtime
+		} catch (LinkageError e) {
+			// Not supported by this runtime
+		}
+	}
+
+	/**
+	 * Get whether the runtime supports unix domain socket channels.
+	 *
+	 * @return true if Java 16 or later
+	 */
+	public static boolean isSupported() {
+		return unix != null;
+	}
+
+	/**
+	 * Create an address of a unix domain socket.
+	 *
+	 * @param path path of the socket file
+	 * @return a java.net.UnixDomainSocketAddress
+	 * @throws java.lang.UnsupportedOperationException if the runtime does not support unix domain sockets
+	 * @throws java.lang.IllegalArgumentException if the path is not valid
+	 */
+	public static SocketAddress toAddress(String path) {
+		assertSupported();
+		try {
+			return (SocketAddress) addressOf.invoke(null, path);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	/**
+	 * Get whether an address is a unix domain socket address.
+	 *
+	 * @param address a {@link java.net.SocketAddress} object.
+	 * @return true if address is a java.net.UnixDomainSocketAddress
+	 */
+	public static boolean isUnixAddress(SocketAddress address) {
+		return address != null && address.getClass().getName().equals(ADDRESS_CLASS);
+	}
+
+	/**
+	 * Get the socket file of a unix domain socket address.
+	 *
+	 * @param address a unix domain socket address
+	 * @return the socket file
+	 */
+	public static File getFile(SocketAddress address) {
+		if (!isUnixAddress(address))
+			throw new IllegalArgumentException("Not a unix domain socket address: " + address);
+		return new File(String.valueOf(invoke(addressPath, address)));
+	}
+
+	/**
+	 * Open an unconnected unix domain socket channel. The channel is in
+	 * blocking mode.
+	 *
+	 * @return a new {@link java.nio.channels.SocketChannel}
+	 * @throws java.io.IOException if error
+	 * @throws java.lang.UnsupportedOperationException if the runtime does not support unix domain sockets
+	 */
+	public static SocketChannel openSocketChannel() throws IOException {
+		assertSupported();
+		return (SocketChannel) invokeIo(openSocketChannel, null, unix);
+	}
+
+	/**
+	 * Open an unbound unix domain server socket channel. The channel is in
+	 * blocking mode.
+	 *
+	 * @return a new {@link java.nio.channels.ServerSocketChannel}
+	 * @throws java.io.IOException if error
+	 * @throws java.lang.UnsupportedOperationException if the runtime does not support unix domain sockets
+	 */
+	public static ServerSocketChannel openServerSocketChannel() throws IOException {
+		assertSupported();
+		return (ServerSocketChannel) invokeIo(openServerSocketChannel, null, unix);
+	}
+
+	/**
+	 * Bind a unix domain server socket channel. A socket file that is left
+	 * behind by a process that no longer listens to it is removed first.
+	 *
+	 * @param channel channel to bind
+	 * @param address unix domain socket address
+	 * @param backlog backlog, 0 for the default
+	 * @throws java.io.IOException if error, or if another process listens to the address
+	 */
+	public static void bind(ServerSocketChannel channel, SocketAddress address, int backlog) throws IOException {
+		File file = getFile(address);
+		if (file.exists() && !isListening(address) && !file.delete())
+			throw new IOException("Cannot remove stale socket file " + file);
+		invokeIo(bind, channel, address, backlog);
+	}
+
+	/**
+	 * Get the local address of a channel. Works with both internet and unix
+	 * domain channels.
+	 *
+	 * @param channel a {@link java.nio.channels.SocketChannel} or a {@link java.nio.channels.ServerSocketChannel}
+	 * @return the local address, or null if the channel is not bound
+	 */
+	public static SocketAddress getLocalAddress(Channel channel) {
+		if (localAddress == null) {
+			if (channel instanceof SocketChannel)
+				return ((SocketChannel) channel).socket().getLocalSocketAddress();
+			return ((ServerSocketChannel) channel).socket().getLocalSocketAddress();
+		}
+		try {
+			return (SocketAddress) invokeIo(localAddress, channel);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the remote address of a channel. Works with both internet and unix
+	 * domain channels.
+	 *
+	 * @param channel a {@link java.nio.channels.SocketChannel} object.
+	 * @return the remote address, or null if the channel is not connected
+	 */
+	public static SocketAddress getRemoteAddress(SocketChannel channel) {
+		if (remoteAddress == null)
+			return channel.socket().getRemoteSocketAddress();
+		try {
+			return (SocketAddress) invokeIo(remoteAddress, channel);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	static boolean isListening(SocketAddress address) {
+		try {
+			SocketChannel probe = openSocketChannel();
+			try {
+				return probe.connect(address);
+			} finally {
+				probe.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	static void assertSupported() {
+		if (unix == null)
+			throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+	}
+
+	static Object invoke(Method m, Object target, Object... args) {
+		try {
+			return m.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	static Object invokeIo(Method m, Object target, Object... args) throws IOException {
+		try {
+			return m.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+}
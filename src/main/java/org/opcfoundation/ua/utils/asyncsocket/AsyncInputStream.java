@@ -14,6 +14,9 @@ package org.opcfoundation.ua.utils.asyncsocket;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
 
 /**
  * Asyncronous input stream of asynchronous socket.
@@ -125,6 +128,22 @@ public abstract class AsyncInputStream extends InputStream {
 	 * @return byte buffer
 	 */
 	public abstract ByteBuffer read(int len);
+
+	/**
+	 * Read from the stream. Returns a readable byte buffer, which may be a
+	 * slice of a pooled {@link Segment} of the stream. The segment is then
+	 * retained and added to retained. Release it when done with the buffer,
+	 * so that the segment can be reused.
+	 * <p>
+	 * The default implementation returns {@link #read(int)}.
+	 *
+	 * @param len a int.
+	 * @param retained list to add the retained segment to
+	 * @return byte buffer
+	 */
+	public ByteBuffer read(int len, List<Segment> retained) {
+		return read(len);
+	}
 	
 	/**
 	 * Read from the input stream. Returns readable byte buffers.
@@ -15,6 +15,8 @@ package org.opcfoundation.ua.utils.asyncsocket;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
+
 /**
  * Asyncronous output stream of asynchronous socket.
  * There are two positions properties: Bytes written and bytes flushed.
@@ -55,6 +57,33 @@ public abstract class AsyncOutputStream extends OutputStream {
 	 */
 	public abstract void offer(ByteBuffer buf);
 
+	/**
+	 * Offers byte buffers to the output stream for write. The buffers are
+	 * written in order, possibly with one gathering write. The ownership of
+	 * the byte buffers and their back-ends will be taken over by the stream.
+	 *
+	 * @param bufs buffers to offer
+	 */
+	public void offer(ByteBuffer[] bufs) {
+		for (ByteBuffer buf : bufs)
+			offer(buf);
+	}
+
+	/**
+	 * Offers byte buffers whose memory is pooled. The stream takes over the
+	 * buffers and the references to their segments, and releases each
+	 * segment after its buffer has been written.
+	 * <p>
+	 * This implementation does not release the segments, they are garbage
+	 * collected with the buffers.
+	 *
+	 * @param bufs buffers to offer
+	 * @param segments the segment of each buffer, null for a buffer that is not pooled
+	 */
+	public void offer(ByteBuffer[] bufs, Segment[] segments) {
+		offer(bufs);
+	}
+
 	/**
 	 * Get the position of stream that has been flushed. This position lags behind getPosition() value
 	 *
@@ -1,265 +1,376 @@
-/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
-   The source code in this file is covered under a dual-license scenario:
-     - RCL: for OPC Foundation members in good-standing
-     - GPL V2: everybody else
-   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
-   GNU General Public License as published by the Free Software Foundation;
-   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
-   This source code is distributed in the hope that it will be useful,
-   but WITHOUT ANY WARRANTY; without even the implied warranty of
-   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
-*/
-
-package org.opcfoundation.ua.utils.asyncsocket;
-
-import java.io.IOException;
-import java.nio.channels.CancelledKeyException;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.ClosedSelectorException;
-import java.nio.channels.SelectableChannel;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.util.EnumSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.opcfoundation.ua.utils.StackUtils;
-import org.opcfoundation.ua.utils.State;
-
-/**
- * Create asyncronous selector. Selector has one selector thread for each cpu
- * core in the system. SelectionKeys are listened with register method.
- * <p>
- * To close async selector, close its selector (getSelector().close()).
- * <p>
- * AsyncSelector guarantees that selection event of a key is handled in one
- * thread at a time, and it the event handled accordingly, new selection events do not occur.
- */
-public class AsyncSelector implements Runnable {
-
-	private enum SelectorState {Active, Disabled};
-	private final static EnumSet<SelectorState> ENABLED_STATE = EnumSet.of(SelectorState.Active);
-
-	/** Selector state */
-	State<SelectorState>				state = new State<SelectorState>(SelectorState.Active);
-	/** Selector */
-	Selector							sel;
-	/** Registered keys and their handlers */
-	Map<SelectionKey, SelectListener>	map = new ConcurrentHashMap<SelectionKey, SelectListener>();
-	/** Selector Thread */
-	Thread								thread;
-
-	Object registerLock = new Object();
-	
-	/**
-	 * Construct AsyncSelector with brand new selector
-	 *
-	 * @throws java.io.IOException if any.
-	 */
-	public AsyncSelector() throws IOException {
-		this(Selector.open());
-	}
-	
-	/**
-	 * Construct new AsyncSelector
-	 *
-	 * @param sel a {@link java.nio.channels.Selector} object.
-	 * @throws java.io.IOException if any.
-	 */
-	public AsyncSelector(Selector sel) throws IOException {
-		this.sel = sel;
-		thread = new Thread(this, StackUtils.SELECTOR_NAME_PATTERN);
-		thread.setDaemon(true);
-		thread.start();
-	}
-
-	/**
-	 * <p>getSelector.</p>
-	 *
-	 * @return a {@link java.nio.channels.Selector} object.
-	 */
-	public Selector getSelector() {
-		return sel;
-	}
-
-	/**
-	 * Modify interest ops of a key.
-	 *
-	 * @param channel registered key
-	 * @param interestOps new interest op set
-	 * @throws java.nio.channels.CancelledKeyException if any.
-	 */
-	public void interestOps(SelectableChannel channel, int interestOps) 
-			throws CancelledKeyException {
-		if (channel != null) {
-			SelectionKey key = channel.keyFor(sel);
-			
-			if (key == null)
-				throw new IllegalArgumentException(
-						"Key is not registered to channel");
-			
-			if (!key.isValid())
-				return;			
-			
-			synchronized (channel) {
-				int newOps = key.interestOps();
-				switch (interestOps) {
-				case ~SelectionKey.OP_READ:
-				case ~SelectionKey.OP_WRITE:
-				case ~SelectionKey.OP_CONNECT:
-					newOps = newOps & interestOps;
-					break;
-				default:
-					newOps = newOps | interestOps;
-					break;
-				}
-										
-				if (newOps != key.interestOps()) {
-					key.interestOps(newOps);
-					sel.wakeup();
-				}
-			}
-			
-		}
-	}
-	
-	private void enable()
-	{
-		state.setState(SelectorState.Active);
-	}
-	
-	/**
-	 * Acquire select permission
-	 */
-	private void disable()
-	{
-		state.setState(SelectorState.Disabled);
-		sel.wakeup();
-	}
-
-	/**
-	 * Register a selection event handler to a selectable channel.
-	 * <p>
-	 * selectEventListener is invoked by one thread at a time.
-	 * The rule of thumb is that the listener must not block.
-	 *
-	 * Note! If channel is registered and closed, select event is invoked
-	 * until the channel is unregistered.
-	 *
-	 * @param channel a {@link java.nio.channels.SelectableChannel} object.
-	 * @param ops initial interest ops See {@link SelectionKey}
-	 * @param selectEventListener a {@link org.opcfoundation.ua.utils.asyncsocket.AsyncSelector.SelectListener} object.
-	 * @throws java.nio.channels.ClosedChannelException if any.
-	 */
-	public void register(SelectableChannel channel,
-			int ops, SelectListener selectEventListener) throws ClosedChannelException {
-		
-		synchronized(registerLock) {
-			disable();
-			try {
-				// register blocks if any thread select()s
-				SelectionKey key = channel.register(sel, ops);
-				map.put(key, selectEventListener);
-			} finally {
-				enable();		
-			}	
-		}			
-	}
-
-	/**
-	 * <p>unregister.</p>
-	 *
-	 * @param channel a {@link java.nio.channels.SelectableChannel} object.
-	 */
-	public void unregister(SelectableChannel channel) {
-		SelectionKey key = channel.keyFor(sel);		
-		if (key == null || !map.containsKey(key)) return;
-		
-		synchronized(registerLock) {
-			disable();
-			try {
-				key.cancel();
-				map.remove(key);
-			} finally {
-				enable();		
-			}
-		}	
-	}
-	
-	/**
-	 * <p>close.</p>
-	 *
-	 * @throws java.io.IOException if any.
-	 */
-	public void close() 
-	throws IOException {
-		sel.close();
-		try {
-			state.setState(SelectorState.Active);
-			sel.wakeup();
-		} catch (Exception e) {}
-	}
-	
-	public interface SelectListener {
-		/**
-		 * Event for selected key.
-		 * 
-		 * Note! InterestSet of key is set to 0, the implementor must return as
-		 * a result of onSelection the new set of interest ops.
-		 * 
-		 * Selection of a key is handled in one thread.
-		 * 
-		 * @param sender sender
-		 * @param channel channel that selected
-		 * @param selectOps selected event operations (See {@link SelectionKey}) 
-		 * @param interestOps previous interest ops
-		 */
-		public void onSelected(AsyncSelector sender, SelectableChannel channel, int selectOps, int interestOps);
-	}
-	
-	String toStr(int i)
-	{
-		String res = "[";
-		if ((i & SelectionKey.OP_READ) != 0)res += "read";
-		if ((i & SelectionKey.OP_CONNECT) != 0)res += "connect";
-		if ((i & SelectionKey.OP_WRITE) != 0)res += "write";
-		if ((i & SelectionKey.OP_ACCEPT) != 0)res += "accept";
-		return res+"]";
-	}
-
-	/** {@inheritDoc} */
-	@Override
-	public void run() {
-		try {
-			while (sel.isOpen()) {
-				state.waitForStateUninterruptibly(ENABLED_STATE);
-				sel.select(1000);
-				
-				Set<SelectionKey> selectedKeys = sel.selectedKeys();
-				for (SelectionKey key : selectedKeys) 
-					try {
-						key.interestOps(0);
-					} catch(CancelledKeyException e) {/*ignore*/}
-				
-				for (SelectionKey key : selectedKeys) 
-					try {
-						Integer iop = key.interestOps();
-						if (iop==null) continue;
-						int readyOps = key.readyOps() /*| (iop & SelectionKey.OP_WRITE)*/;
-						SelectListener l = map.get(key);
-						if (l != null) l.onSelected(AsyncSelector.this, key.channel(), readyOps, iop);						
-					} catch(CancelledKeyException e) {/*ignore*/}
-					
-				
-				selectedKeys.clear();
-			}
-			
-		} catch (ClosedSelectorException cse) {
-		} catch (IOException e) {
-			e.printStackTrace();
-			throw new Error(e);
-		}
-	}
-
-}
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.utils.asyncsocket;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.utils.StackUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Create asyncronous selector. Selector has one selector thread for each cpu
+ * core in the system. SelectionKeys are listened with register method.
+ * <p>
+ * To close async selector, close its selector (getSelector().close()).
+ * <p>
+ * AsyncSelector guarantees that selection event of a key is handled in one
+ * thread at a time, and it the event handled accordingly, new selection events do not occur.
+ * <p>
+ * Registrations and interest op changes are queued and applied in order
+ * by the selector thread, in batches before and after each select. The
+ * selector is woken up at most once while a batch is pending, and not at
+ * all for changes made in the selector thread. Interest op changes of a
+ * registered key are combined, so the key is queued at most once per batch.
+ */
+public class AsyncSelector implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(AsyncSelector.class);
+
+	/** Selector */
+	Selector							sel;
+	/** Selector Thread */
+	Thread								thread;
+
+	/** Changes to apply in the selector thread */
+	private final Queue<Runnable> changes = new ConcurrentLinkedQueue<Runnable>();
+	/** True when the selector has been woken up for pending changes */
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	
+	/**
+	 * Construct AsyncSelector with brand new selector
+	 *
+	 * @throws java.io.IOException if any.
+	 */
+	public AsyncSelector() throws IOException {
+		this(Selector.open());
+	}
+	
+	/**
+	 * Construct new AsyncSelector
+	 *
+	 * @param sel a {@link java.nio.channels.Selector} object.
+	 * @throws java.io.IOException if any.
+	 */
+	public AsyncSelector(Selector sel) throws IOException {
+		this(sel, StackUtils.SELECTOR_NAME_PATTERN);
+	}
+
+	/**
+	 * Construct new AsyncSelector with a named selector thread
+	 *
+	 * @param sel a {@link java.nio.channels.Selector} object.
+	 * @param name name of the selector thread
+	 * @throws java.io.IOException if any.
+	 */
+	public AsyncSelector(Selector sel, String name) throws IOException {
+		this.sel = sel;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * <p>getSelector.</p>
+	 *
+	 * @return a {@link java.nio.channels.Selector} object.
+	 */
+	public Selector getSelector() {
+		return sel;
+	}
+
+	/**
+	 * Modify interest ops of a key.
+	 * <p>
+	 * The change is applied by the selector thread, after the changes queued
+	 * before it. It is ignored if the channel is not registered by then.
+	 *
+	 * @param channel registered key
+	 * @param interestOps new interest op set, or ~op to remove an op
+	 * @throws java.nio.channels.CancelledKeyException if any.
+	 */
+	public void interestOps(final SelectableChannel channel, final int interestOps) 
+			throws CancelledKeyException {
+		if (channel == null)
+			return;
+		SelectionKey key = channel.keyFor(sel);
+		Object registration = key == null ? null : key.attachment();
+		if (registration instanceof Registration) {
+			((Registration) registration).change(interestOps);
+			return;
+		}
+		// Registration is pending, apply after it
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				SelectionKey key = channel.keyFor(sel);
+				if (key == null || !key.isValid())
+					return;
+				int ops = key.interestOps();
+				int newOps = (ops & andMask(interestOps)) | orBits(interestOps);
+				if (newOps != ops)
+					key.interestOps(newOps);
+			}
+		});
+	}
+
+	/**
+	 * @return the ops kept by an interest op change
+	 */
+	static int andMask(int interestOps) {
+		switch (interestOps) {
+		case ~SelectionKey.OP_READ:
+		case ~SelectionKey.OP_WRITE:
+		case ~SelectionKey.OP_CONNECT:
+			return interestOps;
+		default:
+			return ~0;
+		}
+	}
+
+	/**
+	 * @return the ops added by an interest op change
+	 */
+	static int orBits(int interestOps) {
+		return andMask(interestOps) == ~0 ? interestOps : 0;
+	}
+
+	/**
+	 * Attachment of a registered key. Holds the interest op changes not yet
+	 * applied, combined into one mask of kept ops and one set of added ops.
+	 */
+	final class Registration implements Runnable {
+		/** Keep all ops, add none */
+		static final long NO_CHANGE = ~0L << 32;
+
+		final SelectableChannel channel;
+		final SelectListener listener;
+		/** Kept ops in the high 32 bits, added ops in the low 32 bits */
+		final AtomicLong pending = new AtomicLong(NO_CHANGE);
+		final AtomicBoolean queued = new AtomicBoolean();
+
+		Registration(SelectableChannel channel, SelectListener listener) {
+			this.channel = channel;
+			this.listener = listener;
+		}
+
+		/**
+		 * Combine an interest op change with the pending ones
+		 */
+		void change(int interestOps) {
+			int and = andMask(interestOps);
+			int or = orBits(interestOps);
+			long p, n;
+			do {
+				p = pending.get();
+				int keep = (int) (p >>> 32) & and;
+				int add = ((int) p & and) | or;
+				n = ((long) keep << 32) | (add & 0xFFFFFFFFL);
+			} while (!pending.compareAndSet(p, n));
+			if (queued.compareAndSet(false, true))
+				submit(this);
+		}
+
+		/**
+		 * Apply the pending changes, in the selector thread
+		 */
+		@Override
+		public void run() {
+			queued.set(false);
+			long p = pending.getAndSet(NO_CHANGE);
+			if (p == NO_CHANGE)
+				return;
+			SelectionKey key = channel.keyFor(sel);
+			if (key == null || !key.isValid())
+				return;
+			int ops = key.interestOps();
+			int newOps = (ops & (int) (p >>> 32)) | (int) p;
+			if (newOps != ops)
+				key.interestOps(newOps);
+		}
+	}
+
+	/**
+	 * Register a selection event handler to a selectable channel.
+	 * <p>
+	 * selectEventListener is invoked by one thread at a time.
+	 * The rule of thumb is that the listener must not block.
+	 * <p>
+	 * The registration is applied by the selector thread. If the channel is
+	 * closed by then, it is not registered.
+	 *
+	 * Note! If channel is registered and closed, select event is invoked
+	 * until the channel is unregistered.
+	 *
+	 * @param channel a {@link java.nio.channels.SelectableChannel} object.
+	 * @param ops initial interest ops See {@link SelectionKey}
+	 * @param selectEventListener a {@link org.opcfoundation.ua.utils.asyncsocket.AsyncSelector.SelectListener} object.
+	 * @throws java.nio.channels.ClosedChannelException if any.
+	 */
+	public void register(final SelectableChannel channel,
+			final int ops, final SelectListener selectEventListener) throws ClosedChannelException {
+		if (!channel.isOpen())
+			throw new ClosedChannelException();
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SelectionKey key = channel.keyFor(sel);
+					if (key != null && !key.isValid())
+						// Unregistered but not yet deregistered, flush the cancelled key
+						sel.selectNow();
+					channel.register(sel, ops, new Registration(channel, selectEventListener));
+				} catch (ClosedChannelException e) {
+					logger.debug("register: channel closed before registration");
+				} catch (IOException e) {
+					logger.debug("register: {}", e.toString());
+				} catch (CancelledKeyException e) {
+					logger.debug("register: key cancelled before registration");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Unregister a channel. The registration is cancelled by the selector
+	 * thread, after the changes queued before it.
+	 *
+	 * @param channel a {@link java.nio.channels.SelectableChannel} object.
+	 */
+	public void unregister(final SelectableChannel channel) {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				SelectionKey key = channel.keyFor(sel);
+				if (key != null) {
+					key.attach(null);
+					key.cancel();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * <p>close.</p>
+	 *
+	 * @throws java.io.IOException if any.
+	 */
+	public void close() 
+	throws IOException {
+		sel.close();
+		changes.clear();
+	}
+
+	/**
+	 * Queue a change to be run in the selector thread
+	 */
+	private void submit(Runnable change) {
+		changes.add(change);
+		if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true))
+			sel.wakeup();
+	}
+
+	/**
+	 * Run the queued changes, in the selector thread
+	 */
+	private void applyChanges() {
+		Runnable change;
+		while ((change = changes.poll()) != null)
+			try {
+				change.run();
+			} catch (CancelledKeyException e) {
+				/*ignore*/
+			} catch (RuntimeException e) {
+				logger.warn("Selector change failed", e);
+			}
+	}
+	
+	public interface SelectListener {
+		/**
+		 * Event for selected key.
+		 * 
+		 * Note! InterestSet of key is set to 0, the implementor must return as
+		 * a result of onSelection the new set of interest ops.
+		 * 
+		 * Selection of a key is handled in one thread.
+		 * 
+		 * @param sender sender
+		 * @param channel channel that selected
+		 * @param selectOps selected event operations (See {@link SelectionKey}) 
+		 * @param interestOps previous interest ops
+		 */
+		public void onSelected(AsyncSelector sender, SelectableChannel channel, int selectOps, int interestOps);
+	}
+	
+	String toStr(int i)
+	{
+		String res = "[";
+		if ((i & SelectionKey.OP_READ) != 0)res += "read";
+		if ((i & SelectionKey.OP_CONNECT) != 0)res += "connect";
+		if ((i & SelectionKey.OP_WRITE) != 0)res += "write";
+		if ((i & SelectionKey.OP_ACCEPT) != 0)res += "accept";
+		return res+"]";
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void run() {
+		try {
+			while (sel.isOpen()) {
+				// Changes queued from now on wake up the select
+				wakeupPending.set(false);
+				applyChanges();
+				sel.select();
+				applyChanges();
+				
+				Set<SelectionKey> selectedKeys = sel.selectedKeys();
+				for (SelectionKey key : selectedKeys) 
+					try {
+						key.interestOps(0);
+					} catch(CancelledKeyException e) {/*ignore*/}
+				
+				for (SelectionKey key : selectedKeys) 
+					try {
+						int iop = key.interestOps();
+						int readyOps = key.readyOps() /*| (iop & SelectionKey.OP_WRITE)*/;
+						Registration r = (Registration) key.attachment();
+						if (r != null) r.listener.onSelected(AsyncSelector.this, key.channel(), readyOps, iop);						
+					} catch(CancelledKeyException e) {/*ignore*/
+					} catch(RuntimeException e) {
+						// A failing listener must not stop the selector thread
+						logger.error("Select listener failed", e);
+					}
+					
+				
+				selectedKeys.clear();
+			}
+			
+		} catch (ClosedSelectorException cse) {
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new Error(e);
+		}
+	}
+
+}
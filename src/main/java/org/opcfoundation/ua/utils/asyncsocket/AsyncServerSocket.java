@@ -24,6 +24,7 @@ import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opcfoundation.ua.utils.AbstractState;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
 import org.opcfoundation.ua.utils.asyncsocket.ListenableServerSocketChannel.ServerSocketAcceptable;
 
 /**
@@ -35,6 +36,9 @@ public class AsyncServerSocket extends AbstractState<ServerSocketState, IOExcept
 	ServerSocketChannel c;
 	ListenableServerSocketChannel ls;
 	Executor executor; // Teloittaja
+	/** Selectors for accepted connections, null = selector of this socket */
+	AsyncSelector[] connectionSelectors;
+	int nextConnectionSelector;
 	CopyOnWriteArrayList<ConnectListener> listeners = new CopyOnWriteArrayList<ConnectListener>();
 	ServerSocketAcceptable listener = new ServerSocketAcceptable() {
 		@Override
@@ -42,7 +46,7 @@ public class AsyncServerSocket extends AbstractState<ServerSocketState, IOExcept
 			try {
 				SocketChannel chan = socket.getChannel().accept();
 				chan.configureBlocking(false);				
-				AsyncSocketImpl as = new AsyncSocketImpl(chan, executor, ls.getSelectorThread());
+				AsyncSocketImpl as = new AsyncSocketImpl(chan, executor, nextSelector());
 				fireConnected(as);
 			} catch (ClosedChannelException e) {
 				setState(ServerSocketState.Closed);
@@ -51,6 +55,39 @@ public class AsyncServerSocket extends AbstractState<ServerSocketState, IOExcept
 			}
 		}};
 	static Logger logger = LoggerFactory.getLogger(AsyncServerSocket.class); 
+
+	/**
+	 * Get the selector of the next accepted connection. Called in the
+	 * selector thread of this socket.
+	 */
+	private AsyncSelector nextSelector() {
+		AsyncSelector[] sels = connectionSelectors;
+		if (sels == null || sels.length == 0)
+			return ls.getSelectorThread();
+		int i = nextConnectionSelector % sels.length;
+		nextConnectionSelector = i + 1;
+		return sels[i];
+	}
+
+	/**
+	 * Set the selectors that accepted connections are registered to. Each
+	 * connection stays on one selector, and the selectors are assigned
+	 * round-robin. By default connections use the selector of this socket.
+	 *
+	 * @param selectors selectors or null
+	 */
+	public void setConnectionSelectors(AsyncSelector... selectors) {
+		this.connectionSelectors = selectors;
+	}
+
+	/**
+	 * <p>getConnectionSelectors.</p>
+	 *
+	 * @return selectors of accepted connections or null
+	 */
+	public AsyncSelector[] getConnectionSelectors() {
+		return connectionSelectors;
+	}
 	/**
 	 * <p>Constructor for AsyncServerSocket.</p>
 	 *
@@ -197,8 +234,9 @@ public class AsyncServerSocket extends AbstractState<ServerSocketState, IOExcept
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
-		if (!c.socket().isBound()) return "unbound";
-		return c.socket().getLocalSocketAddress().toString();
+		SocketAddress addr = UnixDomainSocketUtil.getLocalAddress(c);
+		if (addr==null) return "unbound";
+		return addr.toString();
 	}
 	
 }
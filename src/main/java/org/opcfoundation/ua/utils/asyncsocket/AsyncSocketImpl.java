@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
 
@@ -33,6 +34,9 @@ import org.opcfoundation.ua.utils.asyncsocket.ListenableSocketChannel.Connection
 import org.opcfoundation.ua.utils.asyncsocket.ListenableSocketChannel.ReadableListener;
 import org.opcfoundation.ua.utils.asyncsocket.ListenableSocketChannel.WriteableListener;
 import org.opcfoundation.ua.utils.bytebuffer.ByteQueue;
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
+import org.opcfoundation.ua.utils.bytebuffer.SegmentQueue;
 
 /**
  * Async socket.
@@ -50,6 +54,8 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 
 	// Input buffer size (if alarms are not used)
 	private final static int BUF_SIZE = 65536; 
+	/** Max number of queued buffers written with one gathering write */
+	private final static int MAX_GATHERED_BUFFERS = 64;
 	
 	ListenableSocketChannel ls;
 	SocketChannel chan;	 
@@ -312,7 +318,7 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 
 		// Position sorted collection of alarms (All of which are in waiting state)
 		TreeSet<BufferMonitor>		alarms = new TreeSet<BufferMonitor>(); 
-		ByteQueue					q = new ByteQueue(16384);
+		SegmentQueue				q = new SegmentQueue();
 		long						recvTargetPos;	// Position where to stop reading more data
 		boolean						closed;
 		long						bufSize = BUF_SIZE;
@@ -321,7 +327,7 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 		public synchronized int read() throws IOException {
 			// Immediate read and return
 			if (!q.isEmpty()) {
-				int result = q.getReadChunk().get();
+				int result = q.get() & 0xff;
 				prepareToReadMore();
 				return result;
 			}
@@ -339,7 +345,7 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 					if (as == BufferMonitorState.Triggered) 
 						synchronized(this) {
 							if (q.isEmpty()) continue;
-							int result = q.getReadChunk().get();
+							int result = q.get() & 0xff;
 							prepareToReadMore();
 							return result;				
 						} 
@@ -402,6 +408,13 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 			return result;
 		}
 
+		@Override
+		public synchronized ByteBuffer read(int len, List<Segment> retained) {
+			ByteBuffer result = q.get(len, retained);
+			prepareToReadMore();
+			return result;
+		}
+
 		@Override
 		public synchronized ByteBuffer[] readChunks(int len) {
 			ByteBuffer[] result = q.getChunks(len);
@@ -489,11 +502,12 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 			// Only one thread goes here at a time thanks to the impl in ListenableSocketChannel.
 			// Channel is readable
 			
-			// Create buffers
+			// Read straight into pooled segments. The queue releases the
+			// segments once read, so that an idle socket holds no buffer memory
 			try {
-				int n = 0;
+				long n = 0;
 				do {
-					n = chan.read( q.getWriteChunk() );
+					n = q.read( chan );
 					if (n==-1)
 					{
 						setState(SocketState.Closed);
@@ -638,6 +652,26 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 			checkWriteMore();
 		}
 
+		@Override
+		public synchronized void offer(ByteBuffer[] bufs) {
+			for (ByteBuffer buf : bufs)
+				q.offer(buf);
+			writeToChannel();
+			checkWriteMore();
+		}
+
+		@Override
+		public synchronized void offer(ByteBuffer[] bufs, Segment[] segments) {
+			for (int i=0; i<bufs.length; i++) {
+				if (segments[i]==null)
+					q.offer(bufs[i]);
+				else
+					q.offer(bufs[i], segments[i]);
+			}
+			writeToChannel();
+			checkWriteMore();
+		}
+
 		@Override
 		public synchronized void write(ByteBuffer src) {
 			q.put(src);
@@ -748,7 +782,7 @@ public class AsyncSocketImpl extends AbstractState<SocketState, IOException> imp
 			while (!q.isEmpty())
 			{				
 				try {				
-					int bytesWritten = chan.write(q.getReadChunk());
+					long bytesWritten = q.write(chan, MAX_GATHERED_BUFFERS);
 					if (bytesWritten==0) break;
 					if (bytesWritten==-1) {
 						// EOF ??
@@ -20,6 +20,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
 import org.opcfoundation.ua.utils.asyncsocket.AsyncSelector.SelectListener;
 
 /**
@@ -217,7 +218,10 @@ public class ListenableServerSocketChannel {
 	throws IOException
 	{				
 		ServerSocketChannel c = getChannel();
-		c.socket().bind( addr, backlog );
+		if ( UnixDomainSocketUtil.isUnixAddress(addr) )
+			UnixDomainSocketUtil.bind( c, addr, backlog );
+		else
+			c.socket().bind( addr, backlog );
 //		selector.unregister(channel);
 		selector.register(c, SelectionKey.OP_ACCEPT, selectListener);		
 	}
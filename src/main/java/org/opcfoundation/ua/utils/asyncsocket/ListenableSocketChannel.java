@@ -182,7 +182,7 @@ public class ListenableSocketChannel {
 		int ops = 0;
 		if (readListener!=null && !readHndLock.get() && channel.isConnected()) ops |= SelectionKey.OP_READ;
 		if (writeListener!=null && !writeHndLock.get() && channel.isConnected()) ops |= SelectionKey.OP_WRITE;
-		if (connectListener!=null && !connectHndLock.get() && !channel.isConnected()) ops |= SelectionKey.OP_CONNECT;
+		if (connectListener!=null && !connectHndLock.get() && channel.isConnectionPending()) ops |= SelectionKey.OP_CONNECT;
 		return ops;
 	}
 	
@@ -205,7 +205,7 @@ public class ListenableSocketChannel {
 			else
 				return ~SelectionKey.OP_WRITE;
 		case SelectionKey.OP_CONNECT:
-			if (connectListener != null && !connectHndLock.get() && !channel.isConnected())
+			if (connectListener != null && !connectHndLock.get() && channel.isConnectionPending())
 				return SelectionKey.OP_CONNECT;
 			else
 				return ~SelectionKey.OP_CONNECT;
@@ -223,8 +223,14 @@ public class ListenableSocketChannel {
 	public void connect(SocketAddress addr) 
 	throws IOException
 	{		
-		attemptUpdateInterestOps(SelectionKey.OP_CONNECT);			
-		channel.connect(addr);
+		// OP_CONNECT is selected only while the connection is pending. An
+		// unconnected channel would be selected at once and fail in finishConnect.
+		if (channel.connect(addr)) {
+			connectHndLock.set(true);
+			executor.execute(connectRun);
+		} else {
+			attemptUpdateInterestOps(SelectionKey.OP_CONNECT);
+		}
 	}
 	
 	/**
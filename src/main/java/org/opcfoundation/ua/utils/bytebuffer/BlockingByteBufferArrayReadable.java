@@ -0,0 +1,237 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.utils.bytebuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Readable over a sequence of ByteBuffers that are offered while the
+ * sequence is being read. The reader blocks when it runs out of data
+ * until the next buffer is offered or the readable is closed.
+ * <p>
+ * Unlike {@link IncubationBuffer} with {@link InputStreamReadable}, values are
+ * read directly from the current buffer, and the lock is taken only when
+ * moving to the next buffer.
+ * <p>
+ * The limit is unknown, {@link Long#MAX_VALUE}, until the readable is closed.
+ */
+public class BlockingByteBufferArrayReadable implements IBinaryReadable {
+
+	private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+	private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+	/** Buffer being read, accessed by the reader only */
+	private ByteBuffer cur;
+	/** Bytes read, accessed by the reader only */
+	private long position;
+	/** Bytes offered */
+	private long bytesOffered;
+	private boolean closed;
+
+	/**
+	 * Offer next buffer to the reader. Data between position and limit of the
+	 * buffer is read.
+	 *
+	 * @param buf a {@link java.nio.ByteBuffer} object.
+	 */
+	public synchronized void offer(ByteBuffer buf) {
+		if (closed)
+			throw new IllegalStateException("closed");
+		queue.add(buf);
+		bytesOffered += buf.remaining();
+		notifyAll();
+	}
+
+	/**
+	 * Mark the end of data. The reader gets {@link EOFException} after the
+	 * offered buffers have been read.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Discard the buffers not yet read and mark the end of data.
+	 */
+	public synchronized void forceClose() {
+		queue.clear();
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return true if {@link #close()} or {@link #forceClose()} has been called
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private ByteBuffer cur() throws IOException {
+		ByteBuffer b = cur;
+		if (b != null && b.hasRemaining())
+			return b;
+		return next();
+	}
+
+	private synchronized ByteBuffer next() throws IOException {
+		while (queue.isEmpty()) {
+			if (closed)
+				throw new EOFException();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		cur = queue.poll();
+		cur.order(order);
+		// Skip empty buffers
+		return cur.hasRemaining() ? cur : next();
+	}
+
+	/**
+	 * Read len bytes that may span several buffers
+	 */
+	private ByteBuffer getSpanning(int len) throws IOException {
+		ByteBuffer tmp = ByteBuffer.allocate(len);
+		tmp.order(order);
+		get(tmp);
+		tmp.flip();
+		return tmp;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte get() throws IOException {
+		byte value = cur().get();
+		position++;
+		return value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void get(byte[] dst, int offset, int length) throws IOException {
+		while (length > 0) {
+			ByteBuffer b = cur();
+			int n = Math.min(b.remaining(), length);
+			b.get(dst, offset, n);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void get(byte[] dst) throws IOException {
+		get(dst, 0, dst.length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void get(ByteBuffer buf) throws IOException {
+		get(buf, buf.remaining());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void get(ByteBuffer buf, int length) throws IOException {
+		while (length > 0) {
+			ByteBuffer b = cur();
+			int n = Math.min(b.remaining(), length);
+			ByteBuffer slice = b.duplicate();
+			slice.limit(slice.position() + n);
+			buf.put(slice);
+			b.position(b.position() + n);
+			position += n;
+			length -= n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getDouble() throws IOException {
+		return Double.longBitsToDouble(getLong());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public float getFloat() throws IOException {
+		return Float.intBitsToFloat(getInt());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getInt() throws IOException {
+		ByteBuffer b = cur();
+		if (b.remaining() >= 4) {
+			position += 4;
+			return b.getInt();
+		}
+		return getSpanning(4).getInt();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLong() throws IOException {
+		ByteBuffer b = cur();
+		if (b.remaining() >= 8) {
+			position += 8;
+			return b.getLong();
+		}
+		return getSpanning(8).getLong();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public short getShort() throws IOException {
+		ByteBuffer b = cur();
+		if (b.remaining() >= 2) {
+			position += 2;
+			return b.getShort();
+		}
+		return getSpanning(2).getShort();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized long limit() {
+		return closed ? bytesOffered : Long.MAX_VALUE;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long position() {
+		return position;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteOrder order() {
+		return order;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void order(ByteOrder order) {
+		this.order = order;
+		if (cur != null)
+			cur.order(order);
+	}
+
+}
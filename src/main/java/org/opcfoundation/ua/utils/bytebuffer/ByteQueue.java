@@ -12,12 +12,16 @@
 
 package org.opcfoundation.ua.utils.bytebuffer;
 
+import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * Byte Queue is a LIFO queue of bytes. It uses {@link ByteBuffer}s
@@ -48,6 +52,8 @@ public class ByteQueue {
 	ByteBuffer writeChunk;
 	// Active read chunk
 	ByteBuffer readChunk;
+	// Pooled segments of offered buffers, null until one is offered
+	Map<ByteBuffer, Segment> segments;
 	
 	// The structure of the buffer is the following:
 	// [readChunk or null] [list = ByteBuffer, ByteBuffer, ByteBuffer, ...] [writeChunk or null]
@@ -168,6 +174,54 @@ public class ByteQueue {
 		bytesWritten += buf.remaining();
 		list.addLast(buf);
 	}
+
+	/**
+	 * Write bytes of a pooled segment
+	 *
+	 * The remaining bytes of buf are added to the queue. The queue takes
+	 * the ownership of buf and of the reference to segment, which it
+	 * releases once all bytes of buf have been read, or when the queue is
+	 * cleared. Read such a queue with {@link #write(GatheringByteChannel, int)},
+	 * or with the methods that copy; {@link #get(int)} and {@link #getChunks(int)}
+	 * return views of the buffers, which are not valid after the release.
+	 *
+	 * @param buf buffer to write
+	 * @param segment the segment of buf
+	 * @throws java.nio.BufferOverflowException write limit exeeded
+	 */
+	public void offer(ByteBuffer buf, Segment segment)
+			throws BufferOverflowException
+	{
+		offer(buf);
+		if (!buf.hasRemaining()) {
+			segment.release();
+			return;
+		}
+		if (segments==null)
+			segments = new IdentityHashMap<ByteBuffer, Segment>();
+		segments.put(buf, segment);
+	}
+
+	/**
+	 * Release the segment of a buffer that has been read.
+	 */
+	private void release(ByteBuffer buf)
+	{
+		if (segments==null || segments.isEmpty()) return;
+		Segment segment = segments.remove(buf);
+		if (segment!=null) segment.release();
+	}
+
+	/**
+	 * Release the segments of all buffers.
+	 */
+	private void releaseAll()
+	{
+		if (segments==null || segments.isEmpty()) return;
+		for (Segment segment : segments.values())
+			segment.release();
+		segments.clear();
+	}
 	
 	/**
 	 * Read from buf
@@ -636,6 +690,7 @@ public class ByteQueue {
 		if (writeChunk!=null)
 			bytesWritten += writeChunk.position();
 		bytesRead = bytesWritten;
+		releaseAll();
 		list.clear();
 		writeChunk = null;
 		readChunk = null;
@@ -647,6 +702,7 @@ public class ByteQueue {
 	public void clear()
 	{
 		bytesRead = bytesWritten = 0;
+		releaseAll();
 		list.clear();
 		writeChunk = null;
 		readChunk = null;		
@@ -671,6 +727,43 @@ public class ByteQueue {
 		}
 	}	
 	
+	/**
+	 * Write readable bytes to a channel with one gathering write. The
+	 * buffers of the queue are handed to the channel as they are, the
+	 * channel copies heap buffers to its temporary direct buffer. The
+	 * segments of the buffers that have been written completely are
+	 * released.
+	 *
+	 * @param channel channel to write to
+	 * @param maxChunks max number of buffers to write at once
+	 * @return number of bytes written
+	 * @throws java.io.IOException if any.
+	 */
+	public long write(GatheringByteChannel channel, int maxChunks)
+	throws IOException
+	{
+		ByteBuffer first = getReadChunk();
+		if (first==null) return 0;
+		int count = Math.min(maxChunks, list.size()+1);
+		ByteBuffer[] bufs = new ByteBuffer[count];
+		int[] positions = new int[count];
+		bufs[0] = first;
+		Iterator<ByteBuffer> i = list.iterator();
+		for (int j=1; j<count; j++) {
+			bufs[j] = i.next();
+			positions[j] = bufs[j].position();
+		}
+		long n = count==1 ? channel.write(first) : channel.write(bufs, 0, count);
+		// Queued buffers are accounted when they become the read chunk
+		for (int j=1; j<count; j++)
+			bytesRead += bufs[j].position() - positions[j];
+		// Dump exhausted chunks
+		ByteBuffer c = getReadChunk();
+		while (c!=null && !c.hasRemaining())
+			c = getReadChunk();
+		return n;
+	}
+
 	/**
 	 * Expose the a byte buffer of backend.
 	 * Moving the position of this byte buffer, moves the byte queue aswell.
@@ -682,6 +775,7 @@ public class ByteQueue {
 		// Dump exhausted read chunk
 		if (readChunk!=null && !readChunk.hasRemaining()) {
 			bytesRead += readChunk.position();
+			release(readChunk);
 			readChunk = null;
 		}
 		
@@ -25,6 +25,10 @@ import org.opcfoundation.ua.utils.IncubationQueue;
  * The data in ByteBuffers in read in the order they are "incubated"
  * The data becomes available when the ByteBuffers are "hatched"
  * Input stream blocks until data becomes available.
+ * <p>
+ * Buffers are incubated and hatched without locking. Readers read in turn,
+ * and a reader waits for the next buffer without holding the monitor of the
+ * stream, so {@link #available()} does not block.
  *
  * @author Toni Kalajainen (toni.kalajainen@vtt.fi)
  */
@@ -34,6 +38,7 @@ public class IncubationBuffer extends InputStream {
 	protected final static ByteBuffer CLOSED_MARKER = ByteBuffer.allocate(0);
 	protected IncubationQueue<ByteBuffer> queue = new IncubationQueue<ByteBuffer>(true);
 	protected ByteBuffer cur;
+	private final Object readLock = new Object();
 	
 	/**
 	 * <p>Constructor for IncubationBuffer.</p>
@@ -49,9 +54,7 @@ public class IncubationBuffer extends InputStream {
 	 */
 	public void incubate(ByteBuffer buf)
 	{
-		synchronized(queue) {
 		queue.incubate(buf);
-		}
 	}
 	
 	/**
@@ -61,9 +64,7 @@ public class IncubationBuffer extends InputStream {
 	 */
 	public void hatch(ByteBuffer buf)
 	{
-		synchronized(queue) {
 		queue.hatch(buf);
-		}
 	}
 	
 	/**
@@ -71,10 +72,8 @@ public class IncubationBuffer extends InputStream {
 	 */
 	public void close()
 	{
-		synchronized(queue) {
 		queue.incubate(CLOSED_MARKER);
 		queue.hatch(CLOSED_MARKER);
-		}
 	}
 	
 	/**
@@ -82,11 +81,9 @@ public class IncubationBuffer extends InputStream {
 	 */
 	public void forceClose()
 	{
-		synchronized(queue) {
 		queue.clear();
 		queue.incubate(CLOSED_MARKER);
 		queue.hatch(CLOSED_MARKER);
-		}
 	}
 	
 	/**
@@ -95,17 +92,23 @@ public class IncubationBuffer extends InputStream {
 	 */
 	private ByteBuffer getByteBuffer() 
 	throws InterruptedIOException {
-		synchronized(queue) {
-		if (cur==CLOSED_MARKER) return null;
-		if (cur!=null && cur.hasRemaining()) return cur;
-		if (cur!=null && !cur.hasRemaining()) cur = null;
-		try {
-			cur = queue.removeNextHatched();
-		} catch (InterruptedException e) {
-			throw new InterruptedIOException();
-		}
-		if (cur==CLOSED_MARKER) return null;
-		return cur;
+		synchronized (readLock) {
+			synchronized (this) {
+				if (cur==CLOSED_MARKER) return null;
+				if (cur!=null && cur.hasRemaining()) return cur;
+				cur = null;
+			}
+			ByteBuffer next;
+			try {
+				next = queue.removeNextHatched();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			synchronized (this) {
+				cur = next;
+			}
+			if (next==CLOSED_MARKER) return null;
+			return next;
 		}
 	}
 	
@@ -135,9 +138,7 @@ public class IncubationBuffer extends InputStream {
 
 	/** {@inheritDoc} */
 	@Override
-	public int available() throws IOException {
-		synchronized(queue) {
-		
+	public synchronized int available() throws IOException {
 		int result = 0;
 		if (cur!=null) result += cur.remaining();
 		Iterator<ByteBuffer> i = queue.iterator();
@@ -147,8 +148,6 @@ public class IncubationBuffer extends InputStream {
 			result += o.remaining();
 		}
 		return result;
-		
-		}
 	}
 	
 	/**
@@ -0,0 +1,106 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.utils.bytebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted memory segment of a {@link SegmentPool}.
+ * <p>
+ * {@link SegmentPool#take()} returns a segment with one reference. Every
+ * holder of the segment, or of a slice of its buffer, adds a reference with
+ * {@link #retain()} and drops it with {@link #release()}. When the last
+ * reference is released the segment returns to its pool, and its buffer
+ * and the slices of it must no longer be used.
+ * <p>
+ * A segment whose references are never released is not reused, it is
+ * garbage collected as any buffer.
+ */
+public final class Segment {
+
+	private final SegmentPool pool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger refs = new AtomicInteger();
+
+	Segment(SegmentPool pool, ByteBuffer buffer) {
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Get the buffer over the whole segment. Its position and limit belong
+	 * to the holder that took the segment from the pool, other holders use
+	 * slices of it.
+	 *
+	 * @return the buffer of the segment
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Add a reference to the segment.
+	 *
+	 * @return this segment
+	 * @throws java.lang.IllegalStateException if the segment has been released
+	 */
+	public Segment retain() {
+		if (refs.getAndIncrement() <= 0) {
+			refs.getAndDecrement();
+			throw new IllegalStateException("Segment already released");
+		}
+		return this;
+	}
+
+	/**
+	 * Release a reference to the segment. The segment returns to the pool
+	 * when its last reference is released.
+	 *
+	 * @throws java.lang.IllegalStateException if the segment has been released
+	 */
+	public void release() {
+		int count = refs.decrementAndGet();
+		if (count < 0) {
+			refs.getAndIncrement();
+			throw new IllegalStateException("Segment already released");
+		}
+		if (count == 0)
+			pool.recycle(this);
+	}
+
+	/**
+	 * Get the number of references to the segment.
+	 *
+	 * @return reference count, 0 if the segment is in the pool
+	 */
+	public int getRefCount() {
+		return refs.get();
+	}
+
+	/**
+	 * @return the pool of the segment
+	 */
+	public SegmentPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Set the reference count of a segment taken from the pool to one.
+	 */
+	void taken() {
+		buffer.clear();
+		refs.set(1);
+	}
+
+}
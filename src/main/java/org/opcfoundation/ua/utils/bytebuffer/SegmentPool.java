@@ -0,0 +1,205 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.utils.bytebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opcfoundation.ua.utils.TimerUtil;
+
+/**
+ * Pool of reference counted memory {@link Segment}s of fixed size.
+ * <p>
+ * The reference count of a segment is kept in the segment itself, so
+ * retaining and releasing a segment does not look anything up. Free
+ * segments are kept in a lock-free queue, up to a maximum number.
+ * <p>
+ * Free segments that stay unused for a whole idle release period are
+ * dropped, so the memory of a burst of traffic is not held after it. The
+ * release timer runs only while the pool has free segments.
+ * <p>
+ * The segments are heap buffers, or direct buffers for memory that is
+ * written to channels, which copy heap buffers to a direct buffer of their
+ * own on every write.
+ *
+ * @see Segment
+ * @see SegmentQueue
+ */
+public class SegmentPool {
+
+	/** Default segment size */
+	public static final int DEFAULT_SEGMENT_SIZE = 65536;
+	/** Default max number of free segments kept in the pool */
+	public static final int DEFAULT_MAX_POOLED = 64;
+	/** Default idle release period in milliseconds */
+	public static final long DEFAULT_IDLE_RELEASE_PERIOD = 30000;
+
+	private static final SegmentPool DEFAULT = new SegmentPool(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_POOLED, DEFAULT_IDLE_RELEASE_PERIOD);
+
+	/**
+	 * Get the pool shared by the socket streams.
+	 *
+	 * @return default pool
+	 */
+	public static SegmentPool getDefault() {
+		return DEFAULT;
+	}
+
+	private final int segmentSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<Segment> free = new ConcurrentLinkedQueue<Segment>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+	// Least number of free segments since the last idle release. That many
+	// segments have not been taken during the period.
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final long idleReleasePeriod;
+	private final AtomicBoolean releaseScheduled = new AtomicBoolean();
+	private final boolean direct;
+
+	/**
+	 * <p>Constructor for SegmentPool. Idle segments are released only
+	 * with {@link #releaseIdle()}.</p>
+	 *
+	 * @param segmentSize size of a segment in bytes
+	 * @param maxPooled max number of free segments kept in the pool
+	 */
+	public SegmentPool(int segmentSize, int maxPooled) {
+		this(segmentSize, maxPooled, 0);
+	}
+
+	/**
+	 * <p>Constructor for SegmentPool.</p>
+	 *
+	 * @param segmentSize size of a segment in bytes
+	 * @param maxPooled max number of free segments kept in the pool
+	 * @param idleReleasePeriod period in milliseconds after which unused
+	 *        free segments are released, 0 to release them only with
+	 *        {@link #releaseIdle()}
+	 */
+	public SegmentPool(int segmentSize, int maxPooled, long idleReleasePeriod) {
+		this(segmentSize, maxPooled, idleReleasePeriod, false);
+	}
+
+	/**
+	 * <p>Constructor for SegmentPool.</p>
+	 *
+	 * @param segmentSize size of a segment in bytes
+	 * @param maxPooled max number of free segments kept in the pool
+	 * @param idleReleasePeriod period in milliseconds after which unused
+	 *        free segments are released, 0 to release them only with
+	 *        {@link #releaseIdle()}
+	 * @param direct true to allocate direct buffers, false for heap buffers
+	 */
+	public SegmentPool(int segmentSize, int maxPooled, long idleReleasePeriod, boolean direct) {
+		if (segmentSize < 1)
+			throw new IllegalArgumentException("segmentSize must be over 0");
+		if (idleReleasePeriod < 0)
+			throw new IllegalArgumentException("idleReleasePeriod must not be negative");
+		this.segmentSize = segmentSize;
+		this.maxPooled = maxPooled;
+		this.idleReleasePeriod = idleReleasePeriod;
+		this.direct = direct;
+	}
+
+	/**
+	 * Take a segment from the pool or allocate a new one.
+	 *
+	 * @return a segment with a cleared buffer and one reference
+	 */
+	public Segment take() {
+		Segment segment = free.poll();
+		if (segment != null)
+			lowerIdleCount(freeCount.decrementAndGet());
+		else {
+			idleCount.set(0);
+			segment = new Segment(this, direct ? ByteBuffer.allocateDirect(segmentSize) : ByteBuffer.allocate(segmentSize));
+		}
+		segment.taken();
+		return segment;
+	}
+
+	private void lowerIdleCount(int count) {
+		int idle;
+		while ((idle = idleCount.get()) > count)
+			if (idleCount.compareAndSet(idle, count))
+				return;
+	}
+
+	/**
+	 * Return a segment whose last reference has been released.
+	 */
+	void recycle(Segment segment) {
+		if (freeCount.incrementAndGet() <= maxPooled) {
+			free.offer(segment);
+			scheduleIdleRelease();
+		} else
+			freeCount.decrementAndGet();
+	}
+
+	/**
+	 * Release the free segments that have not been taken since the previous
+	 * call, so that they can be garbage collected.
+	 *
+	 * @return number of segments released
+	 */
+	public int releaseIdle() {
+		int idle = idleCount.getAndSet(freeCount.get());
+		int released = 0;
+		while (released < idle && free.poll() != null) {
+			freeCount.decrementAndGet();
+			released++;
+		}
+		idleCount.addAndGet(-released);
+		return released;
+	}
+
+	private void scheduleIdleRelease() {
+		if (idleReleasePeriod == 0 || !releaseScheduled.compareAndSet(false, true))
+			return;
+		TimerUtil.getTimer().schedule(new TimerTask() {
+			@Override
+			public void run() {
+				releaseIdle();
+				releaseScheduled.set(false);
+				// Keep releasing while there are free segments
+				if (freeCount.get() > 0)
+					scheduleIdleRelease();
+			}
+		}, idleReleasePeriod);
+	}
+
+	/**
+	 * @return size of a segment in bytes
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * @return true if the segments are direct buffers
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return number of free segments in the pool
+	 */
+	public int getPooledCount() {
+		return freeCount.get();
+	}
+
+}
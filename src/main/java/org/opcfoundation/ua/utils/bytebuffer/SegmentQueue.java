@@ -0,0 +1,477 @@
+/* Copyright (c) 1996-2015, OPC Foundation. All rights reserved.
+   The source code in this file is covered under a dual-license scenario:
+     - RCL: for OPC Foundation members in good-standing
+     - GPL V2: everybody else
+   RCL license terms accompanied with this source code. See http://opcfoundation.org/License/RCL/1.00/
+   GNU General Public License as published by the Free Software Foundation;
+   version 2 of the License are accompanied with this source code. See http://opcfoundation.org/License/GPLv2
+   This source code is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+*/
+
+package org.opcfoundation.ua.utils.bytebuffer;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Queue of bytes read from a channel into pooled segments of a
+ * {@link SegmentPool}.
+ * <p>
+ * {@link #read(ScatteringByteChannel)} reads with one scattering read into
+ * the free space of the last segment and a new segment. Bytes that are in
+ * one segment are read out without copying: {@link #get(int, List)} and
+ * {@link #getChunks(int, List)} return slices of the segments, and retain
+ * the segments for the reader. The reader releases them with
+ * {@link Segment#release()} when done, so that the segments can be reused.
+ * A segment is released by the queue once all of its bytes are read, so an
+ * empty queue holds no memory.
+ * <p>
+ * Like {@link ByteQueue} there are two incremental positions, bytes written
+ * and bytes read. The queue is not thread safe.
+ *
+ * @see SegmentPool
+ */
+public class SegmentQueue {
+
+	private final static ByteBuffer[] EMPTY_BUFFERS = new ByteBuffer[0];
+
+	final SegmentPool pool;
+	// Segments with unread bytes between position and limit of their
+	// buffers. The last segment is written between limit and capacity.
+	final ArrayDeque<Segment> segments = new ArrayDeque<Segment>(4);
+	final ByteBuffer[] dsts = new ByteBuffer[2];
+	long bytesRead;
+	long bytesWritten;
+	ByteOrder order = ByteOrder.nativeOrder();
+
+	/**
+	 * Construct new queue using the default pool.
+	 */
+	public SegmentQueue() {
+		this(SegmentPool.getDefault());
+	}
+
+	/**
+	 * Construct new queue.
+	 *
+	 * @param pool segment pool
+	 */
+	public SegmentQueue(SegmentPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Read available bytes from a channel with a scattering read into the
+	 * last segment and a new segment.
+	 *
+	 * @param channel channel to read
+	 * @return number of bytes read, or -1 at end of stream
+	 * @throws java.io.IOException if any.
+	 */
+	public long read(ScatteringByteChannel channel)
+	throws IOException
+	{
+		Segment lastSegment = segments.peekLast();
+		ByteBuffer last = lastSegment == null ? null : lastSegment.getBuffer();
+		Segment nextSegment = pool.take();
+		ByteBuffer next = nextSegment.getBuffer();
+		int count = 0;
+		if (last != null && last.limit() < last.capacity()) {
+			ByteBuffer free = last.duplicate();
+			free.position(last.limit());
+			free.limit(last.capacity());
+			dsts[count++] = free;
+		}
+		dsts[count++] = next;
+		long n;
+		try {
+			n = count == 1 ? channel.read(next) : channel.read(dsts, 0, count);
+		} catch (IOException e) {
+			nextSegment.release();
+			throw e;
+		} finally {
+			dsts[0] = dsts[1] = null;
+		}
+		if (n <= 0) {
+			nextSegment.release();
+			return n;
+		}
+		long rest = n;
+		if (count == 2) {
+			int filled = (int) Math.min(rest, last.capacity() - last.limit());
+			last.limit(last.limit() + filled);
+			rest -= filled;
+		}
+		if (rest > 0) {
+			next.flip();
+			segments.add(nextSegment);
+		} else {
+			nextSegment.release();
+		}
+		bytesWritten += n;
+		return n;
+	}
+
+	/**
+	 * Read a byte
+	 *
+	 * @return the byte
+	 * @throws java.nio.BufferUnderflowException if the queue is empty
+	 */
+	public byte get()
+	throws BufferUnderflowException
+	{
+		Segment head = segments.peekFirst();
+		if (head == null) throw new BufferUnderflowException();
+		byte result = head.getBuffer().get();
+		bytesRead++;
+		trim();
+		return result;
+	}
+
+	/**
+	 * Read bytes
+	 *
+	 * @param buf buffer to fill
+	 * @param off offset
+	 * @param len number of bytes
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public void get(byte[] buf, int off, int len)
+	throws BufferUnderflowException
+	{
+		if (len > remaining()) throw new BufferUnderflowException();
+		while (len > 0) {
+			ByteBuffer head = segments.peekFirst().getBuffer();
+			int n = Math.min(len, head.remaining());
+			head.get(buf, off, n);
+			off += n;
+			len -= n;
+			bytesRead += n;
+			trim();
+		}
+	}
+
+	/**
+	 * Read bytes to fill a buffer
+	 *
+	 * @param dst buffer to fill
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public void get(ByteBuffer dst)
+	throws BufferUnderflowException
+	{
+		get(dst, dst.remaining());
+	}
+
+	/**
+	 * Read bytes to a buffer
+	 *
+	 * @param dst buffer to write to
+	 * @param length number of bytes
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public void get(ByteBuffer dst, int length)
+	throws BufferUnderflowException
+	{
+		if (length > remaining()) throw new BufferUnderflowException();
+		while (length > 0) {
+			ByteBuffer head = segments.peekFirst().getBuffer();
+			int n = Math.min(length, head.remaining());
+			ByteBuffer src = head.duplicate();
+			src.limit(src.position() + n);
+			dst.put(src);
+			head.position(head.position() + n);
+			length -= n;
+			bytesRead += n;
+			trim();
+		}
+	}
+
+	/**
+	 * Read bytes as one buffer. If the bytes are in one segment, the result
+	 * is a slice of the segment, which is then never reused.
+	 *
+	 * @param len number of bytes
+	 * @return buffer of len bytes
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public ByteBuffer get(int len)
+	throws BufferUnderflowException
+	{
+		return get(len, null);
+	}
+
+	/**
+	 * Read bytes as one buffer. If the bytes are in one segment, the result
+	 * is a slice of the segment, otherwise a copy. The segment of a slice is
+	 * retained and added to retained. Release it with
+	 * {@link Segment#release()} when done with the slice, so that the
+	 * segment can be reused.
+	 *
+	 * @param len number of bytes
+	 * @param retained list to add the retained segment to, if null the segment is never reused
+	 * @return buffer of len bytes
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public ByteBuffer get(int len, List<Segment> retained)
+	throws BufferUnderflowException
+	{
+		if (len > remaining()) throw new BufferUnderflowException();
+		Segment headSegment = segments.peekFirst();
+		ByteBuffer head = headSegment == null ? null : headSegment.getBuffer();
+		if (head != null && head.remaining() >= len) {
+			ByteBuffer result = slice(head, len);
+			retain(headSegment, retained);
+			head.position(head.position() + len);
+			bytesRead += len;
+			trim();
+			return result;
+		}
+		ByteBuffer result = ByteBuffer.allocate(len).order(order);
+		get(result, len);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * Read bytes as slices of the segments. The segments are then never
+	 * reused.
+	 *
+	 * @param len number of bytes
+	 * @return slices
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public ByteBuffer[] getChunks(int len)
+	throws BufferUnderflowException
+	{
+		return getChunks(len, null);
+	}
+
+	/**
+	 * Read bytes as slices of the segments. The segments are retained and
+	 * added to retained. Release them with {@link Segment#release()} when done
+	 * with the slices, so that the segments can be reused.
+	 *
+	 * @param len number of bytes
+	 * @param retained list to add the retained segments to, if null the segments are never reused
+	 * @return slices
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public ByteBuffer[] getChunks(int len, List<Segment> retained)
+	throws BufferUnderflowException
+	{
+		ByteBuffer[] result = peekChunks(len);
+		for (ByteBuffer buf : result) {
+			Segment headSegment = segments.peekFirst();
+			retain(headSegment, retained);
+			ByteBuffer head = headSegment.getBuffer();
+			head.position(head.position() + buf.remaining());
+			bytesRead += buf.remaining();
+			trim();
+		}
+		return result;
+	}
+
+	/**
+	 * Peek bytes
+	 *
+	 * @param buf buffer to fill
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public void peek(byte[] buf)
+	throws BufferUnderflowException
+	{
+		peek(buf, 0, buf.length);
+	}
+
+	/**
+	 * Peek bytes
+	 *
+	 * @param buf buffer to fill
+	 * @param off offset
+	 * @param len number of bytes
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public void peek(byte[] buf, int off, int len)
+	throws BufferUnderflowException
+	{
+		if (len > remaining()) throw new BufferUnderflowException();
+		Iterator<Segment> i = segments.iterator();
+		while (len > 0) {
+			ByteBuffer src = i.next().getBuffer().duplicate();
+			int n = Math.min(len, src.remaining());
+			src.get(buf, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Peek bytes. If the bytes are in one segment, the result is a slice
+	 * of the segment that is valid until the bytes are read, otherwise a copy.
+	 *
+	 * @param len number of bytes
+	 * @return buffer of len bytes
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public ByteBuffer peek(int len)
+	throws BufferUnderflowException
+	{
+		if (len > remaining()) throw new BufferUnderflowException();
+		Segment head = segments.peekFirst();
+		if (head != null && head.getBuffer().remaining() >= len)
+			return slice(head.getBuffer(), len);
+		byte[] copy = new byte[len];
+		peek(copy, 0, len);
+		return ByteBuffer.wrap(copy).order(order);
+	}
+
+	/**
+	 * Peek bytes as slices of the segments. The slices are valid until the
+	 * bytes are read.
+	 *
+	 * @param len number of bytes
+	 * @return slices
+	 * @throws java.nio.BufferUnderflowException if there are less bytes
+	 */
+	public ByteBuffer[] peekChunks(int len)
+	throws BufferUnderflowException
+	{
+		if (len > remaining()) throw new BufferUnderflowException();
+		if (len == 0) return EMPTY_BUFFERS;
+		int count = 0;
+		int left = len;
+		for (Segment segment : segments) {
+			count++;
+			left -= Math.min(left, segment.getBuffer().remaining());
+			if (left == 0) break;
+		}
+		ByteBuffer[] result = new ByteBuffer[count];
+		Iterator<Segment> i = segments.iterator();
+		left = len;
+		for (int index = 0; index < count; index++) {
+			ByteBuffer buf = i.next().getBuffer();
+			int n = Math.min(left, buf.remaining());
+			result[index] = slice(buf, n);
+			left -= n;
+		}
+		return result;
+	}
+
+	/**
+	 * Release all segments, omitting unread bytes
+	 */
+	public void clear()
+	{
+		Segment segment;
+		while ((segment = segments.poll()) != null) {
+			bytesRead += segment.getBuffer().remaining();
+			segment.release();
+		}
+	}
+
+	/**
+	 * Get the number of unread bytes
+	 *
+	 * @return the number of unread bytes
+	 */
+	public long remaining() {
+		return bytesWritten - bytesRead;
+	}
+
+	/**
+	 * @return true if there are no unread bytes
+	 */
+	public boolean isEmpty() {
+		return bytesWritten == bytesRead;
+	}
+
+	/**
+	 * Get the number of bytes read from the queue
+	 *
+	 * @return bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Get the number of bytes written to the queue
+	 *
+	 * @return bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Get the number of segments held by the queue
+	 *
+	 * @return number of segments
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Get byte order of the buffers returned
+	 *
+	 * @return the byte order
+	 */
+	public ByteOrder order() {
+		return order;
+	}
+
+	/**
+	 * Set byte order of the buffers returned
+	 *
+	 * @param order a {@link java.nio.ByteOrder} object.
+	 */
+	public void order(ByteOrder order) {
+		this.order = order;
+	}
+
+	/**
+	 * @return the segment pool
+	 */
+	public SegmentPool getPool() {
+		return pool;
+	}
+
+	private ByteBuffer slice(ByteBuffer buf, int len) {
+		ByteBuffer result = buf.slice();
+		result.limit(len);
+		return result.order(order);
+	}
+
+	private static void retain(Segment segment, List<Segment> retained) {
+		segment.retain();
+		if (retained != null)
+			retained.add(segment);
+	}
+
+	// Release read segments
+	private void trim() {
+		Segment head;
+		while ((head = segments.peekFirst()) != null && !head.getBuffer().hasRemaining()) {
+			segments.poll();
+			head.release();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "SegmentQueue [segments=" + segments.size() + ", remaining=" + remaining() + "]";
+	}
+
+}
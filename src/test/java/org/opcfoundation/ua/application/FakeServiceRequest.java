@@ -0,0 +1,95 @@
+package org.opcfoundation.ua.application;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.ServiceRequest;
+import org.opcfoundation.ua.builtintypes.ServiceResponse;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.ResponseHeader;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.opcfoundation.ua.transport.AsyncWrite;
+import org.opcfoundation.ua.transport.ServerSecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+
+/**
+ * Service request without a channel, records the answers sent to it.
+ *
+ * @param <Req> request type
+ * @param <Res> response type
+ */
+class FakeServiceRequest<Req extends ServiceRequest, Res extends ServiceResponse> extends EndpointServiceRequest<Req, Res> {
+
+  volatile IEncodeable answer;
+  volatile int answers;
+
+  FakeServiceRequest(Req request, Server server) {
+    super(request, server, null);
+  }
+
+  /**
+   * Set the request header.
+   *
+   * @param session numeric authentication token, 0 for none
+   * @param handle request handle
+   * @param timeoutHint timeout hint in milliseconds
+   * @return this request
+   */
+  FakeServiceRequest<Req, Res> header(int session, int handle, int timeoutHint) {
+    RequestHeader header = new RequestHeader();
+    if (session != 0)
+      header.setAuthenticationToken(new NodeId(1, session));
+    header.setRequestHandle(UnsignedInteger.valueOf(handle));
+    header.setTimeoutHint(UnsignedInteger.valueOf(timeoutHint));
+    request.setRequestHeader(header);
+    return this;
+  }
+
+  @Override
+  public SecurityMode getSecurityMode() {
+    return SecurityMode.NONE;
+  }
+
+  @Override
+  protected void writeResponse(AsyncWrite response) {
+    answer = response.getMessage();
+    answers++;
+  }
+
+  @Override
+  public AsyncWrite sendResponse(Res response) {
+    AsyncWrite write = new AsyncWrite(response);
+    sendResponse(write);
+    return write;
+  }
+
+  @Override
+  public ServerSecureChannel getChannel() {
+    return null;
+  }
+
+  /**
+   * @return the fault sent to the request, null if none
+   */
+  ServiceFault getFault() {
+    return answer instanceof ServiceFault ? (ServiceFault) answer : null;
+  }
+
+  /**
+   * @return the header of the answer
+   */
+  ResponseHeader getResponseHeader() {
+    if (answer instanceof ServiceFault)
+      return ((ServiceFault) answer).getResponseHeader();
+    return ((ServiceResponse) answer).getResponseHeader();
+  }
+
+  /**
+   * @return the service result of the answer
+   */
+  UnsignedInteger getStatus() {
+    return getResponseHeader().getServiceResult().getValue();
+  }
+
+}
@@ -0,0 +1,125 @@
+package org.opcfoundation.ua.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.core.PublishRequest;
+import org.opcfoundation.ua.core.PublishResponse;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+
+/**
+ * Tests {@link PublishQueue}.
+ */
+public class PublishQueueTest {
+
+  /**
+   * Publish request without a session.
+   */
+  static FakeServiceRequest<PublishRequest, PublishResponse> publish(int handle, int timeoutHint) {
+    return new FakeServiceRequest<PublishRequest, PublishResponse>(new PublishRequest(), null).header(0, handle, timeoutHint);
+  }
+
+  private PublishQueue queue;
+
+  @Before
+  public void setUp() {
+    queue = new PublishQueue();
+  }
+
+  @Test
+  public void oldestRequestIsCompletedOnce() {
+    FakeServiceRequest<PublishRequest, PublishResponse> a = publish(1, 0);
+    FakeServiceRequest<PublishRequest, PublishResponse> b = publish(2, 0);
+    queue.park(a);
+    queue.park(b);
+
+    PublishResponse response = new PublishResponse();
+    assertTrue(queue.complete(response));
+    assertSame(response, a.answer);
+    assertEquals(UnsignedInteger.valueOf(1), response.getResponseHeader().getRequestHandle());
+    assertEquals(1, queue.size());
+
+    assertFalse(a.complete(new PublishResponse()));
+    assertFalse(a.cancel(StatusCodes.Bad_Timeout));
+    assertEquals(1, a.answers);
+    assertNull(b.answer);
+  }
+
+  @Test
+  public void requestTimesOutAtTimeoutHint() throws Exception {
+    FakeServiceRequest<PublishRequest, PublishResponse> a = publish(1, 50);
+    queue.park(a);
+
+    for (int i = 0; i < 200 && a.answer == null; i++)
+      Thread.sleep(10);
+    assertTrue(a.answer instanceof ServiceFault);
+    assertEquals(StatusCodes.Bad_Timeout, a.getStatus());
+    assertEquals(UnsignedInteger.valueOf(1), a.getResponseHeader().getRequestHandle());
+    assertEquals(0, queue.size());
+    assertFalse(queue.complete(new PublishResponse()));
+  }
+
+  @Test
+  public void cancelByRequestHandle() {
+    FakeServiceRequest<PublishRequest, PublishResponse> a = publish(1, 0);
+    FakeServiceRequest<PublishRequest, PublishResponse> b = publish(2, 0);
+    queue.park(a);
+    queue.park(b);
+
+    assertEquals(1, queue.cancel(UnsignedInteger.valueOf(2)));
+    assertEquals(StatusCodes.Bad_RequestCancelledByClient, b.getStatus());
+    assertEquals(1, queue.size());
+  }
+
+  @Test
+  public void requestIsAnsweredOnce() {
+    FakeServiceRequest<PublishRequest, PublishResponse> a = publish(1, 0);
+    PublishResponse response = new PublishResponse();
+    a.sendResponse(response);
+    assertTrue(a.isCompleted());
+    assertFalse(a.complete(new PublishResponse()));
+    assertFalse(a.cancel(StatusCodes.Bad_Timeout));
+    a.sendFault(new ServiceFault());
+    assertSame(response, a.answer);
+    assertEquals(1, a.answers);
+
+    FakeServiceRequest<PublishRequest, PublishResponse> b = publish(2, 0);
+    assertTrue(b.cancel(StatusCodes.Bad_Timeout));
+    b.sendResponse(new PublishResponse());
+    assertEquals(StatusCodes.Bad_Timeout, b.getStatus());
+    assertEquals(1, b.answers);
+  }
+
+  @Test
+  public void oldestIsDroppedWhenFull() {
+    queue.setMaxRequests(2);
+    FakeServiceRequest<PublishRequest, PublishResponse> a = publish(1, 0);
+    queue.park(a);
+    queue.park(publish(2, 0));
+    queue.park(publish(3, 0));
+
+    assertEquals(StatusCodes.Bad_TooManyPublishRequests, a.getStatus());
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  public void clearAnswersAll() {
+    FakeServiceRequest<PublishRequest, PublishResponse> a = publish(1, 0);
+    FakeServiceRequest<PublishRequest, PublishResponse> b = publish(2, 0);
+    queue.park(a);
+    queue.park(b);
+    queue.clear(StatusCodes.Bad_SessionClosed);
+
+    assertEquals(StatusCodes.Bad_SessionClosed, a.getStatus());
+    assertEquals(StatusCodes.Bad_SessionClosed, b.getStatus());
+    assertEquals(0, queue.size());
+  }
+
+}
@@ -0,0 +1,232 @@
+package org.opcfoundation.ua.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.MessageSecurityMode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.tcp.io.SecureChannelTcp;
+
+/**
+ * Tests {@link SecureChannelPool}.
+ */
+public class SecureChannelPoolTest {
+
+  private static final String URL = "opc.tcp://localhost:4840";
+
+  /**
+   * Records calls to a fake secure channel.
+   */
+  static class FakeChannel implements InvocationHandler {
+    boolean open = true;
+    boolean failProbe;
+    int closed;
+    int disposed;
+    int probes;
+    final SecureChannel proxy = (SecureChannel) Proxy.newProxyInstance(SecureChannel.class.getClassLoader(),
+        new Class<?>[] {SecureChannel.class}, this);
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws ServiceResultException {
+      String name = method.getName();
+      if (name.equals("isOpen"))
+        return open;
+      if (name.equals("serviceRequest")) {
+        probes++;
+        if (failProbe)
+          throw new ServiceResultException(StatusCodes.Bad_ConnectionClosed);
+        return null;
+      }
+      if (name.equals("close"))
+        closed++;
+      else if (name.equals("dispose"))
+        disposed++;
+      else if (name.equals("getSecureChannelId"))
+        return 1;
+      return null;
+    }
+  }
+
+  /**
+   * opc.tcp channel whose token has expired or whose connection is being
+   * recovered.
+   */
+  static class UnhealthyChannel extends SecureChannelTcp {
+    final boolean expired;
+    int disposed;
+
+    UnhealthyChannel(boolean expired) {
+      this.expired = expired;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public boolean isTokenExpired() {
+      return expired;
+    }
+
+    @Override
+    public boolean isInErrorRecovery() {
+      return !expired;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void dispose() {
+      disposed++;
+    }
+  }
+
+  private final List<FakeChannel> opened = new ArrayList<FakeChannel>();
+  private SecureChannelPool pool;
+  private EndpointDescription endpoint;
+
+  @Before
+  public void setUp() {
+    Client client = new Client(new Application()) {
+      @Override
+      public SecureChannel createSecureChannel(String connectUrl, EndpointDescription endpoint)
+          throws ServiceResultException {
+        FakeChannel channel = new FakeChannel();
+        opened.add(channel);
+        return channel.proxy;
+      }
+    };
+    pool = new SecureChannelPool(client);
+    endpoint = new EndpointDescription();
+    endpoint.setEndpointUrl(URL);
+    endpoint.setSecurityMode(MessageSecurityMode.None);
+    endpoint.setSecurityPolicyUri(SecurityPolicy.NONE.getPolicyUri());
+  }
+
+  private static SecureChannel unwrap(SecureChannel lease) {
+    return ((SecureChannelPool.Lease) lease).entry.channel;
+  }
+
+  @Test
+  public void channelIsSharedUpToMaxSessions() throws Exception {
+    pool.setMaxSessionsPerChannel(2);
+    SecureChannel a = pool.acquire(URL, endpoint);
+    SecureChannel b = pool.acquire(URL, endpoint);
+    SecureChannel c = pool.acquire(URL, endpoint);
+
+    assertEquals(2, opened.size());
+    assertSame(unwrap(a), unwrap(b));
+    assertNotSame(unwrap(a), unwrap(c));
+    assertEquals(2, pool.getChannelCount());
+  }
+
+  @Test
+  public void releasedChannelIsReused() throws Exception {
+    SecureChannel a = pool.acquire(URL, endpoint);
+    a.close();
+    a.close();
+    SecureChannel b = pool.acquire(URL, endpoint);
+
+    assertEquals(1, opened.size());
+    assertSame(opened.get(0).proxy, unwrap(b));
+    assertEquals(0, opened.get(0).closed);
+  }
+
+  @Test
+  public void closedChannelIsDiscarded() throws Exception {
+    SecureChannel a = pool.acquire(URL, endpoint);
+    a.close();
+    opened.get(0).open = false;
+    pool.acquire(URL, endpoint);
+
+    assertEquals(2, opened.size());
+    assertEquals(1, opened.get(0).disposed);
+    assertEquals(1, pool.getChannelCount());
+  }
+
+  @Test
+  public void unhealthyChannelIsNotLeased() throws Exception {
+    for (boolean expired : new boolean[] {true, false}) {
+      final UnhealthyChannel unhealthy = new UnhealthyChannel(expired);
+      SecureChannelPool tcpPool = new SecureChannelPool(new Client(new Application()) {
+        boolean first = true;
+
+        @Override
+        public SecureChannel createSecureChannel(String connectUrl, EndpointDescription endpoint)
+            throws ServiceResultException {
+          if (first) {
+            first = false;
+            return unhealthy;
+          }
+          FakeChannel channel = new FakeChannel();
+          opened.add(channel);
+          return channel.proxy;
+        }
+      });
+      SecureChannel a = tcpPool.acquire(URL, endpoint);
+      assertSame(unhealthy, unwrap(a));
+      SecureChannel b = tcpPool.acquire(URL, endpoint);
+      assertNotSame(unhealthy, unwrap(b));
+      assertEquals(1, tcpPool.getChannelCount());
+      // Closed when its last session releases it
+      assertEquals(0, unhealthy.disposed);
+      a.close();
+      assertEquals(1, unhealthy.disposed);
+    }
+  }
+
+  @Test
+  public void idleChannelIsProbed() throws Exception {
+    pool.setProbeInterval(1);
+    pool.acquire(URL, endpoint).close();
+    Thread.sleep(10);
+    pool.acquire(URL, endpoint).close();
+    assertEquals(1, opened.size());
+    assertEquals(1, opened.get(0).probes);
+
+    Thread.sleep(10);
+    opened.get(0).failProbe = true;
+    SecureChannel b = pool.acquire(URL, endpoint);
+    assertEquals(2, opened.size());
+    assertSame(opened.get(1).proxy, unwrap(b));
+    assertEquals(1, opened.get(0).disposed);
+    assertEquals(1, pool.getChannelCount());
+  }
+
+  @Test
+  public void idleChannelIsEvicted() throws Exception {
+    pool.acquire(URL, endpoint).close();
+    pool.setIdleTimeout(0);
+    pool.evict();
+
+    assertEquals(0, pool.getChannelCount());
+    assertEquals(1, opened.get(0).closed);
+  }
+
+  @Test
+  public void differentEndpointsDoNotShare() throws Exception {
+    pool.acquire(URL, endpoint);
+    EndpointDescription other = endpoint.clone();
+    other.setSecurityMode(MessageSecurityMode.Sign);
+    pool.acquire(URL, other);
+
+    assertEquals(2, opened.size());
+  }
+
+}
@@ -0,0 +1,125 @@
+package org.opcfoundation.ua.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.core.AttributeServiceSetHandler;
+import org.opcfoundation.ua.core.CallRequest;
+import org.opcfoundation.ua.core.CallResponse;
+import org.opcfoundation.ua.core.HistoryReadRequest;
+import org.opcfoundation.ua.core.HistoryReadResponse;
+import org.opcfoundation.ua.core.HistoryUpdateRequest;
+import org.opcfoundation.ua.core.HistoryUpdateResponse;
+import org.opcfoundation.ua.core.Identifiers;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.RegisterServer2Request;
+import org.opcfoundation.ua.core.WriteRequest;
+import org.opcfoundation.ua.core.WriteResponse;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+
+/**
+ * Tests {@link ServiceHandlerComposition}.
+ */
+public class ServiceHandlerCompositionTest {
+
+  /**
+   * Attribute service set handler with an extra reflection based service.
+   */
+  public static class AttributeHandler implements AttributeServiceSetHandler {
+    int reads;
+    int calls;
+    RuntimeException failure;
+
+    @Override
+    public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) throws ServiceFaultException {
+      reads++;
+      if (failure != null)
+        throw failure;
+    }
+
+    @Override
+    public void onHistoryRead(EndpointServiceRequest<HistoryReadRequest, HistoryReadResponse> req)
+        throws ServiceFaultException {}
+
+    @Override
+    public void onWrite(EndpointServiceRequest<WriteRequest, WriteResponse> req) throws ServiceFaultException {}
+
+    @Override
+    public void onHistoryUpdate(EndpointServiceRequest<HistoryUpdateRequest, HistoryUpdateResponse> req)
+        throws ServiceFaultException {}
+
+    public void onCall(EndpointServiceRequest<CallRequest, CallResponse> req) {
+      calls++;
+    }
+  }
+
+  @Test
+  public void serviceSetIsDispatchedDirectly() throws Exception {
+    AttributeHandler handler = new AttributeHandler();
+    ServiceHandlerComposition composition = new ServiceHandlerComposition();
+    composition.add(handler);
+
+    assertTrue(composition.handlerMap.get(ReadRequest.class)
+        instanceof ServiceHandlerComposition.DispatchingServiceHandler);
+    assertTrue(composition.supportsService(HistoryUpdateRequest.class));
+    assertSame(handler, composition.getServiceHandlerByService(WriteRequest.class));
+
+    FakeServiceRequest<ReadRequest, ReadResponse> req = new FakeServiceRequest<ReadRequest, ReadResponse>(new ReadRequest(), null);
+    composition.serve(req);
+    assertEquals(1, handler.reads);
+    assertEquals(null, req.getFault());
+  }
+
+  @Test
+  public void otherMethodsUseReflection() {
+    AttributeHandler handler = new AttributeHandler();
+    ServiceHandlerComposition composition = new ServiceHandlerComposition();
+    composition.add(handler);
+
+    assertTrue(composition.supportsService(CallRequest.class));
+    assertFalse(composition.handlerMap.get(CallRequest.class)
+        instanceof ServiceHandlerComposition.DispatchingServiceHandler);
+    assertSame(handler, composition.getServiceHandlerByService(CallRequest.class));
+    assertEquals(5, composition.getServiceHandlers().length);
+  }
+
+  @Test
+  public void handlersAreIndexedByTypeId() throws Exception {
+    AttributeHandler handler = new AttributeHandler();
+    ServiceHandlerComposition composition = new ServiceHandlerComposition();
+    composition.add(handler);
+
+    int read = ((UnsignedInteger) Identifiers.ReadRequest.getValue()).intValue();
+    assertEquals(read, ServiceHandlerComposition.typeIndex(ReadRequest.ID));
+    assertSame(composition.handlerMap.get(ReadRequest.class), composition.handlersByTypeId[read]);
+    int call = ServiceHandlerComposition.typeIndex(CallRequest.ID);
+    assertSame(composition.handlerMap.get(CallRequest.class), composition.handlersByTypeId[call]);
+    // Ids beyond the index are looked up by class
+    assertEquals(-1, ServiceHandlerComposition.typeIndex(RegisterServer2Request.ID));
+
+    FakeServiceRequest<ReadRequest, ReadResponse> req = new FakeServiceRequest<ReadRequest, ReadResponse>(new ReadRequest(), null);
+    composition.serve(req);
+    assertEquals(1, handler.reads);
+  }
+
+  @Test
+  public void handlerFailureIsSentAsFault() throws Exception {
+    AttributeHandler handler = new AttributeHandler();
+    handler.failure = new IllegalStateException("failed");
+    ServiceHandlerComposition composition = new ServiceHandlerComposition();
+    composition.add(handler);
+
+    FakeServiceRequest<ReadRequest, ReadResponse> req = new FakeServiceRequest<ReadRequest, ReadResponse>(new ReadRequest(), null);
+    composition.serve(req);
+    assertNotNull(req.getFault());
+    assertTrue(req.getFault().getResponseHeader().getServiceResult().isBad());
+  }
+
+}
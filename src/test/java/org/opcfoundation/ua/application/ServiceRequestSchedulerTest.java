@@ -0,0 +1,153 @@
+package org.opcfoundation.ua.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+
+/**
+ * Tests {@link ServiceRequestScheduler}.
+ */
+public class ServiceRequestSchedulerTest {
+
+  /**
+   * Records the request handles of served requests.
+   */
+  public static class Recorder {
+    final List<Integer> served = new ArrayList<Integer>();
+
+    public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) {
+      served.add(req.getRequest().getRequestHeader().getRequestHandle().intValue());
+    }
+  }
+
+  /**
+   * Read request of a session.
+   */
+  static FakeServiceRequest<ReadRequest, ReadResponse> read(Server server, int session, int handle, int timeoutHint) {
+    return new FakeServiceRequest<ReadRequest, ReadResponse>(new ReadRequest(), server).header(session, handle, timeoutHint);
+  }
+
+  private final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+  private Server server;
+  private Recorder recorder;
+  private ServiceRequestScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    server = new Server(new Application());
+    recorder = new Recorder();
+    server.addServiceHandler(recorder);
+    scheduler = new ServiceRequestScheduler(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        tasks.add(command);
+      }
+    });
+    scheduler.setMaxConcurrentRequests(1);
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty())
+      tasks.remove(0).run();
+  }
+
+  @Test
+  public void sessionsAreServedRoundRobin() {
+    scheduler.submit(read(server, 1, 1, 0));
+    scheduler.submit(read(server, 1, 2, 0));
+    scheduler.submit(read(server, 1, 3, 0));
+    scheduler.submit(read(server, 2, 4, 0));
+    scheduler.submit(read(server, 2, 5, 0));
+    assertEquals(1, tasks.size());
+    runTasks();
+
+    assertEquals(Arrays.asList(1, 4, 2, 5, 3), recorder.served);
+    assertEquals(0, scheduler.getQueuedRequests());
+  }
+
+  @Test
+  public void weightGivesMoreRequestsPerRound() {
+    scheduler = new ServiceRequestScheduler(scheduler.executor) {
+      @Override
+      protected int getWeight(EndpointServiceRequest<?, ?> request) {
+        return request.getRequest().getRequestHeader().getAuthenticationToken().equals(new NodeId(1, 1)) ? 2 : 1;
+      }
+    };
+    scheduler.setMaxConcurrentRequests(1);
+    for (int i = 1; i <= 4; i++)
+      scheduler.submit(read(server, 1, i, 0));
+    scheduler.submit(read(server, 2, 5, 0));
+    scheduler.submit(read(server, 2, 6, 0));
+    runTasks();
+
+    assertEquals(Arrays.asList(1, 2, 5, 3, 4, 6), recorder.served);
+  }
+
+  @Test
+  public void fullQueuesRejectRequests() {
+    scheduler.setMaxQueuedRequestsPerFlow(2);
+    scheduler.setMaxQueuedRequests(3);
+    List<FakeServiceRequest<ReadRequest, ReadResponse>> requests = Arrays.asList(
+        read(server, 1, 1, 0), read(server, 1, 2, 0), read(server, 1, 3, 0),
+        read(server, 2, 4, 0), read(server, 3, 5, 0));
+    for (FakeServiceRequest<ReadRequest, ReadResponse> r : requests)
+      scheduler.submit(r);
+
+    assertNull(requests.get(0).getFault());
+    assertEquals(StatusCodes.Bad_TooManyOperations, requests.get(2).getStatus());
+    assertEquals(UnsignedInteger.valueOf(3), requests.get(2).getResponseHeader().getRequestHandle());
+    assertNull(requests.get(3).getFault());
+    assertEquals(StatusCodes.Bad_TcpServerTooBusy, requests.get(4).getStatus());
+    runTasks();
+    assertEquals(Arrays.asList(1, 4, 2), recorder.served);
+  }
+
+  @Test
+  public void writeBlockedSessionIsHeldBack() throws Exception {
+    final boolean[] blocked = {true};
+    scheduler = new ServiceRequestScheduler(scheduler.executor) {
+      @Override
+      protected boolean isWriteBlocked(EndpointServiceRequest<?, ?> request) {
+        return blocked[0] && request.getRequest().getRequestHeader().getAuthenticationToken().equals(new NodeId(1, 1));
+      }
+    };
+    scheduler.submit(read(server, 1, 1, 0));
+    scheduler.submit(read(server, 2, 2, 0));
+    runTasks();
+    assertEquals(Arrays.asList(2), recorder.served);
+    assertEquals(1, scheduler.getQueuedRequests());
+
+    blocked[0] = false;
+    for (int i = 0; i < 100 && tasks.isEmpty(); i++)
+      Thread.sleep(10);
+    runTasks();
+    assertEquals(Arrays.asList(2, 1), recorder.served);
+  }
+
+  @Test
+  public void expiredRequestIsNotServed() throws Exception {
+    FakeServiceRequest<ReadRequest, ReadResponse> expired = read(server, 1, 1, 1);
+    scheduler.submit(expired);
+    scheduler.submit(read(server, 1, 2, 0));
+    Thread.sleep(20);
+    runTasks();
+
+    assertEquals(Arrays.asList(2), recorder.served);
+    assertEquals(StatusCodes.Bad_Timeout, expired.getStatus());
+  }
+
+}
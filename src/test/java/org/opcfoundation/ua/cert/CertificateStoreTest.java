@@ -1,10 +1,15 @@
 package org.opcfoundation.ua.cert;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -42,6 +47,91 @@ public class CertificateStoreTest {
 		assertTrue(!code2.isGood());
 		assertEquals(StatusCodes.Bad_SecurityChecksFailed.intValue(), code2.getValue().intValue());
 	}
+
+	@Test
+	public void testStoreChangeInvalidatesResults() throws Exception {
+		CertificateStore store = mock(CertificateStore.class);
+		Set<Cert> temp = new HashSet<Cert>();
+		temp.add(cert);
+		when(store.getTrustedCerts()).thenReturn(temp);
+
+		DefaultCertificateValidator validator = new DefaultCertificateValidator(store);
+		assertTrue(validator.validateCertificate(cert).isGood());
+		assertTrue(validator.validateCertificate(cert).isGood());
+
+		Set<Cert> temp2 = new HashSet<Cert>();
+		temp2.add(cert2);
+		when(store.getTrustedCerts()).thenReturn(temp2);
+		assertTrue(validator.validateCertificate(cert2).isGood());
+		assertEquals(StatusCodes.Bad_SecurityChecksFailed.intValue(), validator.validateCertificate(cert).getValue().intValue());
+	}
+
+	@Test
+	public void testDirectoryStoreReadsChangedFiles() throws Exception {
+		File base = File.createTempFile("pki", "");
+		base.delete();
+		PkiDirectoryCertificateStore store = new PkiDirectoryCertificateStore(base.getPath());
+		assertFalse(store.isWatching());
+		try {
+			assertEquals(0, store.getTrustedCerts().size());
+			cert.save(new File(store.getTrustedDir(), "dropped.der"));
+			store.refresh();
+			Set<Cert> trusted = store.getTrustedCerts();
+			assertEquals(1, trusted.size());
+			assertTrue(trusted.contains(cert));
+
+			// Unchanged directories keep the snapshot
+			long version = store.getVersion();
+			store.refresh();
+			assertSame(trusted, store.getTrustedCerts());
+			assertEquals(version, store.getVersion());
+
+			// Rejecting a certificate that is not trusted keeps the trusted set
+			store.addRejectedCertificate(cert2);
+			assertSame(trusted, store.getTrustedCerts());
+			assertTrue(store.getVersion() > version);
+
+			store.addRejectedCertificate(cert);
+			assertEquals(0, store.getTrustedCerts().size());
+			assertTrue(store.getRejectedCerts().contains(cert));
+
+			store.clear(true);
+			assertEquals(0, store.getRejectedCerts().size());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testDirectoryStoreNoticesChanges() throws Exception {
+		File base = File.createTempFile("pki", "");
+		base.delete();
+		PkiDirectoryCertificateStore store = new PkiDirectoryCertificateStore(base.getPath());
+		try {
+			// Watched, or polled if the runtime cannot watch the directories
+			store.setPollInterval(50);
+			store.startWatching();
+			assertTrue(store.isWatching());
+			Thread.sleep(100);
+			cert.save(new File(store.getTrustedDir(), "dropped.der"));
+			long timeout = System.currentTimeMillis() + 10000;
+			while (store.getTrustedCerts().isEmpty() && System.currentTimeMillis() < timeout)
+				Thread.sleep(20);
+			assertTrue(store.getTrustedCerts().contains(cert));
+		} finally {
+			store.close();
+			assertFalse(store.isWatching());
+			store.clear(true);
+		}
+	}
+
+	@Test
+	public void testKeyIdentifiers() throws Exception {
+		byte[] ski = CertificateUtils.getSubjectKeyIdentifier(cert.getCertificate());
+		assertNotNull(ski);
+		// Self-signed: the authority is the certificate itself
+		assertArrayEquals(ski, CertificateUtils.getAuthorityKeyIdentifier(cert.getCertificate()));
+	}
 	
 	@BeforeClass
 	public static void generateCertificates() throws Exception{
@@ -0,0 +1,222 @@
+package org.opcfoundation.ua.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.security.Cert;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.utils.CertificateUtils;
+
+public class DefaultCertificateValidatorTest {
+
+	private static KeyPair rootCa;
+	/** Two intermediate CAs with the same subject, but different keys */
+	private static KeyPair intermediateCa;
+	private static KeyPair otherIntermediateCa;
+	private static Cert leaf;
+	private static Cert otherLeaf;
+
+	/**
+	 * Revocation list of an issuer, revokes the given certificates
+	 */
+	static class TestCrl extends X509CRL {
+		final X500Principal issuer;
+		final Set<Certificate> revoked;
+
+		TestCrl(Cert issuer, Cert...revoked) {
+			this.issuer = issuer.getCertificate().getSubjectX500Principal();
+			this.revoked = new HashSet<Certificate>();
+			for (Cert c : revoked)
+				this.revoked.add(c.getCertificate());
+		}
+
+		@Override
+		public X500Principal getIssuerX500Principal() {
+			return issuer;
+		}
+
+		@Override
+		public boolean isRevoked(Certificate cert) {
+			return revoked.contains(cert);
+		}
+
+		@Override
+		public Principal getIssuerDN() {
+			return issuer;
+		}
+
+		@Override
+		public byte[] getEncoded() {
+			return issuer.getEncoded();
+		}
+
+		@Override
+		public void verify(PublicKey key) {
+		}
+
+		@Override
+		public void verify(PublicKey key, String sigProvider) {
+		}
+
+		@Override
+		public int getVersion() {
+			return 2;
+		}
+
+		@Override
+		public Date getThisUpdate() {
+			return null;
+		}
+
+		@Override
+		public Date getNextUpdate() {
+			return null;
+		}
+
+		@Override
+		public X509CRLEntry getRevokedCertificate(BigInteger serialNumber) {
+			return null;
+		}
+
+		@Override
+		public Set<? extends X509CRLEntry> getRevokedCertificates() {
+			return null;
+		}
+
+		@Override
+		public byte[] getTBSCertList() {
+			return null;
+		}
+
+		@Override
+		public byte[] getSignature() {
+			return null;
+		}
+
+		@Override
+		public String getSigAlgName() {
+			return null;
+		}
+
+		@Override
+		public String getSigAlgOID() {
+			return null;
+		}
+
+		@Override
+		public byte[] getSigAlgParams() {
+			return null;
+		}
+
+		@Override
+		public boolean hasUnsupportedCriticalExtension() {
+			return false;
+		}
+
+		@Override
+		public Set<String> getCriticalExtensionOIDs() {
+			return null;
+		}
+
+		@Override
+		public Set<String> getNonCriticalExtensionOIDs() {
+			return null;
+		}
+
+		@Override
+		public byte[] getExtensionValue(String oid) {
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return "TestCrl " + issuer;
+		}
+	}
+
+	private static CertificateStore store(Set<X509CRL> revocationLists, Cert...trusted) {
+		CertificateStore store = mock(CertificateStore.class);
+		when(store.getTrustedCerts()).thenReturn(new HashSet<Cert>(Arrays.asList(trusted)));
+		when(store.getRevocationLists()).thenReturn(revocationLists);
+		return store;
+	}
+
+	@Test
+	public void testIntermediateIsFoundByAuthorityKeyIdentifier() throws Exception {
+		DefaultCertificateValidator.TrustIndex index = new DefaultCertificateValidator.TrustIndex(
+				new HashSet<Cert>(Arrays.asList(rootCa.getCertificate(), otherIntermediateCa.getCertificate(), intermediateCa.getCertificate())), null);
+		// Both intermediates have the issuer name of the leaf, the one whose
+		// key identifier matches comes first
+		List<Cert> candidates = index.getIssuerCandidates(leaf.getCertificate());
+		assertEquals(2, candidates.size());
+		assertSame(intermediateCa.getCertificate(), candidates.get(0));
+		candidates = index.getIssuerCandidates(otherLeaf.getCertificate());
+		assertSame(otherIntermediateCa.getCertificate(), candidates.get(0));
+
+		DefaultCertificateValidator validator = new DefaultCertificateValidator(
+				store(null, rootCa.getCertificate(), otherIntermediateCa.getCertificate(), intermediateCa.getCertificate()));
+		assertEquals(StatusCode.GOOD, validator.validateCertificate(leaf));
+		assertEquals(StatusCode.GOOD, validator.validateCertificate(otherLeaf));
+
+		// Without the root the chain is not complete
+		validator = new DefaultCertificateValidator(store(null, intermediateCa.getCertificate()));
+		assertTrue(validator.validateCertificate(leaf).isStatusCode(StatusCodes.Bad_CertificateChainIncomplete));
+	}
+
+	@Test
+	public void testRevocationListIsSelectedByIssuer() throws Exception {
+		// The list of the root does not apply to the leaf, only the list of
+		// its issuer does
+		Set<X509CRL> revocationLists = new HashSet<X509CRL>();
+		revocationLists.add(new TestCrl(rootCa.getCertificate(), leaf));
+		DefaultCertificateValidator validator = new DefaultCertificateValidator(
+				store(revocationLists, rootCa.getCertificate(), intermediateCa.getCertificate()));
+		assertEquals(StatusCode.GOOD, validator.validateCertificate(leaf));
+
+		revocationLists = new HashSet<X509CRL>();
+		revocationLists.add(new TestCrl(intermediateCa.getCertificate(), leaf));
+		validator = new DefaultCertificateValidator(
+				store(revocationLists, rootCa.getCertificate(), intermediateCa.getCertificate()));
+		assertTrue(validator.validateCertificate(leaf).isStatusCode(StatusCodes.Bad_CertificateRevoked));
+
+		// A revoked issuer makes the chain invalid
+		revocationLists = new HashSet<X509CRL>();
+		revocationLists.add(new TestCrl(rootCa.getCertificate(), intermediateCa.getCertificate()));
+		validator = new DefaultCertificateValidator(
+				store(revocationLists, rootCa.getCertificate(), intermediateCa.getCertificate()));
+		assertTrue(validator.validateCertificate(leaf).isStatusCode(StatusCodes.Bad_CertificateIssuerRevoked));
+	}
+
+	@BeforeClass
+	public static void generateCertificates() throws Exception {
+		rootCa = CertificateUtils.createIssuerCertificate("RootCA", 3650, null);
+		intermediateCa = CertificateUtils.createIssuerCertificate("IntermediateCA", 3650, rootCa);
+		otherIntermediateCa = CertificateUtils.createIssuerCertificate("IntermediateCA", 3650, rootCa);
+		leaf = CertificateUtils.createApplicationInstanceCertificate("leaf", "test organization",
+				"urn:localhost:OPCUA:leaf", 365, intermediateCa).getCertificate();
+		otherLeaf = CertificateUtils.createApplicationInstanceCertificate("otherLeaf", "test organization",
+				"urn:localhost:OPCUA:otherLeaf", 365, otherIntermediateCa).getCertificate();
+	}
+
+}
@@ -0,0 +1,187 @@
+package org.opcfoundation.ua.transport.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.ReadValueId;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.CertificateUtils;
+
+/**
+ * Tests the opc.local transport.
+ */
+public class LocalServerTest {
+
+	static final String URL = "opc.local://localservertest/UA";
+
+	/**
+	 * Timeout for all tests in this class.
+	 */
+	@Rule
+	public Timeout timeout = Timeout.seconds(30);
+
+	/**
+	 * Answers Read with maxAge values, or with Bad_NodeIdUnknown if maxAge is negative.
+	 */
+	public static class ReadHandler {
+		volatile ReadRequest lastRequest;
+		volatile ReadResponse lastResponse;
+
+		public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) throws ServiceFaultException {
+			lastRequest = req.getRequest();
+			int size = req.getRequest().getMaxAge().intValue();
+			if (size < 0)
+				throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_NodeIdUnknown));
+			DataValue[] values = new DataValue[size];
+			for (int i = 0; i < size; i++)
+				values[i] = new DataValue(new Variant(i));
+			lastResponse = new ReadResponse(null, values, null);
+			req.sendResponse(lastResponse);
+		}
+	}
+
+	static KeyPair serverKeys;
+
+	Application serverApplication;
+	Server server;
+	ReadHandler handler;
+	Client client;
+
+	@BeforeClass
+	public static void createKeys() throws Exception {
+		serverKeys = CertificateUtils.createApplicationInstanceCertificate("LocalServerTest", "Test", "urn:localservertest", 365, "localhost");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		serverApplication = new Application();
+		serverApplication.addApplicationInstanceCertificate(serverKeys);
+		server = new Server(serverApplication);
+		handler = new ReadHandler();
+		server.addServiceHandler(handler);
+		server.bind(URL, URL, SecurityMode.NONE);
+		client = new Client(new Application());
+	}
+
+	@After
+	public void tearDown() {
+		serverApplication.close();
+		client.getApplication().close();
+	}
+
+	static ReadRequest read(int size) {
+		return new ReadRequest(new RequestHeader(), (double) size, TimestampsToReturn.Neither, new ReadValueId[0]);
+	}
+
+	@Test
+	public void discoverAndRead() throws Exception {
+		EndpointDescription[] endpoints = client.discoverEndpoints(URL);
+		assertEquals(1, endpoints.length);
+		assertEquals(URL, endpoints[0].getEndpointUrl());
+		assertEquals(Server.LOCAL_TRANSPORT_PROFILE_URI, endpoints[0].getTransportProfileUri());
+
+		SecureChannel channel = client.createSecureChannel(URL, endpoints[0]);
+		try {
+			assertTrue(channel instanceof LocalSecureChannel);
+			ReadRequest request = read(3);
+			ReadResponse response = (ReadResponse) channel.serviceRequest(request);
+			// Objects are handed over as they are
+			assertSame(request, handler.lastRequest);
+			assertSame(handler.lastResponse, response);
+			assertEquals(3, response.getResults().length);
+
+			AsyncResult<?> result = channel.serviceRequestAsync(read(2));
+			assertEquals(2, ((ReadResponse) result.waitForResult()).getResults().length);
+		} finally {
+			channel.close();
+		}
+		assertFalse(channel.isOpen());
+	}
+
+	@Test
+	public void copyMessages() throws Exception {
+		serverApplication.getOrCreateLocalServer().setCopyMessages(true);
+		SecureChannel channel = client.createSecureChannel(URL, URL, SecurityMode.NONE, null);
+		try {
+			ReadRequest request = read(3);
+			ReadResponse response = (ReadResponse) channel.serviceRequest(request);
+			assertNotSame(request, handler.lastRequest);
+			assertEquals(request.getMaxAge(), handler.lastRequest.getMaxAge());
+			assertNotSame(handler.lastResponse, response);
+			assertEquals(2, response.getResults()[2].getValue().getValue());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void faultIsThrown() throws Exception {
+		SecureChannel channel = client.createSecureChannel(URL, URL, SecurityMode.NONE, null);
+		try {
+			channel.serviceRequest(read(-1));
+			fail("Should have thrown");
+		} catch (ServiceFaultException e) {
+			assertEquals(StatusCodes.Bad_NodeIdUnknown, e.getStatusCode().getValue());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void closedServerClosesChannels() throws Exception {
+		SecureChannel channel = client.createSecureChannel(URL, URL, SecurityMode.NONE, null);
+		serverApplication.close();
+		assertFalse(channel.isOpen());
+		try {
+			channel.serviceRequest(read(1));
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_SecureChannelClosed, e.getStatusCode().getValue());
+		}
+		try {
+			client.createSecureChannel(URL, URL, SecurityMode.NONE, null);
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_ServerNotConnected, e.getStatusCode().getValue());
+		}
+	}
+
+	@Test
+	public void securityIsRejected() throws Exception {
+		try {
+			client.createSecureChannel(URL, URL, SecurityMode.BASIC256SHA256_SIGN_ENCRYPT, serverKeys.getCertificate());
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_SecurityModeRejected, e.getStatusCode().getValue());
+		}
+	}
+
+}
@@ -1,8 +1,20 @@
 package org.opcfoundation.ua.transport.security;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
 
 import org.junit.Test;
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.common.ServiceResultException;
 
 public class BcCryptoProviderTest {
 
@@ -23,5 +35,159 @@ public class BcCryptoProviderTest {
 		String out = new String(sut.base64Decode(data));
 		assertEquals("teststring", out);
 	}
-	
+
+	@Test
+	public void symmetricContextsAreReused() throws Exception {
+		BcCryptoProvider sut = new BcCryptoProvider();
+		JceCryptoProvider jce = new JceCryptoProvider(Security.getProvider("BC"));
+		SecurityPolicy policy = SecurityPolicy.BASIC256SHA256;
+		Random r = new Random(1);
+		byte[] key = new byte[32];
+		byte[] signingKey = new byte[32];
+		byte[] iv1 = new byte[16];
+		byte[] iv2 = new byte[16];
+		r.nextBytes(key);
+		r.nextBytes(signingKey);
+		r.nextBytes(iv1);
+		r.nextBytes(iv2);
+		byte[] data = new byte[160];
+		r.nextBytes(data);
+
+		for (CryptoProvider provider : new CryptoProvider[] { sut, jce }) {
+			CryptoContexts contexts = new CryptoContexts();
+			// Same key with different IVs, each IV has its own ciphers
+			for (byte[] iv : new byte[][] { iv1, iv2, iv1, iv2 }) {
+				byte[] expected = new byte[data.length];
+				jce.encryptSymm(policy, key, iv, data, 0, data.length, expected, 0);
+				ByteBuffer buffer = ByteBuffer.wrap(data.clone());
+				provider.encryptSymm(policy, key, iv, buffer, 0, data.length, contexts);
+				assertArrayEquals(expected, buffer.array());
+
+				provider.decryptSymm(policy, key, iv, buffer, 0, data.length, contexts);
+				assertArrayEquals(data, buffer.array());
+			}
+
+			int signatureSize = policy.getSymmetricSignatureSize();
+			for (int i = 0; i < 3; i++) {
+				ByteBuffer buffer = ByteBuffer.allocate(data.length + signatureSize);
+				buffer.put(data);
+				provider.signSymm(policy, signingKey, buffer, 0, data.length, data.length, contexts);
+				byte[] signature = new byte[signatureSize];
+				System.arraycopy(buffer.array(), data.length, signature, 0, signatureSize);
+				jce.verifySymm(policy, signingKey, data, 0, data.length, signature);
+				provider.verifySymm(policy, signingKey, buffer, 0, data.length, data.length, contexts);
+			}
+			// An encrypting and a decrypting cipher of each IV, and a mac
+			assertEquals(5, contexts.getPooledCount());
+		}
+	}
+
+	@Test
+	public void buffersAreProcessedInPlace() throws Exception {
+		BcCryptoProvider bc = new BcCryptoProvider();
+		JceCryptoProvider jce = new JceCryptoProvider(Security.getProvider("BC"));
+		SecurityPolicy policy = SecurityPolicy.BASIC256SHA256;
+		int signatureSize = policy.getSymmetricSignatureSize();
+		Random r = new Random(3);
+		byte[] key = new byte[32];
+		byte[] signingKey = new byte[32];
+		byte[] iv = new byte[16];
+		r.nextBytes(key);
+		r.nextBytes(signingKey);
+		r.nextBytes(iv);
+		// 16 bytes of header, then data and signature to encrypt
+		byte[] data = new byte[16 + 128 + signatureSize];
+		r.nextBytes(data);
+		int verifyLen = data.length - signatureSize;
+
+		byte[] expected = data.clone();
+		jce.signSymm(policy, signingKey, expected, 0, verifyLen, expected, verifyLen);
+		byte[] signed = expected.clone();
+		jce.encryptSymm(policy, key, iv, signed, 16, data.length - 16, expected, 16);
+
+		ByteBuffer offsetHeap = ByteBuffer.allocate(data.length + 8);
+		offsetHeap.position(8);
+		for (CryptoProvider sut : new CryptoProvider[] { bc, jce }) {
+			CryptoContexts contexts = new CryptoContexts();
+			for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(data.length),
+					ByteBuffer.allocateDirect(data.length), offsetHeap.slice() }) {
+				buffer.put(data);
+				buffer.position(4);
+				sut.signSymm(policy, signingKey, buffer, 0, verifyLen, verifyLen, contexts);
+				assertEquals(data.length - 16, sut.encryptSymm(policy, key, iv, buffer, 16, data.length - 16, contexts));
+				assertEquals(4, buffer.position());
+				assertEquals(data.length, buffer.limit());
+				assertArrayEquals(expected, toArray(buffer));
+
+				assertEquals(data.length - 16, sut.decryptSymm(policy, key, iv, buffer, 16, data.length - 16, null));
+				assertArrayEquals(signed, toArray(buffer));
+				sut.verifySymm(policy, signingKey, buffer, 0, verifyLen, verifyLen, contexts);
+
+				buffer.put(20, (byte) (buffer.get(20) ^ 1));
+				try {
+					sut.verifySymm(policy, signingKey, buffer, 0, verifyLen, verifyLen, contexts);
+					fail("Expected Bad_SecurityChecksFailed");
+				} catch (ServiceResultException e) {
+					// expected
+				}
+				buffer.clear();
+			}
+		}
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] array = new byte[buffer.limit()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = buffer.get(i);
+		return array;
+	}
+
+	@Test
+	public void ecdsaSignaturesAreInteroperable() throws Exception {
+		BcCryptoProvider sut = new BcCryptoProvider();
+		JceCryptoProvider jce = new JceCryptoProvider(Security.getProvider("BC"));
+		byte[] data = new byte[200];
+		new Random(2).nextBytes(data);
+		for (SecurityPolicy policy : new SecurityPolicy[] { SecurityPolicy.ECC_NISTP256, SecurityPolicy.ECC_NISTP384 }) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", "BC");
+			generator.initialize(new ECGenParameterSpec(EphemeralKey.getCurveName(policy)));
+			java.security.KeyPair keys = generator.generateKeyPair();
+			SecurityAlgorithm algorithm = policy.getAsymmetricSignatureAlgorithm();
+
+			// r | s, each the size of the curve
+			byte[] signature = sut.signAsymm(keys.getPrivate(), algorithm, data);
+			assertEquals(policy.getKeyAgreementAlgorithm().getKeySize() / 4, signature.length);
+			assertTrue(jce.verifyAsymm(keys.getPublic(), algorithm, data, signature));
+
+			signature = jce.signAsymm(keys.getPrivate(), algorithm, data);
+			assertEquals(policy.getKeyAgreementAlgorithm().getKeySize() / 4, signature.length);
+			assertTrue(sut.verifyAsymm(keys.getPublic(), algorithm, data, signature));
+
+			signature[3] ^= 1;
+			assertFalse(sut.verifyAsymm(keys.getPublic(), algorithm, data, signature));
+			assertFalse(jce.verifyAsymm(keys.getPublic(), algorithm, data, signature));
+		}
+	}
+
+	@Test
+	public void ephemeralKeysAgree() throws Exception {
+		new BcCryptoProvider();
+		for (SecurityPolicy policy : new SecurityPolicy[] { SecurityPolicy.ECC_NISTP256, SecurityPolicy.ECC_NISTP384 }) {
+			EphemeralKey client = EphemeralKey.generate(policy);
+			EphemeralKey server = EphemeralKey.generate(policy);
+			assertEquals(policy.getSecureChannelNonceLength(), client.getNonce().getLength());
+			assertArrayEquals(client.agree(server.getNonce()), server.agree(client.getNonce()));
+
+			// A nonce that is not a point of the curve
+			byte[] invalid = server.getNonce().getValue();
+			invalid[invalid.length - 1] ^= 1;
+			try {
+				client.agree(ByteString.valueOf(invalid));
+				fail("Expected Bad_NonceInvalid");
+			} catch (ServiceResultException e) {
+				// expected
+			}
+		}
+	}
+
 }
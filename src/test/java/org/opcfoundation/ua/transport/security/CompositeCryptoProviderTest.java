@@ -0,0 +1,95 @@
+package org.opcfoundation.ua.transport.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.Security;
+
+import org.junit.Test;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+
+public class CompositeCryptoProviderTest {
+
+	/** Provider that counts its symmetric operations */
+	static class CountingProvider extends BcCryptoProvider {
+		int encrypts;
+		int signs;
+
+		@Override
+		public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+				int length, CryptoContexts contexts) throws ServiceResultException {
+			encrypts++;
+			return super.encryptSymm(policy, encryptingKey, iv, buffer, offset, length, contexts);
+		}
+
+		@Override
+		public void signSymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+				int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+			signs++;
+			super.signSymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+		}
+
+		@Override
+		public void verifySymm(SecurityPolicy policy, byte[] key, ByteBuffer buffer, int offset, int length,
+				int signatureOffset, CryptoContexts contexts) throws ServiceResultException {
+			signs++;
+			super.verifySymm(policy, key, buffer, offset, length, signatureOffset, contexts);
+		}
+	}
+
+	/** Provider that does not support symmetric encryption */
+	static class NoEncryptionProvider extends BcCryptoProvider {
+		@Override
+		public int encryptSymm(SecurityPolicy policy, byte[] encryptingKey, byte[] iv, ByteBuffer buffer, int offset,
+				int length, CryptoContexts contexts) throws ServiceResultException {
+			throw new ServiceResultException(StatusCodes.Bad_SecurityPolicyRejected);
+		}
+	}
+
+	@Test
+	public void operationsAreRoutedByAlgorithm() throws Exception {
+		CountingProvider aes = new CountingProvider();
+		CountingProvider other = new CountingProvider();
+		CompositeCryptoProvider sut = new CompositeCryptoProvider(other);
+		sut.setProvider(SecurityAlgorithm.Aes256, aes);
+
+		SecurityPolicy policy = SecurityPolicy.BASIC256SHA256;
+		byte[] key = new byte[32];
+		byte[] iv = new byte[16];
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		sut.encryptSymm(policy, key, iv, buffer, 0, 256, null);
+		sut.signSymm(policy, key, buffer, 0, 224, 224, null);
+		sut.verifySymm(policy, key, buffer, 0, 224, 224, null);
+		assertEquals(1, aes.encrypts);
+		assertEquals(0, aes.signs);
+		assertEquals(0, other.encrypts);
+		assertEquals(2, other.signs);
+
+		// Aes128 uses the default provider
+		sut.encryptSymm(SecurityPolicy.AES128_SHA256_RSAOAEP, new byte[16], iv, buffer, 0, 256, null);
+		assertEquals(1, other.encrypts);
+
+		sut.setProvider(SecurityAlgorithm.Aes256, null);
+		assertSame(other, sut.getProvider(SecurityAlgorithm.Aes256));
+		assertTrue(sut.getProviders().isEmpty());
+	}
+
+	@Test
+	public void benchmarkSkipsFailingProviders() throws Exception {
+		BcCryptoProvider bc = new BcCryptoProvider();
+		JceCryptoProvider jce = new JceCryptoProvider(Security.getProvider("BC"));
+		NoEncryptionProvider noEncryption = new NoEncryptionProvider();
+		CryptoProviderBenchmark benchmark = new CryptoProviderBenchmark(noEncryption, jce);
+		benchmark.setDuration(5);
+		assertEquals(0, benchmark.measure(noEncryption, SecurityAlgorithm.Aes128), 0);
+		assertTrue(benchmark.measure(bc, SecurityAlgorithm.HmacSha256) > 0);
+
+		CompositeCryptoProvider composite = benchmark.select();
+		assertSame(jce, composite.getProvider(SecurityAlgorithm.Aes128));
+		assertSame(jce, composite.getProvider(SecurityAlgorithm.Aes256));
+	}
+
+}
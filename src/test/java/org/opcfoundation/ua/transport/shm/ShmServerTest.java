@@ -0,0 +1,254 @@
+package org.opcfoundation.ua.transport.shm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.ReadValueId;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.transport.AsyncResult;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.CertificateUtils;
+
+/**
+ * Tests the opc.shm transport.
+ */
+public class ShmServerTest {
+
+	/**
+	 * Timeout for all tests in this class.
+	 */
+	@Rule
+	public Timeout timeout = Timeout.seconds(30);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Answers Read with maxAge values, or with Bad_NodeIdUnknown if maxAge is negative.
+	 */
+	public static class ReadHandler {
+		public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) throws ServiceFaultException {
+			int size = req.getRequest().getMaxAge().intValue();
+			if (size < 0)
+				throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_NodeIdUnknown));
+			DataValue[] values = new DataValue[size];
+			for (int i = 0; i < size; i++)
+				values[i] = new DataValue(new Variant(i));
+			req.sendResponse(new ReadResponse(null, values, null));
+		}
+	}
+
+	static KeyPair serverKeys;
+
+	File directory;
+	String url;
+	Application serverApplication;
+	Server server;
+	Client client;
+
+	@BeforeClass
+	public static void createKeys() throws Exception {
+		serverKeys = CertificateUtils.createApplicationInstanceCertificate("ShmServerTest", "Test", "urn:shmservertest", 365, "localhost");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		directory = folder.newFolder("endpoint");
+		url = "opc.shm://" + directory.getAbsolutePath();
+		serverApplication = new Application();
+		serverApplication.addApplicationInstanceCertificate(serverKeys);
+		server = new Server(serverApplication);
+		server.addServiceHandler(new ReadHandler());
+		server.bind(url, url, SecurityMode.NONE);
+		client = new Client(new Application());
+	}
+
+	@After
+	public void tearDown() {
+		serverApplication.close();
+		client.getApplication().close();
+	}
+
+	static ReadRequest read(int size) {
+		return new ReadRequest(new RequestHeader(), (double) size, TimestampsToReturn.Neither, new ReadValueId[0]);
+	}
+
+	@Test
+	public void discoverAndRead() throws Exception {
+		EndpointDescription[] endpoints = client.discoverEndpoints(url);
+		assertEquals(1, endpoints.length);
+		assertEquals(url, endpoints[0].getEndpointUrl());
+		assertEquals(Server.SHM_TRANSPORT_PROFILE_URI, endpoints[0].getTransportProfileUri());
+
+		SecureChannel channel = client.createSecureChannel(url, endpoints[0]);
+		try {
+			assertTrue(channel instanceof ShmSecureChannel);
+			ReadResponse response = (ReadResponse) channel.serviceRequest(read(3));
+			assertEquals(3, response.getResults().length);
+			assertEquals(2, response.getResults()[2].getValue().getValue());
+
+			AsyncResult<?> result = channel.serviceRequestAsync(read(2));
+			assertEquals(2, ((ReadResponse) result.waitForResult()).getResults().length);
+		} finally {
+			channel.close();
+		}
+		assertFalse(channel.isOpen());
+	}
+
+	@Test
+	public void largeMessagesWrapTheRing() throws Exception {
+		SecureChannel channel = client.createSecureChannel(url, url, SecurityMode.NONE, null);
+		try {
+			// Several chunks per message, several messages per ring
+			for (int i = 0; i < 5; i++) {
+				ReadResponse response = (ReadResponse) channel.serviceRequest(read(100000));
+				assertEquals(100000, response.getResults().length);
+				assertEquals(99999, response.getResults()[99999].getValue().getValue());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void channelsHaveFilesOfTheirOwn() throws Exception {
+		SecureChannel channel1 = client.createSecureChannel(url, url, SecurityMode.NONE, null);
+		SecureChannel channel2 = client.createSecureChannel(url, url, SecurityMode.NONE, null);
+		try {
+			assertTrue(channel1.getSecureChannelId() != channel2.getSecureChannelId());
+			assertEquals(1, ((ReadResponse) channel1.serviceRequest(read(1))).getResults().length);
+			assertEquals(2, ((ReadResponse) channel2.serviceRequest(read(2))).getResults().length);
+			assertEquals(2, directory.listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String name) {
+					return name.endsWith(ShmFile.SUFFIX);
+				}
+			}).length);
+		} finally {
+			channel1.close();
+			channel2.close();
+		}
+	}
+
+	@Test
+	public void faultIsThrown() throws Exception {
+		SecureChannel channel = client.createSecureChannel(url, url, SecurityMode.NONE, null);
+		try {
+			channel.serviceRequest(read(-1));
+			fail("Should have thrown");
+		} catch (ServiceFaultException e) {
+			assertEquals(StatusCodes.Bad_NodeIdUnknown, e.getStatusCode().getValue());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void closedServerClosesChannels() throws Exception {
+		SecureChannel channel = client.createSecureChannel(url, url, SecurityMode.NONE, null);
+		serverApplication.close();
+		while (channel.isOpen())
+			Thread.sleep(10);
+		try {
+			channel.serviceRequest(read(1));
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_SecureChannelClosed, e.getStatusCode().getValue());
+		}
+	}
+
+	@Test
+	public void secondServerIsRejected() throws Exception {
+		Application other = new Application();
+		try {
+			new Server(other).bind(url, url, SecurityMode.NONE);
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_ResourceUnavailable, e.getStatusCode().getValue());
+		} finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void ringHasAFence() throws Exception {
+		// Java 8 and later always have Unsafe.fullFence()
+		assertTrue(ShmRing.FULL_FENCE != null || System.getProperty("java.specification.version").matches("1\\.[67]"));
+		assertTrue(ShmRing.isSupported());
+		ShmRing.checkSupported();
+	}
+
+	@Test
+	public void signedChannel() throws Exception {
+		readSecurely(SecurityMode.BASIC256SHA256_SIGN);
+	}
+
+	@Test
+	public void signedAndEncryptedChannel() throws Exception {
+		readSecurely(SecurityMode.BASIC256SHA256_SIGN_ENCRYPT);
+	}
+
+	void readSecurely(SecurityMode mode) throws Exception {
+		String secureUrl = "opc.shm://" + folder.newFolder("secure").getAbsolutePath();
+		server.bind(secureUrl, secureUrl, mode);
+		SecureChannel channel = client.createSecureChannel(secureUrl, secureUrl, mode, serverKeys.getCertificate());
+		try {
+			assertEquals(mode.getMessageSecurityMode(), channel.getMessageSecurityMode());
+			assertEquals(mode.getSecurityPolicy(), channel.getSecurityPolicy());
+			// Several chunks, each signed and padded
+			ReadResponse response = (ReadResponse) channel.serviceRequest(read(50000));
+			assertEquals(50000, response.getResults().length);
+			assertEquals(49999, response.getResults()[49999].getValue().getValue());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void modeOfAnotherEndpointIsRejected() throws Exception {
+		try {
+			client.createSecureChannel(url, url, SecurityMode.BASIC256SHA256_SIGN_ENCRYPT, serverKeys.getCertificate());
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_SecurityModeRejected, e.getStatusCode().getValue());
+		}
+	}
+
+	@Test
+	public void keyAgreementIsRejected() throws Exception {
+		try {
+			client.createSecureChannel(url, url, SecurityMode.ECC_NISTP256_SIGN, serverKeys.getCertificate());
+			fail("Should have thrown");
+		} catch (ServiceResultException e) {
+			assertEquals(StatusCodes.Bad_SecurityPolicyRejected, e.getStatusCode().getValue());
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.opcfoundation.ua.transport.tcp.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.transport.security.EphemeralKey;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
+import org.opcfoundation.ua.transport.security.SecurityConfiguration;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.utils.CertificateUtils;
+
+public class SecurityTokenTest {
+
+	private static KeyPair keys;
+
+	private static byte[] hex(String s) {
+		byte[] result = new byte[s.length() / 2];
+		for (int i = 0; i < result.length; i++)
+			result[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+		return result;
+	}
+
+	@BeforeClass
+	public static void createCertificate() throws Exception {
+		keys = CertificateUtils.createApplicationInstanceCertificate(SecurityPolicy.ECC_NISTP256,
+				"SecurityTokenTest", "Test", "urn:securitytokentest", 365, null);
+	}
+
+	/**
+	 * RFC 5869, test case 1
+	 */
+	@Test
+	public void testHkdfKnownAnswer() throws Exception {
+		byte[] ikm = new byte[22];
+		Arrays.fill(ikm, (byte) 0x0b);
+		byte[] okm = SecurityToken.HKDF(SecurityAlgorithm.HkdfSha256, ikm,
+				hex("000102030405060708090a0b0c"), hex("f0f1f2f3f4f5f6f7f8f9"), 42);
+		assertArrayEquals(hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"), okm);
+	}
+
+	@Test
+	public void testSalt() throws Exception {
+		byte[] salt = SecurityToken.salt("opcua-client", ByteString.valueOf(new byte[] { 1, 2 }),
+				ByteString.valueOf(new byte[] { 3 }), 64);
+		// L is a little endian UInt16
+		assertArrayEquals(hex("4000" + "6f706375612d636c69656e74" + "010203"), salt);
+	}
+
+	@Test
+	public void testKeysOfBothSidesMatch() throws Exception {
+		SecurityConfiguration cfg = new SecurityConfiguration(SecurityMode.ECC_NISTP256_SIGN_ENCRYPT, keys, keys.getCertificate());
+		SecurityPolicy policy = cfg.getSecurityPolicy();
+		EphemeralKey clientKey = EphemeralKey.generate(policy);
+		EphemeralKey serverKey = EphemeralKey.generate(policy);
+		long now = System.currentTimeMillis();
+		SecurityToken client = new SecurityToken(cfg, 1, 1, now, 60000, clientKey, serverKey.getNonce(), true);
+		SecurityToken server = new SecurityToken(cfg, 1, 1, now, 60000, serverKey, clientKey.getNonce(), false);
+
+		assertArrayEquals(client.getLocalSigningKey(), server.getRemoteSigningKey());
+		assertArrayEquals(client.getLocalEncryptingKey(), server.getRemoteEncryptingKey());
+		assertArrayEquals(client.getLocalInitializationVector(), server.getRemoteInitializationVector());
+		assertArrayEquals(client.getRemoteSigningKey(), server.getLocalSigningKey());
+		assertArrayEquals(client.getRemoteEncryptingKey(), server.getLocalEncryptingKey());
+		assertArrayEquals(client.getRemoteInitializationVector(), server.getLocalInitializationVector());
+
+		// The client keys: HKDF of the shared secret, with salt
+		// L | "opcua-client" | client nonce | server nonce as salt and info
+		int length = policy.getSignatureKeySize() + policy.getEncryptionKeySize() + policy.getEncryptionBlockSize();
+		byte[] salt = SecurityToken.salt("opcua-client", clientKey.getNonce(), serverKey.getNonce(), length);
+		byte[] expected = SecurityToken.HKDF(SecurityAlgorithm.HkdfSha256, clientKey.agree(serverKey.getNonce()), salt, salt, length);
+		assertArrayEquals(Arrays.copyOfRange(expected, 0, policy.getSignatureKeySize()), client.getLocalSigningKey());
+		assertArrayEquals(Arrays.copyOfRange(expected, length - policy.getEncryptionBlockSize(), length),
+				client.getLocalInitializationVector());
+	}
+
+}
@@ -0,0 +1,165 @@
+package org.opcfoundation.ua.transport.tcp.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class ChunkWriterTest {
+
+	/**
+	 * Timeout for all tests in this class.
+	 */
+	@Rule
+	public Timeout timeout = Timeout.seconds(10);
+
+	/**
+	 * Records written bytes and the number of write calls.
+	 */
+	static class RecordingChannel implements GatheringByteChannel {
+		final List<Integer> bytes = new ArrayList<Integer>();
+		int writes;
+
+		@Override
+		public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			writes++;
+			long n = 0;
+			for (int i = offset; i < offset + length; i++)
+				while (srcs[i].hasRemaining()) {
+					bytes.add(srcs[i].getInt());
+					n += 4;
+				}
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			return (int) write(new ByteBuffer[] { src });
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	private static ByteBuffer chunk(int value) {
+		ByteBuffer b = ByteBuffer.allocate(4);
+		b.putInt(value);
+		return b;
+	}
+
+	@Test
+	public void writesQueuedChunksInOneWrite() throws Exception {
+		RecordingChannel channel = new RecordingChannel();
+		ChunkWriter writer = new ChunkWriter(channel, null, 1024);
+		writer.enqueue(chunk(1));
+		writer.enqueue(chunk(2));
+		long ticket = writer.enqueue(chunk(3));
+		writer.flush(ticket);
+
+		assertEquals(1, channel.writes);
+		assertEquals(3, channel.bytes.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals(i + 1, channel.bytes.get(i).intValue());
+	}
+
+	@Test
+	public void batchIsCappedByBytes() throws Exception {
+		RecordingChannel channel = new RecordingChannel();
+		ChunkWriter writer = new ChunkWriter(channel, null, 8);
+		long ticket = 0;
+		for (int i = 0; i < 5; i++)
+			ticket = writer.enqueue(chunk(i));
+		writer.flush(ticket);
+
+		assertEquals(3, channel.writes);
+		assertEquals(5, channel.bytes.size());
+	}
+
+	@Test
+	public void reservedChunkBlocksLaterChunks() throws Exception {
+		final RecordingChannel channel = new RecordingChannel();
+		final ChunkWriter writer = new ChunkWriter(channel, null, 1024);
+		final ByteBuffer first = chunk(1);
+		final ByteBuffer second = chunk(2);
+		writer.reserve(first);
+		writer.reserve(second);
+		long ticket = writer.enqueue(chunk(3));
+		new Thread() {
+			@Override
+			public void run() {
+				writer.hatch(second);
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				writer.hatch(first);
+			}
+		}.start();
+		writer.flush(ticket);
+
+		assertEquals(3, channel.bytes.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals(i + 1, channel.bytes.get(i).intValue());
+	}
+
+	@Test(expected = IOException.class)
+	public void abortFailsFlush() throws Exception {
+		ChunkWriter writer = new ChunkWriter(new RecordingChannel(), null, 1024);
+		long ticket = writer.reserve(chunk(1));
+		writer.abort(new IOException("failed"));
+		writer.flush(ticket);
+	}
+
+	@Test
+	public void concurrentFlushKeepsEnqueueOrder() throws Exception {
+		final RecordingChannel channel = new RecordingChannel();
+		final ChunkWriter writer = new ChunkWriter(channel, null, 64 * 1024);
+		final Object enqueueLock = new Object();
+		final int[] counter = new int[1];
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 1000; i++) {
+							long ticket;
+							synchronized (enqueueLock) {
+								ticket = writer.enqueue(chunk(counter[0]++));
+							}
+							writer.flush(ticket);
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+
+		assertEquals(8000, channel.bytes.size());
+		for (int i = 0; i < 8000; i++)
+			assertEquals(i, channel.bytes.get(i).intValue());
+	}
+
+}
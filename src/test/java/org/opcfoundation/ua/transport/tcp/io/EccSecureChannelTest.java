@@ -0,0 +1,92 @@
+package org.opcfoundation.ua.transport.tcp.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.ReadValueId;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.utils.CertificateUtils;
+
+/**
+ * Tests OpenSecureChannel and symmetric messages with the ECC policies.
+ */
+public class EccSecureChannelTest {
+
+	static final String URL = "opc.tcp://localhost:48998/UA";
+
+	/**
+	 * Timeout for all tests in this class.
+	 */
+	@Rule
+	public Timeout timeout = Timeout.seconds(30);
+
+	public static class ReadHandler {
+		public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) {
+			req.sendResponse(new ReadResponse(null, new DataValue[] { new DataValue(new Variant(42)) }, null));
+		}
+	}
+
+	Application serverApplication;
+	Application clientApplication;
+	Server server;
+	Client client;
+
+	@Before
+	public void setUp() throws Exception {
+		serverApplication = new Application();
+		clientApplication = new Application();
+		for (SecurityPolicy policy : new SecurityPolicy[] { SecurityPolicy.ECC_NISTP256, SecurityPolicy.ECC_NISTP384 }) {
+			serverApplication.addApplicationInstanceCertificate(CertificateUtils.createApplicationInstanceCertificate(policy,
+					"EccServer", "Test", "urn:eccsecurechanneltest:server", 365, null, "localhost"));
+			clientApplication.addApplicationInstanceCertificate(CertificateUtils.createApplicationInstanceCertificate(policy,
+					"EccClient", "Test", "urn:eccsecurechanneltest:client", 365, null, "localhost"));
+		}
+		server = new Server(serverApplication);
+		server.addServiceHandler(new ReadHandler());
+		server.bind(URL, URL, SecurityMode.ECC_NISTP256_SIGN, SecurityMode.ECC_NISTP256_SIGN_ENCRYPT,
+				SecurityMode.ECC_NISTP384_SIGN, SecurityMode.ECC_NISTP384_SIGN_ENCRYPT);
+		client = new Client(clientApplication);
+	}
+
+	@After
+	public void tearDown() {
+		if (serverApplication != null)
+			serverApplication.close();
+		if (clientApplication != null)
+			clientApplication.close();
+	}
+
+	@Test
+	public void openAndRead() throws Exception {
+		EndpointDescription[] endpoints = client.discoverEndpoints(URL);
+		assertEquals(4, endpoints.length);
+		for (EndpointDescription endpoint : endpoints) {
+			SecureChannel channel = client.createSecureChannel(URL, endpoint);
+			try {
+				assertEquals(endpoint.getSecurityMode(), channel.getMessageSecurityMode());
+				ReadResponse response = (ReadResponse) channel.serviceRequest(new ReadRequest(new RequestHeader(), 0.0, TimestampsToReturn.Neither, new ReadValueId[0]));
+				assertEquals(42, response.getResults()[0].getValue().getValue());
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+}
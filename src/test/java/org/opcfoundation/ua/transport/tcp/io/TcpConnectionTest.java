@@ -1,5 +1,7 @@
 package org.opcfoundation.ua.transport.tcp.io;
 
+import static org.junit.Assert.assertSame;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
@@ -9,7 +11,10 @@ import org.opcfoundation.ua.core.EndpointDescription;
 import org.opcfoundation.ua.core.MessageSecurityMode;
 import org.opcfoundation.ua.encoding.EncoderContext;
 import org.opcfoundation.ua.transport.ReverseTransportChannelSettings;
+import org.opcfoundation.ua.transport.security.SecurityConfiguration;
+import org.opcfoundation.ua.transport.security.SecurityMode;
 import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
 import org.opcfoundation.ua.utils.EndpointUtil;
 
 public class TcpConnectionTest {
@@ -42,4 +47,24 @@ public class TcpConnectionTest {
 		sut.open();
 	}
 	
+	@Test
+	public void renewedTokenIsUsedOnceReceived() throws Exception {
+		TcpConnection sut = new TcpConnection();
+		SecurityConfiguration cfg = new SecurityConfiguration(SecurityMode.NONE, null, null);
+		long now = System.currentTimeMillis();
+		SecurityToken first = new SecurityToken(cfg, 1, 1, now - 45000, 60000, null, null);
+		SecurityToken renewed = new SecurityToken(cfg, 1, 2, now, 60000, null, null);
+		SecurityToken other = new SecurityToken(cfg, 2, 1, now, 60000, null, null);
+
+		sut.setSendToken(first);
+		sut.setSendToken(other);
+		assertSame(first, sut.sendTokens.get(1));
+		sut.setSendToken(renewed);
+		assertSame(renewed, sut.sendTokens.get(1));
+		// An older token does not replace the renewed one
+		sut.setSendToken(first);
+		assertSame(renewed, sut.sendTokens.get(1));
+		assertSame(other, sut.sendTokens.get(2));
+	}
+	
 }
@@ -0,0 +1,118 @@
+package org.opcfoundation.ua.transport.tcp.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.channels.ServerSocketChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.ReadValueId;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.CertificateUtils;
+import org.opcfoundation.ua.utils.UnixDomainSocketUtil;
+
+/**
+ * Tests opc.tcp over a unix domain socket.
+ */
+public class UnixSocketTest {
+
+	/** Nothing listens to this port, so the client must use the socket file */
+	static final String URL = "opc.tcp://localhost:48999/UA";
+
+	/**
+	 * Timeout for all tests in this class.
+	 */
+	@Rule
+	public Timeout timeout = Timeout.seconds(30);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class ReadHandler {
+		public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) {
+			req.sendResponse(new ReadResponse(null, new DataValue[] { new DataValue(new Variant(42)) }, null));
+		}
+	}
+
+	Application serverApplication;
+	Server server;
+	Client client;
+	File socketFile;
+
+	@Before
+	public void setUp() throws Exception {
+		assumeTrue(UnixDomainSocketUtil.isSupported());
+		socketFile = new File(folder.getRoot(), "ua.sock");
+		serverApplication = new Application();
+		serverApplication.addApplicationInstanceCertificate(CertificateUtils.createApplicationInstanceCertificate("UnixSocketTest", "Test", "urn:unixsockettest", 365, "localhost"));
+		server = new Server(serverApplication);
+		server.addServiceHandler(new ReadHandler());
+		server.bind("opc.tcp+unix://" + socketFile.getAbsolutePath(), URL, SecurityMode.NONE);
+		client = new Client(new Application());
+		client.getApplication().getOpctcpSettings().setUnixSocketPath(socketFile.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() {
+		if (serverApplication != null)
+			serverApplication.close();
+		if (client != null)
+			client.getApplication().close();
+	}
+
+	@Test
+	public void discoverAndRead() throws Exception {
+		assertTrue(socketFile.exists());
+		EndpointDescription[] endpoints = client.discoverEndpoints(URL);
+		assertEquals(1, endpoints.length);
+		assertEquals(URL, endpoints[0].getEndpointUrl());
+
+		SecureChannel channel = client.createSecureChannel(URL, endpoints[0]);
+		try {
+			ReadResponse response = (ReadResponse) channel.serviceRequest(new ReadRequest(new RequestHeader(), 0.0, TimestampsToReturn.Neither, new ReadValueId[0]));
+			assertEquals(42, response.getResults()[0].getValue().getValue());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void socketFileIsRemoved() throws Exception {
+		assertTrue(socketFile.exists());
+		serverApplication.close();
+		assertFalse(socketFile.exists());
+	}
+
+	@Test
+	public void staleSocketFileIsReplaced() throws Exception {
+		serverApplication.close();
+		// Leave a socket file that nothing listens to
+		ServerSocketChannel stale = UnixDomainSocketUtil.openServerSocketChannel();
+		UnixDomainSocketUtil.bind(stale, UnixDomainSocketUtil.toAddress(socketFile.getAbsolutePath()), 0);
+		stale.close();
+		assertTrue(socketFile.exists());
+		setUp();
+		discoverAndRead();
+	}
+
+}
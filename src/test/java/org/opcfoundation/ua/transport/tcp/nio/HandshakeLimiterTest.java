@@ -0,0 +1,88 @@
+package org.opcfoundation.ua.transport.tcp.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link HandshakeLimiter}.
+ */
+public class HandshakeLimiterTest {
+
+  /**
+   * Limiter with a manual clock.
+   */
+  static class TestLimiter extends HandshakeLimiter {
+    long now;
+
+    @Override
+    protected long nanoTime() {
+      return now;
+    }
+  }
+
+  TestLimiter limiter;
+  InetAddress a;
+  InetAddress b;
+
+  @Before
+  public void setUp() throws Exception {
+    limiter = new TestLimiter();
+    limiter.setHandshakesPerSecond(2);
+    limiter.setHandshakeBurst(3);
+    a = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+    b = InetAddress.getByAddress(new byte[] { 10, 0, 0, 2 });
+  }
+
+  @Test
+  public void burstIsLimitedPerAddress() {
+    for (int i = 0; i < 3; i++)
+      assertTrue(limiter.tryAcquire(a));
+    assertFalse(limiter.tryAcquire(a));
+    assertTrue(limiter.tryAcquire(b));
+    assertEquals(4, limiter.getRunningHandshakes());
+  }
+
+  @Test
+  public void bucketIsRefilled() {
+    for (int i = 0; i < 3; i++)
+      assertTrue(limiter.tryAcquire(a));
+    limiter.now += 400000000L;
+    assertFalse(limiter.tryAcquire(a));
+    limiter.now += 100000000L;
+    assertTrue(limiter.tryAcquire(a));
+    assertFalse(limiter.tryAcquire(a));
+    // Not refilled beyond the burst
+    limiter.now += 60000000000L;
+    for (int i = 0; i < 3; i++)
+      assertTrue(limiter.tryAcquire(a));
+    assertFalse(limiter.tryAcquire(a));
+  }
+
+  @Test
+  public void concurrentHandshakesAreLimited() {
+    limiter.setMaxConcurrentHandshakes(2);
+    assertTrue(limiter.tryAcquire(a));
+    assertTrue(limiter.tryAcquire(b));
+    assertFalse(limiter.tryAcquire(null));
+    limiter.release();
+    assertTrue(limiter.tryAcquire(null));
+    assertEquals(2, limiter.getRunningHandshakes());
+  }
+
+  @Test
+  public void leastRecentAddressIsDropped() {
+    limiter.setMaxTrackedAddresses(1);
+    for (int i = 0; i < 3; i++)
+      assertTrue(limiter.tryAcquire(a));
+    assertTrue(limiter.tryAcquire(b));
+    assertEquals(1, limiter.buckets.size());
+    assertTrue(limiter.tryAcquire(a));
+  }
+
+}
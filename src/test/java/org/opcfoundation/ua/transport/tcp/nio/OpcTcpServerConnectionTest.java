@@ -0,0 +1,106 @@
+package org.opcfoundation.ua.transport.tcp.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.ReadValueId;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.security.SecurityPolicy;
+import org.opcfoundation.ua.utils.CertificateUtils;
+
+/**
+ * Tests responses of many chunks, encoded into pooled direct buffers unless
+ * encrypted.
+ */
+public class OpcTcpServerConnectionTest {
+
+	static final String URL = "opc.tcp://localhost:48997/UA";
+
+	static final String[] VALUE = new String[10];
+	static {
+		char[] chars = new char[30000];
+		for (int i = 0; i < VALUE.length; i++) {
+			Arrays.fill(chars, (char) ('a' + i));
+			VALUE[i] = new String(chars);
+		}
+	}
+
+	/**
+	 * Timeout for all tests in this class.
+	 */
+	@Rule
+	public Timeout timeout = Timeout.seconds(60);
+
+	public static class ReadHandler {
+		public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) {
+			req.sendResponse(new ReadResponse(null, new DataValue[] { new DataValue(new Variant(VALUE)) }, null));
+		}
+	}
+
+	Application serverApplication;
+	Application clientApplication;
+	Client client;
+
+	@Before
+	public void setUp() throws Exception {
+		serverApplication = new Application();
+		clientApplication = new Application();
+		SecurityPolicy policy = SecurityPolicy.ECC_NISTP256;
+		serverApplication.addApplicationInstanceCertificate(CertificateUtils.createApplicationInstanceCertificate(policy,
+				"ChunkServer", "Test", "urn:opctcpserverconnectiontest:server", 365, null, "localhost"));
+		clientApplication.addApplicationInstanceCertificate(CertificateUtils.createApplicationInstanceCertificate(policy,
+				"ChunkClient", "Test", "urn:opctcpserverconnectiontest:client", 365, null, "localhost"));
+		Server server = new Server(serverApplication);
+		server.addServiceHandler(new ReadHandler());
+		server.bind(URL, URL, SecurityMode.NONE, SecurityMode.ECC_NISTP256_SIGN, SecurityMode.ECC_NISTP256_SIGN_ENCRYPT);
+		client = new Client(clientApplication);
+	}
+
+	@After
+	public void tearDown() {
+		if (serverApplication != null)
+			serverApplication.close();
+		if (clientApplication != null)
+			clientApplication.close();
+	}
+
+	@Test
+	public void readLargeValues() throws Exception {
+		EndpointDescription[] endpoints = client.discoverEndpoints(URL);
+		assertEquals(3, endpoints.length);
+		for (EndpointDescription endpoint : endpoints) {
+			SecureChannel channel = client.createSecureChannel(URL, endpoint);
+			try {
+				for (int i = 0; i < 3; i++) {
+					ReadResponse response = (ReadResponse) channel.serviceRequest(new ReadRequest(new RequestHeader(), 0.0, TimestampsToReturn.Neither, new ReadValueId[0]));
+					assertArrayEquals(VALUE, (String[]) response.getResults()[0].getValue().getValue());
+				}
+			} finally {
+				channel.close();
+			}
+		}
+		// The chunks of the unencrypted responses have been written and returned
+		assertTrue(OpcTcpServerConnection.CHUNK_POOL.getPooledCount() > 0);
+	}
+
+}
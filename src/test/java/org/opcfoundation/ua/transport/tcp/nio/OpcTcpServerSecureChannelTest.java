@@ -0,0 +1,49 @@
+package org.opcfoundation.ua.transport.tcp.nio;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opcfoundation.ua.transport.security.SecurityConfiguration;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
+
+public class OpcTcpServerSecureChannelTest {
+
+	static class TestChannel extends OpcTcpServerSecureChannel {
+		TestChannel() {
+			super(null, 1);
+		}
+
+		void addToken(SecurityToken token) {
+			tokens.put(token.getTokenId(), token);
+		}
+	}
+
+	@Test
+	public void bothTokensAreAcceptedDuringRenewal() throws Exception {
+		TestChannel sut = new TestChannel();
+		SecurityConfiguration cfg = new SecurityConfiguration(SecurityMode.NONE, null, null);
+		long now = System.currentTimeMillis();
+		SecurityToken first = new SecurityToken(cfg, 1, 1, now - 45000, 60000, null, null);
+		SecurityToken renewed = new SecurityToken(cfg, 1, 2, now, 60000, null, null);
+		sut.addToken(first);
+		sut.setActiveSecurityToken(first);
+		sut.addToken(renewed);
+
+		// The renewed token is not active until the client uses it
+		assertSame(first, sut.getActiveSecurityToken());
+		assertSame(first, sut.getSecurityToken(1));
+		assertSame(renewed, sut.getSecurityToken(2));
+
+		assertTrue(sut.activateSecurityToken(renewed));
+		assertSame(renewed, sut.getActiveSecurityToken());
+		// Messages of the previous token are still accepted, but it does not
+		// become active again
+		assertSame(first, sut.getSecurityToken(1));
+		assertFalse(sut.activateSecurityToken(first));
+		assertSame(renewed, sut.getActiveSecurityToken());
+	}
+
+}
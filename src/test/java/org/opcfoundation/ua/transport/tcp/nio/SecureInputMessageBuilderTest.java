@@ -0,0 +1,123 @@
+package org.opcfoundation.ua.transport.tcp.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.GetEndpointsRequest;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.encoding.EncoderContext;
+import org.opcfoundation.ua.encoding.binary.BinaryEncoder;
+import org.opcfoundation.ua.transport.security.SecurityConfiguration;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.transport.tcp.impl.SecurityToken;
+import org.opcfoundation.ua.transport.tcp.impl.TcpConnectionParameters;
+import org.opcfoundation.ua.transport.tcp.impl.TcpMessageType;
+
+public class SecureInputMessageBuilderTest {
+
+	static final int CHANNEL_ID = 1;
+	static final int TOKEN_ID = 1;
+	static final int REQUEST_ID = 7;
+
+	SecurityToken token;
+	TcpConnectionParameters ctx;
+	CountDownLatch completed;
+	SecureInputMessageBuilder.MessageListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		SecurityConfiguration cfg = new SecurityConfiguration(SecurityMode.NONE, null, null);
+		token = new SecurityToken(cfg, CHANNEL_ID, TOKEN_ID, System.currentTimeMillis(), 60000, null, null);
+		ctx = new TcpConnectionParameters();
+		completed = new CountDownLatch(1);
+		listener = new SecureInputMessageBuilder.MessageListener() {
+			public void onMessageComplete(InputMessage sender) {
+				completed.countDown();
+			}
+		};
+	}
+
+	/**
+	 * Symmetric chunk of security mode None
+	 */
+	static ByteBuffer chunk(int chunkType, int sequenceNumber, byte[] body, int off, int len) {
+		ByteBuffer chunk = ByteBuffer.allocate(24 + len).order(ByteOrder.LITTLE_ENDIAN);
+		chunk.putInt(TcpMessageType.MESSAGE | chunkType);
+		chunk.putInt(24 + len);
+		chunk.putInt(CHANNEL_ID);
+		chunk.putInt(TOKEN_ID);
+		chunk.putInt(sequenceNumber);
+		chunk.putInt(REQUEST_ID);
+		chunk.put(body, off, len);
+		chunk.flip();
+		return chunk;
+	}
+
+	static byte[] encode(GetEndpointsRequest request) throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		BinaryEncoder enc = new BinaryEncoder(buf);
+		enc.setEncoderContext(EncoderContext.getDefaultInstance());
+		enc.putMessage(request);
+		return buf.toByteArray();
+	}
+
+	static void awaitValidated(SecureInputMessageBuilder sut, int count) throws InterruptedException {
+		long t0 = System.currentTimeMillis();
+		while (System.currentTimeMillis() - t0 < 5000) {
+			synchronized (sut) {
+				if (sut.chunksValidated == count) return;
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void messageIsDecodedAfterFinalChunkIsValidated() throws Exception {
+		GetEndpointsRequest request = new GetEndpointsRequest(null, "opc.tcp://localhost:4840", null, null);
+		byte[] body = encode(request);
+		int half = body.length / 2;
+		SecureInputMessageBuilder sut = new SecureInputMessageBuilder(token, listener, ctx, EncoderContext.getDefaultInstance(), null);
+
+		sut.addChunk(chunk(TcpMessageType.CONTINUE, 1, body, 0, half));
+		awaitValidated(sut, 1);
+		// The first chunk alone is not decoded
+		assertFalse(completed.await(100, TimeUnit.MILLISECONDS));
+		assertFalse(sut.isDone());
+		assertTrue(sut.moreChunksRequired());
+
+		sut.addChunk(chunk(TcpMessageType.FINAL, 2, body, half, body.length - half));
+		assertFalse(sut.moreChunksRequired());
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertNull(sut.getError());
+		assertTrue(sut.getMessage() instanceof GetEndpointsRequest);
+		assertEquals(request.getEndpointUrl(), ((GetEndpointsRequest) sut.getMessage()).getEndpointUrl());
+		assertEquals(REQUEST_ID, sut.getRequestId());
+		assertEquals(2, sut.getSequenceNumbers().size());
+	}
+
+	@Test
+	public void messageOverMaxRecvSizeFails() throws Exception {
+		byte[] body = new byte[40];
+		ctx.maxRecvMessageSize = 64;
+		SecureInputMessageBuilder sut = new SecureInputMessageBuilder(token, listener, ctx, EncoderContext.getDefaultInstance(), null);
+
+		sut.addChunk(chunk(TcpMessageType.CONTINUE, 1, body, 0, body.length));
+		sut.addChunk(chunk(TcpMessageType.FINAL, 2, body, 0, body.length));
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertNull(sut.getMessage());
+		assertTrue(sut.getError() instanceof ServiceResultException);
+		assertEquals(StatusCodes.Bad_TcpMessageTooLarge, ((ServiceResultException) sut.getError()).getStatusCode().getValue());
+	}
+
+}
@@ -0,0 +1,142 @@
+package org.opcfoundation.ua.unittests;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opcfoundation.ua.utils.asyncsocket.AsyncSelector;
+import org.opcfoundation.ua.utils.asyncsocket.AsyncSelector.SelectListener;
+
+/**
+ * Measures the throughput of {@link AsyncSelector} under connection churn
+ * and interest op toggling, the load of many short connections and of
+ * frequent OP_WRITE changes.
+ * <p>
+ * In the churn run each thread connects, registers, unregisters and closes
+ * new channels. In the toggle run each thread toggles OP_WRITE on its own
+ * channels. The time is measured until the selector has applied all changes.
+ * <p>
+ * Usage: AsyncSelectorTestBench [threads] [connections per thread] [toggles per thread]
+ */
+public class AsyncSelectorTestBench {
+
+	static final int CHANNELS_PER_THREAD = 16;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int toggles = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+		final ServerSocketChannel ss = ServerSocketChannel.open();
+		ss.socket().bind(new InetSocketAddress("localhost", 0));
+		SocketAddress addr = ss.socket().getLocalSocketAddress();
+		List<SocketChannel> clients = new ArrayList<SocketChannel>();
+		List<SocketChannel> servers = new ArrayList<SocketChannel>();
+		// One extra pair per run, registered last to see when all changes are applied
+		for (int i = 0; i < threads * CHANNELS_PER_THREAD + 2; i++) {
+			SocketChannel c = SocketChannel.open(addr);
+			c.configureBlocking(false);
+			clients.add(c);
+			servers.add(ss.accept());
+		}
+
+		SocketChannel churnMarker = clients.remove(clients.size() - 1);
+		SocketChannel toggleMarker = clients.remove(clients.size() - 1);
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true)
+						ss.accept().close();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		AsyncSelector sel = new AsyncSelector();
+		SelectListener listener = new SelectListener() {
+			@Override
+			public void onSelected(AsyncSelector sender, SelectableChannel channel, int selectOps, int interestOps) {
+			}
+		};
+		try {
+			long ms = run(sel, addr, clients, churnMarker, listener, threads, connections, false);
+			System.out.println("Connect/register/unregister/close: " + rate(threads * (long) connections, ms) + " connections/s");
+
+			for (SocketChannel c : clients)
+				sel.register(c, 0, listener);
+			ms = run(sel, addr, clients, toggleMarker, listener, threads, toggles, true);
+			System.out.println("OP_WRITE toggle: " + rate(threads * (long) toggles, ms) + " toggles/s");
+		} finally {
+			sel.close();
+			for (SocketChannel c : clients)
+				c.close();
+			churnMarker.close();
+			toggleMarker.close();
+			for (SocketChannel c : servers)
+				c.close();
+			ss.close();
+		}
+	}
+
+	static long rate(long count, long ms) {
+		return count * 1000 / Math.max(1, ms);
+	}
+
+	/**
+	 * Run threads that either churn new connections or toggle OP_WRITE on
+	 * their own channels, then register the marker channel.
+	 *
+	 * @return milliseconds until the marker is registered
+	 */
+	static long run(final AsyncSelector sel, final SocketAddress addr, final List<SocketChannel> channels, SocketChannel marker,
+			final SelectListener listener, int threads, final int cycles, final boolean toggle)
+			throws InterruptedException, IOException {
+		long start = System.currentTimeMillis();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final List<SocketChannel> own = channels.subList(t * CHANNELS_PER_THREAD, (t + 1) * CHANNELS_PER_THREAD);
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						if (toggle) {
+							for (int n = 0; n < cycles; n += own.size())
+								for (SocketChannel c : own) {
+									sel.interestOps(c, SelectionKey.OP_WRITE);
+									sel.interestOps(c, ~SelectionKey.OP_WRITE);
+								}
+						} else {
+							for (int n = 0; n < cycles; n++) {
+								SocketChannel c = SocketChannel.open(addr);
+								c.configureBlocking(false);
+								sel.register(c, SelectionKey.OP_READ, listener);
+								sel.unregister(c);
+								c.close();
+							}
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread w : workers)
+			w.join();
+		sel.register(marker, 0, listener);
+		while (marker.keyFor(sel.getSelector()) == null)
+			Thread.yield();
+		return System.currentTimeMillis() - start;
+	}
+
+}
@@ -0,0 +1,132 @@
+ /* ========================================================================
+ * Copyright (c) 2005-2015 The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here:
+ * http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================*/
+
+package org.opcfoundation.ua.unittests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.security.CertificateValidator;
+import org.opcfoundation.ua.transport.security.KeyPair;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.CertificateUtils;
+import org.opcfoundation.ua.utils.EndpointUtil;
+import org.opcfoundation.ua.utils.StackUtils;
+
+/**
+ * Measures the heap retained by an OpcTcpServer per idle secure channel.
+ * <p>
+ * The server runs in this JVM, the clients in a child JVM so that their
+ * memory is not counted. Each client opens one secure channel (SecurityMode
+ * NONE) and leaves it idle. The used heap of the server is compared before
+ * and after the channels are open.
+ * <p>
+ * Usage: IdleChannelFootprintTestBench [channels] [port]
+ */
+public class IdleChannelFootprintTestBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("client")) {
+			openChannels(args[1], Integer.parseInt(args[2]));
+			return;
+		}
+		int channels = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8667;
+		String url = "opc.tcp://localhost:" + port + "/IdleChannelFootprintTestBench";
+
+		KeyPair keys = CertificateUtils.createApplicationInstanceCertificate("Bench", "Bench", "urn:bench:server", 365, "localhost");
+		Application application = new Application();
+		application.addApplicationInstanceCertificate(keys);
+		Server server = new Server(application);
+		server.bind(url, url, SecurityMode.NONE);
+
+		long before = usedHeap();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				IdleChannelFootprintTestBench.class.getName(), "client", url, String.valueOf(channels));
+		pb.redirectErrorStream(true);
+		Process clients = pb.start();
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(clients.getInputStream()));
+			String line;
+			while ((line = in.readLine()) != null && !line.equals("READY"))
+				;
+			if (line == null)
+				throw new IllegalStateException("Clients exited");
+			// Let the server finish the hand-shakes
+			Thread.sleep(2000);
+			long after = usedHeap();
+
+			System.out.println("Idle secure channels: " + channels);
+			System.out.println("Heap before: " + before / 1024 + " KiB");
+			System.out.println("Heap after: " + after / 1024 + " KiB");
+			System.out.println("Bytes per idle secure channel: " + (after - before) / channels);
+		} finally {
+			clients.destroy();
+			server.getApplication().close();
+			StackUtils.shutdown();
+		}
+	}
+
+	static void openChannels(String url, int channels) throws Exception {
+		KeyPair keys = CertificateUtils.createApplicationInstanceCertificate("BenchClient", "Bench", "urn:bench:client", 365, "localhost");
+		Client client = Client.createClientApplication(keys);
+		client.getApplication().getOpctcpSettings().setCertificateValidator(CertificateValidator.ALLOW_ALL);
+		EndpointDescription[] endpoints = client.discoverEndpoints(url);
+		endpoints = EndpointUtil.selectByMessageSecurityMode(endpoints, SecurityMode.NONE.getMessageSecurityMode());
+		List<SecureChannel> open = new ArrayList<SecureChannel>();
+		for (int i = 0; i < channels; i++)
+			open.add(client.createSecureChannel(url, endpoints[0]));
+		System.out.println("READY");
+		System.out.flush();
+		// Keep the channels open until the server destroys this process
+		System.in.read();
+		Thread.sleep(Long.MAX_VALUE);
+	}
+
+	static long usedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(100);
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.opcfoundation.ua.unittests;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.opcfoundation.ua.utils.IncubationQueue;
+
+/**
+ * Measures the throughput of {@link IncubationQueue} in the way chunks of
+ * messages are sent: a message's chunks are incubated in order, hatched
+ * by worker threads in any order, and consumed in order by a thread that
+ * waits for the next chunk.
+ * <p>
+ * Usage: IncubationQueueTestBench [workers] [chunks] [chunks per message]
+ */
+public class IncubationQueueTestBench {
+
+	public static void main(String[] args) throws Exception {
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		final int chunksPerMessage = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (int run = 0; run < 5; run++) {
+				final IncubationQueue<ByteBuffer> q = new IncubationQueue<ByteBuffer>(true);
+				final ByteBuffer[] chunks = new ByteBuffer[count];
+				for (int i = 0; i < count; i++)
+					chunks[i] = ByteBuffer.allocate(0);
+
+				long start = System.nanoTime();
+				Thread producer = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < count; i += chunksPerMessage) {
+							int end = Math.min(count, i + chunksPerMessage);
+							synchronized (q) {
+								for (int j = i; j < end; j++)
+									q.incubate(chunks[j]);
+							}
+							for (int j = i; j < end; j++) {
+								final ByteBuffer chunk = chunks[j];
+								executor.execute(new Runnable() {
+									@Override
+									public void run() {
+										q.hatch(chunk);
+									}
+								});
+							}
+						}
+					}
+				};
+				producer.start();
+				for (int i = 0; i < count; i++)
+					if (q.removeNextHatched() != chunks[i])
+						throw new AssertionError("Chunk " + i + " out of order");
+				producer.join();
+				long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+				System.out.println("Incubate/hatch/remove: " + count * 1000L / ms + " chunks/s");
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.opcfoundation.ua.unittests;
+
+import java.io.File;
+
+import org.opcfoundation.ua.application.Application;
+import org.opcfoundation.ua.application.Client;
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.ReadRequest;
+import org.opcfoundation.ua.core.ReadResponse;
+import org.opcfoundation.ua.core.ReadValueId;
+import org.opcfoundation.ua.core.RequestHeader;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.transport.SecureChannel;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.opcfoundation.ua.transport.security.SecurityMode;
+import org.opcfoundation.ua.utils.CertificateUtils;
+import org.opcfoundation.ua.utils.StackUtils;
+
+/**
+ * Compares the round trip time of a small Read over opc.tcp, over the
+ * in-process opc.local transport, with and without copying of messages, and
+ * over the shared-memory opc.shm transport.
+ * <p>
+ * Usage: LocalTransportTestBench [requests]
+ */
+public class LocalTransportTestBench {
+
+	public static class ReadHandler {
+		public void onRead(EndpointServiceRequest<ReadRequest, ReadResponse> req) {
+			req.sendResponse(new ReadResponse(null, new DataValue[] { new DataValue(new Variant(1)) }, null));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		Application application = new Application();
+		application.addApplicationInstanceCertificate(CertificateUtils.createApplicationInstanceCertificate("bench", "bench", "urn:bench", 365, "localhost"));
+		Server server = new Server(application);
+		server.addServiceHandler(new ReadHandler());
+		String tcpUrl = "opc.tcp://localhost:8766/bench";
+		String localUrl = "opc.local://bench/bench";
+		server.bind(tcpUrl, tcpUrl, SecurityMode.NONE);
+		server.bind(localUrl, localUrl, SecurityMode.NONE);
+		File shmDirectory = File.createTempFile("bench", ".shm");
+		shmDirectory.delete();
+		shmDirectory.mkdir();
+		String shmUrl = "opc.shm://" + shmDirectory.getAbsolutePath();
+		server.bind(shmUrl, shmUrl, SecurityMode.NONE);
+		Client client = new Client(new Application());
+		try {
+			run(client, tcpUrl, requests);
+			run(client, localUrl, requests);
+			application.getOrCreateLocalServer().setCopyMessages(true);
+			run(client, localUrl, requests);
+			run(client, shmUrl, requests);
+		} finally {
+			application.close();
+			new File(shmDirectory, "server.lock").delete();
+			shmDirectory.delete();
+			client.getApplication().close();
+			StackUtils.shutdown();
+		}
+	}
+
+	static void run(Client client, String url, int requests) throws Exception {
+		SecureChannel channel = client.createSecureChannel(url, url, SecurityMode.NONE, null);
+		try {
+			// Warm up
+			for (int i = 0; i < requests / 10; i++)
+				channel.serviceRequest(read());
+			long start = System.nanoTime();
+			for (int i = 0; i < requests; i++)
+				channel.serviceRequest(read());
+			long ns = System.nanoTime() - start;
+			System.out.println(url + ": " + ns / 1000 / requests + " us/request");
+		} finally {
+			channel.close();
+		}
+	}
+
+	static ReadRequest read() {
+		return new ReadRequest(new RequestHeader(), 0.0, TimestampsToReturn.Neither, new ReadValueId[0]);
+	}
+
+}
@@ -109,6 +109,36 @@ public class TestAsyncSelector extends TestCase {
 		ss.close();
 		assertEquals(n, acceptCounter.get()); 			
 	}
+
+	public void testReRegisterAndInterestOps() 
+	throws Exception 
+	{
+		ServerSocketChannel ss = ServerSocketChannel.open();		
+		ss.configureBlocking(false);
+		ss.socket().bind(new InetSocketAddress(0));
+		final Semaphore sem = new Semaphore(0);
+		SelectListener listener = new SelectListener() {
+			@Override
+			public void onSelected(AsyncSelector sender, SelectableChannel channel, int selectOps, int interestOps) {
+				sem.release();
+			}};
+
+		// Changes made before the registration is applied follow it
+		sel.register(ss, 0, listener);
+		sel.unregister(ss);
+		sel.register(ss, 0, listener);
+		sel.interestOps(ss, SelectionKey.OP_ACCEPT);
+		
+		Socket s = new Socket();
+		s.connect(ss.socket().getLocalSocketAddress());
+		try {
+			assertTrue( sem.tryAcquire(10, TimeUnit.SECONDS) );
+		} finally {
+			s.close();
+			sel.unregister(ss);
+			ss.close();
+		}
+	}
 		
 	
 }
@@ -0,0 +1,85 @@
+package org.opcfoundation.ua.unittests;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.opcfoundation.ua.utils.CurrentThreadExecutor;
+import org.opcfoundation.ua.utils.asyncsocket.AsyncSelector;
+import org.opcfoundation.ua.utils.asyncsocket.AsyncServerSocket;
+import org.opcfoundation.ua.utils.asyncsocket.AsyncServerSocket.ConnectListener;
+import org.opcfoundation.ua.utils.asyncsocket.AsyncSocketImpl;
+
+/**
+ * Tests selector assignment of accepted connections in {@link AsyncServerSocket}.
+ */
+public class TestAsyncServerSocket extends TestCase {
+
+	AsyncSelector acceptSel, sel1, sel2;
+	AsyncServerSocket server;
+
+	protected void setUp() throws Exception {
+		acceptSel = new AsyncSelector();
+		sel1 = new AsyncSelector();
+		sel2 = new AsyncSelector();
+	}
+
+	protected void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		acceptSel.close();
+		sel1.close();
+		sel2.close();
+	}
+
+	public void testConnectionsAreSpreadOverSelectors() throws Exception {
+		final int n = 4;
+		Executor executor = CurrentThreadExecutor.INSTANCE;
+		ServerSocketChannel ssc = ServerSocketChannel.open();
+		ssc.configureBlocking(false);
+		server = new AsyncServerSocket(ssc, executor, acceptSel);
+		server.setConnectionSelectors(sel1, sel2);
+		final List<AsyncSocketImpl> accepted = new CopyOnWriteArrayList<AsyncSocketImpl>();
+		final Semaphore sem = new Semaphore(0);
+		server.addListener(new ConnectListener() {
+			@Override
+			public void onConnected(AsyncServerSocket sender, AsyncSocketImpl newConnection) {
+				accepted.add(newConnection);
+				sem.release();
+			}
+		});
+		server.bind(new InetSocketAddress("localhost", 0), 0);
+
+		Socket[] clients = new Socket[n];
+		for (int i = 0; i < n; i++) {
+			clients[i] = new Socket("localhost", ssc.socket().getLocalPort());
+			assertTrue(sem.tryAcquire(10, TimeUnit.SECONDS));
+		}
+
+		// Registrations are applied by the selector threads
+		for (AsyncSocketImpl s : accepted)
+			for (int i = 0; i < 1000 && !s.socketChannel().isRegistered(); i++)
+				Thread.sleep(10);
+		int on1 = 0, on2 = 0;
+		for (AsyncSocketImpl s : accepted) {
+			assertNull(s.socketChannel().keyFor(acceptSel.getSelector()));
+			if (s.socketChannel().keyFor(sel1.getSelector()) != null) on1++;
+			if (s.socketChannel().keyFor(sel2.getSelector()) != null) on2++;
+		}
+		assertEquals(n / 2, on1);
+		assertEquals(n / 2, on2);
+
+		for (Socket c : clients)
+			c.close();
+		for (AsyncSocketImpl s : accepted)
+			s.close();
+	}
+
+}
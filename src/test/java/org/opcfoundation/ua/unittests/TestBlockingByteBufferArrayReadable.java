@@ -0,0 +1,68 @@
+package org.opcfoundation.ua.unittests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import org.opcfoundation.ua.utils.bytebuffer.BlockingByteBufferArrayReadable;
+
+public class TestBlockingByteBufferArrayReadable {
+
+	private static ByteBuffer wrap(int... bytes) {
+		ByteBuffer b = ByteBuffer.allocate(bytes.length);
+		for (int v : bytes)
+			b.put((byte) v);
+		b.flip();
+		return b;
+	}
+
+	@Test
+	public void valuesSpanBuffers() throws Exception {
+		BlockingByteBufferArrayReadable r = new BlockingByteBufferArrayReadable();
+		r.order(ByteOrder.LITTLE_ENDIAN);
+		r.offer(wrap(1, 0, 0));
+		r.offer(wrap());
+		r.offer(wrap(0, 2, 0));
+		r.offer(wrap(3));
+		r.close();
+
+		assertEquals(1, r.getInt());
+		assertEquals(2, r.getShort());
+		assertEquals(3, r.get());
+		assertEquals(7, r.position());
+		assertEquals(7, r.limit());
+	}
+
+	@Test
+	public void readerWaitsForNextBuffer() throws Exception {
+		final BlockingByteBufferArrayReadable r = new BlockingByteBufferArrayReadable();
+		r.order(ByteOrder.LITTLE_ENDIAN);
+		r.offer(wrap(1, 2));
+		assertEquals(Long.MAX_VALUE, r.limit());
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				r.offer(wrap(3, 4));
+				r.close();
+			}
+		}.start();
+
+		assertEquals(0x04030201, r.getInt());
+	}
+
+	@Test(expected = EOFException.class)
+	public void forceCloseDiscardsData() throws Exception {
+		BlockingByteBufferArrayReadable r = new BlockingByteBufferArrayReadable();
+		r.offer(wrap(1, 2, 3, 4));
+		r.forceClose();
+		r.getInt();
+	}
+
+}
@@ -28,10 +28,12 @@
  * ======================================================================*/
 
 package org.opcfoundation.ua.unittests;
+import java.io.ByteArrayOutputStream;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
 import java.util.Arrays;
 
 import static org.junit.Assert.* ;
@@ -40,6 +42,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opcfoundation.ua.utils.bytebuffer.ByteBufferFactory;
 import org.opcfoundation.ua.utils.bytebuffer.ByteQueue;
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
+import org.opcfoundation.ua.utils.bytebuffer.SegmentPool;
 
 
 /**
@@ -552,4 +556,81 @@ public class TestByteQueue {
 		assertTrue(limitHit);			
 	}
 	
+	/**
+	 * Channel that accepts at most 4 bytes per write
+	 */
+	static GatheringByteChannel fourBytesPerWrite(final ByteArrayOutputStream out) {
+		return new GatheringByteChannel() {
+			public int write(ByteBuffer src) {
+				int n = Math.min(4, src.remaining());
+				for (int i=0; i<n; i++) out.write(src.get());
+				return n;
+			}
+			public long write(ByteBuffer[] srcs, int offset, int length) {
+				long n = 0;
+				for (int i=offset; i<offset+length && n<4; i++) {
+					ByteBuffer b = srcs[i];
+					while (b.hasRemaining() && n<4) { out.write(b.get()); n++; }
+				}
+				return n;
+			}
+			public long write(ByteBuffer[] srcs) {
+				return write(srcs, 0, srcs.length);
+			}
+			public boolean isOpen() {
+				return true;
+			}
+			public void close() {
+			}
+		};
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GatheringByteChannel ch = fourBytesPerWrite(out);
+		q.offer(ByteBuffer.wrap(testData, 0, 3));
+		q.offer(ByteBuffer.wrap(testData, 3, 2));
+		q.put(testData, 5, 5);
+		long total = 0;
+		while (q.hasRemaining())
+			total += q.write(ch, 2);
+		assertEquals(len, total);
+		assertEquals(len, q.getBytesRead());
+		assertTrue(Arrays.equals(out.toByteArray(), testData));
+	}
+
+	@Test
+	public void testWriteReleasesSegments() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GatheringByteChannel ch = fourBytesPerWrite(out);
+		SegmentPool pool = new SegmentPool(8, 4, 0, true);
+		Segment s1 = pool.take();
+		Segment s2 = pool.take();
+		assertTrue(s1.getBuffer().isDirect());
+		ByteBuffer b1 = s1.getBuffer();
+		b1.put(testData, 0, 6).flip();
+		ByteBuffer b2 = s2.getBuffer();
+		b2.put(testData, 6, 4).flip();
+		q.offer(b1, s1);
+		q.offer(b2, s2);
+		q.write(ch, 2);
+		assertEquals(1, s1.getRefCount());
+		// Completes b1
+		q.write(ch, 2);
+		assertEquals(0, s1.getRefCount());
+		assertEquals(1, s2.getRefCount());
+		q.write(ch, 2);
+		assertEquals(0, s2.getRefCount());
+		assertEquals(2, pool.getPooledCount());
+		assertTrue(Arrays.equals(out.toByteArray(), testData));
+
+		// Clearing the queue releases the segments too
+		Segment s3 = pool.take();
+		s3.getBuffer().put(testData, 0, 8).flip();
+		q.offer(s3.getBuffer(), s3);
+		q.clear();
+		assertEquals(0, s3.getRefCount());
+	}
+	
 }
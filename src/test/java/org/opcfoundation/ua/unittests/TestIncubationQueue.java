@@ -29,8 +29,10 @@
 
 package org.opcfoundation.ua.unittests;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 import org.opcfoundation.ua.utils.IncubationQueue;
+import org.opcfoundation.ua.utils.bytebuffer.IncubationBuffer;
 
 import junit.framework.TestCase;
 
@@ -246,7 +248,42 @@ public class TestIncubationQueue extends TestCase {
 	
 	public void testIterator()
 	{
-		
+		qi.incubate(a);
+		qi.incubate(b);
+		qi.hatch(a);
+		qi.removeNextHatchedIfAvailable();
+		qi.incubate(c);
+		Iterator<Object> i = qi.iterator();
+		assertEquals(b, i.next());
+		assertEquals(c, i.next());
+		assertFalse(i.hasNext());
+	}
+	
+	public void testConcurrentHatch() throws InterruptedException
+	{
+		final int count = 10000;
+		final Integer[] items = new Integer[count];
+		for (int i=0; i<count; i++) {
+			items[i] = new Integer(i);
+			qi.incubate(items[i]);
+		}
+		// Hatch from several threads, each in its own order
+		final int threads = 4;
+		Thread[] hatchers = new Thread[threads];
+		for (int t=0; t<threads; t++) {
+			final int offset = t;
+			hatchers[t] = new Thread() {
+				public void run() {
+					for (int i=count-1-offset; i>=0; i-=threads) 
+						qi.hatch(items[i]);
+				}
+			};
+		}
+		for (Thread t : hatchers) t.start();
+		for (int i=0; i<count; i++)
+			assertSame(items[i], qi.removeNextHatched());
+		for (Thread t : hatchers) t.join();
+		assertTrue(qi.isEmpty());
 	}
 	
 	public void testContains()
@@ -269,4 +306,32 @@ public class TestIncubationQueue extends TestCase {
 		
 	}
 	
+	public void testBufferAvailableWhileReaderWaits() throws Exception
+	{
+		final IncubationBuffer buf = new IncubationBuffer();
+		final int[] value = new int[] {-2};
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					value[0] = buf.read();
+				} catch (Exception e) {
+				}
+			}
+		};
+		reader.start();
+		Thread.sleep(50);
+		
+		// Reader waits for a buffer, available() does not wait for the reader
+		assertEquals(0, buf.available());
+		ByteBuffer bb = ByteBuffer.wrap(new byte[] {5, 6});
+		buf.incubate(bb);
+		buf.hatch(bb);
+		reader.join(5000);
+		assertEquals(5, value[0]);
+		assertEquals(1, buf.available());
+		buf.close();
+		assertEquals(6, buf.read());
+		assertEquals(-1, buf.read());
+	}
+	
 }
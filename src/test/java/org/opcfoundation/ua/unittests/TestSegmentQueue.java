@@ -0,0 +1,218 @@
+ /* ========================================================================
+ * Copyright (c) 2005-2015 The OPC Foundation, Inc. All rights reserved.
+ *
+ * OPC Foundation MIT License 1.00
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * The complete license agreement can be found here:
+ * http://opcfoundation.org/License/MIT/1.00/
+ * ======================================================================*/
+
+package org.opcfoundation.ua.unittests;
+import static org.junit.Assert.*;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opcfoundation.ua.utils.bytebuffer.Segment;
+import org.opcfoundation.ua.utils.bytebuffer.SegmentPool;
+import org.opcfoundation.ua.utils.bytebuffer.SegmentQueue;
+
+
+/**
+ * Tests {@link SegmentQueue}, {@link SegmentPool} and {@link Segment}.
+ */
+public class TestSegmentQueue {
+
+	byte[] testData = new byte[] {0,1,2,3,4,5,6,7,8,9};
+	SegmentPool pool;
+	SegmentQueue q;
+	
+	@Before
+	public void setUp() throws Exception {
+		pool = new SegmentPool(4, 8);
+		q = new SegmentQueue(pool);
+	}
+
+	/**
+	 * Channel that returns the given bytes, at most max bytes per read
+	 */
+	static ScatteringByteChannel channel(final byte[] data, final int max) {
+		return new ScatteringByteChannel() {
+			int pos;
+			public int read(ByteBuffer dst) {
+				return (int) read(new ByteBuffer[] {dst}, 0, 1);
+			}
+			public long read(ByteBuffer[] dsts, int offset, int length) {
+				if (pos == data.length) return -1;
+				long n = 0;
+				for (int i=offset; i<offset+length; i++) {
+					ByteBuffer b = dsts[i];
+					while (b.hasRemaining() && n<max && pos<data.length) { b.put(data[pos++]); n++; }
+				}
+				return n;
+			}
+			public long read(ByteBuffer[] dsts) {
+				return read(dsts, 0, dsts.length);
+			}
+			public boolean isOpen() {
+				return true;
+			}
+			public void close() {
+			}
+		};
+	}
+	
+	@Test
+	public void testScatterRead() throws Exception {
+		ScatteringByteChannel ch = channel(testData, 3);
+		assertEquals(3, q.read(ch));
+		assertEquals(1, q.getSegmentCount());
+		// Fills the first segment and continues to the next
+		assertEquals(3, q.read(ch));
+		assertEquals(2, q.getSegmentCount());
+		while (q.read(ch) > 0);
+		assertEquals(testData.length, q.getBytesWritten());
+
+		byte[] dada = new byte[testData.length];
+		q.peek(dada);
+		assertTrue(Arrays.equals(testData, dada));
+		q.get(dada, 0, dada.length);
+		assertTrue(Arrays.equals(testData, dada));
+		assertTrue(q.isEmpty());
+		assertEquals(0, q.getSegmentCount());
+		// Three filled segments and the unused one of the last read
+		assertEquals(4, pool.getPooledCount());
+	}
+
+	@Test
+	public void testSliceHoldsSegment() throws Exception {
+		ScatteringByteChannel ch = channel(testData, 10);
+		q.read(ch);
+		List<Segment> retained = new ArrayList<Segment>();
+		ByteBuffer chunk = q.get(3, retained);
+		assertEquals(3, chunk.remaining());
+		assertEquals(0, chunk.get(0));
+		assertEquals(1, retained.size());
+		Segment segment = retained.get(0);
+		assertEquals(2, segment.getRefCount());
+
+		// Queue releases the segment when read, the slice keeps it
+		q.get();
+		assertEquals(1, segment.getRefCount());
+		int pooled = pool.getPooledCount();
+		segment.release();
+		assertEquals(0, segment.getRefCount());
+		assertEquals(pooled + 1, pool.getPooledCount());
+	}
+
+	@Test
+	public void testSpanningGetIsCopy() throws Exception {
+		ScatteringByteChannel ch = channel(testData, 10);
+		while (q.read(ch) > 0);
+		q.get();
+		List<Segment> retained = new ArrayList<Segment>();
+		ByteBuffer chunk = q.get(5, retained);
+		assertTrue(retained.isEmpty());
+		assertEquals(1, chunk.get(0));
+		assertEquals(5, chunk.get(4));
+
+		ByteBuffer[] chunks = q.getChunks(4, retained);
+		assertEquals(2, chunks.length);
+		assertEquals(6, chunks[0].get(0));
+		assertEquals(8, chunks[1].get(0));
+		assertEquals(2, retained.size());
+		for (Segment segment : retained)
+			segment.release();
+		assertEquals(0, q.getSegmentCount());
+		assertEquals(10, q.getBytesRead());
+	}
+
+	@Test(expected = BufferUnderflowException.class)
+	public void testUnderflow() throws Exception {
+		q.read(channel(testData, 2));
+		q.get(3);
+	}
+
+	@Test
+	public void testReleasedSegmentIsPooled() {
+		Segment segment = pool.take();
+		assertSame(segment, segment.retain());
+		segment.release();
+		assertEquals(0, pool.getPooledCount());
+		segment.release();
+		assertEquals(1, pool.getPooledCount());
+		assertSame(segment, pool.take());
+		assertEquals(1, segment.getRefCount());
+		assertEquals(0, segment.getBuffer().position());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReleasedTwice() {
+		Segment segment = pool.take();
+		segment.release();
+		segment.release();
+	}
+
+	@Test
+	public void testIdleSegmentsAreReleased() {
+		SegmentPool idle = new SegmentPool(4, 8);
+		Segment a = idle.take();
+		Segment b = idle.take();
+		Segment c = idle.take();
+		a.release();
+		b.release();
+		c.release();
+		// The segments were in use during the period
+		assertEquals(0, idle.releaseIdle());
+		assertEquals(3, idle.getPooledCount());
+		// One segment is used during the next period, two stay idle
+		idle.take().release();
+		assertEquals(2, idle.releaseIdle());
+		assertEquals(1, idle.getPooledCount());
+		assertEquals(1, idle.releaseIdle());
+		assertEquals(0, idle.getPooledCount());
+	}
+
+	@Test
+	public void testPoolIsBounded() {
+		SegmentPool small = new SegmentPool(4, 1);
+		Segment a = small.take();
+		Segment b = small.take();
+		a.release();
+		b.release();
+		assertEquals(1, small.getPooledCount());
+		// No longer in use, cannot be retained
+		try {
+			b.retain();
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+	}
+	
+}